@@ -0,0 +1,158 @@
+package com.example.roadsigndetector.benchmark;
+
+import com.example.roadsigndetector.data.RoadSignLabel;
+import com.example.roadsigndetector.ml.DetectionPostProcessor;
+import com.example.roadsigndetector.ml.ScoreUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark przetwarzania wyników: argmax/top-k klasyfikatora oraz filtrowanie
+ * i mapowanie wykryć, a także dekodowanie surowych wyjść SSD i NMS (DetectionPostProcessor)
+ * dla różnej liczby kandydatów.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class PostprocessingBenchmark {
+
+    private static final float SCORE_THRESHOLD = 0.5f;
+
+    @Param({"10", "100", "1917"})
+    public int candidates;
+
+    private float[] scores;
+    private float[] classes;
+    private float[] locations;
+    private int[] keptIndices;
+    private float[] keptBoxes;
+    private int[] topIndices;
+    private float[] topScores;
+
+    // Surowe wyjście SSD: kodowanie ramek, logity klas (z tłem) i kotwice
+    private float[] boxes;
+    private float[] encodings;
+    private float[] logits;
+    private float[] anchors;
+    private DetectionPostProcessor postProcessor;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        scores = new float[candidates];
+        classes = new float[candidates];
+        locations = new float[candidates * 4];
+        for (int i = 0; i < candidates; i++) {
+            scores[i] = random.nextFloat();
+            classes[i] = random.nextInt(RoadSignLabel.detectLabels.length);
+            for (int k = 0; k < 4; k++) {
+                locations[i * 4 + k] = random.nextFloat();
+            }
+        }
+        keptIndices = new int[candidates];
+        keptBoxes = new float[candidates * 4];
+        topIndices = new int[5];
+        topScores = new float[5];
+
+        // Poprawne ramki (ymin < ymax, xmin < xmax), skupione tak, by NMS miał co tłumić
+        boxes = new float[candidates * 4];
+        for (int i = 0; i < candidates; i++) {
+            float cy = 0.2f + random.nextFloat() * 0.6f;
+            float cx = 0.2f + random.nextFloat() * 0.6f;
+            float half = 0.02f + random.nextFloat() * 0.15f;
+            boxes[i * 4] = cy - half;
+            boxes[i * 4 + 1] = cx - half;
+            boxes[i * 4 + 2] = cy + half;
+            boxes[i * 4 + 3] = cx + half;
+        }
+
+        int classCount = RoadSignLabel.detectLabels.length;
+        float[] allAnchors = DetectionPostProcessor.generateSsdAnchors(300, 300);
+        anchors = Arrays.copyOf(allAnchors, candidates * 4);
+        encodings = new float[candidates * 4];
+        logits = new float[candidates * (classCount + 1)];
+        for (int i = 0; i < encodings.length; i++) {
+            encodings[i] = (float) random.nextGaussian();
+        }
+        for (int i = 0; i < logits.length; i++) {
+            logits[i] = -6f + random.nextFloat() * 7f;
+        }
+        postProcessor = new DetectionPostProcessor(classCount, 25, 300, SCORE_THRESHOLD);
+    }
+
+    @Benchmark
+    public int argmax() {
+        return ScoreUtils.argmax(scores, 0, candidates);
+    }
+
+    @Benchmark
+    public int[] topK() {
+        ScoreUtils.topK(scores, 0, candidates, topIndices.length, topIndices, topScores, 0);
+        return topIndices;
+    }
+
+    /**
+     * Pierwotne podejście: osobny float[] dla każdej ramki.
+     */
+    @Benchmark
+    public void filterAndMapCopying(Blackhole blackhole) {
+        for (int i = 0; i < candidates; i++) {
+            if (scores[i] > SCORE_THRESHOLD) {
+                int classIndex = (int) classes[i];
+                if (classIndex >= RoadSignLabel.detectLabels.length) {
+                    continue;
+                }
+                blackhole.consume(RoadSignLabel.detectLabels[classIndex]);
+                blackhole.consume(Arrays.copyOfRange(locations, i * 4, i * 4 + 4));
+            }
+        }
+    }
+
+    /**
+     * Filtrowanie do tablicy indeksów i kopiowanie ramek do jednej płaskiej tablicy.
+     */
+    @Benchmark
+    public int filterAndMapFlat() {
+        int kept = ScoreUtils.filterDetections(scores, classes, candidates, SCORE_THRESHOLD,
+                RoadSignLabel.detectLabels.length, keptIndices);
+        for (int k = 0; k < kept; k++) {
+            System.arraycopy(locations, keptIndices[k] * 4, keptBoxes, k * 4, 4);
+        }
+        return kept;
+    }
+
+    /**
+     * Progi klas i NMS dla ramek już zdekodowanych.
+     */
+    @Benchmark
+    public int nmsDecoded() {
+        return postProcessor.processDecoded(boxes, classes, scores, candidates);
+    }
+
+    /**
+     * Dekodowanie surowego wyjścia SSD względem kotwic, progi w przestrzeni logitów i NMS.
+     */
+    @Benchmark
+    public int decodeSsdWithNms() {
+        return postProcessor.decodeSsd(encodings, logits, candidates, RoadSignLabel.detectLabels.length + 1,
+                1, true, anchors);
+    }
+}
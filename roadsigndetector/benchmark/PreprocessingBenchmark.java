@@ -0,0 +1,146 @@
+package com.example.roadsigndetector.benchmark;
+
+import com.example.roadsigndetector.ml.PixelConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark konwersji pikseli ARGB do tensora wejściowego (JMH, zwykła JVM).
+ * Porównuje pierwotne podejście (putFloat dla każdej składowej) z zapisem
+ * całych wierszy, zapisem całego obrazu i ścieżką kwantyzowaną.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class PreprocessingBenchmark {
+
+    @Param({"224", "300", "320", "640"})
+    public int size;
+
+    private int[] pixels;
+    private ByteBuffer floatBuffer;
+    private FloatBuffer floatView;
+    private float[] floatRow;
+    private float[] floatImage;
+    private ByteBuffer byteBuffer;
+    private byte[] byteRow;
+    private byte[] quantizedLut;
+
+    @Setup
+    public void setUp() {
+        pixels = new int[size * size];
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+
+        floatBuffer = ByteBuffer.allocateDirect(4 * size * size * PixelConverter.PIXEL_SIZE);
+        floatBuffer.order(ByteOrder.nativeOrder());
+        floatView = floatBuffer.asFloatBuffer();
+        floatRow = new float[size * PixelConverter.PIXEL_SIZE];
+        floatImage = new float[size * size * PixelConverter.PIXEL_SIZE];
+
+        byteBuffer = ByteBuffer.allocateDirect(size * size * PixelConverter.PIXEL_SIZE);
+        byteRow = new byte[size * PixelConverter.PIXEL_SIZE];
+        quantizedLut = PixelConverter.buildQuantizationLut(false, 1 / 255.0f, 0);
+    }
+
+    /**
+     * Pierwotna implementacja: dzielenie i putFloat dla każdej składowej.
+     */
+    @Benchmark
+    public ByteBuffer perPixelPutFloat() {
+        floatBuffer.rewind();
+        int pixelIndex = 0;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                final int val = pixels[pixelIndex++];
+                floatBuffer.putFloat(((val >> 16) & 0xFF) / 255.0f);
+                floatBuffer.putFloat(((val >> 8) & 0xFF) / 255.0f);
+                floatBuffer.putFloat((val & 0xFF) / 255.0f);
+            }
+        }
+        return floatBuffer;
+    }
+
+    /**
+     * Zapis wierszami przez FloatBuffer, normalizacja dzieleniem.
+     */
+    @Benchmark
+    public FloatBuffer bulkRowDivision() {
+        floatView.rewind();
+        int pixelIndex = 0;
+        for (int i = 0; i < size; i++) {
+            int k = 0;
+            for (int j = 0; j < size; j++) {
+                final int val = pixels[pixelIndex++];
+                floatRow[k++] = ((val >> 16) & 0xFF) / 255.0f;
+                floatRow[k++] = ((val >> 8) & 0xFF) / 255.0f;
+                floatRow[k++] = (val & 0xFF) / 255.0f;
+            }
+            floatView.put(floatRow);
+        }
+        return floatView;
+    }
+
+    /**
+     * Implementacja produkcyjna: zapis wierszami, normalizacja przez tablicę przejść.
+     */
+    @Benchmark
+    public FloatBuffer bulkRowLut() {
+        floatView.rewind();
+        PixelConverter.argbToFloat(pixels, size, size, floatView, floatRow);
+        return floatView;
+    }
+
+    /**
+     * Osobne pętle dla składowych (mnożenie zamiast dzielenia) i jeden zapis całego obrazu.
+     * Pętle bez zależności między iteracjami dają JIT szansę na wektoryzację.
+     */
+    @Benchmark
+    public FloatBuffer wholeImageVectorizable() {
+        final float scale = 1 / 255.0f;
+        final int count = size * size;
+        for (int i = 0; i < count; i++) {
+            floatImage[3 * i] = ((pixels[i] >> 16) & 0xFF) * scale;
+        }
+        for (int i = 0; i < count; i++) {
+            floatImage[3 * i + 1] = ((pixels[i] >> 8) & 0xFF) * scale;
+        }
+        for (int i = 0; i < count; i++) {
+            floatImage[3 * i + 2] = (pixels[i] & 0xFF) * scale;
+        }
+        floatView.rewind();
+        floatView.put(floatImage);
+        return floatView;
+    }
+
+    /**
+     * Ścieżka dla modeli kwantyzowanych (uint8).
+     */
+    @Benchmark
+    public ByteBuffer quantizedLut() {
+        byteBuffer.rewind();
+        PixelConverter.argbToQuantized(pixels, size, size, byteBuffer, quantizedLut, byteRow);
+        return byteBuffer;
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.roadsigndetector.camera;
+
+import android.content.Context;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+import com.example.roadsigndetector.ml.AdaptiveGovernor;
+
+/**
+ * Odczytuje stan termiczny, tryb oszczędzania energii i poziom baterii
+ * i przekazuje je do AdaptiveGovernor. Odczyt jest tani, ale wymaga wywołań systemowych,
+ * więc FrameProcessor odświeża go co kilka sekund, a nie na każdej klatce.
+ */
+public class DeviceStateMonitor {
+
+    private static final int LOW_BATTERY_PERCENT = 20;
+
+    private final PowerManager powerManager;
+    private final BatteryManager batteryManager;
+
+    public DeviceStateMonitor(Context context) {
+        powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+    }
+
+    /**
+     * Odczytuje bieżący stan urządzenia i ustawia go w regulatorze.
+     */
+    public void update(AdaptiveGovernor governor) {
+        int thermalStatus = AdaptiveGovernor.THERMAL_NONE;
+        boolean powerSave = false;
+        if (powerManager != null) {
+            // Stan termiczny jest dostępny od Androida 10; wcześniej tylko tryb oszczędzania
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                thermalStatus = powerManager.getCurrentThermalStatus();
+            }
+            powerSave = powerManager.isPowerSaveMode();
+        }
+
+        boolean batteryLow = false;
+        if (batteryManager != null) {
+            int capacity = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+            batteryLow = !batteryManager.isCharging() && capacity > 0 && capacity <= LOW_BATTERY_PERCENT;
+        }
+        governor.setDeviceState(thermalStatus, powerSave, batteryLow);
+    }
+}
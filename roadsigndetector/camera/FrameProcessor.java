@@ -0,0 +1,388 @@
+package com.example.roadsigndetector.camera;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.roadsigndetector.ml.AdaptiveGovernor;
+import com.example.roadsigndetector.ml.DetectionResult;
+import com.example.roadsigndetector.ml.FrameRecorder;
+import com.example.roadsigndetector.ml.InferenceMetrics;
+import com.example.roadsigndetector.ml.InferenceService;
+import com.example.roadsigndetector.ml.Nv21Frame;
+import com.example.roadsigndetector.ml.ObjectTracker;
+import com.example.roadsigndetector.ml.RoadSignDetector;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Przetwarza klatki podglądu kamery na osobnym wątku.
+ * Przechowuje tylko najnowszą klatkę - klatki, które nie zdążyły trafić do detektora,
+ * są odrzucane, a ich bufory wracają do kamery. Detekcja z doprecyzowaniem ograniczeń prędkości
+ * jest zlecana InferenceService (wspólnej z galerią), a wątek czeka na jej wynik. Jeśli podano tracker, pełna detekcja
+ * uruchamiana jest tylko co kilka klatek, a pomiędzy nimi ramki są przesuwane przez tracker.
+ * Opcjonalny AdaptiveGovernor dobiera ten odstęp, skalę wejścia i liczbę wątków detektorów usługi
+ * do zmierzonego czasu detekcji i stanu urządzenia.
+ * Opcjonalny FrameRecorder zapisuje pobrane klatki i wyniki do odtworzenia poza urządzeniem
+ * (po pełnej detekcji - wynik kaskady przed trackerem).
+ */
+public class FrameProcessor {
+
+    private static final String TAG = "FrameProcessor";
+    private static final long DEVICE_UPDATE_NANOS = 2_000_000_000L; // Odświeżanie stanu termicznego i baterii
+
+    /**
+     * Odbiorca wyników detekcji - wywoływany na wątku UI.
+     * Wynik pochodzi z puli - po użyciu odbiorca oddaje go przez DetectionResult.recycle().
+     */
+    public interface Listener {
+        void onDetections(DetectionResult detections, long latencyMs);
+    }
+
+    /**
+     * Zwraca bufor klatki do kamery (Camera.addCallbackBuffer).
+     */
+    public interface BufferRecycler {
+        void recycle(byte[] buffer);
+    }
+
+    private final InferenceService service;
+    private final ObjectTracker tracker;
+    private final int frameWidth;
+    private final int frameHeight;
+    private final int rotation;
+    private final BufferRecycler recycler;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Object lock = new Object();
+    private byte[] pendingFrame;
+    private long pendingTimestamp;
+    private boolean running;
+    private Thread worker;
+
+    // FPS, odrzucone klatki i opóźnienie od otrzymania klatki do wyniku
+    private final InferenceMetrics metrics = new InferenceMetrics();
+
+    // Klatka przekazywana do kaskady bez konwersji do Bitmap
+    private final Nv21Frame nv21Frame = new Nv21Frame();
+
+    // Regulator obciążenia (opcjonalny); stan używany tylko przez wątek inferencji
+    private AdaptiveGovernor governor;
+    private DeviceStateMonitor deviceMonitor;
+    private long lastDeviceUpdate;
+    private long droppedAtLastDetection;
+    private int framesSinceDetection; // Klatki pobrane z kolejki od ostatniej detekcji
+    private final AtomicBoolean reconfiguring = new AtomicBoolean();
+
+    // Nagrywanie sesji (opcjonalne); używane tylko przez wątek inferencji
+    private FrameRecorder recorder;
+
+    /**
+     * @param tracker tracker pomiędzy detekcjami; null - detekcja na każdej klatce
+     */
+    public FrameProcessor(InferenceService service, ObjectTracker tracker, int frameWidth, int frameHeight,
+                          int rotation, BufferRecycler recycler, Listener listener) {
+        this.service = service;
+        this.tracker = tracker;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.rotation = rotation;
+        this.recycler = recycler;
+        this.listener = listener;
+    }
+
+    /**
+     * Włącza regulację obciążenia; wywoływać przed start(). deviceMonitor może być null.
+     */
+    public void setGovernor(AdaptiveGovernor governor, DeviceStateMonitor deviceMonitor) {
+        this.governor = governor;
+        this.deviceMonitor = deviceMonitor;
+    }
+
+    /**
+     * Włącza nagrywanie klatek pobranych przez wątek inferencji i ich wyników; wywoływać przed start().
+     * Nagranie zamyka właściciel po stop().
+     */
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Rozmiar bufora (w bajtach) potrzebny dla jednej klatki NV21.
+     */
+    public static int frameBufferSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * Uruchamia wątek inferencji.
+     */
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    processLoop();
+                }
+            }, TAG);
+            worker.start();
+        }
+    }
+
+    /**
+     * Przekazuje nową klatkę. Jeśli poprzednia klatka nie została jeszcze pobrana
+     * przez wątek inferencji, zostaje odrzucona.
+     */
+    public void submit(byte[] frame) {
+        byte[] stale = null;
+        synchronized (lock) {
+            if (!running) {
+                stale = frame;
+            } else {
+                if (pendingFrame != null) {
+                    stale = pendingFrame;
+                    metrics.frameDropped();
+                }
+                pendingFrame = frame;
+                pendingTimestamp = System.nanoTime();
+                lock.notify();
+            }
+        }
+        if (stale != null) {
+            recycler.recycle(stale);
+        }
+    }
+
+    /**
+     * Zatrzymuje wątek inferencji i czeka na zakończenie bieżącej klatki.
+     */
+    public void stop() {
+        Thread toJoin;
+        byte[] stale;
+        synchronized (lock) {
+            running = false;
+            stale = pendingFrame;
+            pendingFrame = null;
+            toJoin = worker;
+            worker = null;
+            lock.notify();
+        }
+        if (stale != null) {
+            recycler.recycle(stale);
+        }
+        if (toJoin != null) {
+            try {
+                toJoin.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * Liczba klatek odrzuconych, bo detektor nie nadążał.
+     */
+    public long getDroppedFrames() {
+        return metrics.getDroppedFrames();
+    }
+
+    /**
+     * Pomiary całego potoku: FPS, odrzucone klatki, opóźnienie END_TO_END.
+     */
+    public InferenceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Przenosi ustawienia regulatora na tracker i detektory usługi. Zmiana liczby wątków wymaga
+     * nowego interpretera, więc odbywa się na osobnym wątku, a detektor podmienia go między klatkami.
+     */
+    private void adjustWorkload() {
+        final List<RoadSignDetector> detectors = service.getDetectors();
+        long now = System.nanoTime();
+        if (deviceMonitor != null && now - lastDeviceUpdate >= DEVICE_UPDATE_NANOS) {
+            lastDeviceUpdate = now;
+            deviceMonitor.update(governor);
+            governor.setInputScalable(detectors.get(0).supportsInputResize());
+        }
+
+        if (tracker != null) {
+            tracker.setDetectionInterval(governor.getFrameSkip());
+        }
+        float inputScale = governor.getInputScale();
+        for (RoadSignDetector detector : detectors) {
+            detector.setInputScale(inputScale);
+        }
+
+        final int threads = governor.getNumThreads();
+        if (threads != detectors.get(0).getNumThreads() && reconfiguring.compareAndSet(false, true)) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (RoadSignDetector detector : detectors) {
+                            detector.setNumThreads(threads);
+                        }
+                    } finally {
+                        reconfiguring.set(false);
+                    }
+                }
+            }, TAG + "-Reconfigure").start();
+        }
+    }
+
+    private void processLoop() {
+        while (true) {
+            byte[] frame;
+            long timestamp;
+            synchronized (lock) {
+                while (running && pendingFrame == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                frame = pendingFrame;
+                timestamp = pendingTimestamp;
+                pendingFrame = null;
+            }
+            recordFrame(frame, timestamp);
+
+            if (governor != null) {
+                adjustWorkload();
+                framesSinceDetection++;
+                // Bez trackera pominięte klatki nie dają wyniku - nakładka pokazuje poprzedni
+                if (tracker == null && framesSinceDetection < governor.getFrameSkip()) {
+                    recycler.recycle(frame);
+                    continue;
+                }
+            }
+
+            final DetectionResult detections;
+            long resultStart = System.nanoTime();
+            if (tracker != null && !tracker.shouldRunDetector()) {
+                // Klatka bez detekcji - tylko przesunięcie śledzonych ramek
+                recycler.recycle(frame);
+                tracker.predict();
+                detections = DetectionResult.obtain();
+                tracker.getDetections(detections);
+                recordDetections(timestamp, System.nanoTime() - resultStart, false, detections);
+            } else {
+                // Klatka NV21 trafia do tensora bezpośrednio; bufor wraca do kamery po kaskadzie,
+                // bo wycinki ograniczeń prędkości są pobierane z tej samej klatki
+                nv21Frame.set(frame, frameWidth, frameHeight, rotation);
+                DetectionResult frameDetections;
+                try {
+                    frameDetections = awaitResult(service.process(nv21Frame, tracker, null));
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Błąd detekcji klatki: " + e.getCause().getMessage());
+                    continue;
+                } catch (RuntimeException e) {
+                    // Kolejka usługi pełna albo usługa zamknięta - klatka jest pomijana
+                    Log.e(TAG, "Błąd detekcji klatki: " + e.getMessage());
+                    continue;
+                } finally {
+                    nv21Frame.data = null;
+                    recycler.recycle(frame);
+                }
+                // Nagranie dostaje surowy wynik kaskady (przed wygładzeniem trackera) i czas samej kaskady,
+                // żeby ReplayDriver porównywał je z odtworzeniem tej samej kaskady
+                recordDetections(timestamp, System.nanoTime() - resultStart, true, frameDetections);
+                if (tracker != null) {
+                    tracker.update(frameDetections);
+                    detections = DetectionResult.obtain();
+                    tracker.getDetections(detections);
+                    frameDetections.recycle();
+                } else {
+                    detections = frameDetections;
+                }
+                if (governor != null) {
+                    // Pojedyncza odrzucona klatka po dłuższej detekcji jest normalna; zaległość to
+                    // więcej odrzuconych niż przetworzonych klatek od poprzedniej detekcji
+                    long dropped = metrics.getDroppedFrames();
+                    boolean backlog = dropped - droppedAtLastDetection > framesSinceDetection;
+                    governor.onDetection(System.nanoTime() - resultStart, backlog);
+                    droppedAtLastDetection = dropped;
+                    framesSinceDetection = 0;
+                }
+            }
+            long now = System.nanoTime();
+            metrics.record(InferenceMetrics.Stage.END_TO_END, now - timestamp);
+            metrics.frameCompleted(now);
+            final long latencyMs = (now - timestamp) / 1_000_000L;
+
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onDetections(detections, latencyMs);
+                }
+            });
+        }
+    }
+
+    /**
+     * Czeka na wynik zlecenia także po przerwaniu wątku - bufor klatki nie może wrócić do kamery,
+     * dopóki kaskada z niego czyta. Przerwanie jest przywracane po zakończeniu zadania.
+     */
+    private static DetectionResult awaitResult(Future<DetectionResult> task) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Dopisuje klatkę do nagrania; błąd zapisu wyłącza nagrywanie, ale nie przerywa detekcji.
+     */
+    private void recordFrame(byte[] frame, long timestamp) {
+        if (recorder == null) {
+            return;
+        }
+        nv21Frame.set(frame, frameWidth, frameHeight, rotation);
+        try {
+            recorder.writeFrame(nv21Frame, timestamp);
+        } catch (IOException e) {
+            Log.e(TAG, "Błąd zapisu nagrania: " + e.getMessage());
+            recorder = null;
+        } finally {
+            nv21Frame.data = null;
+        }
+    }
+
+    private void recordDetections(long timestamp, long latencyNanos, boolean detectorRan,
+                                  DetectionResult detections) {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.writeDetections(timestamp, latencyNanos, detectorRan, detections);
+        } catch (IOException e) {
+            Log.e(TAG, "Błąd zapisu nagrania: " + e.getMessage());
+            recorder = null;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.roadsigndetector.ml;
+
+import java.util.Locale;
+
+/**
+ * Regulator obciążenia potoku: na podstawie zmierzonego czasu detekcji, zaległości w kolejce klatek
+ * oraz stanu termicznego i baterii dobiera co którą klatkę uruchamiać detektor, skalę wejścia
+ * detektora (dla modeli o zmiennym rozmiarze wejścia) i liczbę wątków interpretera,
+ * tak by utrzymać zadany budżet czasu.
+ * Zmiany są stopniowe i z histerezą: pogorszenie po kilku klatkach ponad budżetem,
+ * poprawa dopiero po dłuższym okresie wyraźnie poniżej budżetu.
+ * Bez zależności od Androida - stan urządzenia dostarcza DeviceStateMonitor.
+ */
+public class AdaptiveGovernor {
+
+    // Poziomy termiczne zgodne z PowerManager.THERMAL_STATUS_*
+    public static final int THERMAL_NONE = 0;
+    public static final int THERMAL_LIGHT = 1;
+    public static final int THERMAL_MODERATE = 2;
+    public static final int THERMAL_SEVERE = 3;
+
+    // Kolejne skale wejścia detektora (1 - rozmiar natywny modelu)
+    private static final float[] INPUT_SCALES = {1f, 0.8f, 0.64f};
+    private static final float LATENCY_SMOOTHING = 0.2f; // Waga nowego pomiaru w średniej wykładniczej
+    private static final float OVER_BUDGET = 1.1f;       // Powyżej budżet * 1.1 - odciążenie
+    private static final float UNDER_BUDGET = 0.7f;      // Poniżej budżet * 0.7 - powrót do jakości
+    private static final int DEGRADE_FRAMES = 5;         // Tyle detekcji ponad budżetem przed zmianą
+    private static final int RECOVER_FRAMES = 30;        // Tyle detekcji poniżej budżetu przed zmianą
+
+    private final long budgetNanos;
+    private final int minFrameSkip;
+    private final int maxFrameSkip;
+    private final int maxThreads;
+    private boolean inputScalable;
+
+    // Stan regulatora sterowany czasem detekcji
+    private float smoothedNanos = -1f;
+    private int framesOver;
+    private int framesUnder;
+    private int frameSkip;
+    private int scaleIndex;
+
+    // Stan urządzenia
+    private int thermalStatus = THERMAL_NONE;
+    private boolean powerSave;
+    private boolean batteryLow;
+
+    /**
+     * @param budgetMs     docelowy czas jednej detekcji (ms)
+     * @param minFrameSkip odstęp (w klatkach) pomiędzy detekcjami przy pełnej jakości
+     * @param maxFrameSkip największy odstęp pomiędzy detekcjami
+     * @param maxThreads   liczba wątków interpretera przy chłodnym urządzeniu
+     */
+    public AdaptiveGovernor(long budgetMs, int minFrameSkip, int maxFrameSkip, int maxThreads) {
+        this.budgetNanos = budgetMs * 1_000_000L;
+        this.minFrameSkip = Math.max(1, minFrameSkip);
+        this.maxFrameSkip = Math.max(this.minFrameSkip, maxFrameSkip);
+        this.maxThreads = Math.max(1, maxThreads);
+        this.frameSkip = this.minFrameSkip;
+    }
+
+    /**
+     * Czy detektor pozwala zmieniać rozmiar wejścia; jeśli nie, regulator zmienia tylko odstęp klatek.
+     */
+    public synchronized void setInputScalable(boolean inputScalable) {
+        this.inputScalable = inputScalable;
+        if (!inputScalable) {
+            scaleIndex = 0;
+        }
+    }
+
+    /**
+     * Odnotowuje zakończoną detekcję.
+     *
+     * @param latencyNanos czas detekcji (z klasyfikacją wycinków)
+     * @param backlog      czy od poprzedniej detekcji odrzucono klatki, bo potok nie nadążał
+     */
+    public synchronized void onDetection(long latencyNanos, boolean backlog) {
+        smoothedNanos = smoothedNanos < 0f
+                ? latencyNanos
+                : smoothedNanos + LATENCY_SMOOTHING * (latencyNanos - smoothedNanos);
+
+        if (smoothedNanos > budgetNanos * OVER_BUDGET || backlog) {
+            framesUnder = 0;
+            if (++framesOver >= DEGRADE_FRAMES) {
+                framesOver = 0;
+                degrade(backlog && smoothedNanos <= budgetNanos * OVER_BUDGET);
+            }
+        } else if (smoothedNanos < budgetNanos * UNDER_BUDGET) {
+            framesOver = 0;
+            if (++framesUnder >= RECOVER_FRAMES) {
+                framesUnder = 0;
+                recover();
+            }
+        } else {
+            framesOver = 0;
+            framesUnder = 0;
+        }
+    }
+
+    /**
+     * Odciąża potok o jeden krok: najpierw mniejsze wejście (skraca samą detekcję),
+     * potem rzadsza detekcja. Gdy detekcja mieści się w budżecie, a klatki i tak są odrzucane,
+     * od razu zwiększany jest odstęp klatek.
+     */
+    private void degrade(boolean throughputOnly) {
+        if (!throughputOnly && inputScalable && scaleIndex < INPUT_SCALES.length - 1) {
+            scaleIndex++;
+        } else if (frameSkip < maxFrameSkip) {
+            frameSkip++;
+        }
+    }
+
+    /**
+     * Przywraca jakość o jeden krok: najpierw częstszą detekcję, potem większe wejście.
+     */
+    private void recover() {
+        if (frameSkip > minFrameSkip) {
+            frameSkip--;
+        } else if (scaleIndex > 0) {
+            scaleIndex--;
+        }
+    }
+
+    /**
+     * Stan urządzenia: poziom termiczny (THERMAL_*), tryb oszczędzania energii i niski stan baterii.
+     */
+    public synchronized void setDeviceState(int thermalStatus, boolean powerSave, boolean batteryLow) {
+        this.thermalStatus = thermalStatus;
+        this.powerSave = powerSave;
+        this.batteryLow = batteryLow;
+    }
+
+    /**
+     * Co którą klatkę uruchamiać detektor (1 - każdą); przy nagrzaniu i słabej baterii rzadziej.
+     */
+    public synchronized int getFrameSkip() {
+        int minimum = minFrameSkip;
+        if (thermalStatus >= THERMAL_SEVERE) {
+            minimum = maxFrameSkip;
+        } else if (thermalStatus >= THERMAL_MODERATE || powerSave || batteryLow) {
+            minimum = minFrameSkip + 1;
+        }
+        return Math.min(maxFrameSkip, Math.max(frameSkip, minimum));
+    }
+
+    /**
+     * Skala wejścia detektora względem rozmiaru natywnego (1 - bez zmian).
+     */
+    public synchronized float getInputScale() {
+        if (!inputScalable) {
+            return 1f;
+        }
+        int index = scaleIndex;
+        if (thermalStatus >= THERMAL_SEVERE) {
+            index = INPUT_SCALES.length - 1;
+        } else if (thermalStatus >= THERMAL_MODERATE) {
+            index = Math.max(index, 1);
+        }
+        return INPUT_SCALES[index];
+    }
+
+    /**
+     * Liczba wątków interpretera: mniej przy nagrzaniu i oszczędzaniu energii
+     * (mniejszy pobór mocy kosztem czasu pojedynczej detekcji).
+     */
+    public synchronized int getNumThreads() {
+        if (thermalStatus >= THERMAL_SEVERE) {
+            return 1;
+        }
+        if (thermalStatus >= THERMAL_MODERATE || powerSave || batteryLow) {
+            return Math.max(1, maxThreads / 2);
+        }
+        return maxThreads;
+    }
+
+    /**
+     * Wygładzony czas detekcji w milisekundach (0 przed pierwszym pomiarem).
+     */
+    public synchronized float getSmoothedLatencyMs() {
+        return Math.max(0f, smoothedNanos) / 1e6f;
+    }
+
+    /**
+     * Bieżące ustawienia w formie tekstu (nakładka z pomiarami).
+     */
+    public synchronized String format() {
+        return String.format(Locale.ROOT, "detekcja co %d kl., wejście x%.2f, wątki %d, %.1f ms (budżet %d ms)%n"
+                        + "stan termiczny %d%s%s%n",
+                getFrameSkip(), getInputScale(), getNumThreads(), getSmoothedLatencyMs(), budgetNanos / 1_000_000L,
+                thermalStatus, powerSave ? ", oszczędzanie energii" : "", batteryLow ? ", słaba bateria" : "");
+    }
+}
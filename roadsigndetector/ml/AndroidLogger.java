@@ -0,0 +1,24 @@
+package com.example.roadsigndetector.ml;
+
+import android.util.Log;
+
+/**
+ * Logger przekazujący komunikaty rdzenia do android.util.Log.
+ */
+final class AndroidLogger implements Logger {
+
+    @Override
+    public void info(String tag, String message) {
+        Log.i(tag, message);
+    }
+
+    @Override
+    public void warn(String tag, String message) {
+        Log.w(tag, message);
+    }
+
+    @Override
+    public void error(String tag, String message) {
+        Log.e(tag, message);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.roadsigndetector.ml;
+
+/**
+ * Obraz w tablicy pikseli ARGB (wiersz po wierszu) jako PixelSource - np. obraz zdekodowany
+ * na serwerze albo syntetyczne wejście testu.
+ */
+public final class ArgbImage implements PixelSource {
+
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+
+    public ArgbImage(int[] pixels, int width, int height) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Za mało pikseli dla obrazu " + width + "x" + height);
+        }
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    @Override
+    public void getPixels(int[] out, int offset, int stride, int x, int y, int width, int height) {
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(pixels, (y + row) * this.width + x, out, offset + row * stride, width);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.roadsigndetector.ml;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Model i etykiety z folderu assets aplikacji.
+ */
+final class AssetModelSource implements ModelSource {
+
+    private static final String TAG = "AssetModelSource";
+
+    private final Context context;
+    private final String modelPath;
+    private final String labelPath;
+
+    AssetModelSource(Context context, String modelPath, String labelPath) {
+        this.context = context;
+        this.modelPath = modelPath;
+        this.labelPath = labelPath;
+    }
+
+    @Override
+    public String getKey() {
+        return modelPath;
+    }
+
+    /**
+     * Mapuje model TensorFlow Lite z folderu assets do pamięci (bez kopiowania na stertę).
+     * Wymaga, aby pliki .tflite nie były kompresowane w APK (aaptOptions noCompress "tflite");
+     * w przeciwnym razie model jest wczytywany w całości do bufora bezpośredniego.
+     */
+    @Override
+    public ByteBuffer loadModel() throws IOException {
+        try {
+            AssetFileDescriptor fileDescriptor = context.getAssets().openFd(modelPath);
+            try {
+                FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+                try {
+                    FileChannel fileChannel = inputStream.getChannel();
+                    return fileChannel.map(FileChannel.MapMode.READ_ONLY,
+                            fileDescriptor.getStartOffset(), fileDescriptor.getDeclaredLength());
+                } finally {
+                    inputStream.close();
+                }
+            } finally {
+                fileDescriptor.close();
+            }
+        } catch (FileNotFoundException e) {
+            // Plik skompresowany w APK - nie da się go zmapować
+            Log.w(TAG, "Model " + modelPath + " jest skompresowany, wczytywanie do pamięci");
+            return readModelFully();
+        }
+    }
+
+    private ByteBuffer readModelFully() throws IOException {
+        InputStream inputStream = context.getAssets().open(modelPath);
+        try {
+            List<byte[]> chunks = new ArrayList<>();
+            int total = 0;
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(chunk)) != -1) {
+                byte[] copy = new byte[read];
+                System.arraycopy(chunk, 0, copy, 0, read);
+                chunks.add(copy);
+                total += read;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(total);
+            buffer.order(ByteOrder.nativeOrder());
+            for (byte[] part : chunks) {
+                buffer.put(part);
+            }
+            buffer.rewind();
+            return buffer;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Override
+    public List<String> loadLabels() throws IOException {
+        return FileModelSource.loadLabelList(context.getAssets().open(labelPath));
+    }
+}
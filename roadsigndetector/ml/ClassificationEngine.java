@@ -0,0 +1,228 @@
+package com.example.roadsigndetector.ml;
+
+import com.example.roadsigndetector.data.RoadSignLabel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Klasyfikacja na dowolnym InferenceBackend, bez zależności od Androida: pojedyncze obrazy
+ * i wsady [N, wysokość, szerokość, 3] dzielone na części po MAX_BATCH_SIZE.
+ * RoadSignClassifier dokłada do niej pamięć podręczną modeli, podmianę modelu i wejście z Bitmap.
+ * Instancja nie jest bezpieczna wątkowo, a backend zamyka jego właściciel.
+ */
+public class ClassificationEngine {
+
+    public static final int MAX_BATCH_SIZE = 16; // Większe wsady są dzielone na części
+
+    /**
+     * Zapisuje element item wsadu na pozycji slot bufora wejściowego (np. wycinek bitmapy lub klatki).
+     */
+    public interface SlotWriter {
+        void write(PixelInputBuffer input, int slot, int item);
+    }
+
+    private final InferenceBackend backend;
+    private final String[] labels;
+    private final PixelInputBuffer input;
+    private final OutputTensorBuffer output;
+    private final Object[] inputs = new Object[1];
+    private final Map<Integer, Object> outputs = new HashMap<>();
+    // Dopasowanie obrazów PixelSource (tryb STRETCH, cały obraz)
+    private final PreprocessTransform transform = new PreprocessTransform();
+    private final PixelSourceWriter sourceWriter = new PixelSourceWriter();
+
+    public ClassificationEngine(InferenceBackend backend, String[] labels) {
+        this.backend = backend;
+        this.labels = labels;
+        input = createInputBuffer(backend.getInputSpec(0));
+        output = new OutputTensorBuffer(backend.getOutputSpec(0));
+    }
+
+    /**
+     * Bufor wejściowy dla tensora (np. InputTensorBuffer z wejściem z Bitmap na Androidzie).
+     * Wywoływane z konstruktora - nie może korzystać z pól podklasy.
+     */
+    protected PixelInputBuffer createInputBuffer(TensorSpec spec) {
+        return new PixelInputBuffer(spec);
+    }
+
+    public PixelInputBuffer getInput() {
+        return input;
+    }
+
+    public InferenceBackend getBackend() {
+        return backend;
+    }
+
+    public String[] getLabels() {
+        return labels;
+    }
+
+    /**
+     * Pierwsza inferencja na pustym wejściu, żeby nie spowalniała pierwszego obrazu.
+     */
+    public void warmUp() {
+        ensureBatchSize(1);
+        input.prepareBatch(1);
+        runModel();
+    }
+
+    /**
+     * Zmienia rozmiar wsadu modelu, jeśli różni się od oczekiwanego.
+     * Interpreter może być współdzielony (ModelCache), więc rozmiar sprawdzany jest przy każdym wywołaniu.
+     */
+    public void ensureBatchSize(int batchSize) {
+        if (backend.getInputSpec(0).getShape()[0] != batchSize) {
+            backend.resizeInput(0, new int[]{
+                    batchSize, input.getHeight(), input.getWidth(), PixelConverter.PIXEL_SIZE});
+        }
+        if (output.shape()[0] != batchSize) {
+            output.resize(backend.getOutputSpec(0));
+        }
+    }
+
+    private void runModel() {
+        inputs[0] = input.batchBuffer();
+        outputs.put(0, output.buffer());
+        backend.run(inputs, outputs);
+    }
+
+    /**
+     * Klasyfikuje cały obraz; klasa z najwyższą pewnością trafia do out.
+     */
+    public void classify(PixelSource source, ClassificationResult out, InferenceMetrics metrics) {
+        long start = System.nanoTime();
+        ensureBatchSize(1);
+        input.load(source, transform);
+        metrics.record(InferenceMetrics.Stage.SCALE, input.getScaleNanos());
+        metrics.record(InferenceMetrics.Stage.CONVERT, input.getConvertNanos());
+        run(start, out, metrics);
+    }
+
+    /**
+     * Inferencja dla jednego obrazu zapisanego wcześniej do wejścia (po ensureBatchSize(1)).
+     *
+     * @param start początek przetwarzania obrazu (System.nanoTime), do czasu TOTAL
+     */
+    public void run(long start, ClassificationResult out, InferenceMetrics metrics) {
+        // 1. Uruchomienie inferencji
+        long inferenceStart = System.nanoTime();
+        runModel();
+        long postprocessStart = System.nanoTime();
+        metrics.record(InferenceMetrics.Stage.INFERENCE, postprocessStart - inferenceStart);
+
+        // 2. Znalezienie indeksu z najwyższą pewnością (po dekwantyzacji wyniku)
+        float[] scores = output.read();
+        int classCount = Math.min(output.size(), labels.length);
+        int maxIndex = ScoreUtils.argmax(scores, 0, classCount);
+        out.set(maxIndex, scores[maxIndex], labels);
+
+        long end = System.nanoTime();
+        metrics.record(InferenceMetrics.Stage.POSTPROCESS, end - postprocessStart);
+        metrics.record(InferenceMetrics.Stage.TOTAL, end - start);
+    }
+
+    /**
+     * Klasyfikuje wsadowo count pierwszych obrazów images (całe obrazy, tryb STRETCH).
+     */
+    public BatchResult classifyBatch(PixelSource[] images, int count, int topK, BatchResult out,
+                                     InferenceMetrics metrics) {
+        sourceWriter.images = images;
+        try {
+            return classifyBatch(count, topK, sourceWriter, out, metrics);
+        } finally {
+            sourceWriter.images = null;
+        }
+    }
+
+    /**
+     * Klasyfikuje count elementów zapisywanych do wejścia przez writer; dla każdego zwraca topK klas
+     * (co najmniej jedną).
+     * Wynik trafia do out (jeśli nie jest null), co pozwala uniknąć alokacji między wywołaniami.
+     */
+    public BatchResult classifyBatch(int count, int topK, SlotWriter writer, BatchResult out,
+                                     InferenceMetrics metrics) {
+        if (out == null) {
+            out = new BatchResult();
+        }
+        long callStart = System.nanoTime();
+        int k = Math.min(Math.max(1, topK), labels.length);
+        out.reset(count, k);
+        out.labels = labels;
+        for (int start = 0; start < count; start += MAX_BATCH_SIZE) {
+            int batchSize = Math.min(MAX_BATCH_SIZE, count - start);
+
+            // 1. Dopasowanie rozmiaru wsadu i zapis obrazów do bufora wejściowego
+            ensureBatchSize(batchSize);
+            input.prepareBatch(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                writer.write(input, i, start + i);
+            }
+            metrics.record(InferenceMetrics.Stage.SCALE, input.getScaleNanos());
+            metrics.record(InferenceMetrics.Stage.CONVERT, input.getConvertNanos());
+
+            // 2. Jedno wywołanie modelu dla całego wsadu
+            long inferenceStart = System.nanoTime();
+            runModel();
+            long postprocessStart = System.nanoTime();
+            metrics.record(InferenceMetrics.Stage.INFERENCE, postprocessStart - inferenceStart);
+
+            // 3. Wybór topK klas dla każdego obrazu
+            float[] scores = output.read();
+            int stride = output.size() / batchSize;
+            int classCount = Math.min(stride, labels.length);
+            for (int i = 0; i < batchSize; i++) {
+                ScoreUtils.topK(scores, i * stride, classCount, k, out.classIndices, out.scores, (start + i) * k);
+            }
+            metrics.record(InferenceMetrics.Stage.POSTPROCESS, System.nanoTime() - postprocessStart);
+        }
+        metrics.record(InferenceMetrics.Stage.TOTAL, System.nanoTime() - callStart);
+        return out;
+    }
+
+    private final class PixelSourceWriter implements SlotWriter {
+        PixelSource[] images;
+
+        @Override
+        public void write(PixelInputBuffer input, int slot, int item) {
+            PixelSource image = images[item];
+            transform.update(image.getWidth(), image.getHeight(), input.getWidth(), input.getHeight());
+            input.write(slot, image, transform);
+        }
+    }
+
+    /**
+     * Wyniki klasyfikacji wsadowej w tablicach prostych:
+     * dla obrazu i i pozycji r wartości leżą pod indeksem i * topK + r.
+     */
+    public static class BatchResult {
+        public int count;
+        public int topK;
+        public String[] labels = RoadSignLabel.classifierLabels; // Etykiety modelu, który dał wynik
+        public int[] classIndices = new int[0];
+        public float[] scores = new float[0];
+
+        void reset(int count, int topK) {
+            this.count = count;
+            this.topK = topK;
+            int size = count * topK;
+            if (classIndices.length < size) {
+                classIndices = new int[size];
+                scores = new float[size];
+            }
+        }
+
+        public int getClassIndex(int item, int rank) {
+            return classIndices[item * topK + rank];
+        }
+
+        public float getScore(int item, int rank) {
+            return scores[item * topK + rank];
+        }
+
+        public String getLabel(int item, int rank) {
+            return labels[getClassIndex(item, rank)];
+        }
+    }
+}
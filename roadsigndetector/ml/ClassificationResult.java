@@ -0,0 +1,55 @@
+package com.example.roadsigndetector.ml;
+
+import com.example.roadsigndetector.data.RoadSignLabel;
+
+/**
+ * Wynik klasyfikacji pojedynczego obrazu: indeks klasy i pewność.
+ * Instancja jest wypełniana przez RoadSignClassifier i może być używana wielokrotnie;
+ * etykieta jest odczytywana z etykiet modelu (domyślnie RoadSignLabel) dopiero na żądanie.
+ */
+public class ClassificationResult {
+
+    private int classId = -1;
+    private float score;
+    private String[] labels = RoadSignLabel.classifierLabels;
+
+    void set(int classId, float score, String[] labels) {
+        this.classId = classId;
+        this.score = score;
+        this.labels = labels;
+    }
+
+    public void clear() {
+        classId = -1;
+        score = 0f;
+    }
+
+    /**
+     * Czy wynik zawiera klasyfikację (false, gdy model nie był załadowany).
+     */
+    public boolean isValid() {
+        return classId >= 0;
+    }
+
+    /**
+     * Indeks klasy klasyfikatora (w etykietach modelu) albo -1.
+     */
+    public int getClassId() {
+        return classId;
+    }
+
+    public float getScore() {
+        return score;
+    }
+
+    /**
+     * Etykiety modelu, który dał wynik.
+     */
+    public String[] getLabels() {
+        return labels;
+    }
+
+    public String getLabel() {
+        return classId >= 0 ? labels[classId] : null;
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.roadsigndetector.ml;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Detekcja na dowolnym InferenceBackend, bez zależności od Androida: bufory wejścia i wyjścia,
+ * dekodowanie wyników i przeliczenie ramek na współrzędne źródła.
+ * RoadSignDetector dokłada do niej pamięć podręczną modeli, podmianę modelu i wejście z Bitmap;
+ * narzędzia i serwer używają jej bezpośrednio z TfLiteBackend albo StubBackend.
+ * Instancja nie jest bezpieczna wątkowo, a backend zamyka jego właściciel.
+ */
+public class DetectionEngine {
+
+    private final InferenceBackend backend;
+    private final String[] labels;
+    private final int labelCount;
+    private final float scoreThreshold;
+    // Rozmiar wejścia z pliku modelu i czy model pozwala go zmieniać
+    private final int nativeWidth;
+    private final int nativeHeight;
+    private final boolean resizable;
+    private final Object[] inputs = new Object[1];
+    // Progi ustawione przez setClassThreshold (NaN - domyślny), przenoszone na dekoder po resize()
+    private float[] classThresholds = new float[0];
+    private PixelInputBuffer input;
+    private DetectionOutputDecoder outputDecoder;
+
+    /**
+     * @param labels         etykiety wyników
+     * @param labelCount     liczba etykiet w pliku modelu (może różnić się od labels.length)
+     * @param scoreThreshold domyślny próg pewności
+     */
+    public DetectionEngine(InferenceBackend backend, String[] labels, int labelCount, float scoreThreshold) {
+        this.backend = backend;
+        this.labels = labels;
+        this.labelCount = labelCount;
+        this.scoreThreshold = scoreThreshold;
+        int[] signature = backend.getInputSpec(0).getShapeSignature();
+        resizable = signature.length == 4 && (signature[1] == -1 || signature[2] == -1);
+        createBuffers();
+        nativeWidth = input.getWidth();
+        nativeHeight = input.getHeight();
+    }
+
+    /**
+     * Bufor wejściowy dla tensora (np. InputTensorBuffer z wejściem z Bitmap na Androidzie).
+     * Wywoływane z konstruktora i przy resize() - nie może korzystać z pól podklasy.
+     */
+    protected PixelInputBuffer createInputBuffer(TensorSpec spec) {
+        return new PixelInputBuffer(spec);
+    }
+
+    private void createBuffers() {
+        input = createInputBuffer(backend.getInputSpec(0));
+        outputDecoder = new DetectionOutputDecoder(backend, labelCount, Math.min(labelCount, labels.length),
+                input.getWidth(), input.getHeight(), scoreThreshold);
+        for (int i = 0; i < classThresholds.length; i++) {
+            if (!Float.isNaN(classThresholds[i])) {
+                outputDecoder.setClassThreshold(i, classThresholds[i]);
+            }
+        }
+    }
+
+    public PixelInputBuffer getInput() {
+        return input;
+    }
+
+    public InferenceBackend getBackend() {
+        return backend;
+    }
+
+    public String[] getLabels() {
+        return labels;
+    }
+
+    /**
+     * Czy model ma zmienny rozmiar wejścia (wymiary -1 w sygnaturze kształtu).
+     */
+    public boolean isResizable() {
+        return resizable;
+    }
+
+    public int getNativeWidth() {
+        return nativeWidth;
+    }
+
+    public int getNativeHeight() {
+        return nativeHeight;
+    }
+
+    /**
+     * Zmienia rozmiar wejścia modelu; bufory i dekoder (np. kotwice SSD) są tworzone od nowa.
+     */
+    public void resize(int width, int height) {
+        backend.resizeInput(0, new int[]{1, height, width, PixelConverter.PIXEL_SIZE});
+        createBuffers();
+    }
+
+    /**
+     * Pierwsza inferencja na pustym wejściu (alokacja tensorów, kompilacja delegata),
+     * żeby nie spowalniała pierwszego obrazu.
+     */
+    public void warmUp() {
+        input.prepareBatch(1);
+        inputs[0] = input.batchBuffer();
+        backend.run(inputs, outputDecoder.getOutputMap());
+    }
+
+    /**
+     * Ustawia próg pewności dla jednej klasy (indeks etykiety).
+     */
+    public void setClassThreshold(int classIndex, float threshold) {
+        if (classThresholds.length <= classIndex) {
+            int oldLength = classThresholds.length;
+            classThresholds = Arrays.copyOf(classThresholds, classIndex + 1);
+            Arrays.fill(classThresholds, oldLength, classThresholds.length, Float.NaN);
+        }
+        classThresholds[classIndex] = threshold;
+        outputDecoder.setClassThreshold(classIndex, threshold);
+    }
+
+    /**
+     * Zapisuje obraz do wejścia modelu; transform zostaje do przeliczenia ramek w run().
+     */
+    public ByteBuffer load(PixelSource source, PreprocessTransform transform) {
+        return input.load(source, transform);
+    }
+
+    public ByteBuffer load(Nv21Frame frame, PreprocessTransform transform) {
+        return input.load(frame, transform);
+    }
+
+    /**
+     * Wykrywa znaki w obrazie; wynik (ramki w ułamkach obrazu) trafia do out.
+     */
+    public void detect(PixelSource source, PreprocessTransform transform, DetectionResult out,
+                       InferenceMetrics metrics) {
+        long start = System.nanoTime();
+        out.clear();
+        load(source, transform);
+        run(transform, start, out, metrics);
+    }
+
+    /**
+     * Detekcja na klatce NV21; ramki odnoszą się do obrazu po obrocie.
+     */
+    public void detect(Nv21Frame frame, PreprocessTransform transform, DetectionResult out,
+                       InferenceMetrics metrics) {
+        long start = System.nanoTime();
+        out.clear();
+        load(frame, transform);
+        run(transform, start, out, metrics);
+    }
+
+    /**
+     * Inferencja i dekodowanie dla wejścia zapisanego wcześniej przez load().
+     *
+     * @param start początek przetwarzania obrazu (System.nanoTime), do czasu TOTAL
+     */
+    public void run(PreprocessTransform transform, long start, DetectionResult out, InferenceMetrics metrics) {
+        metrics.record(InferenceMetrics.Stage.SCALE, input.getScaleNanos());
+        metrics.record(InferenceMetrics.Stage.CONVERT, input.getConvertNanos());
+
+        // 1. Uruchomienie inferencji (bufory wyjściowe są współdzielone między wywołaniami)
+        long inferenceStart = System.nanoTime();
+        inputs[0] = input.batchBuffer();
+        backend.run(inputs, outputDecoder.getOutputMap());
+        long postprocessStart = System.nanoTime();
+        metrics.record(InferenceMetrics.Stage.INFERENCE, postprocessStart - inferenceStart);
+
+        // 2. Przetwarzanie wyników (z dekwantyzacją, jeśli model jest kwantyzowany)
+        int count = outputDecoder.decode();
+
+        // Ramki z ułamków wejścia modelu na ułamki obrazu źródłowego (jednym przebiegiem, w miejscu)
+        float[] boxes = outputDecoder.getBoxes();
+        float[] scores = outputDecoder.getScores();
+        int[] classes = outputDecoder.getClasses();
+        transform.mapToSource(boxes, 0, count, boxes, 0, true);
+        out.setLabels(labels);
+        for (int i = 0; i < count; i++) {
+            // Ramka jest kopiowana, bo bufor wyników zostanie nadpisany przy następnym obrazie
+            out.add(classes[i], scores[i], boxes, i * 4);
+        }
+
+        long end = System.nanoTime();
+        metrics.record(InferenceMetrics.Stage.POSTPROCESS, end - postprocessStart);
+        metrics.record(InferenceMetrics.Stage.TOTAL, end - start);
+    }
+}
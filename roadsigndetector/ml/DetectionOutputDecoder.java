@@ -0,0 +1,155 @@
+package com.example.roadsigndetector.ml;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wyjścia modelu detekcji: bufory tensorów wyjściowych, rozpoznanie ich układu
+ * i dekodowanie wyników przez DetectionPostProcessor.
+ * Bez zależności od Androida - używane przez RoadSignDetector i narzędzia na zwykłej JVM.
+ */
+public class DetectionOutputDecoder {
+
+    private static final float IOU_THRESHOLD = 0.5f;
+    private static final int MAX_RESULTS = 25;     // Limit wykryć dla modeli bez operacji postprocess
+    private static final int MAX_CANDIDATES = 300; // Limit kandydatów przed NMS
+
+    private final OutputTensorBuffer[] outputs;
+    private final Map<Integer, Object> outputMap;
+    // Układ wyjść rozpoznany po liczbie i kształcie tensorów
+    private OutputLayout layout;
+    private int boxesOutput;    // SSD_RAW: indeks wyjścia z ramkami
+    private int scoresOutput;   // SSD_RAW: indeks wyjścia z wynikami klas
+    private float[] anchors;    // SSD_RAW: kotwice [N, 4]
+    private int scoreChannels;  // SSD_RAW: liczba kanałów wyników; YOLO: kanałów na ramkę
+    private int classOffset;    // SSD_RAW: 1, jeśli kanał 0 to tło
+    private int candidateCount; // SSD_RAW/YOLO: liczba ramek na wyjściu
+    private boolean transposed; // YOLO: układ [4 + C, N]
+    private boolean objectness; // YOLO: wynik obiektowości po ramce
+    private int maxDetections;
+    private final DetectionPostProcessor postProcessor;
+
+    /**
+     * @param labelCount liczba etykiet w pliku modelu (do rozpoznania kanału tła i obiektowości)
+     * @param classCount liczba klas zwracanych w wynikach
+     */
+    public DetectionOutputDecoder(InferenceBackend backend, int labelCount, int classCount,
+                                  int inputWidth, int inputHeight, float scoreThreshold) {
+        outputs = new OutputTensorBuffer[backend.getOutputCount()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new OutputTensorBuffer(backend.getOutputSpec(i));
+        }
+        outputMap = new HashMap<>();
+        for (int i = 0; i < outputs.length; i++) {
+            outputMap.put(i, outputs[i].buffer());
+        }
+        configureLayout(labelCount, inputWidth, inputHeight);
+        postProcessor = new DetectionPostProcessor(classCount, maxDetections,
+                Math.max(MAX_CANDIDATES, maxDetections), scoreThreshold);
+        postProcessor.setIouThreshold(IOU_THRESHOLD);
+    }
+
+    /**
+     * Rozpoznaje układ wyjść modelu:
+     * 4 wyjścia - model z operacją postprocess (ramki, klasy, pewności, liczba wykryć),
+     * 2 wyjścia - surowe SSD (kodowanie ramek [1, N, 4] i wyniki klas [1, N, K]),
+     * 1 wyjście - YOLO ([1, N, 4 + C] lub transponowane [1, 4 + C, N]).
+     */
+    private void configureLayout(int labelCount, int inputWidth, int inputHeight) {
+        switch (outputs.length) {
+            case 4: {
+                layout = OutputLayout.POSTPROCESSED;
+                int[] scoresShape = outputs[2].shape();
+                maxDetections = scoresShape[scoresShape.length - 1];
+                break;
+            }
+            case 2: {
+                layout = OutputLayout.SSD_RAW;
+                int[] first = outputs[0].shape();
+                boxesOutput = first[first.length - 1] == 4 ? 0 : 1;
+                scoresOutput = 1 - boxesOutput;
+                int[] boxesShape = outputs[boxesOutput].shape();
+                int[] scoresShape = outputs[scoresOutput].shape();
+                candidateCount = boxesShape[boxesShape.length - 2];
+                scoreChannels = scoresShape[scoresShape.length - 1];
+                classOffset = scoreChannels == labelCount + 1 ? 1 : 0;
+                anchors = DetectionPostProcessor.generateSsdAnchors(inputWidth, inputHeight);
+                if (anchors.length / 4 != candidateCount) {
+                    throw new IllegalStateException("Liczba kotwic (" + anchors.length / 4
+                            + ") nie zgadza się z wyjściem modelu (" + candidateCount + ")");
+                }
+                maxDetections = MAX_RESULTS;
+                break;
+            }
+            case 1: {
+                layout = OutputLayout.YOLO;
+                int[] shape = outputs[0].shape();
+                int a = shape[shape.length - 2];
+                int b = shape[shape.length - 1];
+                transposed = a < b;
+                scoreChannels = transposed ? a : b;
+                candidateCount = transposed ? b : a;
+                objectness = scoreChannels == labelCount + 5;
+                maxDetections = MAX_RESULTS;
+                break;
+            }
+            default:
+                throw new IllegalStateException("Nieobsługiwana liczba wyjść modelu: " + outputs.length);
+        }
+    }
+
+    /**
+     * Mapa wyjść do przekazania InferenceBackend.run (bufory są współdzielone między wywołaniami).
+     */
+    public Map<Integer, Object> getOutputMap() {
+        return outputMap;
+    }
+
+    /**
+     * Dekoduje wynik ostatniej inferencji (z dekwantyzacją, jeśli model jest kwantyzowany).
+     * Zwraca liczbę wykryć; ramki w ułamkach wejścia modelu są w getBoxes().
+     */
+    public int decode() {
+        switch (layout) {
+            case SSD_RAW:
+                return postProcessor.decodeSsd(outputs[boxesOutput].read(), outputs[scoresOutput].read(),
+                        candidateCount, scoreChannels, classOffset, true, anchors);
+            case YOLO:
+                return postProcessor.decodeYolo(outputs[0].read(), candidateCount, scoreChannels,
+                        transposed, objectness);
+            default: {
+                int detectionsCount = Math.min((int) outputs[3].read()[0], maxDetections);
+                return postProcessor.processDecoded(outputs[0].read(), outputs[1].read(),
+                        outputs[2].read(), detectionsCount);
+            }
+        }
+    }
+
+    /**
+     * Ustawia próg pewności dla jednej klasy.
+     */
+    public void setClassThreshold(int classIndex, float threshold) {
+        postProcessor.setClassThreshold(classIndex, threshold);
+    }
+
+    public float[] getBoxes() {
+        return postProcessor.getBoxes();
+    }
+
+    public float[] getScores() {
+        return postProcessor.getScores();
+    }
+
+    public int[] getClasses() {
+        return postProcessor.getClasses();
+    }
+
+    /**
+     * Układ wyjść modelu detekcji.
+     */
+    private enum OutputLayout {
+        POSTPROCESSED, // Ramki już zdekodowane przez operację postprocess w modelu
+        SSD_RAW,       // Surowe wyjścia SSD względem kotwic
+        YOLO           // Surowe wyjście w stylu YOLO
+    }
+}
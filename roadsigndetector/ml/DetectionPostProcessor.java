@@ -0,0 +1,379 @@
+package com.example.roadsigndetector.ml;
+
+import java.util.Arrays;
+
+/**
+ * Przetwarzanie surowych wyjść detektora: dekodowanie ramek (kotwice SSD albo siatka YOLO),
+ * progi pewności dla poszczególnych klas i NMS z uwzględnieniem klas.
+ * Wszystko działa na tablicach prostych typów alokowanych raz - bez obiektów na ramkę.
+ * Ramki wynikowe mają postać [ymin, xmin, ymax, xmax] w ułamkach wejścia modelu.
+ * Czysta Java - używane przez detektor i benchmarki.
+ */
+public final class DetectionPostProcessor {
+
+    // Skale kodera ramek z TensorFlow Object Detection API
+    private static final float SSD_Y_SCALE = 10f;
+    private static final float SSD_X_SCALE = 10f;
+    private static final float SSD_H_SCALE = 5f;
+    private static final float SSD_W_SCALE = 5f;
+
+    private final int numClasses;
+    private final int maxDetections;
+    private final int maxCandidates; // Ile najlepszych kandydatów trafia do NMS
+    private final float[] classThresholds;
+    private final float[] logitThresholds; // Te same progi przed sigmoidą
+    private float minThreshold;
+    private float iouThreshold = 0.5f;
+    private boolean classAware = true;
+
+    // Kandydaci po progowaniu (rosną tylko przy większej liczbie ramek wejściowych)
+    private float[] candidateBoxes = new float[0];
+    private float[] candidateScores = new float[0];
+    private int[] candidateClasses = new int[0];
+    private long[] sortKeys = new long[0];
+    private int candidateCount;
+
+    // Bufory robocze NMS
+    private final int[] order;
+    private final float[] areas;
+    private final boolean[] suppressed;
+
+    // Wynik
+    private final float[] boxes;
+    private final float[] scores;
+    private final int[] classes;
+    private int count;
+
+    public DetectionPostProcessor(int numClasses, int maxDetections, int maxCandidates, float scoreThreshold) {
+        this.numClasses = numClasses;
+        this.maxDetections = maxDetections;
+        this.maxCandidates = maxCandidates;
+        classThresholds = new float[numClasses];
+        logitThresholds = new float[numClasses];
+        order = new int[maxCandidates];
+        areas = new float[maxCandidates];
+        suppressed = new boolean[maxCandidates];
+        boxes = new float[maxDetections * 4];
+        scores = new float[maxDetections];
+        classes = new int[maxDetections];
+        setScoreThreshold(scoreThreshold);
+    }
+
+    /**
+     * Ustawia jeden próg pewności dla wszystkich klas.
+     */
+    public void setScoreThreshold(float threshold) {
+        for (int c = 0; c < numClasses; c++) {
+            setClassThreshold(c, threshold);
+        }
+    }
+
+    /**
+     * Ustawia próg pewności dla jednej klasy.
+     */
+    public void setClassThreshold(int classIndex, float threshold) {
+        classThresholds[classIndex] = threshold;
+        logitThresholds[classIndex] = logit(threshold);
+        minThreshold = classThresholds[0];
+        for (int c = 1; c < numClasses; c++) {
+            minThreshold = Math.min(minThreshold, classThresholds[c]);
+        }
+    }
+
+    public void setIouThreshold(float iouThreshold) {
+        this.iouThreshold = iouThreshold;
+    }
+
+    /**
+     * false - NMS tłumi nakładające się ramki niezależnie od klasy.
+     */
+    public void setClassAware(boolean classAware) {
+        this.classAware = classAware;
+    }
+
+    /**
+     * Wyjście modelu z wbudowaną operacją postprocess (ramki już zdekodowane i po NMS):
+     * zostawia wykrycia z wynikiem powyżej progu swojej klasy (ścisła nierówność, jak w ScoreUtils)
+     * i ponownie uruchamia NMS - między klasami tylko po setClassAware(false).
+     */
+    public int processDecoded(float[] locations, float[] classIndices, float[] detectionScores, int detectionCount) {
+        begin(detectionCount);
+        for (int i = 0; i < detectionCount; i++) {
+            int c = (int) classIndices[i];
+            if (c < 0 || c >= numClasses || detectionScores[i] <= classThresholds[c]) {
+                continue;
+            }
+            int o = i * 4;
+            addCandidate(locations[o], locations[o + 1], locations[o + 2], locations[o + 3],
+                    detectionScores[i], c);
+        }
+        return runNms();
+    }
+
+    /**
+     * Surowe wyjście SSD: kodowanie ramek [N, 4] (ty, tx, th, tw) względem kotwic
+     * [N, 4] (cy, cx, h, w) i wyniki klas [N, scoreChannels].
+     *
+     * @param classOffset 1, gdy kanał 0 to tło
+     * @param logits      true, gdy wyniki są przed sigmoidą (porównanie progów bez liczenia exp)
+     */
+    public int decodeSsd(float[] encodings, float[] classScores, int numAnchors, int scoreChannels,
+                         int classOffset, boolean logits, float[] anchors) {
+        begin(numAnchors);
+        final float[] thresholds = logits ? logitThresholds : classThresholds;
+        final int classCount = Math.min(numClasses, scoreChannels - classOffset);
+        for (int a = 0; a < numAnchors; a++) {
+            int base = a * scoreChannels + classOffset;
+            int best = -1;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int c = 0; c < classCount; c++) {
+                float s = classScores[base + c];
+                if (s > thresholds[c] && s > bestScore) {
+                    bestScore = s;
+                    best = c;
+                }
+            }
+            if (best < 0) {
+                continue;
+            }
+            // Dekodowanie ramki tylko dla kotwic, które przeszły próg
+            int o = a * 4;
+            float anchorH = anchors[o + 2];
+            float anchorW = anchors[o + 3];
+            float cy = encodings[o] / SSD_Y_SCALE * anchorH + anchors[o];
+            float cx = encodings[o + 1] / SSD_X_SCALE * anchorW + anchors[o + 1];
+            float halfH = (float) Math.exp(encodings[o + 2] / SSD_H_SCALE) * anchorH / 2f;
+            float halfW = (float) Math.exp(encodings[o + 3] / SSD_W_SCALE) * anchorW / 2f;
+            float score = logits ? sigmoid(bestScore) : bestScore;
+            addCandidate(cy - halfH, cx - halfW, cy + halfH, cx + halfW, score, best);
+        }
+        return runNms();
+    }
+
+    /**
+     * Surowe wyjście typu YOLO: dla każdej z numBoxes ramek (cx, cy, w, h), opcjonalnie
+     * objectness, a potem wyniki klas. Współrzędne w ułamkach wejścia modelu.
+     *
+     * @param transposed true dla układu [4 + C, N] (np. YOLOv8), false dla [N, 4 + C]
+     * @param objectness true, gdy po ramce jest wynik obiektowości (np. YOLOv5)
+     */
+    public int decodeYolo(float[] output, int numBoxes, int channels, boolean transposed, boolean objectness) {
+        begin(numBoxes);
+        final int classStart = objectness ? 5 : 4;
+        final int classCount = Math.min(numClasses, channels - classStart);
+        final int boxStride = transposed ? 1 : channels;
+        final int channelStride = transposed ? numBoxes : 1;
+        for (int i = 0; i < numBoxes; i++) {
+            int base = i * boxStride;
+            float obj = objectness ? output[base + 4 * channelStride] : 1f;
+            if (obj <= minThreshold) {
+                continue;
+            }
+            int best = -1;
+            float bestScore = 0f;
+            for (int c = 0; c < classCount; c++) {
+                float s = obj * output[base + (classStart + c) * channelStride];
+                if (s > classThresholds[c] && s > bestScore) {
+                    bestScore = s;
+                    best = c;
+                }
+            }
+            if (best < 0) {
+                continue;
+            }
+            float cx = output[base];
+            float cy = output[base + channelStride];
+            float halfW = output[base + 2 * channelStride] / 2f;
+            float halfH = output[base + 3 * channelStride] / 2f;
+            addCandidate(cy - halfH, cx - halfW, cy + halfH, cx + halfW, bestScore, best);
+        }
+        return runNms();
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Ramki wyniku [ymin, xmin, ymax, xmax]; ważne pierwsze getCount() * 4 wartości.
+     */
+    public float[] getBoxes() {
+        return boxes;
+    }
+
+    public float[] getScores() {
+        return scores;
+    }
+
+    public int[] getClasses() {
+        return classes;
+    }
+
+    private void begin(int maxInputs) {
+        if (candidateScores.length < maxInputs) {
+            candidateBoxes = new float[maxInputs * 4];
+            candidateScores = new float[maxInputs];
+            candidateClasses = new int[maxInputs];
+            sortKeys = new long[maxInputs];
+        }
+        candidateCount = 0;
+        count = 0;
+    }
+
+    private void addCandidate(float ymin, float xmin, float ymax, float xmax, float score, int classIndex) {
+        int n = candidateCount++;
+        int o = n * 4;
+        candidateBoxes[o] = ymin;
+        candidateBoxes[o + 1] = xmin;
+        candidateBoxes[o + 2] = ymax;
+        candidateBoxes[o + 3] = xmax;
+        candidateScores[n] = Math.max(0f, score);
+        candidateClasses[n] = classIndex;
+    }
+
+    /**
+     * Zachłanny NMS. Kandydaci są sortowani malejąco po wyniku przez sortowanie kluczy long
+     * (bity nieujemnego floata w górnej połowie, indeks w dolnej) - bez obiektów i komparatorów.
+     */
+    private int runNms() {
+        final int n = candidateCount;
+        final long[] keys = sortKeys;
+        for (int i = 0; i < n; i++) {
+            keys[i] = ((long) Float.floatToIntBits(candidateScores[i]) << 32) | i;
+        }
+        Arrays.sort(keys, 0, n);
+
+        final int m = Math.min(n, maxCandidates);
+        final float[] b = candidateBoxes;
+        for (int k = 0; k < m; k++) {
+            int i = (int) keys[n - 1 - k];
+            order[k] = i;
+            int o = i * 4;
+            areas[k] = Math.max(0f, b[o + 2] - b[o]) * Math.max(0f, b[o + 3] - b[o + 1]);
+            suppressed[k] = false;
+        }
+
+        count = 0;
+        for (int k = 0; k < m && count < maxDetections; k++) {
+            if (suppressed[k]) {
+                continue;
+            }
+            int i = order[k];
+            int o = i * 4;
+            float ymin = b[o];
+            float xmin = b[o + 1];
+            float ymax = b[o + 2];
+            float xmax = b[o + 3];
+            int classIndex = candidateClasses[i];
+
+            int r = count++;
+            System.arraycopy(b, o, boxes, r * 4, 4);
+            scores[r] = candidateScores[i];
+            classes[r] = classIndex;
+
+            for (int q = k + 1; q < m; q++) {
+                if (suppressed[q]) {
+                    continue;
+                }
+                int j = order[q];
+                if (classAware && candidateClasses[j] != classIndex) {
+                    continue;
+                }
+                int p = j * 4;
+                float ih = Math.min(ymax, b[p + 2]) - Math.max(ymin, b[p]);
+                if (ih <= 0f) {
+                    continue;
+                }
+                float iw = Math.min(xmax, b[p + 3]) - Math.max(xmin, b[p + 1]);
+                if (iw <= 0f) {
+                    continue;
+                }
+                float intersection = ih * iw;
+                float union = areas[k] + areas[q] - intersection;
+                if (union > 0f && intersection > iouThreshold * union) {
+                    suppressed[q] = true;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Kotwice SSD [N, 4] (cy, cx, h, w) dla standardowej konfiguracji MobileNet-SSD
+     * z TensorFlow Object Detection API (6 warstw, skale 0.2 - 0.95; dla wejścia 300 - 1917 kotwic).
+     */
+    public static float[] generateSsdAnchors(int inputWidth, int inputHeight) {
+        final int[] strides = {16, 32, 64, 128, 256, 512};
+        final float[] aspectRatios = {1f, 2f, 0.5f, 3f, 1f / 3f};
+        final int numLayers = strides.length;
+        final float minScale = 0.2f;
+        final float maxScale = 0.95f;
+
+        int total = 0;
+        for (int layer = 0; layer < numLayers; layer++) {
+            int perCell = layer == 0 ? 3 : aspectRatios.length + 1;
+            total += featureSize(inputHeight, strides[layer]) * featureSize(inputWidth, strides[layer]) * perCell;
+        }
+
+        float[] anchors = new float[total * 4];
+        float[] heights = new float[aspectRatios.length + 1];
+        float[] widths = new float[aspectRatios.length + 1];
+        int o = 0;
+        for (int layer = 0; layer < numLayers; layer++) {
+            float scale = minScale + (maxScale - minScale) * layer / (numLayers - 1);
+            int perCell;
+            if (layer == 0) {
+                // Najniższa warstwa: mniejsza kotwica 0.1 oraz proporcje 2 i 1/2
+                perCell = 3;
+                setAnchorSize(heights, widths, 0, 0.1f, 1f);
+                setAnchorSize(heights, widths, 1, scale, 2f);
+                setAnchorSize(heights, widths, 2, scale, 0.5f);
+            } else {
+                perCell = aspectRatios.length + 1;
+                for (int r = 0; r < aspectRatios.length; r++) {
+                    setAnchorSize(heights, widths, r, scale, aspectRatios[r]);
+                }
+                float nextScale = layer == numLayers - 1
+                        ? 1f : minScale + (maxScale - minScale) * (layer + 1) / (numLayers - 1);
+                setAnchorSize(heights, widths, aspectRatios.length, (float) Math.sqrt(scale * nextScale), 1f);
+            }
+            int featureH = featureSize(inputHeight, strides[layer]);
+            int featureW = featureSize(inputWidth, strides[layer]);
+            for (int y = 0; y < featureH; y++) {
+                for (int x = 0; x < featureW; x++) {
+                    for (int a = 0; a < perCell; a++) {
+                        anchors[o++] = (y + 0.5f) / featureH;
+                        anchors[o++] = (x + 0.5f) / featureW;
+                        anchors[o++] = heights[a];
+                        anchors[o++] = widths[a];
+                    }
+                }
+            }
+        }
+        return anchors;
+    }
+
+    private static int featureSize(int inputSize, int stride) {
+        return (inputSize + stride - 1) / stride;
+    }
+
+    private static void setAnchorSize(float[] heights, float[] widths, int index, float scale, float aspectRatio) {
+        float ratioSqrt = (float) Math.sqrt(aspectRatio);
+        heights[index] = scale / ratioSqrt;
+        widths[index] = scale * ratioSqrt;
+    }
+
+    private static float sigmoid(float x) {
+        return 1f / (1f + (float) Math.exp(-x));
+    }
+
+    private static float logit(float p) {
+        if (p <= 0f) {
+            return Float.NEGATIVE_INFINITY;
+        }
+        if (p >= 1f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return (float) Math.log(p / (1f - p));
+    }
+}
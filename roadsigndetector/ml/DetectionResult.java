@@ -0,0 +1,246 @@
+package com.example.roadsigndetector.ml;
+
+import com.example.roadsigndetector.data.RoadSignLabel;
+
+/**
+ * Lista wykryć w układzie struktury tablic: identyfikatory klas, pewności i ramki
+ * w płaskich tablicach prostych typów, bez obiektu na każde wykrycie.
+ * Ramki [ymin, xmin, ymax, xmax] w ułamkach obrazu źródłowego są kopiowane,
+ * więc wynik nie zależy od buforów wyjściowych modelu.
+ * Etykiety są odczytywane dopiero na żądanie z tablic modelu, który dał wynik
+ * (domyślnie RoadSignLabel).
+ * Instancje można pobierać z puli (obtain/recycle), jak android.os.Message.
+ */
+public class DetectionResult {
+
+    private static final int MAX_POOL_SIZE = 8;
+    private static final Object POOL_LOCK = new Object();
+    private static DetectionResult pool;
+    private static int poolSize;
+    private DetectionResult nextInPool;
+
+    private int count;
+    private int[] classIds;
+    private float[] scores;
+    private float[] boxes;
+    // Wynik klasyfikatora dla wycinka (RoadSignCascade); -1, jeśli nie doprecyzowano
+    private int[] refinedClassIds;
+    private float[] refinedScores;
+    // Identyfikator śladu nadany przez ObjectTracker; -1, jeśli wykrycie nie jest śledzone
+    private int[] trackIds;
+    // Etykiety modeli, których indeksy klas zawiera wynik (zmieniają się po podmianie modelu)
+    private String[] labels = RoadSignLabel.detectLabels;
+    private String[] refinedLabels = RoadSignLabel.classifierLabels;
+
+    public DetectionResult() {
+        this(8);
+    }
+
+    public DetectionResult(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    /**
+     * Pobiera pustą instancję z puli albo tworzy nową.
+     */
+    public static DetectionResult obtain() {
+        synchronized (POOL_LOCK) {
+            if (pool != null) {
+                DetectionResult result = pool;
+                pool = result.nextInPool;
+                result.nextInPool = null;
+                poolSize--;
+                return result;
+            }
+        }
+        return new DetectionResult();
+    }
+
+    /**
+     * Zwraca instancję do puli; po wywołaniu nie wolno jej używać.
+     */
+    public void recycle() {
+        clear();
+        labels = RoadSignLabel.detectLabels;
+        refinedLabels = RoadSignLabel.classifierLabels;
+        synchronized (POOL_LOCK) {
+            if (poolSize < MAX_POOL_SIZE) {
+                nextInPool = pool;
+                pool = this;
+                poolSize++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        int[] oldClassIds = classIds;
+        float[] oldScores = scores;
+        float[] oldBoxes = boxes;
+        int[] oldRefinedClassIds = refinedClassIds;
+        float[] oldRefinedScores = refinedScores;
+        int[] oldTrackIds = trackIds;
+
+        classIds = new int[capacity];
+        scores = new float[capacity];
+        boxes = new float[capacity * 4];
+        refinedClassIds = new int[capacity];
+        refinedScores = new float[capacity];
+        trackIds = new int[capacity];
+        if (count > 0) {
+            System.arraycopy(oldClassIds, 0, classIds, 0, count);
+            System.arraycopy(oldScores, 0, scores, 0, count);
+            System.arraycopy(oldBoxes, 0, boxes, 0, count * 4);
+            System.arraycopy(oldRefinedClassIds, 0, refinedClassIds, 0, count);
+            System.arraycopy(oldRefinedScores, 0, refinedScores, 0, count);
+            System.arraycopy(oldTrackIds, 0, trackIds, 0, count);
+        }
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Dodaje wykrycie; ramka jest kopiowana z box[boxOffset .. boxOffset + 4).
+     * Zwraca indeks nowego wykrycia.
+     */
+    public int add(int classId, float score, float[] box, int boxOffset) {
+        if (count == classIds.length) {
+            allocate(count * 2);
+        }
+        int i = count++;
+        classIds[i] = classId;
+        scores[i] = score;
+        System.arraycopy(box, boxOffset, boxes, i * 4, 4);
+        refinedClassIds[i] = -1;
+        refinedScores[i] = 0f;
+        trackIds[i] = -1;
+        return i;
+    }
+
+    /**
+     * Zastępuje zawartość kopią innego wyniku.
+     */
+    public void copyFrom(DetectionResult other) {
+        count = 0;
+        if (classIds.length < other.count) {
+            allocate(other.count);
+        }
+        count = other.count;
+        labels = other.labels;
+        refinedLabels = other.refinedLabels;
+        System.arraycopy(other.classIds, 0, classIds, 0, count);
+        System.arraycopy(other.scores, 0, scores, 0, count);
+        System.arraycopy(other.boxes, 0, boxes, 0, count * 4);
+        System.arraycopy(other.refinedClassIds, 0, refinedClassIds, 0, count);
+        System.arraycopy(other.refinedScores, 0, refinedScores, 0, count);
+        System.arraycopy(other.trackIds, 0, trackIds, 0, count);
+    }
+
+    /**
+     * Indeks klasy detektora (w getLabels()).
+     */
+    public int getClassId(int index) {
+        return classIds[index];
+    }
+
+    public float getScore(int index) {
+        return scores[index];
+    }
+
+    /**
+     * Ramki wszystkich wykryć: wykrycie i zajmuje pozycje i * 4 .. i * 4 + 3. Tylko do odczytu.
+     */
+    public float[] getBoxes() {
+        return boxes;
+    }
+
+    /**
+     * Współrzędna k (0 - ymin, 1 - xmin, 2 - ymax, 3 - xmax) ramki wykrycia.
+     */
+    public float getBox(int index, int coordinate) {
+        return boxes[index * 4 + coordinate];
+    }
+
+    public void setBox(int index, float[] box, int boxOffset) {
+        System.arraycopy(box, boxOffset, boxes, index * 4, 4);
+    }
+
+    public String getLabel(int index) {
+        return labels[classIds[index]];
+    }
+
+    /**
+     * Etykiety detektora odpowiadające identyfikatorom klas. Tylko do odczytu.
+     */
+    public String[] getLabels() {
+        return labels;
+    }
+
+    public void setLabels(String[] labels) {
+        this.labels = labels;
+    }
+
+    /**
+     * Etykiety klasyfikatora odpowiadające identyfikatorom klas doprecyzowania. Tylko do odczytu.
+     */
+    public String[] getRefinedLabels() {
+        return refinedLabels;
+    }
+
+    public void setRefinedLabels(String[] refinedLabels) {
+        this.refinedLabels = refinedLabels;
+    }
+
+    public boolean isRefined(int index) {
+        return refinedClassIds[index] >= 0;
+    }
+
+    /**
+     * Indeks klasy klasyfikatora (w getRefinedLabels()) albo -1.
+     */
+    public int getRefinedClassId(int index) {
+        return refinedClassIds[index];
+    }
+
+    public float getRefinedScore(int index) {
+        return refinedScores[index];
+    }
+
+    public String getRefinedLabel(int index) {
+        int refined = refinedClassIds[index];
+        return refined >= 0 ? refinedLabels[refined] : null;
+    }
+
+    public void setRefinement(int index, int classId, float score) {
+        refinedClassIds[index] = classId;
+        refinedScores[index] = score;
+    }
+
+    public int getTrackId(int index) {
+        return trackIds[index];
+    }
+
+    public void setTrackId(int index, int trackId) {
+        trackIds[index] = trackId;
+    }
+
+    /**
+     * Etykieta do wyświetlenia - doprecyzowana przez klasyfikator, jeśli jest dostępna.
+     */
+    public String getDisplayLabel(int index) {
+        return isRefined(index) ? getRefinedLabel(index) : getLabel(index);
+    }
+
+    public float getDisplayScore(int index) {
+        return isRefined(index) ? refinedScores[index] : scores[index];
+    }
+}
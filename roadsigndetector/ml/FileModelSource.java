@@ -0,0 +1,75 @@
+package com.example.roadsigndetector.ml;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Model i etykiety z systemu plików. Bez zależności od Androida.
+ */
+public final class FileModelSource implements ModelSource {
+
+    private final File modelFile;
+    private final File labelFile;
+
+    /**
+     * @param labelFile plik etykiet (jedna w wierszu) albo null, jeśli model nie ma własnych etykiet
+     */
+    public FileModelSource(File modelFile, File labelFile) {
+        this.modelFile = modelFile;
+        this.labelFile = labelFile;
+    }
+
+    @Override
+    public String getKey() {
+        return modelFile.getAbsolutePath();
+    }
+
+    @Override
+    public ByteBuffer loadModel() throws IOException {
+        return mapFile(modelFile);
+    }
+
+    @Override
+    public List<String> loadLabels() throws IOException {
+        if (labelFile == null) {
+            return Collections.emptyList();
+        }
+        return loadLabelList(new FileInputStream(labelFile));
+    }
+
+    /**
+     * Mapuje plik modelu do pamięci tylko do odczytu.
+     */
+    static ByteBuffer mapFile(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel fileChannel = inputStream.getChannel();
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Wczytuje listę etykiet z pliku labelmap (strumień jest zamykany).
+     */
+    static List<String> loadLabelList(InputStream inputStream) throws IOException {
+        List<String> labelList = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            labelList.add(line);
+        }
+        reader.close();
+        return Collections.unmodifiableList(labelList);
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.roadsigndetector.ml;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Nagrywanie sesji kamery do pliku mapowanego w pamięci, tylko z dopisywaniem:
+ * klatki podglądu (surowe NV21 albo zmniejszone RGB) ze znacznikami czasu i wyniki detekcji.
+ * Zapis to kopiowanie do zmapowanego obszaru, bez wywołań systemowych na każdą klatkę.
+ * Bez zależności od Androida - nagrania odtwarza RecordedSession (np. tools.ReplayDriver na zwykłej JVM).
+ *
+ * Format (little-endian): nagłówek MAGIC, VERSION, 8 bajtów zarezerwowanych, a po nim rekordy
+ * [typ int, długość danych int, znacznik czasu long, dane]. Typ rekordu jest zapisywany na końcu,
+ * więc po przerwaniu nagrania plik kończy się zerami i czytnik zatrzymuje się na ostatnim pełnym rekordzie.
+ * Instancja nie jest bezpieczna wątkowo - zapisuje jeden wątek (FrameProcessor).
+ */
+public class FrameRecorder implements Closeable {
+
+    static final int MAGIC = 0x52534452; // "RSDR"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 16;
+
+    static final int TYPE_FRAME = 1;
+    static final int TYPE_DETECTIONS = 2;
+    static final int FRAME_HEADER_SIZE = 16;     // Format, szerokość, wysokość, obrót
+    static final int DETECTION_HEADER_SIZE = 16; // Czas detekcji, flagi, liczba wykryć
+    static final int DETECTION_SIZE = 24;        // Klasa, pewność, ramka
+    static final int FLAG_DETECTOR_RAN = 1;      // Wynik pełnej detekcji (0 - tylko tracker)
+
+    private static final long REGION_SIZE = 32L * 1024 * 1024; // Plik rośnie i jest mapowany takimi odcinkami
+
+    /**
+     * Sposób zapisu klatek.
+     */
+    public enum Format {
+        NV21, // Surowy bufor kamery - odtworzenie identyczne z nagraniem
+        RGB   // Obraz po obrocie zmniejszony downscale razy, 3 bajty na piksel
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Format format;
+    private final int downscale;
+    private final long maxBytes;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long position;
+    private boolean full;
+
+    // Zmniejszanie klatek w trybie RGB
+    private final Nv21Converter converter = new Nv21Converter();
+    private final PreprocessTransform transform = new PreprocessTransform();
+    private int[] pixels = new int[0];
+    private byte[] rgb = new byte[0];
+
+    /**
+     * @param downscale ile razy zmniejszać klatkę w trybie RGB (ignorowane dla NV21)
+     * @param maxBytes  największy rozmiar nagrania; po jego osiągnięciu rekordy są pomijane
+     */
+    public FrameRecorder(File output, Format format, int downscale, long maxBytes) throws IOException {
+        this.format = format;
+        this.downscale = Math.max(1, downscale);
+        this.maxBytes = maxBytes;
+        file = new RandomAccessFile(output, "rw");
+        channel = file.getChannel();
+        try {
+            file.setLength(0);
+            ensureCapacity(HEADER_SIZE);
+            region.putInt(0, MAGIC);
+            region.putInt(4, VERSION);
+            position = HEADER_SIZE;
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Dopisuje klatkę; zwraca false, gdy nagranie osiągnęło limit rozmiaru.
+     */
+    public boolean writeFrame(Nv21Frame frame, long timestampNanos) throws IOException {
+        int width;
+        int height;
+        int rotation;
+        int dataSize;
+        if (format == Format.NV21) {
+            width = frame.width;
+            height = frame.height;
+            rotation = frame.rotation;
+            dataSize = width * height * 3 / 2;
+        } else {
+            width = Math.max(1, frame.getRotatedWidth() / downscale);
+            height = Math.max(1, frame.getRotatedHeight() / downscale);
+            rotation = 0;
+            dataSize = width * height * 3;
+        }
+        if (!begin(FRAME_HEADER_SIZE + dataSize, timestampNanos)) {
+            return false;
+        }
+        int offset = dataOffset();
+        region.putInt(offset, format.ordinal());
+        region.putInt(offset + 4, width);
+        region.putInt(offset + 8, height);
+        region.putInt(offset + 12, rotation);
+        region.position(offset + FRAME_HEADER_SIZE);
+        if (format == Format.NV21) {
+            region.put(frame.data, 0, dataSize);
+        } else {
+            region.put(toRgb(frame, width, height), 0, dataSize);
+        }
+        commit(TYPE_FRAME, FRAME_HEADER_SIZE + dataSize);
+        return true;
+    }
+
+    /**
+     * Dopisuje wynik dla klatki timestampNanos (tej samej wartości co w writeFrame).
+     *
+     * @param latencyNanos czas kaskady (detekcja z klasyfikacją wycinków) albo predykcji trackera
+     * @param detectorRan  czy wynik pochodzi z pełnej detekcji - wtedy jest to surowy wynik kaskady,
+     *                     przed trackerem (false - predykcja trackera)
+     */
+    public boolean writeDetections(long timestampNanos, long latencyNanos, boolean detectorRan,
+                                   DetectionResult detections) throws IOException {
+        int count = detections.size();
+        int dataSize = DETECTION_HEADER_SIZE + count * DETECTION_SIZE;
+        if (!begin(dataSize, timestampNanos)) {
+            return false;
+        }
+        int offset = dataOffset();
+        region.putLong(offset, latencyNanos);
+        region.putInt(offset + 8, detectorRan ? FLAG_DETECTOR_RAN : 0);
+        region.putInt(offset + 12, count);
+        offset += DETECTION_HEADER_SIZE;
+        float[] boxes = detections.getBoxes();
+        for (int i = 0; i < count; i++) {
+            region.putInt(offset, detections.getClassId(i));
+            region.putFloat(offset + 4, detections.getScore(i));
+            for (int c = 0; c < 4; c++) {
+                region.putFloat(offset + 8 + c * 4, boxes[i * 4 + c]);
+            }
+            offset += DETECTION_SIZE;
+        }
+        commit(TYPE_DETECTIONS, dataSize);
+        return true;
+    }
+
+    /**
+     * Zmniejszony obraz po obrocie jako bajty RGB.
+     */
+    private byte[] toRgb(Nv21Frame frame, int width, int height) {
+        int size = width * height;
+        if (pixels.length < size) {
+            pixels = new int[size];
+            rgb = new byte[size * 3];
+        }
+        transform.update(frame.getRotatedWidth(), frame.getRotatedHeight(), width, height);
+        converter.toArgb(frame, transform, pixels);
+        for (int i = 0, o = 0; i < size; i++, o += 3) {
+            int pixel = pixels[i];
+            rgb[o] = (byte) (pixel >> 16);
+            rgb[o + 1] = (byte) (pixel >> 8);
+            rgb[o + 2] = (byte) pixel;
+        }
+        return rgb;
+    }
+
+    /**
+     * Rezerwuje miejsce na rekord z dataSize bajtami danych i zapisuje jego długość i znacznik czasu.
+     */
+    private boolean begin(int dataSize, long timestampNanos) throws IOException {
+        long recordSize = RECORD_HEADER_SIZE + dataSize;
+        if (full || position + recordSize > maxBytes) {
+            full = true;
+            return false;
+        }
+        ensureCapacity(recordSize);
+        int offset = (int) (position - regionStart);
+        region.putInt(offset + 4, dataSize);
+        region.putLong(offset + 8, timestampNanos);
+        return true;
+    }
+
+    private int dataOffset() {
+        return (int) (position - regionStart) + RECORD_HEADER_SIZE;
+    }
+
+    /**
+     * Zapisuje typ rekordu (dopiero teraz rekord jest widoczny dla czytnika) i przesuwa pozycję zapisu.
+     */
+    private void commit(int type, int dataSize) {
+        region.putInt((int) (position - regionStart), type);
+        position += RECORD_HEADER_SIZE + dataSize;
+    }
+
+    /**
+     * Mapuje nowy odcinek pliku od bieżącej pozycji, jeśli rekord nie mieści się w obecnym.
+     * Rekordy nie przekraczają granicy odcinka, bo nowy zaczyna się dokładnie na pozycji zapisu.
+     */
+    private void ensureCapacity(long size) throws IOException {
+        if (region != null && position + size <= regionStart + region.capacity()) {
+            return;
+        }
+        long length = Math.max(REGION_SIZE, size);
+        regionStart = position;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, length);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Liczba bajtów zapisanych do tej pory (z nagłówkiem).
+     */
+    public long getBytesWritten() {
+        return position;
+    }
+
+    /**
+     * Czy nagranie osiągnęło limit rozmiaru.
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Zapisuje zmapowane dane i obcina plik do faktycznej długości nagrania.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (region != null) {
+                region.force();
+                region = null;
+            }
+            file.setLength(position);
+        } finally {
+            file.close();
+        }
+    }
+}
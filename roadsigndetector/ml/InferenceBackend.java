@@ -0,0 +1,32 @@
+package com.example.roadsigndetector.ml;
+
+import java.util.Map;
+
+/**
+ * Silnik wykonujący model: TensorFlow Lite (TfLiteBackend) albo deterministyczna zaślepka (StubBackend).
+ * DetectionEngine i ClassificationEngine korzystają tylko z tego interfejsu, więc przetwarzanie
+ * wejścia i wyników działa tak samo na Androidzie, na serwerze i w testach na zwykłej JVM.
+ * Implementacje nie są bezpieczne wątkowo - wywołania synchronizuje właściciel.
+ */
+public interface InferenceBackend {
+
+    int getInputCount();
+
+    TensorSpec getInputSpec(int index);
+
+    int getOutputCount();
+
+    TensorSpec getOutputSpec(int index);
+
+    /**
+     * Zmienia kształt wejścia (rozmiar wsadu albo obrazu) i przelicza kształty wyjść.
+     */
+    void resizeInput(int index, int[] shape);
+
+    /**
+     * Uruchamia model: inputs to bufory kolejnych wejść, outputs - bufory wyjść pod ich indeksami.
+     */
+    void run(Object[] inputs, Map<Integer, Object> outputs);
+
+    void close();
+}
@@ -0,0 +1,126 @@
+package com.example.roadsigndetector.ml;
+
+import org.tensorflow.lite.Delegate;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.nnapi.NnApiDelegate;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Konfiguracja interpretera wspólna dla detektora i klasyfikatora:
+ * liczba wątków, kolejność prób akceleratorów i zgoda na obliczenia FP16.
+ * Jeśli utworzenie interpretera z danym akceleratorem się nie powiedzie,
+ * próbowany jest następny, a na końcu zwykłe CPU.
+ */
+public final class InferenceConfig {
+
+    private static final String TAG = "InferenceConfig";
+    private static final int DEFAULT_MAX_THREADS = 4;
+
+    /**
+     * Dostępne backendy inferencji.
+     */
+    public enum Backend {
+        NNAPI,
+        XNNPACK,
+        CPU
+    }
+
+    private final int numThreads;
+    private final List<Backend> backends;
+    private final boolean allowFp16;
+
+    /**
+     * @param numThreads liczba wątków CPU/XNNPACK
+     * @param allowFp16  czy akcelerator może liczyć w FP16 zamiast FP32
+     * @param backends   backendy w kolejności prób; CPU jest zawsze dodawane na końcu
+     */
+    public InferenceConfig(int numThreads, boolean allowFp16, Backend... backends) {
+        this.numThreads = Math.max(1, numThreads);
+        this.allowFp16 = allowFp16;
+        List<Backend> order = new ArrayList<>(Arrays.asList(backends));
+        if (!order.contains(Backend.CPU)) {
+            order.add(Backend.CPU);
+        }
+        this.backends = Collections.unmodifiableList(order);
+    }
+
+    /**
+     * Domyślna konfiguracja: XNNPACK na maksymalnie 4 wątkach, bez FP16.
+     */
+    public static InferenceConfig defaults() {
+        int threads = Math.min(DEFAULT_MAX_THREADS, Runtime.getRuntime().availableProcessors());
+        return new InferenceConfig(threads, false, Backend.XNNPACK);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Ta sama konfiguracja z inną liczbą wątków.
+     */
+    public InferenceConfig withNumThreads(int threads) {
+        return new InferenceConfig(threads, allowFp16, backends.toArray(new Backend[0]));
+    }
+
+    public boolean isFp16Allowed() {
+        return allowFp16;
+    }
+
+    public List<Backend> getBackends() {
+        return backends;
+    }
+
+    /**
+     * Klucz identyfikujący konfigurację (np. w ModelCache).
+     */
+    String key() {
+        return numThreads + "/" + allowFp16 + "/" + backends;
+    }
+
+    /**
+     * Tworzy interpreter, próbując kolejnych backendów aż do skutku.
+     */
+    TfLiteBackend createBackend(ByteBuffer model) {
+        RuntimeException lastError = null;
+        for (Backend backend : backends) {
+            Delegate delegate = null;
+            try {
+                Interpreter.Options options = new Interpreter.Options()
+                        .setNumThreads(numThreads)
+                        .setAllowFp16PrecisionForFp32(allowFp16)
+                        .setUseXNNPACK(backend == Backend.XNNPACK);
+                if (backend == Backend.NNAPI) {
+                    delegate = new NnApiDelegate(new NnApiDelegate.Options().setAllowFp16(allowFp16));
+                    options.addDelegate(delegate);
+                }
+                model.rewind();
+                Interpreter interpreter = new Interpreter(model, options);
+                Loggers.get().info(TAG, "Interpreter: " + backend + ", wątki: " + numThreads);
+                return new TfLiteBackend(interpreter, backend, delegate);
+            } catch (RuntimeException e) {
+                // Np. brak NNAPI na urządzeniu lub nieobsługiwane operacje w delegacie
+                Loggers.get().warn(TAG, "Backend " + backend + " niedostępny: " + e.getMessage());
+                closeQuietly(delegate);
+                lastError = e;
+            }
+        }
+        throw lastError != null ? lastError : new IllegalStateException("Brak backendów inferencji");
+    }
+
+    static void closeQuietly(Delegate delegate) {
+        if (delegate == null) {
+            return;
+        }
+        try {
+            delegate.close();
+        } catch (Exception e) {
+            Loggers.get().warn(TAG, "Błąd zamykania delegata: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.roadsigndetector.ml;
+
+import java.util.Locale;
+
+/**
+ * Pomiary wydajności potoku: czasy poszczególnych etapów (p50/p95/p99),
+ * liczba klatek na sekundę oraz liczba klatek odrzuconych.
+ */
+public class InferenceMetrics {
+
+    /**
+     * Etapy przetwarzania mierzone osobno.
+     */
+    public enum Stage {
+        SCALE,        // Skalowanie obrazu do rozmiaru wejścia
+        CONVERT,      // Konwersja pikseli do tensora
+        INFERENCE,    // interpreter.run
+        POSTPROCESS,  // Przetwarzanie wyników
+        TOTAL,        // Całe wywołanie detekcji/klasyfikacji
+        END_TO_END    // Od otrzymania klatki do gotowego wyniku
+    }
+
+    private static final int WINDOW = 256; // Liczba ostatnich pomiarów w percentylach
+    private static final long FPS_WINDOW_NANOS = 1_000_000_000L;
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final long[] frameTimestamps = new long[WINDOW];
+    private int frameIndex;
+    private int frameCount;
+    private long completedFrames;
+    private long droppedFrames;
+
+    public InferenceMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram(WINDOW);
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Odnotowuje zakończenie przetwarzania klatki (do licznika FPS).
+     */
+    public synchronized void frameCompleted(long timestampNanos) {
+        frameTimestamps[frameIndex] = timestampNanos;
+        frameIndex = (frameIndex + 1) % frameTimestamps.length;
+        if (frameCount < frameTimestamps.length) {
+            frameCount++;
+        }
+        completedFrames++;
+    }
+
+    public synchronized void frameDropped() {
+        droppedFrames++;
+    }
+
+    /**
+     * Liczba klatek przetworzonych w ostatniej sekundzie przed timestampNanos.
+     */
+    public synchronized float getFps(long timestampNanos) {
+        int frames = 0;
+        long oldest = timestampNanos;
+        for (int i = 0; i < frameCount; i++) {
+            long t = frameTimestamps[i];
+            if (timestampNanos - t <= FPS_WINDOW_NANOS) {
+                frames++;
+                oldest = Math.min(oldest, t);
+            }
+        }
+        if (frames < 2) {
+            return frames;
+        }
+        return (frames - 1) * 1e9f / Math.max(1L, timestampNanos - oldest);
+    }
+
+    public synchronized long getCompletedFrames() {
+        return completedFrames;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Zwraca bieżący stan pomiarów.
+     */
+    public Snapshot snapshot() {
+        long now = System.nanoTime();
+        Snapshot snapshot = new Snapshot();
+        long[] values = new long[QUANTILES.length];
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            histogram.percentiles(QUANTILES, values);
+            int i = stage.ordinal();
+            snapshot.counts[i] = histogram.count();
+            snapshot.p50[i] = values[0];
+            snapshot.p95[i] = values[1];
+            snapshot.p99[i] = values[2];
+        }
+        synchronized (this) {
+            snapshot.fps = getFps(now);
+            snapshot.completedFrames = completedFrames;
+            snapshot.droppedFrames = droppedFrames;
+        }
+        return snapshot;
+    }
+
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        frameIndex = 0;
+        frameCount = 0;
+        completedFrames = 0;
+        droppedFrames = 0;
+    }
+
+    /**
+     * Niezmienny odczyt pomiarów. Czasy w nanosekundach, indeksowane Stage.ordinal().
+     */
+    public static class Snapshot {
+        public final long[] counts = new long[Stage.values().length];
+        public final long[] p50 = new long[Stage.values().length];
+        public final long[] p95 = new long[Stage.values().length];
+        public final long[] p99 = new long[Stage.values().length];
+        public float fps;
+        public long completedFrames;
+        public long droppedFrames;
+
+        public long count(Stage stage) {
+            return counts[stage.ordinal()];
+        }
+
+        public double p50Millis(Stage stage) {
+            return p50[stage.ordinal()] / 1e6;
+        }
+
+        public double p95Millis(Stage stage) {
+            return p95[stage.ordinal()] / 1e6;
+        }
+
+        public double p99Millis(Stage stage) {
+            return p99[stage.ordinal()] / 1e6;
+        }
+
+        /**
+         * Tekstowe podsumowanie - jedna linia na etap, który ma pomiary.
+         */
+        public String format() {
+            StringBuilder builder = new StringBuilder();
+            if (completedFrames > 0 || droppedFrames > 0) {
+                builder.append(String.format(Locale.US, "FPS %.1f, odrzucone %d/%d%n",
+                        fps, droppedFrames, completedFrames + droppedFrames));
+            }
+            for (Stage stage : Stage.values()) {
+                if (count(stage) == 0) {
+                    continue;
+                }
+                builder.append(String.format(Locale.US, "%s p50 %.1f p95 %.1f p99 %.1f ms%n",
+                        stage.name().toLowerCase(Locale.US),
+                        p50Millis(stage), p95Millis(stage), p99Millis(stage)));
+            }
+            return builder.toString();
+        }
+    }
+}
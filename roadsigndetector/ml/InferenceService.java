@@ -0,0 +1,467 @@
+package com.example.roadsigndetector.ml;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Usługa inferencji współdzielona przez kamerę, galerię i przetwarzanie wsadowe.
+ * RoadSignDetector i RoadSignClassifier nie są bezpieczne wątkowo, więc usługa trzyma dla każdego modelu
+ * ograniczoną pulę instancji z własnymi interpreterami i wątek na każdą instancję - zadania różnych
+ * ekranów liczą się równolegle, bez jednej globalnej blokady.
+ * Ekrany aplikacji korzystają z jednej usługi procesu (acquire/release), więc kamera i galeria
+ * dzielą te same interpretery. Detekcja kafelkami (processTiled) działa na tej samej puli detektorów;
+ * TiledDetector z własną pulą interpreterów kafelków jest tworzony przy pierwszym takim zleceniu.
+ * Kolejka zadań ma ograniczoną pojemność: gdy jest pełna, zlecenie rzuca RejectedExecutionException
+ * (kamera powinna wtedy pominąć klatkę zamiast czekać). Zadanie można anulować przez Future.cancel() -
+ * nieuruchomione nie zostanie wykonane, a wynik trwającego nie trafi do Callback (wynik z puli
+ * DetectionResult wraca do puli).
+ * close() czeka na zakończenie rozpoczętych zadań, zanim zamknie interpretery.
+ */
+public class InferenceService {
+
+    private static final String TAG = "InferenceService";
+    private static final long SHUTDOWN_TIMEOUT_MS = 2000;
+    // Usługa procesu: kamera przetwarza jedną klatkę naraz, klasyfikator obsługuje wycinki kamery i galerię
+    private static final int SHARED_DETECTORS = 1;
+    private static final int SHARED_CLASSIFIERS = 2;
+    private static final int SHARED_QUEUE_CAPACITY = 2;
+    private static final int TILE_POOL_SIZE = 2;
+
+    private static InferenceService shared;
+    private static int sharedUsers;
+
+    /**
+     * Odbiorca wyniku zadania; wywoływany na wątku puli (nie jest wywoływany po anulowaniu).
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        void onError(Exception error);
+    }
+
+    // Każdy detektor puli ma własną kaskadę (bufory wycinków); wycinki klasyfikuje instancja z puli klasyfikatorów
+    private final ModelPool<RoadSignCascade> detectors;
+    private final ModelPool<RoadSignClassifier> classifiers;
+    private final List<RoadSignDetector> detectorList;
+    private final List<RoadSignClassifier> classifierList;
+
+    // Detektor kafelkowy - nie jest bezpieczny wątkowo, więc zlecenia z różnych wątków puli czekają na tiledLock
+    private final Context context;
+    private final InferenceConfig config;
+    private final Object tiledLock = new Object();
+    private TiledDetector tiledDetector;
+    private boolean tiledClosed;
+    private volatile ResultCache<DetectionResult> tiledResultCache;
+
+    /**
+     * @param poolSize      liczba instancji (interpreterów) każdego modelu
+     * @param queueCapacity ile zadań każdego modelu może czekać w kolejce
+     */
+    public InferenceService(Context context, int poolSize, int queueCapacity) {
+        this(context, InferenceConfig.defaults(), poolSize, poolSize, queueCapacity);
+    }
+
+    public InferenceService(Context context, InferenceConfig config, int detectorPoolSize, int classifierPoolSize,
+                            int queueCapacity) {
+        this.context = context;
+        this.config = config;
+        int detectorCount = Math.max(1, detectorPoolSize);
+        int classifierCount = Math.max(1, classifierPoolSize);
+        // Wątki interpretera są dzielone pomiędzy instancje puli, żeby równoległe zadania nie walczyły o rdzenie
+        InferenceConfig detectorConfig = config.withNumThreads(config.getNumThreads() / detectorCount);
+        InferenceConfig classifierConfig = config.withNumThreads(config.getNumThreads() / classifierCount);
+
+        List<RoadSignClassifier> classifierInstances = new ArrayList<>(classifierCount);
+        for (int i = 0; i < classifierCount; i++) {
+            classifierInstances.add(new RoadSignClassifier(context, classifierConfig, true));
+        }
+        // Klasyfikator jest bezpieczny przy wywołaniach z dwóch wątków (blokada modelu), więc kaskada
+        // może używać instancji obsługującej jednocześnie zlecenia klasyfikacji
+        List<RoadSignDetector> detectorInstances = new ArrayList<>(detectorCount);
+        List<RoadSignCascade> cascades = new ArrayList<>(detectorCount);
+        for (int i = 0; i < detectorCount; i++) {
+            RoadSignDetector detector = new RoadSignDetector(context, detectorConfig, true);
+            detectorInstances.add(detector);
+            cascades.add(new RoadSignCascade(detector, classifierInstances.get(i % classifierCount)));
+        }
+        detectorList = Collections.unmodifiableList(detectorInstances);
+        classifierList = Collections.unmodifiableList(classifierInstances);
+        detectors = new ModelPool<>("Detector", cascades, queueCapacity);
+        classifiers = new ModelPool<>("Classifier", classifierInstances, queueCapacity);
+    }
+
+    /**
+     * Zwraca usługę współdzieloną przez ekrany aplikacji (tworzoną przy pierwszym użyciu).
+     * Każde acquire() musi zostać zakończone wywołaniem release(). Tworzenie wczytuje modele -
+     * pierwsze wywołanie trwa tyle, co utworzenie detektora i klasyfikatora.
+     */
+    public static synchronized InferenceService acquire(Context context) {
+        if (shared == null) {
+            Context appContext = context.getApplicationContext();
+            shared = new InferenceService(appContext != null ? appContext : context, InferenceConfig.defaults(),
+                    SHARED_DETECTORS, SHARED_CLASSIFIERS, SHARED_QUEUE_CAPACITY);
+        }
+        sharedUsers++;
+        return shared;
+    }
+
+    /**
+     * Zwalnia usługę pobraną przez acquire(); ostatni użytkownik zamyka ją (close()).
+     */
+    public void release() {
+        synchronized (InferenceService.class) {
+            if (shared != this || sharedUsers == 0) {
+                return;
+            }
+            if (--sharedUsers > 0) {
+                return;
+            }
+            shared = null;
+        }
+        close();
+    }
+
+    /**
+     * Zleca detekcję na bitmapie. Wynik pochodzi z DetectionResult.obtain() - odbiorca wywołuje recycle().
+     * Bitmapy nie wolno zmieniać ani zwalniać przed zakończeniem zadania.
+     *
+     * @param callback odbiorca wyniku albo null (wynik tylko przez Future)
+     * @throws RejectedExecutionException gdy kolejka jest pełna albo usługa została zamknięta
+     */
+    public Future<DetectionResult> detect(final Bitmap bitmap, Callback<DetectionResult> callback) {
+        return detectors.submit(new DetectionJob() {
+            @Override
+            boolean detect(RoadSignCascade cascade, DetectionResult out) {
+                return cascade.getDetector().detect(bitmap, out);
+            }
+        }, callback);
+    }
+
+    /**
+     * Jak detect(Bitmap, Callback), na klatce NV21. Bufora klatki nie wolno oddać kamerze
+     * przed zakończeniem zadania.
+     */
+    public Future<DetectionResult> detect(final Nv21Frame frame, Callback<DetectionResult> callback) {
+        return detectors.submit(new DetectionJob() {
+            @Override
+            boolean detect(RoadSignCascade cascade, DetectionResult out) {
+                return cascade.getDetector().detect(frame, out);
+            }
+        }, callback);
+    }
+
+    /**
+     * Zleca detekcję z doprecyzowaniem ograniczeń prędkości (RoadSignCascade) na klatce NV21.
+     * Wynik pochodzi z DetectionResult.obtain(); bufora klatki nie wolno oddać kamerze przed zakończeniem
+     * zadania, a trackera zmieniać, dopóki zadanie trwa.
+     *
+     * @param tracker tracker kamery (wycinki zatwierdzonych odczytów są pomijane) albo null
+     */
+    public Future<DetectionResult> process(final Nv21Frame frame, final ObjectTracker tracker,
+                                           Callback<DetectionResult> callback) {
+        return detectors.submit(new DetectionJob() {
+            @Override
+            boolean detect(RoadSignCascade cascade, DetectionResult out) {
+                cascade.setTracker(tracker);
+                try {
+                    return cascade.process(frame, out);
+                } finally {
+                    cascade.setTracker(null);
+                }
+            }
+        }, callback);
+    }
+
+    /**
+     * Zleca detekcję kafelkami (TiledDetector) na zdjęciu w dużej rozdzielczości, a następnie doprecyzowanie
+     * ograniczeń prędkości klasyfikatorem kaskady - jak process() dla klatek kamery.
+     * Wynik pochodzi z DetectionResult.obtain(); bitmapy nie wolno zmieniać ani zwalniać przed zakończeniem
+     * zadania. Pierwsze zlecenie tworzy interpretery kafelków.
+     *
+     * @throws RejectedExecutionException gdy kolejka jest pełna albo usługa została zamknięta
+     */
+    public Future<DetectionResult> processTiled(final Bitmap bitmap, Callback<DetectionResult> callback) {
+        return detectors.submit(new DetectionJob() {
+            @Override
+            boolean detect(RoadSignCascade cascade, DetectionResult out) {
+                synchronized (tiledLock) {
+                    TiledDetector tiled = tiledDetector();
+                    if (tiled == null || !tiled.detect(bitmap, out)) {
+                        return false;
+                    }
+                }
+                cascade.refine(bitmap, out);
+                return true;
+            }
+        }, callback);
+    }
+
+    /**
+     * Pamięć wyników detekcji kafelkami (null - wyłączona); ponownie wybrane zdjęcie nie jest dzielone
+     * na kafelki drugi raz, a wycinki ograniczeń trafiają do pamięci wyników klasyfikatorów.
+     */
+    public void setTiledResultCache(ResultCache<DetectionResult> cache) {
+        tiledResultCache = cache;
+        synchronized (tiledLock) {
+            if (tiledDetector != null) {
+                tiledDetector.setResultCache(cache);
+            }
+        }
+    }
+
+    /**
+     * Detektor kafelkowy tworzony przy pierwszym użyciu; null, gdy modelu nie da się wczytać
+     * (następne zlecenie spróbuje ponownie). Wywoływane z blokadą tiledLock.
+     */
+    private TiledDetector tiledDetector() {
+        if (tiledDetector == null && !tiledClosed) {
+            try {
+                tiledDetector = new TiledDetector(context, config, TILE_POOL_SIZE);
+                tiledDetector.setResultCache(tiledResultCache);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Błąd inicjalizacji detektora kafelkowego: " + e.getMessage());
+            }
+        }
+        return tiledDetector;
+    }
+
+    private void closeTiledDetector() {
+        if (tiledDetector != null) {
+            tiledDetector.close();
+            tiledDetector = null;
+        }
+    }
+
+    /**
+     * Zleca klasyfikację fragmentu bitmapy (roi w pikselach; null = cały obraz).
+     *
+     * @throws RejectedExecutionException gdy kolejka jest pełna albo usługa została zamknięta
+     */
+    public Future<ClassificationResult> classify(final Bitmap bitmap, final Rect roi,
+                                                 Callback<ClassificationResult> callback) {
+        return classifiers.submit(new Job<RoadSignClassifier, ClassificationResult>() {
+            @Override
+            ClassificationResult run(RoadSignClassifier classifier) {
+                ClassificationResult result = new ClassificationResult();
+                if (!classifier.classify(bitmap, roi, result)) {
+                    throw new IllegalStateException("Model klasyfikatora nie jest załadowany");
+                }
+                return result;
+            }
+        }, callback);
+    }
+
+    /**
+     * Detektory puli - do ustawień (obszar detekcji, pamięć wyników, skala wejścia, liczba wątków)
+     * i pomiarów. Ustawienia dotyczą wszystkich zleceń detekcji; inferencja tylko przez zlecenia usługi.
+     */
+    public List<RoadSignDetector> getDetectors() {
+        return detectorList;
+    }
+
+    /**
+     * Klasyfikatory puli - do ustawień i pomiarów, jak getDetectors().
+     */
+    public List<RoadSignClassifier> getClassifiers() {
+        return classifierList;
+    }
+
+    /**
+     * Liczba zadań detekcji czekających w kolejce (do sterowania tempem zleceń).
+     */
+    public int getPendingDetections() {
+        return detectors.executor.getQueue().size();
+    }
+
+    public int getPendingClassifications() {
+        return classifiers.executor.getQueue().size();
+    }
+
+    /**
+     * Przełącza wszystkie instancje na najnowsze pakiety z rejestru. Każda instancja przejmuje
+     * nowy model przed swoim następnym zadaniem, więc trwające zadania kończą się na starym.
+     * Blokuje do czasu wczytania modeli - należy wywoływać poza wątkiem UI.
+     */
+    public void updateModels(ModelRegistry registry) {
+        for (RoadSignDetector detector : detectorList) {
+            detector.updateModel(registry);
+        }
+        for (RoadSignClassifier classifier : classifierList) {
+            classifier.updateModel(registry);
+        }
+        // Detektor kafelkowy wczyta najnowszy pakiet przy następnym zleceniu
+        synchronized (tiledLock) {
+            closeTiledDetector();
+        }
+    }
+
+    /**
+     * Przestaje przyjmować zadania, czeka na zakończenie rozpoczętych i zamyka interpretery.
+     * Zadania, które nie zdążą się rozpocząć w czasie SHUTDOWN_TIMEOUT_MS, są anulowane.
+     */
+    public void close() {
+        detectors.executor.shutdown();
+        classifiers.executor.shutdown();
+        detectors.awaitTermination();
+        classifiers.awaitTermination();
+        // close() instancji czeka na zakończenie inferencji, która mimo czasu oczekiwania jeszcze trwa
+        for (RoadSignDetector detector : detectorList) {
+            detector.close();
+        }
+        for (RoadSignClassifier classifier : classifierList) {
+            classifier.close();
+        }
+        synchronized (tiledLock) {
+            tiledClosed = true;
+            closeTiledDetector();
+        }
+    }
+
+    /**
+     * Zadanie wykonywane na instancji modelu pobranej z puli.
+     */
+    private abstract static class Job<M, T> {
+        abstract T run(M model) throws Exception;
+
+        /**
+         * Zwalnia wynik zadania anulowanego w trakcie wykonania (nie trafi do odbiorcy).
+         */
+        void discard(T result) {
+        }
+    }
+
+    /**
+     * Detekcja do wyniku z puli DetectionResult, zwracanego do puli po błędzie albo anulowaniu.
+     */
+    private abstract static class DetectionJob extends Job<RoadSignCascade, DetectionResult> {
+        /**
+         * Zwraca false, gdy model detektora nie jest załadowany.
+         */
+        abstract boolean detect(RoadSignCascade cascade, DetectionResult out);
+
+        @Override
+        DetectionResult run(RoadSignCascade cascade) {
+            DetectionResult result = DetectionResult.obtain();
+            boolean loaded;
+            try {
+                loaded = detect(cascade, result);
+            } catch (RuntimeException e) {
+                result.recycle();
+                throw e;
+            }
+            if (!loaded) {
+                result.recycle();
+                throw new IllegalStateException("Model detektora nie jest załadowany");
+            }
+            return result;
+        }
+
+        @Override
+        void discard(DetectionResult result) {
+            result.recycle();
+        }
+    }
+
+    /**
+     * Instancje jednego modelu i wątki, które je obsługują (po jednym wątku na instancję,
+     * więc wolna instancja jest zawsze dostępna dla wątku, który rozpoczyna zadanie).
+     */
+    private static final class ModelPool<M> {
+        final BlockingQueue<M> idle;
+        final ThreadPoolExecutor executor;
+
+        ModelPool(final String name, List<M> instances, int queueCapacity) {
+            idle = new ArrayBlockingQueue<>(instances.size(), false, instances);
+            executor = new ThreadPoolExecutor(instances.size(), instances.size(), 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, queueCapacity)), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, TAG + "-" + name + "-" + count.incrementAndGet());
+                }
+            }, new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        <T> Future<T> submit(final Job<M, T> job, final Callback<T> callback) {
+            FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    M instance = idle.take();
+                    try {
+                        return job.run(instance);
+                    } finally {
+                        idle.offer(instance);
+                    }
+                }
+            }) {
+                @Override
+                protected void set(T value) {
+                    super.set(value);
+                    // Anulowane w trakcie wykonania - FutureTask pomija wynik, więc trzeba go zwolnić tutaj
+                    if (isCancelled()) {
+                        job.discard(value);
+                    }
+                }
+
+                @Override
+                protected void done() {
+                    if (callback == null || isCancelled()) {
+                        return;
+                    }
+                    try {
+                        callback.onResult(get());
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        callback.onError(cause instanceof Exception ? (Exception) cause : e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            executor.execute(task);
+            return task;
+        }
+
+        void awaitTermination() {
+            try {
+                if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "Zadania nie zakończyły się w czasie, anulowanie oczekujących");
+                    cancelPending();
+                }
+            } catch (InterruptedException e) {
+                cancelPending();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Anuluje zadania z kolejki, żeby oczekujący na Future.get() nie czekali w nieskończoność.
+         */
+        private void cancelPending() {
+            for (Runnable pending : executor.shutdownNow()) {
+                if (pending instanceof Future) {
+                    ((Future<?>) pending).cancel(false);
+                }
+            }
+        }
+    }
+}
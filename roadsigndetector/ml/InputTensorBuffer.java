@@ -0,0 +1,138 @@
+package com.example.roadsigndetector.ml;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bufor wejściowy modelu wielokrotnego użytku.
+ * Wszystkie struktury (bitmapa docelowa, tablica pikseli, ByteBuffer) są alokowane raz,
+ * dzięki czemu konwersja kolejnych klatek nie generuje śmieci dla GC.
+ * Rozszerza PixelInputBuffer o wejście z Bitmap i wycinki podawane jako Rect.
+ */
+class InputTensorBuffer extends PixelInputBuffer {
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    // Skalowanie przez Canvas do stałej bitmapy zamiast createScaledBitmap
+    private final Bitmap scaledBitmap;
+    private final Canvas canvas;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect srcRect = new Rect();
+    private final RectF dstRect = new RectF();
+
+    // Przekształcenie dla wycinków podawanych jako Rect (tryb STRETCH)
+    private final PreprocessTransform roiTransform = new PreprocessTransform();
+
+    /**
+     * Tworzy bufor zgodny z tensorem wejściowym o kształcie [1, wysokość, szerokość, 3].
+     */
+    InputTensorBuffer(TensorSpec tensor) {
+        super(tensor);
+        width = getWidth();
+        height = getHeight();
+        pixels = new int[width * height];
+        scaledBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(scaledBitmap);
+    }
+
+    /**
+     * Skaluje bitmapę do rozmiaru wejścia modelu i zapisuje ją do bufora
+     * jako float (0..1) albo jako skwantyzowane bajty.
+     */
+    ByteBuffer load(Bitmap bitmap) {
+        return load(bitmap, (Rect) null);
+    }
+
+    /**
+     * Jak load(Bitmap), ale do modelu trafia tylko wskazany fragment bitmapy (null = całość).
+     * Wycinek jest skalowany bezpośrednio, bez tworzenia pośredniej bitmapy.
+     */
+    ByteBuffer load(Bitmap bitmap, Rect roi) {
+        prepareBatch(1);
+        write(0, bitmap, roi);
+        return batchBuffer();
+    }
+
+    /**
+     * Jak load(Bitmap), ale zgodnie z przekształceniem transform (tryb dopasowania i obszar).
+     * Przekształcenie jest wyliczane dla rozmiaru bitmapy i zostaje w transform
+     * do późniejszego przeliczenia ramek.
+     */
+    ByteBuffer load(Bitmap bitmap, PreprocessTransform transform) {
+        prepareBatch(1);
+        transform.update(bitmap.getWidth(), bitmap.getHeight(), width, height);
+        write(0, bitmap, transform);
+        return batchBuffer();
+    }
+
+    /**
+     * Zapisuje obraz (lub jego wycinek) na pozycji slot we wsadzie.
+     */
+    void write(int slot, Bitmap bitmap, Rect roi) {
+        updateRoiTransform(bitmap.getWidth(), bitmap.getHeight(), roi);
+        write(slot, bitmap, roiTransform);
+    }
+
+    /**
+     * Zapisuje obraz na pozycji slot we wsadzie zgodnie z wyliczonym przekształceniem.
+     */
+    void write(int slot, Bitmap bitmap, PreprocessTransform transform) {
+        long start = System.nanoTime();
+        if (transform.isIdentity()) {
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        } else {
+            if (transform.hasPadding()) {
+                scaledBitmap.eraseColor(Color.BLACK);
+            }
+            srcRect.set(Math.round(transform.getCropLeft()), Math.round(transform.getCropTop()),
+                    Math.round(transform.getCropLeft() + transform.getCropWidth()),
+                    Math.round(transform.getCropTop() + transform.getCropHeight()));
+            dstRect.set(transform.getContentLeft(), transform.getContentTop(),
+                    transform.getContentLeft() + transform.getContentWidth(),
+                    transform.getContentTop() + transform.getContentHeight());
+            canvas.drawBitmap(bitmap, srcRect, dstRect, paint);
+            scaledBitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        }
+        addScaleNanos(System.nanoTime() - start);
+
+        writePixels(slot, pixels);
+    }
+
+    /**
+     * Zapisuje klatkę NV21 (lub jej wycinek we współrzędnych po obrocie; null = całość)
+     * bezpośrednio do tensora, bez pośredniej bitmapy.
+     */
+    ByteBuffer load(Nv21Frame frame, Rect roi) {
+        prepareBatch(1);
+        write(0, frame, roi);
+        return batchBuffer();
+    }
+
+    /**
+     * Zapisuje klatkę NV21 (lub jej wycinek) na pozycji slot we wsadzie.
+     */
+    void write(int slot, Nv21Frame frame, Rect roi) {
+        updateRoiTransform(frame.getRotatedWidth(), frame.getRotatedHeight(), roi);
+        write(slot, frame, roiTransform);
+    }
+
+    /**
+     * Wycinki klasyfikatora są rozciągane na całe wejście (jak dotychczas).
+     */
+    private void updateRoiTransform(int sourceWidth, int sourceHeight, Rect roi) {
+        if (roi != null) {
+            roiTransform.update(sourceWidth, sourceHeight, roi.left, roi.top, roi.width(), roi.height(),
+                    width, height);
+        } else {
+            roiTransform.update(sourceWidth, sourceHeight, 0, 0, sourceWidth, sourceHeight, width, height);
+        }
+    }
+}
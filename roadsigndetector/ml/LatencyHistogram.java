@@ -0,0 +1,59 @@
+package com.example.roadsigndetector.ml;
+
+import java.util.Arrays;
+
+/**
+ * Krocząca próbka czasów wykonania (ostatnie N pomiarów) z percentylami.
+ * Bufory są alokowane raz, więc zapis i odczyt nie generują śmieci.
+ */
+public class LatencyHistogram {
+
+    private final long[] samples;
+    private final long[] sorted;
+    private int next;
+    private int size;
+    private long total;
+
+    public LatencyHistogram(int window) {
+        samples = new long[window];
+        sorted = new long[window];
+    }
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (size < samples.length) {
+            size++;
+        }
+        total++;
+    }
+
+    /**
+     * Liczba wszystkich zapisanych pomiarów (nie tylko tych w oknie).
+     */
+    public synchronized long count() {
+        return total;
+    }
+
+    /**
+     * Zwraca percentyle (np. 0.5, 0.95, 0.99) z okna w nanosekundach; 0, gdy brak pomiarów.
+     */
+    public synchronized void percentiles(double[] quantiles, long[] out) {
+        if (size == 0) {
+            Arrays.fill(out, 0, quantiles.length, 0L);
+            return;
+        }
+        System.arraycopy(samples, 0, sorted, 0, size);
+        Arrays.sort(sorted, 0, size);
+        for (int i = 0; i < quantiles.length; i++) {
+            int index = (int) Math.ceil(quantiles[i] * size) - 1;
+            out[i] = sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+    }
+
+    public synchronized void reset() {
+        next = 0;
+        size = 0;
+        total = 0;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.roadsigndetector.ml;
+
+/**
+ * Dziennik używany przez rdzeń bez zależności od Androida (silniki inferencji, konfiguracja, zaślepki).
+ * Na Androidzie ModelCache ustawia AndroidLogger; na zwykłej JVM komunikaty trafiają na System.err.
+ */
+public interface Logger {
+
+    void info(String tag, String message);
+
+    void warn(String tag, String message);
+
+    void error(String tag, String message);
+}
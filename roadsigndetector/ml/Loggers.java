@@ -0,0 +1,40 @@
+package com.example.roadsigndetector.ml;
+
+/**
+ * Dziennik procesu dla klas rdzenia (domyślnie System.err, np. narzędzia i serwer).
+ */
+public final class Loggers {
+
+    /**
+     * Komunikaty na standardowe wyjście błędów.
+     */
+    public static final Logger STDERR = new Logger() {
+        @Override
+        public void info(String tag, String message) {
+            System.err.println("I/" + tag + ": " + message);
+        }
+
+        @Override
+        public void warn(String tag, String message) {
+            System.err.println("W/" + tag + ": " + message);
+        }
+
+        @Override
+        public void error(String tag, String message) {
+            System.err.println("E/" + tag + ": " + message);
+        }
+    };
+
+    private static volatile Logger logger = STDERR;
+
+    private Loggers() {
+    }
+
+    public static Logger get() {
+        return logger;
+    }
+
+    public static void set(Logger logger) {
+        Loggers.logger = logger != null ? logger : STDERR;
+    }
+}
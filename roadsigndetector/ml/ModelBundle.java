@@ -0,0 +1,157 @@
+package com.example.roadsigndetector.ml;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Wersjonowany pakiet modelu: plik .tflite, plik etykiet i metadane opisujące wejście modelu.
+ * Pakiet wbudowany leży w assets (wersja 0, bez metadanych), pakiety pobrane -
+ * w katalogu aplikacji models/&lt;nazwa&gt;/&lt;wersja&gt;/ z plikiem bundle.properties:
+ *
+ * model=model.tflite
+ * labels=labels.txt
+ * input.width=300
+ * input.height=300
+ * input.type=UINT8
+ * labels.count=22
+ */
+public final class ModelBundle {
+
+    static final String METADATA_FILE = "bundle.properties";
+
+    private final String name;
+    private final int version;
+    private final File directory; // null - pakiet z assets
+    private final String modelPath;
+    private final String labelPath;
+    // Metadane do sprawdzenia zgodności z interpreterem (0/null - brak, pakiet wbudowany)
+    private final int inputWidth;
+    private final int inputHeight;
+    private final String inputType;
+    private final int labelCount;
+
+    private ModelBundle(String name, int version, File directory, String modelPath, String labelPath,
+                        int inputWidth, int inputHeight, String inputType, int labelCount) {
+        this.name = name;
+        this.version = version;
+        this.directory = directory;
+        this.modelPath = modelPath;
+        this.labelPath = labelPath;
+        this.inputWidth = inputWidth;
+        this.inputHeight = inputHeight;
+        this.inputType = inputType;
+        this.labelCount = labelCount;
+    }
+
+    /**
+     * Pakiet wbudowany w APK (ścieżki względem assets).
+     */
+    public static ModelBundle builtIn(String name, String modelPath, String labelPath) {
+        return new ModelBundle(name, 0, null, modelPath, labelPath, 0, 0, null, 0);
+    }
+
+    /**
+     * Wczytuje pakiet z katalogu models/&lt;nazwa&gt;/&lt;wersja&gt;/.
+     * Rzuca IOException, gdy brakuje plików albo metadane są niekompletne.
+     */
+    public static ModelBundle read(String name, int version, File directory) throws IOException {
+        File metadataFile = new File(directory, METADATA_FILE);
+        Properties metadata = new Properties();
+        InputStream inputStream = new FileInputStream(metadataFile);
+        try {
+            metadata.load(inputStream);
+        } finally {
+            inputStream.close();
+        }
+
+        String modelPath = metadata.getProperty("model", "model.tflite");
+        String labelPath = metadata.getProperty("labels", "labels.txt");
+        if (!new File(directory, modelPath).isFile() || !new File(directory, labelPath).isFile()) {
+            throw new IOException("Brak pliku modelu lub etykiet w " + directory);
+        }
+        try {
+            return new ModelBundle(name, version, directory, modelPath, labelPath,
+                    Integer.parseInt(required(metadata, "input.width")),
+                    Integer.parseInt(required(metadata, "input.height")),
+                    required(metadata, "input.type"),
+                    Integer.parseInt(required(metadata, "labels.count")));
+        } catch (NumberFormatException e) {
+            throw new IOException("Błędne metadane w " + metadataFile + ": " + e.getMessage());
+        }
+    }
+
+    private static String required(Properties metadata, String key) throws IOException {
+        String value = metadata.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IOException("Brak wartości " + key + " w metadanych pakietu");
+        }
+        return value.trim();
+    }
+
+    /**
+     * Sprawdza, czy interpreter i etykiety zgadzają się z metadanymi pakietu.
+     * Pakiet wbudowany nie ma metadanych i przechodzi zawsze.
+     */
+    void validate(TensorSpec input, int actualLabelCount) throws IOException {
+        if (isBuiltIn()) {
+            return;
+        }
+        int[] shape = input.getShape();
+        if (shape.length != 4 || shape[1] != inputHeight || shape[2] != inputWidth) {
+            throw new IOException("Wejście modelu " + Arrays.toString(shape) + " nie zgadza się z metadanymi "
+                    + inputWidth + "x" + inputHeight);
+        }
+        if (!input.getDataType().name().equalsIgnoreCase(inputType)) {
+            throw new IOException("Typ wejścia " + input.getDataType() + " nie zgadza się z metadanymi "
+                    + inputType);
+        }
+        if (actualLabelCount != labelCount) {
+            throw new IOException("Liczba etykiet " + actualLabelCount + " nie zgadza się z metadanymi "
+                    + labelCount);
+        }
+    }
+
+    /**
+     * Klucz pakietu w ModelCache (różne wersje nie współdzielą interpretera).
+     */
+    String key() {
+        return isBuiltIn() ? modelPath : new File(directory, modelPath).getAbsolutePath();
+    }
+
+    public boolean isBuiltIn() {
+        return directory == null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Katalog pakietu albo null dla pakietu z assets.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    public String getModelPath() {
+        return modelPath;
+    }
+
+    public String getLabelPath() {
+        return labelPath;
+    }
+
+    @Override
+    public String toString() {
+        return name + " v" + version + (isBuiltIn() ? " (assets)" : "");
+    }
+}
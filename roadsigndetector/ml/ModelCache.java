@@ -0,0 +1,225 @@
+package com.example.roadsigndetector.ml;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Współdzielona w całym procesie pamięć podręczna modeli.
+ * Każdy model (z assets albo z pakietu w pamięci aplikacji) jest mapowany do pamięci raz, a jego interpreter jest
+ * współdzielony przez wszystkie ekrany i zliczany referencjami (osobno dla każdej
+ * konfiguracji InferenceConfig). Nieużywane modele
+ * pozostają załadowane, dopóki system nie poprosi o zwolnienie pamięci.
+ */
+public final class ModelCache implements ComponentCallbacks2 {
+
+    private static final String TAG = "ModelCache";
+
+    private static ModelCache instance;
+
+    private final Context appContext;
+    private final Map<String, Model> models = new HashMap<>();
+
+    private ModelCache(Context appContext) {
+        this.appContext = appContext;
+    }
+
+    /**
+     * Zwraca pamięć podręczną procesu (tworzoną przy pierwszym użyciu).
+     */
+    public static synchronized ModelCache getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            if (appContext == null) {
+                appContext = context;
+            }
+            instance = new ModelCache(appContext);
+            appContext.registerComponentCallbacks(instance);
+            // Komunikaty rdzenia (InferenceConfig, silniki) do logcat
+            Loggers.set(new AndroidLogger());
+        }
+        return instance;
+    }
+
+    /**
+     * Pobiera model z pamięci podręcznej lub wczytuje go z assets.
+     * Każde acquire() musi zostać zakończone wywołaniem Model.close().
+     */
+    public Model acquire(String modelPath, String labelPath, InferenceConfig config) throws IOException {
+        return acquire(ModelBundle.builtIn(modelPath, modelPath, labelPath), config);
+    }
+
+    /**
+     * Jak acquire(String, String, InferenceConfig), dla pakietu z assets albo z pamięci aplikacji.
+     */
+    public synchronized Model acquire(ModelBundle bundle, InferenceConfig config) throws IOException {
+        String key = bundle.key() + "|" + config.key();
+        Model model = models.get(key);
+        if (model == null) {
+            model = load(bundle, key, config, false);
+            models.put(key, model);
+        }
+        model.refCount++;
+        return model;
+    }
+
+    /**
+     * Model z własnym interpreterem, niewspółdzielonym z innymi użytkownikami (np. pula InferenceService).
+     * Zmapowany plik i etykiety są brane z modelu w pamięci podręcznej, jeśli ten jest już wczytany.
+     * Interpreter jest zamykany przy Model.close().
+     */
+    public synchronized Model acquireExclusive(ModelBundle bundle, InferenceConfig config) throws IOException {
+        Model model = load(bundle, bundle.key() + "|" + config.key(), config, true);
+        model.refCount++;
+        return model;
+    }
+
+    private Model load(ModelBundle bundle, String key, InferenceConfig config, boolean exclusive)
+            throws IOException {
+        ByteBuffer buffer = null;
+        List<String> labels = null;
+        for (Model cached : models.values()) {
+            if (cached.path.equals(bundle.key())) {
+                buffer = cached.buffer.duplicate();
+                labels = cached.labels;
+                break;
+            }
+        }
+        if (buffer == null) {
+            ModelSource source = sourceOf(appContext, bundle);
+            buffer = source.loadModel();
+            labels = source.loadLabels();
+        }
+        return new Model(this, key, bundle.key(), buffer, config.createBackend(buffer), labels, exclusive);
+    }
+
+    /**
+     * Źródło pliku modelu i etykiet pakietu (assets albo katalog pakietu), bez tworzenia interpretera.
+     */
+    static ModelSource sourceOf(Context context, ModelBundle bundle) {
+        return bundle.isBuiltIn()
+                ? new AssetModelSource(context, bundle.getModelPath(), bundle.getLabelPath())
+                : new FileModelSource(new File(bundle.getDirectory(), bundle.getModelPath()),
+                        new File(bundle.getDirectory(), bundle.getLabelPath()));
+    }
+
+    private synchronized void release(Model model, boolean discard) {
+        if (model.refCount > 0) {
+            model.refCount--;
+        }
+        if (model.exclusive) {
+            if (model.refCount == 0) {
+                model.runtime.close();
+            }
+            return;
+        }
+        if (discard && model.refCount == 0 && models.get(model.key) == model) {
+            model.runtime.close();
+            models.remove(model.key);
+            Log.i(TAG, "Zwolniono model " + model.path);
+        }
+    }
+
+    /**
+     * Zamyka wszystkie modele, które nie są aktualnie używane.
+     */
+    public synchronized void trim() {
+        Iterator<Model> iterator = models.values().iterator();
+        while (iterator.hasNext()) {
+            Model model = iterator.next();
+            if (model.refCount == 0) {
+                model.runtime.close();
+                iterator.remove();
+                Log.i(TAG, "Zwolniono model " + model.path);
+            }
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trim();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Załadowany model: zmapowany plik, interpreter i etykiety.
+     */
+    public static final class Model {
+        private final ModelCache cache;
+        private final String key;
+        private final String path;
+        private final ByteBuffer buffer;
+        private final TfLiteBackend runtime;
+        private final List<String> labels;
+        private final boolean exclusive; // Interpreter tylko dla jednego użytkownika, poza mapą modeli
+        private int refCount;
+
+        private Model(ModelCache cache, String key, String path, ByteBuffer buffer,
+                      TfLiteBackend runtime, List<String> labels, boolean exclusive) {
+            this.cache = cache;
+            this.key = key;
+            this.path = path;
+            this.buffer = buffer;
+            this.runtime = runtime;
+            this.labels = labels;
+            this.exclusive = exclusive;
+        }
+
+        /**
+         * Interpreter modelu jako InferenceBackend (współdzielony - wywołania pod blokadą modelu).
+         */
+        public InferenceBackend getInferenceBackend() {
+            return runtime;
+        }
+
+        /**
+         * Backend, z którym faktycznie udało się utworzyć interpreter.
+         */
+        public InferenceConfig.Backend getBackend() {
+            return runtime.getAccelerator();
+        }
+
+        public List<String> getLabels() {
+            return labels;
+        }
+
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Zwalnia referencję do modelu. Interpreter jest zamykany dopiero przy trim()
+         * (model z acquireExclusive - od razu).
+         */
+        public void close() {
+            cache.release(this, false);
+        }
+
+        /**
+         * Zwalnia referencję i od razu zamyka interpreter, jeśli nikt go już nie używa.
+         * Dla modeli zastąpionych nowszą wersją, których nie warto trzymać do trim().
+         */
+        public void discard() {
+            cache.release(this, true);
+        }
+    }
+}
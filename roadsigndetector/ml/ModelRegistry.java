@@ -0,0 +1,90 @@
+package com.example.roadsigndetector.ml;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Rejestr pakietów modeli zapisanych w pamięci aplikacji (files/models/&lt;nazwa&gt;/&lt;wersja&gt;/).
+ * Wybiera najnowszą poprawną wersję; gdy żadnej nie ma, zwraca pakiet wbudowany w APK.
+ * Nowa wersja powinna być zapisywana do katalogu tymczasowego i dopiero na końcu
+ * przemianowana na numer wersji - katalogi o nazwach nieliczbowych są pomijane,
+ * więc rejestr nigdy nie zobaczy niedokończonego pakietu.
+ */
+public final class ModelRegistry {
+
+    private static final String TAG = "ModelRegistry";
+    private static final String MODELS_DIR = "models";
+
+    public static final String DETECTOR = "detector";
+    public static final String CLASSIFIER = "classifier";
+
+    private final File root;
+
+    public ModelRegistry(Context context) {
+        this(new File(context.getFilesDir(), MODELS_DIR));
+    }
+
+    public ModelRegistry(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Najnowszy poprawny pakiet modelu name albo builtIn, jeśli w pamięci nie ma żadnego.
+     */
+    public ModelBundle findLatest(String name, ModelBundle builtIn) {
+        List<ModelBundle> bundles = list(name);
+        return bundles.isEmpty() ? builtIn : bundles.get(0);
+    }
+
+    /**
+     * Poprawne pakiety modelu name od najnowszej wersji. Pakiety z błędnymi metadanymi są pomijane.
+     */
+    public List<ModelBundle> list(String name) {
+        List<File> directories = new ArrayList<>();
+        File[] files = new File(root, name).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (parseVersion(file) > 0) {
+                    directories.add(file);
+                }
+            }
+        }
+        Collections.sort(directories, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Integer.compare(parseVersion(b), parseVersion(a));
+            }
+        });
+
+        List<ModelBundle> bundles = new ArrayList<>(directories.size());
+        for (File directory : directories) {
+            try {
+                bundles.add(ModelBundle.read(name, parseVersion(directory), directory));
+            } catch (IOException e) {
+                Log.w(TAG, "Pominięto pakiet " + directory + ": " + e.getMessage());
+            }
+        }
+        return bundles;
+    }
+
+    /**
+     * Numer wersji z nazwy katalogu albo -1 (katalog tymczasowy, plik, zła nazwa).
+     */
+    private static int parseVersion(File directory) {
+        if (!directory.isDirectory()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(directory.getName());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.roadsigndetector.ml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Źródło pliku modelu i jego etykiet: assets aplikacji (AssetModelSource)
+ * albo system plików (FileModelSource - pakiety pobrane na urządzenie, narzędzia i serwer).
+ */
+public interface ModelSource {
+
+    /**
+     * Identyfikator modelu (np. w kluczach ModelCache).
+     */
+    String getKey();
+
+    /**
+     * Plik modelu; najlepiej zmapowany do pamięci, bez kopiowania na stertę.
+     */
+    ByteBuffer loadModel() throws IOException;
+
+    List<String> loadLabels() throws IOException;
+}
@@ -0,0 +1,178 @@
+package com.example.roadsigndetector.ml;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Konwersja klatki NV21 bezpośrednio do tensora wejściowego.
+ * Wycinanie, obrót, skalowanie (najbliższy sąsiad, opcjonalnie z letterboxem), konwersja YUV -> RGB
+ * i normalizacja odbywają się w jednym przejściu, wiersz po wierszu - bez JPEG i bez pełnowymiarowej bitmapy.
+ * Konwersja kolorów korzysta z tablic w arytmetyce stałoprzecinkowej (BT.601, 10 bitów ułamka).
+ */
+public class Nv21Converter {
+
+    private static final int BLACK = 0xFF000000;
+
+    private static final int[] LUMA = new int[256];
+    private static final int[] V_TO_R = new int[256];
+    private static final int[] V_TO_G = new int[256];
+    private static final int[] U_TO_G = new int[256];
+    private static final int[] U_TO_B = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            LUMA[i] = Math.max(0, i - 16) * 1192;
+            V_TO_R[i] = 1634 * (i - 128);
+            V_TO_G[i] = 833 * (i - 128);
+            U_TO_G[i] = 400 * (i - 128);
+            U_TO_B[i] = 2066 * (i - 128);
+        }
+    }
+
+    // Bufory wielokrotnego użytku (rosną tylko przy większym rozmiarze wyjścia)
+    private int[] columnMap = new int[0];
+    private int[] rowMap = new int[0];
+    private int[] rowPixels = new int[0];
+
+    /**
+     * Zapisuje klatkę jako float 0..1 zgodnie z przekształceniem transform (wycinek źródła
+     * we współrzędnych po obrocie, miejsce na wejściu i rozmiar wejścia modelu).
+     * Piksele poza obszarem obrazu (pasy letterbox) są czarne.
+     */
+    public void toFloat(Nv21Frame frame, PreprocessTransform transform, FloatBuffer out, float[] row) {
+        int dstWidth = transform.getTargetWidth();
+        int dstHeight = transform.getTargetHeight();
+        prepare(frame, transform);
+        for (int y = 0; y < dstHeight; y++) {
+            convertRow(frame, rowMap[y], dstWidth);
+            PixelConverter.argbToFloat(rowPixels, dstWidth, 1, out, row);
+        }
+    }
+
+    /**
+     * Jak toFloat, ale zapis skwantyzowanych bajtów przez tablicę przejść lut.
+     */
+    public void toQuantized(Nv21Frame frame, PreprocessTransform transform, ByteBuffer out,
+                            byte[] lut, byte[] row) {
+        int dstWidth = transform.getTargetWidth();
+        int dstHeight = transform.getTargetHeight();
+        prepare(frame, transform);
+        for (int y = 0; y < dstHeight; y++) {
+            convertRow(frame, rowMap[y], dstWidth);
+            PixelConverter.argbToQuantized(rowPixels, dstWidth, 1, out, lut, row);
+        }
+    }
+
+    /**
+     * Zapisuje klatkę jako piksele ARGB (wiersz po wierszu, out co najmniej szerokość * wysokość wejścia),
+     * np. zmniejszony podgląd do nagrania sesji.
+     */
+    public void toArgb(Nv21Frame frame, PreprocessTransform transform, int[] out) {
+        int dstWidth = transform.getTargetWidth();
+        int dstHeight = transform.getTargetHeight();
+        prepare(frame, transform);
+        for (int y = 0; y < dstHeight; y++) {
+            convertRow(frame, rowMap[y], dstWidth);
+            System.arraycopy(rowPixels, 0, out, y * dstWidth, dstWidth);
+        }
+    }
+
+    /**
+     * Wylicza, które wiersze i kolumny obrazu po obrocie trafiają do kolejnych pikseli wyjścia
+     * (-1 dla pikseli poza obszarem obrazu).
+     */
+    private void prepare(Nv21Frame frame, PreprocessTransform transform) {
+        int dstWidth = transform.getTargetWidth();
+        int dstHeight = transform.getTargetHeight();
+        if (columnMap.length < dstWidth) {
+            columnMap = new int[dstWidth];
+            rowPixels = new int[dstWidth];
+        }
+        if (rowMap.length < dstHeight) {
+            rowMap = new int[dstHeight];
+        }
+        // Próbkowanie w środku piksela docelowego
+        fillMap(columnMap, dstWidth, transform.getContentLeft(), transform.getContentWidth(),
+                transform.getCropLeft(), transform.getCropWidth(), frame.getRotatedWidth());
+        fillMap(rowMap, dstHeight, transform.getContentTop(), transform.getContentHeight(),
+                transform.getCropTop(), transform.getCropHeight(), frame.getRotatedHeight());
+    }
+
+    static void fillMap(int[] map, int count, float contentStart, float contentSize,
+                                float cropStart, float cropSize, int sourceSize) {
+        float contentEnd = contentStart + contentSize;
+        float step = cropSize / contentSize;
+        for (int i = 0; i < count; i++) {
+            float center = i + 0.5f;
+            if (center < contentStart || center >= contentEnd) {
+                map[i] = -1;
+                continue;
+            }
+            int source = (int) (cropStart + (center - contentStart) * step);
+            map[i] = Math.max(0, Math.min(sourceSize - 1, source));
+        }
+    }
+
+    /**
+     * Konwertuje jeden wiersz wyjścia (wiersz ry obrazu po obrocie) do rowPixels jako ARGB.
+     */
+    private void convertRow(Nv21Frame frame, int ry, int dstWidth) {
+        final byte[] data = frame.data;
+        final int width = frame.width;
+        final int height = frame.height;
+        final int frameSize = width * height;
+        final int[] columns = columnMap;
+
+        if (ry < 0) {
+            Arrays.fill(rowPixels, 0, dstWidth, BLACK);
+            return;
+        }
+        for (int x = 0; x < dstWidth; x++) {
+            int rx = columns[x];
+            if (rx < 0) {
+                rowPixels[x] = BLACK;
+                continue;
+            }
+
+            // Współrzędne w buforze kamery dla punktu (rx, ry) obrazu po obrocie
+            int sx;
+            int sy;
+            switch (frame.rotation) {
+                case 90:
+                    sx = ry;
+                    sy = height - 1 - rx;
+                    break;
+                case 180:
+                    sx = width - 1 - rx;
+                    sy = height - 1 - ry;
+                    break;
+                case 270:
+                    sx = width - 1 - ry;
+                    sy = rx;
+                    break;
+                default:
+                    sx = rx;
+                    sy = ry;
+                    break;
+            }
+
+            int uvIndex = frameSize + (sy >> 1) * width + (sx & ~1);
+            int luma = LUMA[data[sy * width + sx] & 0xFF];
+            int v = data[uvIndex] & 0xFF;
+            int u = data[uvIndex + 1] & 0xFF;
+
+            int r = clamp(luma + V_TO_R[v]);
+            int g = clamp(luma - V_TO_G[v] - U_TO_G[u]);
+            int b = clamp(luma + U_TO_B[u]);
+            rowPixels[x] = 0xFF000000 | ((r << 6) & 0xFF0000) | ((g >> 2) & 0xFF00) | ((b >> 10) & 0xFF);
+        }
+    }
+
+    private static int clamp(int value) {
+        if (value < 0) {
+            return 0;
+        }
+        return Math.min(value, 262143);
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.roadsigndetector.ml;
+
+/**
+ * Klatka podglądu kamery w formacie NV21 razem z obrotem potrzebnym do wyświetlenia.
+ * Współrzędne wycinków i wykryć odnoszą się do obrazu po obrocie.
+ */
+public class Nv21Frame {
+
+    public byte[] data;
+    public int width;    // Szerokość bufora kamery (przed obrotem)
+    public int height;   // Wysokość bufora kamery (przed obrotem)
+    public int rotation; // 0, 90, 180 lub 270 stopni
+
+    public Nv21Frame() {
+    }
+
+    public Nv21Frame(byte[] data, int width, int height, int rotation) {
+        set(data, width, height, rotation);
+    }
+
+    public void set(byte[] data, int width, int height, int rotation) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+    }
+
+    /**
+     * Szerokość obrazu po obrocie.
+     */
+    public int getRotatedWidth() {
+        return rotation == 90 || rotation == 270 ? height : width;
+    }
+
+    /**
+     * Wysokość obrazu po obrocie.
+     */
+    public int getRotatedHeight() {
+        return rotation == 90 || rotation == 270 ? width : height;
+    }
+}
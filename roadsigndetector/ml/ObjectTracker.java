@@ -0,0 +1,321 @@
+package com.example.roadsigndetector.ml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lekki tracker obiektów oparty na IoU.
+ * Nadaje wykryciom stałe identyfikatory, wygładza ich pewność w czasie i przesuwa ramki
+ * ze stałą prędkością pomiędzy klatkami, na których detektor nie był uruchamiany.
+ * Wartości ograniczeń prędkości z kolejnych klatek są łączone przez SpeedLimitVoter,
+ * a po zatwierdzeniu odczytu kaskada nie klasyfikuje już tego znaku (isReadingCommitted).
+ * Detektor ma osobną klasę dla każdej wartości ograniczenia, więc wszystkie klasy ograniczeń
+ * (RefinementCrops.needsRefinement) są przy dopasowaniu traktowane jak jedna - zmiana etykiety
+ * detektora (np. 50 na 60) nie zakłada nowego śladu i nie gubi głosów.
+ */
+public class ObjectTracker {
+
+    private static final float MATCH_IOU = 0.3f; // Minimalne IoU, by uznać wykrycie za ten sam znak
+    private static final float CONFIDENCE_SMOOTHING = 0.6f; // Waga nowej pewności w średniej wykładniczej
+    private static final float MISS_DECAY = 0.8f; // Spadek pewności, gdy detektor nie potwierdził śladu
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+    private static final float UNCERTAIN_CONFIDENCE = 0.6f;
+    private static final int MIN_HITS = 2; // Tyle potwierdzeń, zanim ślad uznamy za stabilny
+    private static final int MAX_MISSES = 2; // Tyle nieudanych dopasowań, zanim ślad zostanie usunięty
+
+    private volatile int detectionInterval;
+    private final List<Track> tracks = new ArrayList<>();
+    private int nextTrackId = 1;
+    private int framesSinceDetection;
+    private boolean[] trackMatched = new boolean[0];
+    private boolean[] detectionMatched = new boolean[0];
+    // Etykiety modeli, z których pochodzą identyfikatory klas śladów
+    private String[] labels;
+    private String[] refinedLabels;
+    private boolean[] speedLimitClasses = new boolean[0]; // Klasy detektora dopasowywane wspólnie
+
+    /**
+     * @param detectionInterval co ile klatek uruchamiać pełną detekcję, gdy wszystkie ślady są stabilne
+     */
+    public ObjectTracker(int detectionInterval) {
+        this.detectionInterval = Math.max(1, detectionInterval);
+        this.framesSinceDetection = this.detectionInterval;
+    }
+
+    /**
+     * Czy dla bieżącej klatki należy uruchomić detektor.
+     * Tak - co detectionInterval klatek albo gdy któryś ślad jest niepewny.
+     */
+    public synchronized boolean shouldRunDetector() {
+        if (framesSinceDetection + 1 >= detectionInterval) {
+            return true;
+        }
+        for (Track track : tracks) {
+            if (track.hits < MIN_HITS || track.confidence < UNCERTAIN_CONFIDENCE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Aktualizuje ślady wynikami detektora z bieżącej klatki.
+     */
+    public synchronized void update(DetectionResult detections) {
+        int framesElapsed = framesSinceDetection + 1;
+        framesSinceDetection = 0;
+
+        // Po podmianie modelu identyfikatory klas mogą znaczyć co innego - ślady zaczynamy od nowa
+        if (labels != null && labels != detections.getLabels()) {
+            tracks.clear();
+        }
+        if (labels != detections.getLabels()) {
+            labels = detections.getLabels();
+            speedLimitClasses = new boolean[labels != null ? labels.length : 0];
+            for (int i = 0; i < speedLimitClasses.length; i++) {
+                speedLimitClasses[i] = RefinementCrops.needsRefinement(labels[i]);
+            }
+        }
+        refinedLabels = detections.getRefinedLabels();
+
+        int trackCount = tracks.size();
+        int detectionCount = detections.size();
+        if (trackMatched.length < trackCount) {
+            trackMatched = new boolean[trackCount];
+        }
+        if (detectionMatched.length < detectionCount) {
+            detectionMatched = new boolean[detectionCount];
+        }
+        Arrays.fill(trackMatched, 0, trackCount, false);
+        Arrays.fill(detectionMatched, 0, detectionCount, false);
+        float[] boxes = detections.getBoxes();
+
+        // Zachłanne dopasowanie par o największym IoU (ślady i wykrycia tej samej klasy albo ograniczenia)
+        while (true) {
+            float bestIou = MATCH_IOU;
+            int bestTrack = -1;
+            int bestDetection = -1;
+            for (int t = 0; t < trackCount; t++) {
+                if (trackMatched[t]) {
+                    continue;
+                }
+                Track track = tracks.get(t);
+                for (int d = 0; d < detectionCount; d++) {
+                    if (detectionMatched[d] || !sameSign(track.classId, detections.getClassId(d))) {
+                        continue;
+                    }
+                    float iou = iou(track.box, 0, boxes, d * 4);
+                    if (iou > bestIou) {
+                        bestIou = iou;
+                        bestTrack = t;
+                        bestDetection = d;
+                    }
+                }
+            }
+            if (bestTrack < 0) {
+                break;
+            }
+            trackMatched[bestTrack] = true;
+            detectionMatched[bestDetection] = true;
+            tracks.get(bestTrack).correct(detections, bestDetection, framesElapsed);
+        }
+
+        // Ślady bez wykrycia tracą pewność i po kilku próbach są usuwane
+        for (int t = trackCount - 1; t >= 0; t--) {
+            if (!trackMatched[t]) {
+                Track track = tracks.get(t);
+                track.misses++;
+                track.confidence *= MISS_DECAY;
+                if (track.misses > MAX_MISSES) {
+                    tracks.remove(t);
+                }
+            }
+        }
+
+        // Nowe wykrycia zakładają nowe ślady
+        for (int d = 0; d < detectionCount; d++) {
+            if (!detectionMatched[d]) {
+                tracks.add(new Track(nextTrackId++, detections, d));
+            }
+        }
+    }
+
+    /**
+     * Czy wykrycie index należy do śladu z zatwierdzoną wartością ograniczenia prędkości
+     * (ten sam znak co na poprzednich klatkach - klasyfikacja wycinka nie jest potrzebna).
+     * Wywoływane przed update() dla wykryć z bieżącej klatki.
+     */
+    public synchronized boolean isReadingCommitted(DetectionResult detections, int index) {
+        if (labels != detections.getLabels()) {
+            return false;
+        }
+        float[] boxes = detections.getBoxes();
+        Track best = null;
+        float bestIou = MATCH_IOU;
+        for (Track track : tracks) {
+            if (!sameSign(track.classId, detections.getClassId(index))) {
+                continue;
+            }
+            float iou = iou(track.box, 0, boxes, index * 4);
+            if (iou > bestIou) {
+                bestIou = iou;
+                best = track;
+            }
+        }
+        return best != null && best.voter.isCommitted();
+    }
+
+    /**
+     * Czy klasy detektora mogą opisywać ten sam znak: ta sama klasa albo dwa ograniczenia prędkości.
+     */
+    private boolean sameSign(int trackClass, int detectionClass) {
+        if (trackClass == detectionClass) {
+            return true;
+        }
+        return trackClass >= 0 && trackClass < speedLimitClasses.length && speedLimitClasses[trackClass]
+                && detectionClass >= 0 && detectionClass < speedLimitClasses.length
+                && speedLimitClasses[detectionClass];
+    }
+
+    /**
+     * Przesuwa ramki śladów o jedną klatkę bez uruchamiania detektora.
+     */
+    public synchronized void predict() {
+        framesSinceDetection++;
+        for (Track track : tracks) {
+            track.advance();
+        }
+    }
+
+    /**
+     * Zapisuje bieżący stan śladów do out jako wykrycia z ustawionym identyfikatorem śladu.
+     */
+    public synchronized void getDetections(DetectionResult out) {
+        out.clear();
+        if (labels != null) {
+            out.setLabels(labels);
+            out.setRefinedLabels(refinedLabels);
+        }
+        for (Track track : tracks) {
+            if (track.hits < MIN_HITS && track.misses > 0) {
+                continue; // Pojedyncze, niepotwierdzone wykrycie - prawdopodobnie szum
+            }
+            boolean voted = track.voter.getVotes() > 0;
+            int classId = voted ? fusedClassId(track) : track.classId;
+            int index = out.add(classId, track.confidence, track.box, 0);
+            out.setTrackId(index, track.id);
+            if (voted) {
+                out.setRefinement(index, track.voter.getClassId(), track.voter.getConfidence());
+            }
+        }
+    }
+
+    /**
+     * Klasa detektora zgodna z wynikiem głosowania (ta sama etykieta w obu modelach),
+     * a gdy detektor takiej nie ma - ostatnia etykieta detektora.
+     */
+    private int fusedClassId(Track track) {
+        int refined = track.voter.getClassId();
+        if (labels == null || refinedLabels == null || refined < 0 || refined >= refinedLabels.length
+                || track.classId < 0 || track.classId >= speedLimitClasses.length
+                || !speedLimitClasses[track.classId]) {
+            return track.classId;
+        }
+        String label = refinedLabels[refined];
+        for (int c = 0; c < labels.length; c++) {
+            if (speedLimitClasses[c] && labels[c].equals(label)) {
+                return c;
+            }
+        }
+        return track.classId;
+    }
+
+    /**
+     * Zmienia odstęp pomiędzy pełnymi detekcjami (np. przez AdaptiveGovernor).
+     */
+    public void setDetectionInterval(int detectionInterval) {
+        this.detectionInterval = Math.max(1, detectionInterval);
+    }
+
+    public int getDetectionInterval() {
+        return detectionInterval;
+    }
+
+    public synchronized void reset() {
+        tracks.clear();
+        framesSinceDetection = detectionInterval;
+    }
+
+    /**
+     * IoU dwóch ramek [ymin, xmin, ymax, xmax] zaczynających się od pozycji ao w a i bo w b
+     * (używane też przez narzędzia do porównywania wyników).
+     */
+    public static float iou(float[] a, int ao, float[] b, int bo) {
+        float ymin = Math.max(a[ao], b[bo]);
+        float xmin = Math.max(a[ao + 1], b[bo + 1]);
+        float ymax = Math.min(a[ao + 2], b[bo + 2]);
+        float xmax = Math.min(a[ao + 3], b[bo + 3]);
+        float intersection = Math.max(0f, ymax - ymin) * Math.max(0f, xmax - xmin);
+        if (intersection <= 0f) {
+            return 0f;
+        }
+        float areaA = (a[ao + 2] - a[ao]) * (a[ao + 3] - a[ao + 1]);
+        float areaB = (b[bo + 2] - b[bo]) * (b[bo + 3] - b[bo + 1]);
+        return intersection / (areaA + areaB - intersection);
+    }
+
+    /**
+     * Pojedynczy śledzony znak.
+     */
+    private static class Track {
+        final int id;
+        int classId; // Indeks w etykietach detektora - ostatnia etykieta, głosy zostają przy zmianie
+        final float[] box = new float[4];
+        final float[] velocity = new float[4]; // Zmiana współrzędnych ramki na klatkę
+        float confidence;
+        final SpeedLimitVoter voter = new SpeedLimitVoter(); // Wartość ograniczenia z kolejnych klatek
+        int hits = 1;
+        int misses;
+
+        Track(int id, DetectionResult detections, int index) {
+            this.id = id;
+            this.classId = detections.getClassId(index);
+            this.confidence = detections.getScore(index);
+            System.arraycopy(detections.getBoxes(), index * 4, box, 0, 4);
+            vote(detections, index);
+        }
+
+        void correct(DetectionResult detections, int index, int framesElapsed) {
+            float[] boxes = detections.getBoxes();
+            // Ramka jest już przesunięta przez predict(), więc różnica to błąd prognozy prędkości
+            for (int i = 0; i < 4; i++) {
+                float measured = boxes[index * 4 + i];
+                float observedVelocity = (measured - (box[i] - velocity[i] * (framesElapsed - 1))) / framesElapsed;
+                velocity[i] += VELOCITY_SMOOTHING * (observedVelocity - velocity[i]);
+                box[i] = measured;
+            }
+            confidence += CONFIDENCE_SMOOTHING * (detections.getScore(index) - confidence);
+            classId = detections.getClassId(index);
+            vote(detections, index);
+            hits++;
+            misses = 0;
+        }
+
+        /**
+         * Dodaje klasyfikację wycinka z tej klatki (jeśli była) do głosowania nad wartością ograniczenia.
+         */
+        void vote(DetectionResult detections, int index) {
+            if (detections.isRefined(index)) {
+                voter.add(detections.getRefinedClassId(index), detections.getRefinedScore(index),
+                        detections.getRefinedLabels().length);
+            }
+        }
+
+        void advance() {
+            for (int i = 0; i < 4; i++) {
+                box[i] = Math.max(0f, Math.min(1f, box[i] + velocity[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.roadsigndetector.ml;
+
+import com.example.roadsigndetector.ml.TensorSpec.DataType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Bufor wyjściowy modelu wielokrotnego użytku.
+ * InferenceBackend zapisuje surowe dane tensora do ByteBuffer, a read() zamienia je
+ * na float - bez zmian dla float32, z dekwantyzacją dla uint8/int8.
+ */
+public class OutputTensorBuffer {
+
+    private final DataType dataType;
+    private final float scale;
+    private final int zeroPoint;
+    private int[] shape;
+    private int elementCount;
+    private ByteBuffer buffer;
+    private FloatBuffer floatView;
+    private float[] values;
+
+    public OutputTensorBuffer(TensorSpec tensor) {
+        dataType = tensor.getDataType();
+        shape = tensor.getShape();
+        elementCount = tensor.numElements();
+        scale = tensor.getScale();
+        zeroPoint = tensor.getZeroPoint();
+
+        if (dataType != DataType.FLOAT32 && dataType != DataType.UINT8 && dataType != DataType.INT8) {
+            throw new IllegalArgumentException("Nieobsługiwany typ wyjścia: " + dataType);
+        }
+
+        allocate(tensor.numBytes(), tensor.numElements());
+    }
+
+    private void allocate(int numBytes, int numElements) {
+        buffer = ByteBuffer.allocateDirect(numBytes);
+        buffer.order(ByteOrder.nativeOrder());
+        floatView = dataType == DataType.FLOAT32 ? buffer.asFloatBuffer() : null;
+        values = new float[numElements];
+    }
+
+    /**
+     * Dostosowuje bufor do nowego kształtu tensora (np. po zmianie rozmiaru wsadu).
+     * Pamięć jest alokowana ponownie tylko przy wzroście.
+     */
+    public void resize(TensorSpec tensor) {
+        shape = tensor.getShape();
+        elementCount = tensor.numElements();
+        if (elementCount > values.length) {
+            allocate(tensor.numBytes(), elementCount);
+        }
+        buffer.clear();
+        buffer.limit(tensor.numBytes());
+    }
+
+    /**
+     * Bufor przekazywany do InferenceBackend jako wyjście.
+     */
+    public ByteBuffer buffer() {
+        buffer.rewind();
+        return buffer;
+    }
+
+    public int[] shape() {
+        return shape;
+    }
+
+    /**
+     * Liczba poprawnych wartości w tablicy zwracanej przez read().
+     */
+    public int size() {
+        return elementCount;
+    }
+
+    /**
+     * Odczytuje wynik ostatniej inferencji jako spłaszczoną tablicę float.
+     * Zwracana tablica jest współdzielona i nadpisywana przy kolejnym wywołaniu;
+     * poprawnych jest pierwszych size() wartości.
+     */
+    public float[] read() {
+        // Interpreter zapisuje wynik od bieżącej pozycji bufora - przygotowanie pod kolejną inferencję
+        buffer.rewind();
+        if (floatView != null) {
+            floatView.rewind();
+            floatView.get(values, 0, elementCount);
+            return values;
+        }
+
+        // Wartości kwantyzowane: real = scale * (q - zeroPoint)
+        float s = scale == 0f ? 1f : scale;
+        for (int i = 0; i < elementCount; i++) {
+            int q = dataType == DataType.UINT8 ? buffer.get(i) & 0xFF : buffer.get(i);
+            values[i] = s * (q - zeroPoint);
+        }
+        return values;
+    }
+}
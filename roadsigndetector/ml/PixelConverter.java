@@ -0,0 +1,90 @@
+package com.example.roadsigndetector.ml;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Konwersja pikseli ARGB do danych tensora wejściowego.
+ * Czysta Java (bez zależności od Androida), dzięki czemu te same pętle
+ * można mierzyć w benchmarkach JMH na zwykłej JVM.
+ */
+public final class PixelConverter {
+
+    public static final int PIXEL_SIZE = 3; // RGB
+
+    // Wartość kanału 0..255 -> float 0..1; tablica zamiast dzielenia w pętli
+    private static final float[] NORMALIZE_LUT = new float[256];
+
+    static {
+        for (int v = 0; v < 256; v++) {
+            NORMALIZE_LUT[v] = v / 255.0f;
+        }
+    }
+
+    private PixelConverter() {
+    }
+
+    /**
+     * Zapisuje piksele ARGB jako float (0..1) w kolejności RGB, wiersz po wierszu.
+     * Wiersz jest składany w tablicy row (co najmniej width * 3) i zapisywany jednym put().
+     */
+    public static void argbToFloat(int[] pixels, int width, int height, FloatBuffer out, float[] row) {
+        final float[] lut = NORMALIZE_LUT;
+        int pixelIndex = 0;
+        for (int i = 0; i < height; i++) {
+            int k = 0;
+            for (int j = 0; j < width; j++) {
+                final int val = pixels[pixelIndex++];
+
+                // Rozbicie piksela ARGB na składowe R, G, B i normalizacja
+                row[k++] = lut[(val >> 16) & 0xFF];
+                row[k++] = lut[(val >> 8) & 0xFF];
+                row[k++] = lut[val & 0xFF];
+            }
+            // Zapis całego wiersza jedną operacją zamiast putFloat dla każdej składowej
+            out.put(row, 0, width * PIXEL_SIZE);
+        }
+    }
+
+    /**
+     * Zapisuje piksele ARGB jako skwantyzowane bajty (tablica przejść z buildQuantizationLut).
+     */
+    public static void argbToQuantized(int[] pixels, int width, int height, ByteBuffer out,
+                                       byte[] lut, byte[] row) {
+        int pixelIndex = 0;
+        for (int i = 0; i < height; i++) {
+            int k = 0;
+            for (int j = 0; j < width; j++) {
+                final int val = pixels[pixelIndex++];
+                row[k++] = lut[(val >> 16) & 0xFF];
+                row[k++] = lut[(val >> 8) & 0xFF];
+                row[k++] = lut[val & 0xFF];
+            }
+            out.put(row, 0, width * PIXEL_SIZE);
+        }
+    }
+
+    /**
+     * Buduje tablicę przejść dla wejścia kwantyzowanego. Wartość kanału jest normalizowana
+     * do 0..1 tak jak w ścieżce float, a następnie kwantyzowana parametrami tensora.
+     * Gdy model nie podaje parametrów (scale == 0), bajty uint8 trafiają do tensora bez zmian.
+     *
+     * @param signed true dla int8, false dla uint8
+     */
+    public static byte[] buildQuantizationLut(boolean signed, float scale, int zeroPoint) {
+        byte[] lut = new byte[256];
+        int min = signed ? -128 : 0;
+        int max = signed ? 127 : 255;
+        for (int v = 0; v < 256; v++) {
+            int q;
+            if (scale == 0f) {
+                q = signed ? v - 128 : v;
+            } else {
+                q = Math.round((v / 255.0f) / scale) + zeroPoint;
+            }
+            q = Math.max(min, Math.min(max, q));
+            lut[v] = (byte) q;
+        }
+        return lut;
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.roadsigndetector.ml;
+
+import com.example.roadsigndetector.ml.TensorSpec.DataType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Bufor wejściowy modelu bez zależności od Androida: zapis pikseli ARGB, obrazów PixelSource
+ * lub klatek NV21 do tensora float32, uint8 albo int8.
+ * Typ danych i parametry kwantyzacji są odczytywane z tensora wejściowego.
+ * Bufor może pomieścić kilka obrazów naraz (wsad [N, wysokość, szerokość, 3]).
+ * Używany przez InputTensorBuffer na Androidzie i przez narzędzia uruchamiane na zwykłej JVM.
+ */
+public class PixelInputBuffer {
+
+    private static final int PIXEL_SIZE = PixelConverter.PIXEL_SIZE;
+    // dHash: jasność w siatce 9x8 komórek, każda uśredniana z 4x4 próbek
+    private static final int HASH_COLUMNS = 9;
+    private static final int HASH_ROWS = 8;
+    private static final int HASH_SAMPLES = 4;
+    private static final int BLACK = 0xFF000000;
+
+    private final int width;
+    private final int height;
+    private final DataType dataType;
+    private final int imageBytes; // Rozmiar jednego obrazu w tensorze
+    private ByteBuffer buffer;
+    private int batchCapacity;
+
+    // Ścieżka float32: wiersz wartości zapisywany jednym put() (PixelConverter)
+    private FloatBuffer floatView;
+    private float[] floatRow;
+
+    // Ścieżka kwantyzowana: tablica przejść wartość kanału -> bajt tensora
+    private byte[] quantizedLut;
+    private byte[] byteRow;
+
+    // Bezpośrednia ścieżka dla klatek kamery NV21
+    private final Nv21Converter nv21Converter = new Nv21Converter();
+
+    // Próbkowanie obrazów PixelSource (najbliższy sąsiad, jak klatki NV21)
+    private int[] columnMap;
+    private int[] rowMap;
+    private int[] rowPixels;
+    private int[] sourceRow = new int[0];
+
+    private final float[] hashCells = new float[HASH_COLUMNS * HASH_ROWS];
+
+    // Czas skalowania i konwersji bieżącego wsadu (do InferenceMetrics)
+    private long scaleNanos;
+    private long convertNanos;
+
+    /**
+     * Tworzy bufor zgodny z tensorem wejściowym o kształcie [1, wysokość, szerokość, 3].
+     */
+    public PixelInputBuffer(TensorSpec tensor) {
+        int[] shape = tensor.getShape();
+        if (shape.length != 4 || shape[3] != PIXEL_SIZE) {
+            throw new IllegalArgumentException("Nieobsługiwany kształt wejścia: " + Arrays.toString(shape));
+        }
+        height = shape[1];
+        width = shape[2];
+        dataType = tensor.getDataType();
+
+        imageBytes = tensor.numBytes() / Math.max(1, shape[0]);
+        allocate(1);
+
+        switch (dataType) {
+            case FLOAT32:
+                floatRow = new float[width * PIXEL_SIZE];
+                break;
+            case UINT8:
+            case INT8:
+                quantizedLut = PixelConverter.buildQuantizationLut(
+                        dataType == DataType.INT8, tensor.getScale(), tensor.getZeroPoint());
+                byteRow = new byte[width * PIXEL_SIZE];
+                break;
+            default:
+                throw new IllegalArgumentException("Nieobsługiwany typ wejścia: " + dataType);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    private void allocate(int batchSize) {
+        buffer = ByteBuffer.allocateDirect(imageBytes * batchSize);
+        buffer.order(ByteOrder.nativeOrder());
+        floatView = buffer.asFloatBuffer();
+        batchCapacity = batchSize;
+    }
+
+    /**
+     * Przygotowuje bufor na wsad o podanym rozmiarze. Bufor jest powiększany tylko wtedy,
+     * gdy wsad przekracza dotychczasową pojemność.
+     */
+    public void prepareBatch(int batchSize) {
+        if (batchSize > batchCapacity) {
+            allocate(batchSize);
+        }
+        buffer.clear();
+        buffer.limit(imageBytes * batchSize);
+        scaleNanos = 0;
+        convertNanos = 0;
+    }
+
+    /**
+     * Łączny czas skalowania obrazów od ostatniego prepareBatch().
+     */
+    public long getScaleNanos() {
+        return scaleNanos;
+    }
+
+    /**
+     * Łączny czas konwersji pikseli do tensora od ostatniego prepareBatch().
+     */
+    public long getConvertNanos() {
+        return convertNanos;
+    }
+
+    /**
+     * Dolicza czas skalowania wykonanego poza tą klasą (np. przez Canvas).
+     */
+    protected void addScaleNanos(long nanos) {
+        scaleNanos += nanos;
+    }
+
+    /**
+     * Zwraca bufor z przygotowanym wsadem, gotowy do przekazania interpreterowi.
+     */
+    public ByteBuffer batchBuffer() {
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * Zapisuje obraz już przeskalowany do rozmiaru wejścia (piksele ARGB, wiersz po wierszu).
+     */
+    public ByteBuffer load(int[] pixels) {
+        prepareBatch(1);
+        writePixels(0, pixels);
+        return batchBuffer();
+    }
+
+    /**
+     * Zapisuje piksele ARGB o rozmiarze wejścia na pozycji slot we wsadzie
+     * jako float (0..1) albo jako skwantyzowane bajty.
+     */
+    public void writePixels(int slot, int[] pixels) {
+        long start = System.nanoTime();
+        int offset = slot * imageBytes;
+        if (dataType == DataType.FLOAT32) {
+            floatView.position(offset / 4);
+            PixelConverter.argbToFloat(pixels, width, height, floatView, floatRow);
+        } else {
+            buffer.position(offset);
+            PixelConverter.argbToQuantized(pixels, width, height, buffer, quantizedLut, byteRow);
+        }
+        convertNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Skrót percepcyjny (dHash, 64 bity) obrazu zapisanego na pozycji slot: jasność w siatce komórek
+     * porównana z sąsiadem z prawej. Podobne obrazy mają skróty różniące się na kilku bitach (ResultCache).
+     * Liczony z już przeskalowanego wejścia modelu, z około tysiąca próbek - bez dodatkowego skalowania.
+     */
+    public long differenceHash(int slot) {
+        int gridWidth = HASH_COLUMNS * HASH_SAMPLES;
+        int gridHeight = HASH_ROWS * HASH_SAMPLES;
+        int base = dataType == DataType.FLOAT32 ? slot * imageBytes / 4 : slot * imageBytes;
+        Arrays.fill(hashCells, 0f);
+        for (int gy = 0; gy < gridHeight; gy++) {
+            int y = (2 * gy + 1) * height / (2 * gridHeight);
+            int cellRow = gy / HASH_SAMPLES * HASH_COLUMNS;
+            for (int gx = 0; gx < gridWidth; gx++) {
+                int x = (2 * gx + 1) * width / (2 * gridWidth);
+                int index = base + (y * width + x) * PIXEL_SIZE;
+                hashCells[cellRow + gx / HASH_SAMPLES] += value(index) + value(index + 1) + value(index + 2);
+            }
+        }
+        long hash = 0L;
+        for (int row = 0; row < HASH_ROWS; row++) {
+            for (int column = 0; column < HASH_COLUMNS - 1; column++) {
+                int cell = row * HASH_COLUMNS + column;
+                hash = (hash << 1) | (hashCells[cell] < hashCells[cell + 1] ? 1L : 0L);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Wartość kanału pod indeksem (w elementach tensora); tablica kwantyzacji jest monotoniczna,
+     * więc porównania jasności dają ten sam wynik co na pikselach.
+     */
+    private float value(int index) {
+        switch (dataType) {
+            case FLOAT32:
+                return floatView.get(index);
+            case UINT8:
+                return buffer.get(index) & 0xFF;
+            default:
+                return buffer.get(index);
+        }
+    }
+
+    /**
+     * Zapisuje obraz do tensora zgodnie z przekształceniem transform, wyliczanym dla rozmiaru obrazu.
+     */
+    public ByteBuffer load(PixelSource source, PreprocessTransform transform) {
+        prepareBatch(1);
+        transform.update(source.getWidth(), source.getHeight(), width, height);
+        write(0, source, transform);
+        return batchBuffer();
+    }
+
+    /**
+     * Zapisuje obraz na pozycji slot we wsadzie zgodnie z wyliczonym przekształceniem.
+     * Z obrazu odczytywane są tylko próbkowane wiersze wycinka; skalowanie (najbliższy sąsiad)
+     * i konwersja to jedno przejście, więc całość liczona jest jako CONVERT.
+     */
+    public void write(int slot, PixelSource source, PreprocessTransform transform) {
+        long start = System.nanoTime();
+        if (columnMap == null) {
+            columnMap = new int[width];
+            rowMap = new int[height];
+            rowPixels = new int[width];
+        }
+        Nv21Converter.fillMap(columnMap, width, transform.getContentLeft(), transform.getContentWidth(),
+                transform.getCropLeft(), transform.getCropWidth(), source.getWidth());
+        Nv21Converter.fillMap(rowMap, height, transform.getContentTop(), transform.getContentHeight(),
+                transform.getCropTop(), transform.getCropHeight(), source.getHeight());
+        int firstColumn = Integer.MAX_VALUE;
+        int lastColumn = -1;
+        for (int x = 0; x < width; x++) {
+            if (columnMap[x] >= 0) {
+                firstColumn = Math.min(firstColumn, columnMap[x]);
+                lastColumn = Math.max(lastColumn, columnMap[x]);
+            }
+        }
+        int span = lastColumn - firstColumn + 1;
+        if (sourceRow.length < span) {
+            sourceRow = new int[span];
+        }
+
+        int offset = slot * imageBytes;
+        if (dataType == DataType.FLOAT32) {
+            floatView.position(offset / 4);
+        } else {
+            buffer.position(offset);
+        }
+        for (int y = 0; y < height; y++) {
+            int sourceY = rowMap[y];
+            if (sourceY < 0 || span <= 0) {
+                Arrays.fill(rowPixels, BLACK);
+            } else {
+                source.getPixels(sourceRow, 0, span, firstColumn, sourceY, span, 1);
+                for (int x = 0; x < width; x++) {
+                    int sourceX = columnMap[x];
+                    rowPixels[x] = sourceX >= 0 ? sourceRow[sourceX - firstColumn] : BLACK;
+                }
+            }
+            if (dataType == DataType.FLOAT32) {
+                PixelConverter.argbToFloat(rowPixels, width, 1, floatView, floatRow);
+            } else {
+                PixelConverter.argbToQuantized(rowPixels, width, 1, buffer, quantizedLut, byteRow);
+            }
+        }
+        convertNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Zapisuje klatkę NV21 bezpośrednio do tensora zgodnie z przekształceniem transform,
+     * wyliczanym dla rozmiaru klatki po obrocie.
+     */
+    public ByteBuffer load(Nv21Frame frame, PreprocessTransform transform) {
+        prepareBatch(1);
+        transform.update(frame.getRotatedWidth(), frame.getRotatedHeight(), width, height);
+        write(0, frame, transform);
+        return batchBuffer();
+    }
+
+    /**
+     * Zapisuje klatkę NV21 na pozycji slot we wsadzie zgodnie z wyliczonym przekształceniem.
+     * Skalowanie i konwersja to jedno przejście, więc całość liczona jest jako CONVERT.
+     */
+    public void write(int slot, Nv21Frame frame, PreprocessTransform transform) {
+        long start = System.nanoTime();
+        int offset = slot * imageBytes;
+        if (dataType == DataType.FLOAT32) {
+            floatView.position(offset / 4);
+            nv21Converter.toFloat(frame, transform, floatView, floatRow);
+        } else {
+            buffer.position(offset);
+            nv21Converter.toQuantized(frame, transform, buffer, quantizedLut, byteRow);
+        }
+        convertNanos += System.nanoTime() - start;
+    }
+}
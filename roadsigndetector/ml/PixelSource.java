@@ -0,0 +1,18 @@
+package com.example.roadsigndetector.ml;
+
+/**
+ * Obraz źródłowy jako piksele ARGB, niezależnie od platformy (tablica, BufferedImage, Bitmap).
+ * PixelInputBuffer odczytuje z niego tylko potrzebne wiersze wycinka, bez kopii całego obrazu.
+ */
+public interface PixelSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Kopiuje prostokąt [x, y, width, height] do out od offset, z odstępem stride między wierszami
+     * (jak Bitmap.getPixels i BufferedImage.getRGB).
+     */
+    void getPixels(int[] out, int offset, int stride, int x, int y, int width, int height);
+}
@@ -0,0 +1,244 @@
+package com.example.roadsigndetector.ml;
+
+/**
+ * Opis przekształcenia obrazu źródłowego do wejścia modelu i z powrotem.
+ * Obsługuje rozciąganie (STRETCH), przycięcie do środka (CENTER_CROP) i letterbox
+ * z zachowaniem proporcji (LETTERBOX), opcjonalnie tylko dla wybranego obszaru obrazu
+ * (np. pobocza drogi bez nieba i deski rozdzielczej).
+ * Zapamiętuje zastosowaną skalę i przesunięcie, dzięki czemu ramki z detektora można
+ * przeliczyć z powrotem na piksele źródła i współrzędne widoku.
+ * Czysta Java - współrzędne źródła odnoszą się do obrazu po obrocie.
+ */
+public class PreprocessTransform {
+
+    /**
+     * Sposób dopasowania obrazu do wejścia modelu.
+     */
+    public enum Mode {
+        STRETCH,      // Cały obszar rozciągnięty do wejścia (zmienia proporcje)
+        CENTER_CROP,  // Proporcje zachowane, nadmiar obcięty symetrycznie
+        LETTERBOX     // Proporcje zachowane, brakujące pasy wypełnione czernią
+    }
+
+    private Mode mode = Mode.STRETCH;
+
+    // Obszar zainteresowania jako ułamek obrazu źródłowego
+    private float roiLeft = 0f;
+    private float roiTop = 0f;
+    private float roiRight = 1f;
+    private float roiBottom = 1f;
+
+    // Wynik ostatniego update(): próbkowany fragment źródła (piksele)...
+    private int sourceWidth;
+    private int sourceHeight;
+    private float cropLeft;
+    private float cropTop;
+    private float cropWidth;
+    private float cropHeight;
+
+    // ...i miejsce, w którym ląduje na wejściu modelu (piksele wejścia)
+    private int targetWidth;
+    private int targetHeight;
+    private float contentLeft;
+    private float contentTop;
+    private float contentWidth;
+    private float contentHeight;
+
+    public PreprocessTransform() {
+    }
+
+    public PreprocessTransform(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Ustawia obszar zainteresowania jako ułamki szerokości i wysokości źródła (0..1).
+     */
+    public void setRegionOfInterest(float left, float top, float right, float bottom) {
+        roiLeft = clamp01(left);
+        roiTop = clamp01(top);
+        roiRight = Math.max(roiLeft, clamp01(right));
+        roiBottom = Math.max(roiTop, clamp01(bottom));
+    }
+
+    /**
+     * Wylicza przekształcenie dla źródła i wejścia modelu o podanych rozmiarach,
+     * używając ustawionego obszaru zainteresowania.
+     */
+    public void update(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        int left = Math.round(roiLeft * sourceWidth);
+        int top = Math.round(roiTop * sourceHeight);
+        int right = Math.round(roiRight * sourceWidth);
+        int bottom = Math.round(roiBottom * sourceHeight);
+        update(sourceWidth, sourceHeight, left, top, right - left, bottom - top, targetWidth, targetHeight);
+    }
+
+    /**
+     * Wylicza przekształcenie dla jawnie podanego obszaru źródła (w pikselach).
+     */
+    public void update(int sourceWidth, int sourceHeight, int regionLeft, int regionTop,
+                       int regionWidth, int regionHeight, int targetWidth, int targetHeight) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        regionWidth = Math.max(1, regionWidth);
+        regionHeight = Math.max(1, regionHeight);
+
+        cropLeft = regionLeft;
+        cropTop = regionTop;
+        cropWidth = regionWidth;
+        cropHeight = regionHeight;
+        contentLeft = 0f;
+        contentTop = 0f;
+        contentWidth = targetWidth;
+        contentHeight = targetHeight;
+
+        float scaleX = (float) targetWidth / regionWidth;
+        float scaleY = (float) targetHeight / regionHeight;
+        switch (mode) {
+            case CENTER_CROP: {
+                float scale = Math.max(scaleX, scaleY);
+                cropWidth = targetWidth / scale;
+                cropHeight = targetHeight / scale;
+                cropLeft = regionLeft + (regionWidth - cropWidth) / 2f;
+                cropTop = regionTop + (regionHeight - cropHeight) / 2f;
+                break;
+            }
+            case LETTERBOX: {
+                float scale = Math.min(scaleX, scaleY);
+                contentWidth = regionWidth * scale;
+                contentHeight = regionHeight * scale;
+                contentLeft = (targetWidth - contentWidth) / 2f;
+                contentTop = (targetHeight - contentHeight) / 2f;
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Czy wejście modelu zawiera puste pasy (LETTERBOX z innymi proporcjami).
+     */
+    public boolean hasPadding() {
+        return contentLeft > 0f || contentTop > 0f
+                || contentWidth < targetWidth || contentHeight < targetHeight;
+    }
+
+    /**
+     * Czy przekształcenie przepisuje całe źródło piksel w piksel (bez skalowania i wycinania).
+     */
+    public boolean isIdentity() {
+        return !hasPadding() && cropLeft == 0f && cropTop == 0f
+                && sourceWidth == targetWidth && sourceHeight == targetHeight
+                && cropWidth == sourceWidth && cropHeight == sourceHeight;
+    }
+
+    /**
+     * Przelicza ramki [ymin, xmin, ymax, xmax] z ułamków wejścia modelu na współrzędne źródła.
+     * Przetwarza count ramek od pozycji offset; out może być tą samą tablicą co boxes.
+     *
+     * @param normalized true - wynik jako ułamki obrazu źródłowego (0..1), false - w pikselach
+     */
+    public void mapToSource(float[] boxes, int offset, int count, float[] out, int outOffset, boolean normalized) {
+        float scaleX = cropWidth / contentWidth * targetWidth;
+        float scaleY = cropHeight / contentHeight * targetHeight;
+        float shiftX = cropLeft - contentLeft * cropWidth / contentWidth;
+        float shiftY = cropTop - contentTop * cropHeight / contentHeight;
+        float divX = normalized ? sourceWidth : 1f;
+        float divY = normalized ? sourceHeight : 1f;
+        for (int i = 0; i < count; i++) {
+            int in = offset + i * 4;
+            int o = outOffset + i * 4;
+            float ymin = clamp(boxes[in] * scaleY + shiftY, sourceHeight);
+            float xmin = clamp(boxes[in + 1] * scaleX + shiftX, sourceWidth);
+            float ymax = clamp(boxes[in + 2] * scaleY + shiftY, sourceHeight);
+            float xmax = clamp(boxes[in + 3] * scaleX + shiftX, sourceWidth);
+            out[o] = ymin / divY;
+            out[o + 1] = xmin / divX;
+            out[o + 2] = ymax / divY;
+            out[o + 3] = xmax / divX;
+        }
+    }
+
+    /**
+     * Przelicza ramki [ymin, xmin, ymax, xmax] w ułamkach obrazu źródłowego na piksele widoku,
+     * w którym podgląd jest rozciągnięty na cały widok (jak podgląd Camera na SurfaceView).
+     */
+    public static void sourceToView(float[] boxes, int offset, int count, int viewWidth, int viewHeight,
+                                    float[] out, int outOffset) {
+        for (int i = 0; i < count; i++) {
+            int in = offset + i * 4;
+            int o = outOffset + i * 4;
+            out[o] = boxes[in] * viewHeight;
+            out[o + 1] = boxes[in + 1] * viewWidth;
+            out[o + 2] = boxes[in + 2] * viewHeight;
+            out[o + 3] = boxes[in + 3] * viewWidth;
+        }
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    public int getTargetHeight() {
+        return targetHeight;
+    }
+
+    public float getCropLeft() {
+        return cropLeft;
+    }
+
+    public float getCropTop() {
+        return cropTop;
+    }
+
+    public float getCropWidth() {
+        return cropWidth;
+    }
+
+    public float getCropHeight() {
+        return cropHeight;
+    }
+
+    public float getContentLeft() {
+        return contentLeft;
+    }
+
+    public float getContentTop() {
+        return contentTop;
+    }
+
+    public float getContentWidth() {
+        return contentWidth;
+    }
+
+    public float getContentHeight() {
+        return contentHeight;
+    }
+
+    private static float clamp01(float value) {
+        return Math.max(0f, Math.min(1f, value));
+    }
+
+    private static float clamp(float value, float max) {
+        return Math.max(0f, Math.min(max, value));
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.roadsigndetector.ml;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Odczyt nagrania zapisanego przez FrameRecorder, rekord po rekordzie.
+ * Nagrania mogą przekraczać 2 GB, więc rekordy są czytane do bufora wielokrotnego użytku
+ * zamiast mapowania całego pliku. Odczyt kończy się na pierwszym niepełnym rekordzie
+ * (nagranie przerwane bez close()).
+ *
+ * Przykład:
+ * while (session.next()) {
+ *     if (session.isFrame()) { session.readFrame(frame); } else { session.readDetections(result); }
+ * }
+ */
+public class RecordedSession implements Closeable {
+
+    private final FileInputStream input;
+    private final FileChannel channel;
+    private final long length;
+    private long position = FrameRecorder.HEADER_SIZE;
+    private final ByteBuffer header = ByteBuffer.allocate(FrameRecorder.RECORD_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer data = ByteBuffer.allocate(0);
+    private final float[] box = new float[4];
+
+    // Bieżący rekord
+    private int type;
+    private long timestampNanos;
+
+    public RecordedSession(File file) throws IOException {
+        input = new FileInputStream(file);
+        channel = input.getChannel();
+        length = channel.size();
+        try {
+            ByteBuffer fileHeader = ByteBuffer.allocate(FrameRecorder.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(fileHeader, 0);
+            if (fileHeader.getInt(0) != FrameRecorder.MAGIC) {
+                throw new IOException("Plik " + file + " nie jest nagraniem sesji");
+            }
+            if (fileHeader.getInt(4) != FrameRecorder.VERSION) {
+                throw new IOException("Nieobsługiwana wersja nagrania: " + fileHeader.getInt(4));
+            }
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Przechodzi do następnego rekordu; false na końcu nagrania.
+     */
+    public boolean next() throws IOException {
+        type = 0;
+        if (position + FrameRecorder.RECORD_HEADER_SIZE > length) {
+            return false;
+        }
+        header.clear();
+        readFully(header, position);
+        int recordType = header.getInt(0);
+        int dataSize = header.getInt(4);
+        if (recordType == 0 || dataSize < 0 || position + FrameRecorder.RECORD_HEADER_SIZE + dataSize > length) {
+            return false;
+        }
+        if (data.capacity() < dataSize) {
+            data = ByteBuffer.allocate(dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        data.clear();
+        data.limit(dataSize);
+        readFully(data, position + FrameRecorder.RECORD_HEADER_SIZE);
+        type = recordType;
+        timestampNanos = header.getLong(8);
+        position += FrameRecorder.RECORD_HEADER_SIZE + dataSize;
+        return true;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Nieoczekiwany koniec nagrania");
+            }
+        }
+    }
+
+    public boolean isFrame() {
+        return type == FrameRecorder.TYPE_FRAME;
+    }
+
+    public boolean isDetections() {
+        return type == FrameRecorder.TYPE_DETECTIONS;
+    }
+
+    /**
+     * Znacznik czasu klatki (System.nanoTime() w chwili jej otrzymania; wynik ma znacznik swojej klatki).
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * Format bieżącej klatki.
+     */
+    public FrameRecorder.Format getFrameFormat() {
+        return FrameRecorder.Format.values()[data.getInt(0)];
+    }
+
+    /**
+     * Szerokość bieżącej klatki (NV21 - bufora kamery przed obrotem, RGB - obrazu po obrocie).
+     */
+    public int getFrameWidth() {
+        return data.getInt(4);
+    }
+
+    public int getFrameHeight() {
+        return data.getInt(8);
+    }
+
+    /**
+     * Kopiuje klatkę NV21 do frame; tablica danych jest używana ponownie, jeśli ma odpowiedni rozmiar.
+     */
+    public void readFrame(Nv21Frame frame) {
+        int width = getFrameWidth();
+        int height = getFrameHeight();
+        int size = width * height * 3 / 2;
+        byte[] target = frame.data != null && frame.data.length == size ? frame.data : new byte[size];
+        System.arraycopy(data.array(), FrameRecorder.FRAME_HEADER_SIZE, target, 0, size);
+        frame.set(target, width, height, data.getInt(12));
+    }
+
+    /**
+     * Kopiuje klatkę RGB jako piksele ARGB (co najmniej szerokość * wysokość).
+     */
+    public void readPixels(int[] out) {
+        int size = getFrameWidth() * getFrameHeight();
+        int offset = FrameRecorder.FRAME_HEADER_SIZE;
+        byte[] array = data.array();
+        for (int i = 0; i < size; i++, offset += 3) {
+            out[i] = 0xFF000000 | (array[offset] & 0xFF) << 16 | (array[offset + 1] & 0xFF) << 8
+                    | (array[offset + 2] & 0xFF);
+        }
+    }
+
+    /**
+     * Czas kaskady (albo predykcji trackera) zapisany razem z bieżącym wynikiem.
+     */
+    public long getLatencyNanos() {
+        return data.getLong(0);
+    }
+
+    /**
+     * Czy bieżący wynik pochodzi z pełnej detekcji (false - tylko predykcja trackera).
+     */
+    public boolean isDetectorResult() {
+        return (data.getInt(8) & FrameRecorder.FLAG_DETECTOR_RAN) != 0;
+    }
+
+    /**
+     * Kopiuje zapisane wykrycia do out (ramki w ułamkach obrazu po obrocie).
+     */
+    public void readDetections(DetectionResult out) {
+        out.clear();
+        int count = data.getInt(12);
+        int offset = FrameRecorder.DETECTION_HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            for (int c = 0; c < 4; c++) {
+                box[c] = data.getFloat(offset + 8 + c * 4);
+            }
+            out.add(data.getInt(offset), data.getFloat(offset + 4), box, 0);
+            offset += FrameRecorder.DETECTION_SIZE;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
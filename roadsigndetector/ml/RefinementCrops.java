@@ -0,0 +1,48 @@
+package com.example.roadsigndetector.ml;
+
+/**
+ * Wybór wycinków do doprecyzowania klasyfikatorem: klasy ograniczeń prędkości
+ * i ramki przeliczone na piksele z marginesem. Wspólne dla RoadSignCascade i serwera detekcji.
+ */
+public final class RefinementCrops {
+
+    public static final float MIN_REFINED_CONFIDENCE = 0.5f;
+
+    private static final String SPEED_LIMIT_PREFIX = "speed limit";
+    private static final float CROP_MARGIN = 0.1f; // Margines wokół ramki (ułamek jej rozmiaru)
+    private static final int MIN_CROP_SIZE = 16; // Mniejsze wycinki nie niosą informacji o cyfrach
+
+    private RefinementCrops() {
+    }
+
+    /**
+     * Czy wykrycia klasy o tej etykiecie wymagają klasyfikacji wartości.
+     */
+    public static boolean needsRefinement(String label) {
+        return label.startsWith(SPEED_LIMIT_PREFIX);
+    }
+
+    /**
+     * Przelicza ramkę [ymin, xmin, ymax, xmax] (0..1, od pozycji offset) na piksele obrazu z marginesem;
+     * wynik [lewo, góra, prawo, dół] trafia do out od outOffset.
+     * Zwraca false, gdy wycinek jest zbyt mały do klasyfikacji.
+     */
+    public static boolean compute(float[] boxes, int offset, int width, int height, int[] out, int outOffset) {
+        float boxHeight = boxes[offset + 2] - boxes[offset];
+        float boxWidth = boxes[offset + 3] - boxes[offset + 1];
+
+        int top = Math.max(0, (int) ((boxes[offset] - boxHeight * CROP_MARGIN) * height));
+        int left = Math.max(0, (int) ((boxes[offset + 1] - boxWidth * CROP_MARGIN) * width));
+        int bottom = Math.min(height, (int) ((boxes[offset + 2] + boxHeight * CROP_MARGIN) * height));
+        int right = Math.min(width, (int) ((boxes[offset + 3] + boxWidth * CROP_MARGIN) * width));
+
+        if (right - left < MIN_CROP_SIZE || bottom - top < MIN_CROP_SIZE) {
+            return false;
+        }
+        out[outOffset] = left;
+        out[outOffset + 1] = top;
+        out[outOffset + 2] = right;
+        out[outOffset + 3] = bottom;
+        return true;
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.roadsigndetector.ml;
+
+import java.util.Locale;
+
+/**
+ * Niewielka pamięć podręczna wyników (LRU) z kluczem w postaci skrótu percepcyjnego obrazu
+ * (PixelInputBuffer.differenceHash). Obraz pasuje do wpisu, jeśli skróty różnią się najwyżej
+ * na maxDistance bitach - np. kolejne klatki z kamery stojącego samochodu albo ponownie wybrane zdjęcie.
+ * Wpisy starsze niż ttl są pomijane, żeby zmiany sceny nie umknęły na dłużej niż ttl.
+ * Wartości są kopiowane do wpisów alokowanych raz (Adapter), więc odczyt i zapis nie generują śmieci.
+ */
+public class ResultCache<T> {
+
+    /**
+     * Tworzenie i kopiowanie wartości przechowywanych w pamięci podręcznej.
+     */
+    public interface Adapter<T> {
+        T create();
+
+        void copy(T from, T to);
+    }
+
+    private final Adapter<T> adapter;
+    private final int maxDistance;
+    private final long ttlNanos;
+    private final long[] hashes;
+    private final long[] createdAt;
+    private final long[] lastUsed; // Numer ostatniego użycia (LRU); 0 - wolny wpis
+    private final T[] values;
+    private long useCounter;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity    liczba wpisów
+     * @param maxDistance największa odległość Hamminga skrótów uznanych za ten sam obraz
+     * @param ttlMs       czas ważności wpisu
+     */
+    @SuppressWarnings("unchecked")
+    public ResultCache(int capacity, int maxDistance, long ttlMs, Adapter<T> adapter) {
+        int size = Math.max(1, capacity);
+        this.adapter = adapter;
+        this.maxDistance = Math.max(0, maxDistance);
+        this.ttlNanos = ttlMs * 1_000_000L;
+        hashes = new long[size];
+        createdAt = new long[size];
+        lastUsed = new long[size];
+        values = (T[]) new Object[size];
+    }
+
+    /**
+     * Pamięć podręczna wyników detekcji.
+     */
+    public static ResultCache<DetectionResult> forDetections(int capacity, int maxDistance, long ttlMs) {
+        return new ResultCache<>(capacity, maxDistance, ttlMs, new Adapter<DetectionResult>() {
+            @Override
+            public DetectionResult create() {
+                return new DetectionResult();
+            }
+
+            @Override
+            public void copy(DetectionResult from, DetectionResult to) {
+                to.copyFrom(from);
+            }
+        });
+    }
+
+    /**
+     * Pamięć podręczna wyników klasyfikacji.
+     */
+    public static ResultCache<ClassificationResult> forClassifications(int capacity, int maxDistance, long ttlMs) {
+        return new ResultCache<>(capacity, maxDistance, ttlMs, new Adapter<ClassificationResult>() {
+            @Override
+            public ClassificationResult create() {
+                return new ClassificationResult();
+            }
+
+            @Override
+            public void copy(ClassificationResult from, ClassificationResult to) {
+                to.set(from.getClassId(), from.getScore(), from.getLabels());
+            }
+        });
+    }
+
+    /**
+     * Kopiuje do out wynik najbliższego pasującego i ważnego wpisu; false, jeśli takiego nie ma.
+     *
+     * @param nowNanos bieżący czas (System.nanoTime())
+     */
+    public synchronized boolean get(long hash, long nowNanos, T out) {
+        int index = find(hash, nowNanos);
+        if (index < 0) {
+            misses++;
+            return false;
+        }
+        hits++;
+        lastUsed[index] = ++useCounter;
+        adapter.copy(values[index], out);
+        return true;
+    }
+
+    /**
+     * Zapisuje wynik dla obrazu o skrócie hash. Pasujący wpis jest nadpisywany (odświeżenie),
+     * w przeciwnym razie zajmowany jest wolny, przeterminowany albo najdawniej używany.
+     */
+    public synchronized void put(long hash, long nowNanos, T value) {
+        int index = find(hash, nowNanos);
+        if (index < 0) {
+            index = victim(nowNanos);
+        }
+        if (values[index] == null) {
+            values[index] = adapter.create();
+        }
+        adapter.copy(value, values[index]);
+        hashes[index] = hash;
+        createdAt[index] = nowNanos;
+        lastUsed[index] = ++useCounter;
+    }
+
+    private int find(long hash, long nowNanos) {
+        int best = -1;
+        int bestDistance = maxDistance + 1;
+        for (int i = 0; i < hashes.length; i++) {
+            if (lastUsed[i] == 0 || nowNanos - createdAt[i] > ttlNanos) {
+                continue;
+            }
+            int distance = Long.bitCount(hashes[i] ^ hash);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private int victim(long nowNanos) {
+        int oldest = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (lastUsed[i] == 0 || nowNanos - createdAt[i] > ttlNanos) {
+                return i;
+            }
+            if (lastUsed[i] < lastUsed[oldest]) {
+                oldest = i;
+            }
+        }
+        evictions++;
+        return oldest;
+    }
+
+    /**
+     * Usuwa wszystkie wpisy (np. po podmianie modelu albo zmianie obszaru detekcji).
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < lastUsed.length; i++) {
+            lastUsed[i] = 0;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Liczba ważnych wpisów usuniętych, bo zabrakło miejsca.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Odsetek zapytań obsłużonych z pamięci podręcznej (0..1).
+     */
+    public synchronized float getHitRate() {
+        long total = hits + misses;
+        return total > 0 ? (float) hits / total : 0f;
+    }
+
+    public synchronized void resetMetrics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * Liczniki w formie tekstu (nakładka z pomiarami).
+     */
+    public synchronized String format() {
+        return String.format(Locale.ROOT, "trafienia %d, chybienia %d (%.0f%%), usunięte %d%n",
+                hits, misses, getHitRate() * 100f, evictions);
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.roadsigndetector.ml;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import com.example.roadsigndetector.ml.ClassificationEngine.BatchResult;
+
+/**
+ * Dwuetapowe rozpoznawanie: detekcja na całej klatce, a następnie klasyfikacja
+ * wycinków z ograniczeniem prędkości w pełnej rozdzielczości.
+ * Klasyfikator 224x224 jest uruchamiany tylko dla ramek, które tego wymagają,
+ * a wszystkie wycinki z jednej klatki trafiają do niego jednym wsadem.
+ * Z trackerem (setTracker) pomijane są znaki, których wartość została już zatwierdzona.
+ */
+public class RoadSignCascade {
+
+    private final RoadSignDetector detector;
+    private final RoadSignClassifier classifier;
+    private volatile ObjectTracker tracker;
+
+    // Bufory wsadu wielokrotnego użytku
+    private Rect[] crops = new Rect[0];
+    private Bitmap[] cropSources = new Bitmap[0];
+    private int[] cropIndices = new int[0]; // Indeks wykrycia w wyniku dla każdego wycinka
+    private final int[] cropBounds = new int[4];
+    private final BatchResult batchResult = new BatchResult();
+
+    // Klasy detektora wymagające doprecyzowania, wyliczane raz dla etykiet modelu
+    // (ponownie dopiero po podmianie modelu) zamiast porównań napisów na klatkę
+    private String[] refinementLabels;
+    private boolean[] needsRefinement = new boolean[0];
+
+    public RoadSignCascade(RoadSignDetector detector, RoadSignClassifier classifier) {
+        this.detector = detector;
+        this.classifier = classifier;
+    }
+
+    public RoadSignDetector getDetector() {
+        return detector;
+    }
+
+    /**
+     * Tracker, któremu przekazywane są wyniki process(); wycinki śladów z zatwierdzonym
+     * odczytem ograniczenia prędkości nie są ponownie klasyfikowane. null - klasyfikacja zawsze.
+     */
+    public void setTracker(ObjectTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    /**
+     * Wykrywa znaki na klatce i doprecyzowuje wartość ograniczeń prędkości; wynik trafia do out.
+     * Zwraca false, gdy model detektora nie jest załadowany.
+     */
+    public boolean process(Bitmap frame, DetectionResult out) {
+        if (!detector.detect(frame, out)) {
+            return false;
+        }
+        refine(frame, out);
+        return true;
+    }
+
+    /**
+     * Doprecyzowuje ograniczenia prędkości w wykryciach z innego źródła (np. TiledDetector) na tej samej bitmapie.
+     */
+    public void refine(Bitmap frame, DetectionResult detections) {
+        int cropCount = collectCrops(detections, frame.getWidth(), frame.getHeight());
+        if (cropCount > 0) {
+            for (int i = 0; i < cropCount; i++) {
+                cropSources[i] = frame;
+            }
+            classifier.classifyBatch(cropSources, crops, cropCount, 1, batchResult);
+            applyRefinements(detections, cropCount);
+        }
+    }
+
+    /**
+     * Jak process(Bitmap, DetectionResult), ale bezpośrednio na klatce kamery NV21.
+     */
+    public boolean process(Nv21Frame frame, DetectionResult out) {
+        if (!detector.detect(frame, out)) {
+            return false;
+        }
+        int cropCount = collectCrops(out, frame.getRotatedWidth(), frame.getRotatedHeight());
+        if (cropCount > 0) {
+            classifier.classifyBatch(frame, crops, cropCount, 1, batchResult);
+            applyRefinements(out, cropCount);
+        }
+        return true;
+    }
+
+    /**
+     * Zbiera wycinki, które wymagają klasyfikacji; zwraca ich liczbę.
+     */
+    private int collectCrops(DetectionResult detections, int width, int height) {
+        ensureCapacity(detections.size());
+        if (detections.getLabels() != refinementLabels) {
+            updateRefinementClasses(detections.getLabels());
+        }
+        float[] boxes = detections.getBoxes();
+        ObjectTracker currentTracker = tracker;
+        int cropCount = 0;
+        for (int i = 0; i < detections.size(); i++) {
+            if (needsRefinement(detections.getClassId(i))
+                    && (currentTracker == null || !currentTracker.isReadingCommitted(detections, i))
+                    && RefinementCrops.compute(boxes, i * 4, width, height, cropBounds, 0)) {
+                crops[cropCount].set(cropBounds[0], cropBounds[1], cropBounds[2], cropBounds[3]);
+                cropIndices[cropCount] = i;
+                cropCount++;
+            }
+        }
+        return cropCount;
+    }
+
+    private void applyRefinements(DetectionResult detections, int cropCount) {
+        detections.setRefinedLabels(batchResult.labels);
+        for (int i = 0; i < batchResult.count; i++) {
+            float confidence = batchResult.getScore(i, 0);
+            if (confidence >= RefinementCrops.MIN_REFINED_CONFIDENCE) {
+                detections.setRefinement(cropIndices[i], batchResult.getClassIndex(i, 0), confidence);
+            }
+        }
+
+        // Referencje nie są potrzebne do następnej klatki
+        for (int i = 0; i < cropCount; i++) {
+            cropSources[i] = null;
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (crops.length >= size) {
+            return;
+        }
+        Rect[] grown = new Rect[size];
+        System.arraycopy(crops, 0, grown, 0, crops.length);
+        for (int i = crops.length; i < size; i++) {
+            grown[i] = new Rect();
+        }
+        crops = grown;
+        cropSources = new Bitmap[size];
+        cropIndices = new int[size];
+    }
+
+    private void updateRefinementClasses(String[] labels) {
+        refinementLabels = labels;
+        needsRefinement = new boolean[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            needsRefinement[i] = RefinementCrops.needsRefinement(labels[i]);
+        }
+    }
+
+    private boolean needsRefinement(int classId) {
+        return classId >= 0 && classId < needsRefinement.length && needsRefinement[classId];
+    }
+}
@@ -2,144 +2,416 @@ package com.example.roadsigndetector.ml;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.util.Log;
 
 import com.example.roadsigndetector.data.RoadSignLabel;
 
-import org.tensorflow.lite.Interpreter;
+import com.example.roadsigndetector.ml.ClassificationEngine.BatchResult;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class RoadSignClassifier {
 
     private static final String TAG = "RoadSignClassifier";
-    private Interpreter interpreter;
-    private List<String> labelList;
-    private static final int INPUT_SIZE = 224; // Rozmiar wejściowy modelu
-    private static final int PIXEL_SIZE = 3; // RGB
-    private static final int FLOAT_SIZE = 4; // Rozmiar float w bajtach
+    private static final String MODEL_PATH = "classifier_224.tflite";
+    private static final String LABEL_PATH = "classifier_labelmap.txt";
+
+    private final ModelCache cache;
+    private final boolean exclusive;
+    private final InferenceConfig config;
+    // Aktywny model; nowy czeka w pendingEngine do początku następnego wywołania
+    private volatile Engine engine;
+    private final AtomicReference<Engine> pendingEngine = new AtomicReference<>();
+    private volatile boolean closed;
+    private final InferenceMetrics metrics = new InferenceMetrics();
+    // Wyniki dla niemal identycznych obrazów (opcjonalne, tylko classify); czyszczone po podmianie modelu
+    private volatile ResultCache<ClassificationResult> resultCache;
 
     public RoadSignClassifier(Context context) {
+        this(context, InferenceConfig.defaults());
+    }
+
+    public RoadSignClassifier(Context context, InferenceConfig config) {
+        this(context, config, false);
+    }
+
+    /**
+     * @param exclusive czy używać własnego interpretera zamiast współdzielonego z ModelCache
+     *                  (instancje puli InferenceService działają równolegle)
+     */
+    RoadSignClassifier(Context context, InferenceConfig config, boolean exclusive) {
+        this.cache = ModelCache.getInstance(context);
+        this.config = config;
+        this.exclusive = exclusive;
+        // Najnowszy pakiet z pamięci aplikacji; gdy się nie nada - model wbudowany
+        ModelBundle latest = new ModelRegistry(context).findLatest(ModelRegistry.CLASSIFIER, builtInBundle());
         try {
-            interpreter = new Interpreter(loadModelFile(context, "classifier_224.tflite"));
-            labelList = loadLabelList(context, "classifier_labelmap.txt");
+            engine = createEngine(latest);
         } catch (Exception e) {
-            Log.e(TAG, "Error initializing RoadSignClassifier: " + e.getMessage());
+            Log.e(TAG, "Error initializing RoadSignClassifier (" + latest + "): " + e.getMessage());
+            if (!latest.isBuiltIn()) {
+                try {
+                    engine = createEngine(builtInBundle());
+                } catch (Exception fallbackError) {
+                    Log.e(TAG, "Error initializing RoadSignClassifier: " + fallbackError.getMessage());
+                }
+            }
         }
     }
 
+    /**
+     * Pakiet modelu dostarczany w APK.
+     */
+    public static ModelBundle builtInBundle() {
+        return ModelBundle.builtIn(ModelRegistry.CLASSIFIER, MODEL_PATH, LABEL_PATH);
+    }
+
     /**
      * Metoda do klasyfikacji obrazu.
      * Zwraca etykietę z najwyższą pewnością.
+     *
+     * @deprecated tekst do wyświetlenia; w kodzie należy używać classify(Bitmap, ClassificationResult)
      */
+    @Deprecated
     public String classifyImage(Bitmap bitmap) {
-        if (interpreter == null || labelList == null) {
+        ClassificationResult result = new ClassificationResult();
+        if (!classify(bitmap, null, result)) {
             return "Model nie jest załadowany.";
         }
+        return "Znak: " + result.getLabel() + " (pewność: "
+                + String.format("%.2f", result.getScore() * 100) + "%)";
+    }
 
-        // 1. Skalowanie bitmapy
-        Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, INPUT_SIZE, INPUT_SIZE, true);
+    /**
+     * Klasyfikuje cały obraz; wynik trafia do out.
+     * Zwraca false, gdy model nie jest załadowany.
+     */
+    public boolean classify(Bitmap bitmap, ClassificationResult out) {
+        return classify(bitmap, null, out);
+    }
 
-        // 2. Konwersja do ByteBuffer
-        ByteBuffer inputBuffer = convertBitmapToByteBuffer(resizedBitmap);
+    /**
+     * Klasyfikuje fragment bitmapy (roi, w pikselach; null = cały obraz).
+     * Klasa z najwyższą pewnością trafia do out; zwraca false, gdy model nie jest załadowany.
+     */
+    public boolean classify(Bitmap bitmap, Rect roi, ClassificationResult out) {
+        Engine current = activeEngine();
+        if (current == null) {
+            out.clear();
+            return false;
+        }
+        // Interpreter może być współdzielony przez kilka klasyfikatorów; close() może przyjść z innego wątku
+        synchronized (current.model) {
+            if (current.closed) {
+                out.clear();
+                return false;
+            }
+            run(current, bitmap, roi, out);
+        }
+        return true;
+    }
 
-        // 3. Bufor wyjściowy
-        float[][] output = new float[1][labelList.size()];
+    private void run(Engine current, Bitmap bitmap, Rect roi, ClassificationResult out) {
+        long start = System.nanoTime();
 
-        // 4. Uruchomienie inferencji
-        interpreter.run(inputBuffer, output);
+        // 1. Skalowanie (wycinka) bitmapy i konwersja do ByteBuffer
+        current.ensureBatchSize(1);
+        InputTensorBuffer inputTensor = current.inputTensor();
+        inputTensor.load(bitmap, roi);
+        metrics.record(InferenceMetrics.Stage.SCALE, inputTensor.getScaleNanos());
+        metrics.record(InferenceMetrics.Stage.CONVERT, inputTensor.getConvertNanos());
 
-        // 5. Znalezienie indeksu z najwyższą pewnością
-        int maxIndex = 0;
-        float maxConfidence = 0f;
-        for (int i = 0; i < output[0].length; i++) {
-            if (output[0][i] > maxConfidence) {
-                maxConfidence = output[0][i];
-                maxIndex = i;
+        // Ten sam (lub niemal ten sam) obraz co niedawno - wynik bez inferencji
+        ResultCache<ClassificationResult> cache = resultCache;
+        long hash = 0L;
+        if (cache != null) {
+            hash = inputTensor.differenceHash(0);
+            if (cache.get(hash, start, out)) {
+                metrics.record(InferenceMetrics.Stage.TOTAL, System.nanoTime() - start);
+                return;
             }
         }
 
-        // 6. Zwrócenie etykiety i pewności
-        String label = RoadSignLabel.classifierLabels[maxIndex];
-        return "Znak: " + label + " (pewność: " + String.format("%.2f", maxConfidence * 100) + "%)";
+        // 2. Inferencja i wybór klasy z najwyższą pewnością
+        current.run(start, out, metrics);
+        if (cache != null) {
+            cache.put(hash, start, out);
+        }
     }
 
     /**
-     * Konwertuje Bitmap na ByteBuffer typu float (0..1).
+     * Klasyfikuje listę obrazów jednym wywołaniem interpretera (wsad [N, 224, 224, 3]).
+     * Dla każdego obrazu zwraca topK klas z najwyższą pewnością.
      */
-    private ByteBuffer convertBitmapToByteBuffer(Bitmap bitmap) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(
-                FLOAT_SIZE * INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        byteBuffer.rewind();
-
-        int[] pixels = new int[INPUT_SIZE * INPUT_SIZE];
-        bitmap.getPixels(pixels, 0, INPUT_SIZE, 0, 0, INPUT_SIZE, INPUT_SIZE);
+    public BatchResult classifyBatch(List<Bitmap> bitmaps, int topK) {
+        Bitmap[] images = bitmaps.toArray(new Bitmap[0]);
+        return classifyBatch(images, null, images.length, topK, null);
+    }
 
-        int pixelIndex = 0;
-        for (int i = 0; i < INPUT_SIZE; i++) {
-            for (int j = 0; j < INPUT_SIZE; j++) {
-                final int val = pixels[pixelIndex++];
+    /**
+     * Klasyfikuje count obrazów (lub ich wycinków rois; null = całe obrazy) wsadowo.
+     * Wynik trafia do out (jeśli nie jest null), co pozwala uniknąć alokacji między wywołaniami.
+     */
+    public BatchResult classifyBatch(Bitmap[] images, Rect[] rois, int count, int topK, BatchResult out) {
+        return runBatch(images, null, rois, count, topK, out);
+    }
 
-                // Rozbicie piksela ARGB na składowe R, G, B i normalizacja
-                float r = ((val >> 16) & 0xFF) / 255.0f;
-                float g = ((val >> 8) & 0xFF) / 255.0f;
-                float b = (val & 0xFF) / 255.0f;
+    /**
+     * Klasyfikuje wsadowo wycinki rois jednej klatki NV21 (współrzędne po obrocie).
+     */
+    public BatchResult classifyBatch(Nv21Frame frame, Rect[] rois, int count, int topK, BatchResult out) {
+        return runBatch(null, frame, rois, count, topK, out);
+    }
 
-                byteBuffer.putFloat(r);
-                byteBuffer.putFloat(g);
-                byteBuffer.putFloat(b);
+    /**
+     * Wspólna pętla wsadowa; źródłem są bitmapy images albo klatka frame.
+     */
+    private BatchResult runBatch(Bitmap[] images, Nv21Frame frame, Rect[] rois, int count, int topK,
+                                 BatchResult out) {
+        if (out == null) {
+            out = new BatchResult();
+        }
+        Engine current = activeEngine();
+        if (current == null) {
+            out.reset(0, 0);
+            return out;
+        }
+        synchronized (current.model) {
+            if (current.closed) {
+                out.reset(0, 0);
+                return out;
             }
+            runBatch(current, images, frame, rois, count, topK, out);
         }
+        return out;
+    }
 
-        return byteBuffer;
+    private void runBatch(Engine current, Bitmap[] images, Nv21Frame frame, Rect[] rois, int count, int topK,
+                          BatchResult out) {
+        CropWriter writer = current.cropWriter;
+        writer.images = images;
+        writer.frame = frame;
+        writer.rois = rois;
+        try {
+            current.classifyBatch(count, topK, writer, out, metrics);
+        } finally {
+            // Bez referencji do bitmap i klatki między wywołaniami
+            writer.images = null;
+            writer.frame = null;
+            writer.rois = null;
+        }
     }
 
     /**
-     * Wczytuje model TensorFlow Lite z folderu assets.
+     * Szerokość wejścia aktywnego modelu (0, jeśli model nie został załadowany),
+     * np. do dekodowania obrazu od razu w potrzebnym rozmiarze.
      */
-    private ByteBuffer loadModelFile(Context context, String modelPath) throws IOException {
-        InputStream inputStream = context.getAssets().open(modelPath);
-        byte[] modelBytes = new byte[inputStream.available()];
-        inputStream.read(modelBytes);
-        inputStream.close();
+    public int getInputWidth() {
+        Engine current = engine;
+        return current != null ? current.getInput().getWidth() : 0;
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocateDirect(modelBytes.length);
-        buffer.order(ByteOrder.nativeOrder());
-        buffer.put(modelBytes);
-        buffer.rewind();
-        return buffer;
+    public int getInputHeight() {
+        Engine current = engine;
+        return current != null ? current.getInput().getHeight() : 0;
     }
 
     /**
-     * Wczytuje listę etykiet z pliku labelmap.
+     * Włącza pamięć podręczną wyników classify() dla niemal identycznych obrazów (null - wyłącza).
+     * Klasyfikacja wsadowa zawsze uruchamia model.
      */
-    private List<String> loadLabelList(Context context, String labelPath) throws IOException {
-        List<String> labelList = new ArrayList<>();
-        InputStream inputStream = context.getAssets().open(labelPath);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            labelList.add(line);
+    public void setResultCache(ResultCache<ClassificationResult> cache) {
+        resultCache = cache;
+    }
+
+    public ResultCache<ClassificationResult> getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Pomiary czasów poszczególnych etapów klasyfikacji (dla wsadu - łącznie na wsad).
+     */
+    public InferenceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Backend inferencji używany przez model (null, jeśli model nie został załadowany).
+     */
+    public InferenceConfig.Backend getBackend() {
+        Engine current = engine;
+        return current != null ? current.model.getBackend() : null;
+    }
+
+    /**
+     * Pakiet aktywnego modelu (null, jeśli model nie został załadowany).
+     */
+    public ModelBundle getModelBundle() {
+        Engine current = engine;
+        return current != null ? current.bundle : null;
+    }
+
+    /**
+     * Przełącza klasyfikator na najnowszy pakiet z rejestru, jeśli jest nowszy od aktywnego.
+     * Blokuje do czasu wczytania i rozgrzania modelu - należy wywoływać poza wątkiem UI.
+     */
+    public boolean updateModel(ModelRegistry registry) {
+        ModelBundle latest = registry.findLatest(ModelRegistry.CLASSIFIER, builtInBundle());
+        ModelBundle active = getModelBundle();
+        if (active != null && latest.getVersion() <= active.getVersion()) {
+            return false;
+        }
+        return swapModel(latest);
+    }
+
+    /**
+     * Wczytuje, sprawdza i rozgrzewa pakiet, a następnie podmienia model
+     * (jak RoadSignDetector.swapModel). Przy błędzie aktywny model pozostaje bez zmian.
+     */
+    public boolean swapModel(ModelBundle bundle) {
+        Engine next;
+        try {
+            next = createEngine(bundle);
+        } catch (Exception e) {
+            Log.e(TAG, "Odrzucono model " + bundle + ": " + e.getMessage());
+            return false;
+        }
+        Engine replaced = pendingEngine.getAndSet(next);
+        if (replaced != null) {
+            replaced.close();
+        }
+        if (closed) {
+            // close() wywołane w trakcie wczytywania - nowy model nie zostanie już użyty
+            Engine leftover = pendingEngine.getAndSet(null);
+            if (leftover != null) {
+                leftover.close();
+            }
+            return false;
+        }
+        Log.i(TAG, "Przygotowano model " + bundle);
+        return true;
+    }
+
+    /**
+     * Aktywny model; jeśli czeka nowy, zostaje podmieniony przed rozpoczęciem wywołania.
+     */
+    private Engine activeEngine() {
+        Engine next = pendingEngine.getAndSet(null);
+        if (next != null) {
+            Engine old = engine;
+            engine = next;
+            ResultCache<ClassificationResult> cache = resultCache;
+            if (cache != null) {
+                cache.clear();
+            }
+            if (old != null) {
+                old.close();
+            }
+        }
+        return engine;
+    }
+
+    private Engine createEngine(ModelBundle bundle) throws IOException {
+        ModelCache.Model model = exclusive ? cache.acquireExclusive(bundle, config) : cache.acquire(bundle, config);
+        try {
+            Engine created;
+            synchronized (model) {
+                List<String> labelList = model.getLabels();
+                bundle.validate(model.getInferenceBackend().getInputSpec(0), labelList.size());
+                // Model wbudowany używa etykiet z RoadSignLabel, pobrany - własnego pliku etykiet
+                String[] labels = bundle.isBuiltIn()
+                        ? RoadSignLabel.classifierLabels : labelList.toArray(new String[0]);
+                created = new Engine(bundle, model, labels);
+                created.warmUp();
+            }
+            return created;
+        } catch (IOException | RuntimeException e) {
+            model.discard();
+            throw e;
         }
-        reader.close();
-        return labelList;
     }
 
     /**
-     * Zwolnienie zasobów interpretera.
+     * Zwolnienie referencji do modelu w pamięci podręcznej.
      */
     public void close() {
-        if (interpreter != null) {
-            interpreter.close();
-            interpreter = null;
+        closed = true;
+        Engine pending = pendingEngine.getAndSet(null);
+        if (pending != null) {
+            pending.close();
+        }
+        Engine current = engine;
+        engine = null;
+        if (current != null) {
+            // Czeka na zakończenie klasyfikacji trwającej na innym wątku
+            current.close();
+        }
+    }
+
+    /**
+     * Załadowany model z ModelCache: ClassificationEngine z wejściem z Bitmap i zwalnianiem referencji do modelu.
+     */
+    private static final class Engine extends ClassificationEngine {
+        final ModelBundle bundle;
+        final ModelCache.Model model;
+        // Wywołania wsadowe są szeregowane blokadą modelu, więc jeden obiekt zapisu wystarcza
+        final CropWriter cropWriter = new CropWriter();
+        boolean closed; // Zmieniane i czytane pod blokadą model
+
+        Engine(ModelBundle bundle, ModelCache.Model model, String[] labels) {
+            super(model.getInferenceBackend(), labels);
+            this.bundle = bundle;
+            this.model = model;
+        }
+
+        @Override
+        protected PixelInputBuffer createInputBuffer(TensorSpec spec) {
+            return new InputTensorBuffer(spec);
+        }
+
+        InputTensorBuffer inputTensor() {
+            return (InputTensorBuffer) getInput();
+        }
+
+        /**
+         * Zwalnia model; czeka na zakończenie klasyfikacji trwającej na innym wątku.
+         */
+        void close() {
+            synchronized (model) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            // Poprzednia wersja nie będzie już potrzebna; model wbudowany zostaje w pamięci podręcznej
+            if (bundle.isBuiltIn()) {
+                model.close();
+            } else {
+                model.discard();
+            }
+        }
+    }
+
+    /**
+     * Zapis elementów wsadu: wycinki bitmap albo jednej klatki NV21 (rois null - całe obrazy).
+     */
+    private static final class CropWriter implements ClassificationEngine.SlotWriter {
+        Bitmap[] images;
+        Nv21Frame frame;
+        Rect[] rois;
+
+        @Override
+        public void write(PixelInputBuffer input, int slot, int item) {
+            InputTensorBuffer inputTensor = (InputTensorBuffer) input;
+            Rect roi = rois != null ? rois[item] : null;
+            if (frame != null) {
+                inputTensor.write(slot, frame, roi);
+            } else {
+                inputTensor.write(slot, images[item], roi);
+            }
         }
     }
 }
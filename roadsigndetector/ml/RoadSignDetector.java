@@ -6,184 +6,515 @@ import android.util.Log;
 
 import com.example.roadsigndetector.data.RoadSignLabel;
 
-import org.tensorflow.lite.Interpreter;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class RoadSignDetector {
 
     private static final String TAG = "RoadSignDetector";
-    private Interpreter interpreter;
-    private List<String> labelList;
-    private static final int INPUT_SIZE = 300; // Rozmiar wejściowy dla detekcji
-    private static final int PIXEL_SIZE = 3; // RGB
-    private static final int FLOAT_SIZE = 4; // Rozmiar float w bajtach
+    private static final String MODEL_PATH = "detect.tflite";
+    private static final String LABEL_PATH = "detect_labelmap.txt";
+    private static final float SCORE_THRESHOLD = 0.5f; // Domyślny próg pewności
+    private static final int INPUT_SIZE_STEP = 32; // Rozmiar zmiennego wejścia - wielokrotność kroku sieci
+
+    private final ModelCache cache;
+    private final boolean exclusive;
+    private volatile InferenceConfig config;
+    // Skala wejścia dla modeli o zmiennym rozmiarze wejścia (AdaptiveGovernor), stosowana przed klatką
+    private volatile float inputScale = 1f;
+    // Aktywny model używany przez wątek detekcji; nowy czeka w pendingEngine do początku następnej klatki
+    private volatile Engine engine;
+    private final AtomicReference<Engine> pendingEngine = new AtomicReference<>();
+    private volatile boolean closed;
+
+    // Dopasowanie obrazu do wejścia modelu; ramki są przeliczane z powrotem na współrzędne źródła
+    private final PreprocessTransform transform = new PreprocessTransform();
+    private final InferenceMetrics metrics = new InferenceMetrics();
+    // Progi ustawione przez setClassThreshold (NaN - domyślny), przenoszone na każdy nowy model
+    private float[] classThresholds = new float[0];
+    // Wyniki dla niemal identycznych obrazów (opcjonalne); czyszczone przy każdej zmianie modelu i ustawień
+    private volatile ResultCache<DetectionResult> resultCache;
 
     public RoadSignDetector(Context context) {
+        this(context, InferenceConfig.defaults());
+    }
+
+    public RoadSignDetector(Context context, InferenceConfig config) {
+        this(context, config, false);
+    }
+
+    /**
+     * @param exclusive czy używać własnego interpretera zamiast współdzielonego z ModelCache
+     *                  (instancje puli InferenceService działają równolegle)
+     */
+    RoadSignDetector(Context context, InferenceConfig config, boolean exclusive) {
+        this.cache = ModelCache.getInstance(context);
+        this.config = config;
+        this.exclusive = exclusive;
+        // Najnowszy pakiet z pamięci aplikacji; gdy się nie nada - model wbudowany
+        ModelBundle latest = new ModelRegistry(context).findLatest(ModelRegistry.DETECTOR, builtInBundle());
         try {
-            interpreter = new Interpreter(loadModelFile(context, "detect.tflite"));
-            labelList = loadLabelList(context, "detect_labelmap.txt");
+            engine = createEngine(latest, config);
         } catch (Exception e) {
-            Log.e(TAG, "Error initializing RoadSignDetector: " + e.getMessage());
+            Log.e(TAG, "Error initializing RoadSignDetector (" + latest + "): " + e.getMessage());
+            if (!latest.isBuiltIn()) {
+                try {
+                    engine = createEngine(builtInBundle(), config);
+                } catch (Exception fallbackError) {
+                    Log.e(TAG, "Error initializing RoadSignDetector: " + fallbackError.getMessage());
+                }
+            }
         }
     }
 
+    /**
+     * Pakiet modelu dostarczany w APK.
+     */
+    public static ModelBundle builtInBundle() {
+        return ModelBundle.builtIn(ModelRegistry.DETECTOR, MODEL_PATH, LABEL_PATH);
+    }
+
     /**
      * Metoda do detekcji obiektów w obrazie.
      * Zwraca listę wykrytych obiektów.
+     *
+     * @deprecated alokuje obiekt na każde wykrycie; należy używać detect(Bitmap, DetectionResult)
      */
+    @Deprecated
     public List<Detection> detectObjects(Bitmap bitmap) {
-        List<Detection> detections = new ArrayList<>();
+        DetectionResult result = DetectionResult.obtain();
+        detect(bitmap, result);
+        List<Detection> detections = toDetections(result);
+        result.recycle();
+        return detections;
+    }
 
-        if (interpreter == null || labelList == null) {
-            Log.e(TAG, "Interpreter lub labelList jest null");
-            return detections;
-        }
+    /**
+     * @deprecated alokuje obiekt na każde wykrycie; należy używać detect(Nv21Frame, DetectionResult)
+     */
+    @Deprecated
+    public List<Detection> detectObjects(Nv21Frame frame) {
+        DetectionResult result = DetectionResult.obtain();
+        detect(frame, result);
+        List<Detection> detections = toDetections(result);
+        result.recycle();
+        return detections;
+    }
 
-        // 1. Skalowanie bitmapy
-        Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, INPUT_SIZE, INPUT_SIZE, true);
+    /**
+     * Wykrywa znaki w obrazie; wynik (ramki w ułamkach obrazu) trafia do out.
+     * Zwraca false, gdy model nie jest załadowany.
+     */
+    public boolean detect(Bitmap bitmap, DetectionResult out) {
+        return detect(bitmap, null, out);
+    }
 
-        // 2. Konwersja do ByteBuffer
-        ByteBuffer inputBuffer = convertBitmapToByteBuffer(resizedBitmap);
+    /**
+     * Detekcja bezpośrednio na klatce kamery NV21 (bez konwersji do Bitmap).
+     * Współrzędne wykryć odnoszą się do obrazu po obrocie.
+     */
+    public boolean detect(Nv21Frame frame, DetectionResult out) {
+        return detect(null, frame, out);
+    }
 
-        // 3. Bufory wyjściowe
-        // Zakładamy, że model detekcji zwraca 1x10x4 (lokalizacje), 1x10 (klasy), 1x10 (pewności)
-        float[][][] outputLocations = new float[1][10][4];
-        float[][] outputClasses = new float[1][10];
-        float[][] outputScores = new float[1][10];
-        float[] numDetections = new float[1];
+    /**
+     * Wspólna ścieżka detekcji; źródłem jest bitmapa albo klatka.
+     * Interpreter z ModelCache może być współdzielony przez kilka detektorów, a close() może przyjść
+     * z innego wątku - inferencja trwa więc pod blokadą modelu, a zamknięty model jest pomijany.
+     */
+    private boolean detect(Bitmap bitmap, Nv21Frame frame, DetectionResult out) {
+        out.clear();
+        Engine current = activeEngine();
+        if (current == null) {
+            Log.e(TAG, "Model detektora nie jest załadowany");
+            return false;
+        }
+        synchronized (current.model) {
+            if (current.closed) {
+                Log.w(TAG, "Detektor został zamknięty w trakcie wywołania");
+                return false;
+            }
+            applyInputScale(current);
 
-        // 4. Przygotowanie mapy wyjściowej
-        Map<Integer, Object> outputMap = getOutputMap(outputLocations, outputClasses, outputScores, numDetections);
+            long start = System.nanoTime();
 
-        // 5. Uruchomienie inferencji
-        interpreter.runForMultipleInputsOutputs(new Object[]{inputBuffer}, outputMap);
+            // 1. Skalowanie (bitmapa) albo wycięcie, skalowanie i konwersja kolorów w jednym przejściu (NV21)
+            if (bitmap != null) {
+                current.inputTensor().load(bitmap, transform);
+            } else {
+                current.load(frame, transform);
+            }
 
-        // 6. Przetwarzanie wyników
-        int detectionsCount = Math.min((int) numDetections[0], 10);
-        for (int i = 0; i < detectionsCount; i++) {
-            float score = outputScores[0][i];
-            if (score > 0.5) { // Próg pewności
-                int classIndex = (int) outputClasses[0][i];
-                if (classIndex >= labelList.size()) {
-                    Log.e(TAG, "Invalid class index: " + classIndex);
-                    continue;
+            // Niemal ten sam obraz co niedawno (np. postój) - wynik bez inferencji
+            ResultCache<DetectionResult> cache = resultCache;
+            long hash = 0L;
+            if (cache != null) {
+                hash = current.getInput().differenceHash(0);
+                if (cache.get(hash, start, out)) {
+                    metrics.record(InferenceMetrics.Stage.TOTAL, System.nanoTime() - start);
+                    return true;
                 }
-                String label = RoadSignLabel.detectLabels[classIndex];
-                float[] location = outputLocations[0][i]; // [ymin, xmin, ymax, xmax]
-                Detection detection = new Detection(label, score, location);
-                detections.add(detection);
+            }
+            // 2. Inferencja i przeliczenie ramek na współrzędne obrazu źródłowego
+            current.run(transform, start, out, metrics);
+            if (cache != null) {
+                cache.put(hash, start, out);
             }
         }
+        return true;
+    }
 
+    private static List<Detection> toDetections(DetectionResult result) {
+        List<Detection> detections = new ArrayList<>(result.size());
+        float[] boxes = result.getBoxes();
+        for (int i = 0; i < result.size(); i++) {
+            float[] location = Arrays.copyOfRange(boxes, i * 4, i * 4 + 4); // [ymin, xmin, ymax, xmax]
+            detections.add(new Detection(result.getLabel(i), result.getScore(i), location));
+        }
         return detections;
     }
 
     /**
-     * Konwertuje Bitmap na ByteBuffer typu float (0..1).
+     * Ustawia sposób dopasowania obrazu do wejścia modelu (domyślnie STRETCH).
      */
-    private ByteBuffer convertBitmapToByteBuffer(Bitmap bitmap) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(
-                FLOAT_SIZE * INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        byteBuffer.rewind();
+    public void setPreprocessMode(PreprocessTransform.Mode mode) {
+        transform.setMode(mode);
+        clearResultCache();
+    }
 
-        int[] pixels = new int[INPUT_SIZE * INPUT_SIZE];
-        bitmap.getPixels(pixels, 0, INPUT_SIZE, 0, 0, INPUT_SIZE, INPUT_SIZE);
+    /**
+     * Ogranicza detekcję do fragmentu obrazu (ułamki 0..1, np. pobocze bez nieba i maski).
+     * Współrzędne wykryć nadal odnoszą się do całego obrazu.
+     */
+    public void setRegionOfInterest(float left, float top, float right, float bottom) {
+        transform.setRegionOfInterest(left, top, right, bottom);
+        clearResultCache();
+    }
 
-        int pixelIndex = 0;
-        for (int i = 0; i < INPUT_SIZE; i++) {
-            for (int j = 0; j < INPUT_SIZE; j++) {
-                final int val = pixels[pixelIndex++];
+    /**
+     * Włącza pamięć podręczną wyników dla niemal identycznych obrazów (null - wyłącza).
+     * Skrót obrazu liczony jest z wejścia modelu, więc pomijana jest tylko inferencja.
+     */
+    public void setResultCache(ResultCache<DetectionResult> cache) {
+        resultCache = cache;
+    }
 
-                // Rozbicie piksela ARGB na składowe R, G, B i normalizacja
-                float r = ((val >> 16) & 0xFF) / 255.0f;
-                float g = ((val >> 8) & 0xFF) / 255.0f;
-                float b = (val & 0xFF) / 255.0f;
+    public ResultCache<DetectionResult> getResultCache() {
+        return resultCache;
+    }
 
-                byteBuffer.putFloat(r);
-                byteBuffer.putFloat(g);
-                byteBuffer.putFloat(b);
-            }
+    private void clearResultCache() {
+        ResultCache<DetectionResult> cache = resultCache;
+        if (cache != null) {
+            cache.clear();
         }
+    }
 
-        return byteBuffer;
+    /**
+     * Przekształcenie zastosowane przy ostatniej detekcji (skala i przesunięcie).
+     */
+    public PreprocessTransform getPreprocessTransform() {
+        return transform;
     }
 
     /**
-     * Wczytuje model TensorFlow Lite z folderu assets.
+     * Pomiary czasów poszczególnych etapów detekcji.
      */
-    private ByteBuffer loadModelFile(Context context, String modelPath) throws IOException {
-        InputStream inputStream = context.getAssets().open(modelPath);
-        byte[] modelBytes = new byte[inputStream.available()];
-        inputStream.read(modelBytes);
-        inputStream.close();
+    public InferenceMetrics getMetrics() {
+        return metrics;
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocateDirect(modelBytes.length);
-        buffer.order(ByteOrder.nativeOrder());
-        buffer.put(modelBytes);
-        buffer.rewind();
-        return buffer;
+    /**
+     * Czy aktywny model ma zmienny rozmiar wejścia (wymiary -1 w sygnaturze kształtu).
+     */
+    public boolean supportsInputResize() {
+        Engine current = engine;
+        return current != null && current.isResizable();
+    }
+
+    /**
+     * Skala wejścia względem rozmiaru natywnego modelu (np. 0.8 - 256 zamiast 320).
+     * Działa tylko dla modeli o zmiennym wejściu; zmiana następuje przed kolejną klatką.
+     */
+    public void setInputScale(float scale) {
+        inputScale = Math.max(0.1f, Math.min(1f, scale));
+    }
+
+    /**
+     * Rozmiar wejścia odpowiadający bieżącej skali; zmienia rozmiar tensorów, jeśli trzeba.
+     * Wywoływane przez wątek detekcji przed klatką.
+     */
+    private void applyInputScale(Engine current) {
+        if (!current.isResizable()) {
+            return;
+        }
+        float scale = inputScale;
+        int width = scaledSize(current.getNativeWidth(), scale);
+        int height = scaledSize(current.getNativeHeight(), scale);
+        PixelInputBuffer input = current.getInput();
+        if (width != input.getWidth() || height != input.getHeight()) {
+            // Progi klas są przenoszone na nowy dekoder przez DetectionEngine
+            current.resize(width, height);
+            clearResultCache();
+            Log.i(TAG, "Wejście detektora: " + width + "x" + height);
+        }
+    }
+
+    private static int scaledSize(int nativeSize, float scale) {
+        int size = Math.round(nativeSize * scale / INPUT_SIZE_STEP) * INPUT_SIZE_STEP;
+        return Math.max(INPUT_SIZE_STEP, Math.min(nativeSize, size));
     }
 
     /**
-     * Wczytuje listę etykiet z pliku labelmap.
+     * Tworzy interpreter aktywnego modelu z inną liczbą wątków i podmienia go jak swapModel.
+     * Nowa liczba wątków obowiązuje dopiero po udanej podmianie - po błędzie można ponowić próbę.
+     * Blokuje do czasu utworzenia interpretera - należy wywoływać poza wątkiem UI i detekcji.
      */
-    private List<String> loadLabelList(Context context, String labelPath) throws IOException {
-        List<String> labelList = new ArrayList<>();
-        InputStream inputStream = context.getAssets().open(labelPath);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            labelList.add(line);
+    public boolean setNumThreads(int threads) {
+        Engine current = engine;
+        if (current == null || config.getNumThreads() == threads) {
+            return false;
+        }
+        InferenceConfig next = config.withNumThreads(threads);
+        if (!swapModel(current.bundle, next)) {
+            return false;
         }
-        reader.close();
-        return labelList;
+        config = next;
+        return true;
     }
 
     /**
-     * Tworzy mapę wyjściową dla modelu detekcji.
+     * Liczba wątków interpretera tworzonego dla nowych modeli.
      */
-    private Map<Integer, Object> getOutputMap(float[][][] locations, float[][] classes,
-                                              float[][] scores, float[] numDetections) {
-        java.util.Map<Integer, Object> outputMap = new java.util.HashMap<>();
-        outputMap.put(0, locations);
-        outputMap.put(1, classes);
-        outputMap.put(2, scores);
-        outputMap.put(3, numDetections);
-        return outputMap;
+    public int getNumThreads() {
+        return config.getNumThreads();
     }
 
     /**
-     * Zwolnienie zasobów interpretera.
+     * Ustawia próg pewności dla jednej klasy detektora (indeks w RoadSignLabel.detectLabels).
+     */
+    public synchronized void setClassThreshold(int classIndex, float threshold) {
+        if (classThresholds.length <= classIndex) {
+            int oldLength = classThresholds.length;
+            classThresholds = Arrays.copyOf(classThresholds, classIndex + 1);
+            Arrays.fill(classThresholds, oldLength, classThresholds.length, Float.NaN);
+        }
+        classThresholds[classIndex] = threshold;
+        clearResultCache();
+        Engine current = engine;
+        if (current != null) {
+            current.setClassThreshold(classIndex, threshold);
+        }
+    }
+
+    /**
+     * Backend inferencji używany przez model (null, jeśli model nie został załadowany).
+     */
+    public InferenceConfig.Backend getBackend() {
+        Engine current = engine;
+        return current != null ? current.model.getBackend() : null;
+    }
+
+    /**
+     * Pakiet aktywnego modelu (null, jeśli model nie został załadowany).
+     */
+    public ModelBundle getModelBundle() {
+        Engine current = engine;
+        return current != null ? current.bundle : null;
+    }
+
+    /**
+     * Przełącza detektor na najnowszy pakiet z rejestru, jeśli jest nowszy od aktywnego.
+     * Blokuje do czasu wczytania i rozgrzania modelu - należy wywoływać poza wątkiem UI.
+     */
+    public boolean updateModel(ModelRegistry registry) {
+        ModelBundle latest = registry.findLatest(ModelRegistry.DETECTOR, builtInBundle());
+        ModelBundle active = getModelBundle();
+        if (active != null && latest.getVersion() <= active.getVersion()) {
+            return false;
+        }
+        return swapModel(latest);
+    }
+
+    /**
+     * Wczytuje pakiet, sprawdza go z metadanymi i rozgrzewa jedną inferencją, a następnie
+     * podmienia model. Klatka przetwarzana w tej chwili kończy się na starym modelu,
+     * następna używa już nowego. Przy błędzie aktywny model pozostaje bez zmian.
+     * Blokuje do czasu wczytania modelu - należy wywoływać poza wątkiem UI.
+     */
+    public boolean swapModel(ModelBundle bundle) {
+        return swapModel(bundle, config);
+    }
+
+    private boolean swapModel(ModelBundle bundle, InferenceConfig engineConfig) {
+        Engine next;
+        try {
+            next = createEngine(bundle, engineConfig);
+        } catch (Exception e) {
+            Log.e(TAG, "Odrzucono model " + bundle + ": " + e.getMessage());
+            return false;
+        }
+        Engine replaced = pendingEngine.getAndSet(next);
+        if (replaced != null) {
+            replaced.close();
+        }
+        if (closed) {
+            // close() wywołane w trakcie wczytywania - nowy model nie zostanie już użyty
+            Engine leftover = pendingEngine.getAndSet(null);
+            if (leftover != null) {
+                leftover.close();
+            }
+            return false;
+        }
+        Log.i(TAG, "Przygotowano model " + bundle);
+        return true;
+    }
+
+    /**
+     * Aktywny model; jeśli czeka nowy, zostaje podmieniony przed rozpoczęciem klatki.
+     * Wywoływane tylko przez wątek detekcji, więc stary model nie jest już wtedy używany.
+     */
+    private Engine activeEngine() {
+        Engine next = pendingEngine.getAndSet(null);
+        if (next != null) {
+            Engine old = engine;
+            engine = next;
+            clearResultCache();
+            if (old != null) {
+                old.close();
+            }
+        }
+        return engine;
+    }
+
+    private Engine createEngine(ModelBundle bundle, InferenceConfig engineConfig) throws IOException {
+        ModelCache.Model model = exclusive
+                ? cache.acquireExclusive(bundle, engineConfig) : cache.acquire(bundle, engineConfig);
+        try {
+            Engine created;
+            synchronized (model) {
+                List<String> labelList = model.getLabels();
+                bundle.validate(model.getInferenceBackend().getInputSpec(0), labelList.size());
+                // Model wbudowany używa etykiet z RoadSignLabel, pobrany - własnego pliku etykiet
+                String[] labels = bundle.isBuiltIn() ? RoadSignLabel.detectLabels : labelList.toArray(new String[0]);
+                created = new Engine(bundle, model, labels);
+                applyClassThresholds(created);
+                created.warmUp();
+            }
+            return created;
+        } catch (IOException | RuntimeException e) {
+            model.discard();
+            throw e;
+        }
+    }
+
+    private synchronized void applyClassThresholds(Engine target) {
+        for (int i = 0; i < classThresholds.length; i++) {
+            if (!Float.isNaN(classThresholds[i])) {
+                target.setClassThreshold(i, classThresholds[i]);
+            }
+        }
+    }
+
+    /**
+     * Zwolnienie referencji do modelu w pamięci podręcznej.
      */
     public void close() {
-        if (interpreter != null) {
-            interpreter.close();
-            interpreter = null;
+        closed = true;
+        Engine pending = pendingEngine.getAndSet(null);
+        if (pending != null) {
+            pending.close();
+        }
+        Engine current = engine;
+        engine = null;
+        if (current != null) {
+            // Czeka na zakończenie detekcji trwającej na innym wątku
+            current.close();
+        }
+    }
+
+    /**
+     * Załadowany model z ModelCache: DetectionEngine z wejściem z Bitmap i zwalnianiem referencji do modelu.
+     */
+    private static final class Engine extends DetectionEngine {
+        final ModelBundle bundle;
+        final ModelCache.Model model;
+        boolean closed; // Zmieniane i czytane pod blokadą model
+
+        Engine(ModelBundle bundle, ModelCache.Model model, String[] labels) {
+            super(model.getInferenceBackend(), labels, model.getLabels().size(), SCORE_THRESHOLD);
+            this.bundle = bundle;
+            this.model = model;
+        }
+
+        @Override
+        protected PixelInputBuffer createInputBuffer(TensorSpec spec) {
+            return new InputTensorBuffer(spec);
+        }
+
+        InputTensorBuffer inputTensor() {
+            return (InputTensorBuffer) getInput();
+        }
+
+        /**
+         * Zwalnia model; czeka na zakończenie inferencji trwającej na innym wątku.
+         */
+        void close() {
+            synchronized (model) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                // Interpreter może zostać użyty ponownie z pamięci podręcznej - z natywnym rozmiarem wejścia
+                PixelInputBuffer input = getInput();
+                if (isResizable()
+                        && (input.getWidth() != getNativeWidth() || input.getHeight() != getNativeHeight())) {
+                    resize(getNativeWidth(), getNativeHeight());
+                }
+            }
+            // Poprzednia wersja nie będzie już potrzebna; model wbudowany zostaje w pamięci podręcznej
+            if (bundle.isBuiltIn()) {
+                model.close();
+            } else {
+                model.discard();
+            }
         }
     }
 
     /**
      * Klasa reprezentująca pojedyncze wykrycie.
+     *
+     * @deprecated zastąpiona przez DetectionResult (bez obiektu na każde wykrycie)
      */
+    @Deprecated
     public static class Detection {
         public String label;
         public float confidence;
-        public float[] location; // [ymin, xmin, ymax, xmax]
+        public float[] location; // [ymin, xmin, ymax, xmax] w ułamkach obrazu źródłowego
+        // Wynik klasyfikatora dla wycinka (RoadSignCascade); null, jeśli nie doprecyzowano
+        public String refinedLabel;
+        public float refinedConfidence;
+        // Identyfikator śladu nadany przez ObjectTracker; -1, jeśli wykrycie nie jest śledzone
+        public int trackId = -1;
 
         public Detection(String label, float confidence, float[] location) {
             this.label = label;
             this.confidence = confidence;
             this.location = location;
         }
+
+        /**
+         * Etykieta do wyświetlenia - doprecyzowana przez klasyfikator, jeśli jest dostępna.
+         */
+        public String getDisplayLabel() {
+            return refinedLabel != null ? refinedLabel : label;
+        }
+
+        public float getDisplayConfidence() {
+            return refinedLabel != null ? refinedConfidence : confidence;
+        }
     }
 }
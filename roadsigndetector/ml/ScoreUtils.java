@@ -0,0 +1,70 @@
+package com.example.roadsigndetector.ml;
+
+/**
+ * Operacje na wynikach modeli (argmax, top-k, filtrowanie wykryć).
+ * Czysta Java - używane przez detektor i klasyfikator oraz przez benchmarki.
+ */
+public final class ScoreUtils {
+
+    private ScoreUtils() {
+    }
+
+    /**
+     * Indeks największej wartości w scores[offset .. offset + count).
+     */
+    public static int argmax(float[] scores, int offset, int count) {
+        int maxIndex = 0;
+        float maxValue = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            float value = scores[offset + i];
+            if (value > maxValue) {
+                maxValue = value;
+                maxIndex = i;
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * Wybiera k największych wartości z scores[offset .. offset + count) malejąco.
+     * Wyniki trafiają do outIndices/outScores od pozycji outOffset (sortowanie przez
+     * wstawianie - dla małej liczby klas szybsze niż pełne sortowanie).
+     */
+    public static void topK(float[] scores, int offset, int count, int k,
+                            int[] outIndices, float[] outScores, int outOffset) {
+        int filled = 0;
+        for (int c = 0; c < count; c++) {
+            float score = scores[offset + c];
+            if (filled == k && score <= outScores[outOffset + k - 1]) {
+                continue;
+            }
+            int pos = filled < k ? filled++ : k - 1;
+            while (pos > 0 && outScores[outOffset + pos - 1] < score) {
+                outScores[outOffset + pos] = outScores[outOffset + pos - 1];
+                outIndices[outOffset + pos] = outIndices[outOffset + pos - 1];
+                pos--;
+            }
+            outScores[outOffset + pos] = score;
+            outIndices[outOffset + pos] = c;
+        }
+    }
+
+    /**
+     * Wybiera wykrycia z pewnością powyżej progu i poprawnym indeksem klasy.
+     * Zapisuje ich indeksy do outIndices i zwraca ich liczbę.
+     */
+    public static int filterDetections(float[] scores, float[] classes, int count, float threshold,
+                                       int classCount, int[] outIndices) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (scores[i] > threshold) {
+                int classIndex = (int) classes[i];
+                if (classIndex < 0 || classIndex >= classCount) {
+                    continue;
+                }
+                outIndices[kept++] = i;
+            }
+        }
+        return kept;
+    }
+}
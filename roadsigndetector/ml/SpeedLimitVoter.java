@@ -0,0 +1,166 @@
+package com.example.roadsigndetector.ml;
+
+/**
+ * Głosowanie nad wartością ograniczenia prędkości jednego znaku z kolejnych klatek.
+ * Każda klasyfikacja dodaje logarytmy prawdopodobieństw klas do sum wygaszanych wykładniczo
+ * (starsze klatki ważą coraz mniej - okno przesuwne bez przechowywania historii).
+ * Gdy pewność lidera przekroczy próg, odczyt zostaje zatwierdzony i dalsza klasyfikacja
+ * tego znaku nie jest potrzebna - zwykle po 2-3 klatkach zamiast stałej liczby głosów.
+ * Czysta Java; instancja dla jednego śladu, nie jest bezpieczna wątkowo.
+ */
+public class SpeedLimitVoter {
+
+    public static final float DEFAULT_DECAY = 0.8f; // Waga poprzednich głosów po każdej nowej klatce
+    public static final float DEFAULT_COMMIT_CONFIDENCE = 0.95f;
+    public static final int DEFAULT_MIN_VOTES = 2; // Pojedyncza klatka nigdy nie zatwierdza odczytu
+
+    private static final float MIN_PROBABILITY = 1e-4f; // Jedna błędna klatka nie może przekreślić klasy
+
+    private final float decay;
+    private final float commitConfidence;
+    private final int minVotes;
+
+    private float[] logScores = new float[0];
+    private int classCount;
+    private int votes;
+    private int leader = -1;
+    private float confidence;
+    private boolean committed;
+
+    public SpeedLimitVoter() {
+        this(DEFAULT_DECAY, DEFAULT_COMMIT_CONFIDENCE, DEFAULT_MIN_VOTES);
+    }
+
+    /**
+     * @param decay            mnożnik sum po każdej klatce (0..1; mniejszy - krótsze okno)
+     * @param commitConfidence pewność lidera, od której odczyt jest zatwierdzany
+     * @param minVotes         najmniejsza liczba klatek przed zatwierdzeniem
+     */
+    public SpeedLimitVoter(float decay, float commitConfidence, int minVotes) {
+        this.decay = Math.max(0f, Math.min(1f, decay));
+        this.commitConfidence = commitConfidence;
+        this.minVotes = Math.max(1, minVotes);
+    }
+
+    /**
+     * Dodaje klasyfikację z jednej klatki: klasę top-1 i jej prawdopodobieństwo.
+     * Pozostała masa jest rozkładana równo na pozostałe klasy.
+     *
+     * @return true, jeśli odczyt jest zatwierdzony (kolejne klasyfikacje są ignorowane)
+     */
+    public boolean add(int classId, float probability, int classCount) {
+        if (committed || classId < 0 || classId >= classCount) {
+            return committed;
+        }
+        begin(classCount);
+        float p = clamp(probability);
+        float rest = classCount > 1 ? clamp((1f - p) / (classCount - 1)) : MIN_PROBABILITY;
+        float logRest = (float) Math.log(rest);
+        for (int c = 0; c < classCount; c++) {
+            logScores[c] += logRest;
+        }
+        logScores[classId] += (float) Math.log(p) - logRest;
+        return finish();
+    }
+
+    /**
+     * Jak add(int, float, int), dla count najlepszych klas z jednej klatki
+     * (np. ClassificationEngine.BatchResult dla topK > 1).
+     */
+    public boolean add(int[] classIds, float[] probabilities, int offset, int count, int classCount) {
+        if (committed || count <= 0) {
+            return committed;
+        }
+        begin(classCount);
+        float listed = 0f;
+        for (int i = 0; i < count; i++) {
+            listed += probabilities[offset + i];
+        }
+        int unlisted = classCount - count;
+        float rest = unlisted > 0 ? clamp((1f - listed) / unlisted) : MIN_PROBABILITY;
+        float logRest = (float) Math.log(rest);
+        for (int c = 0; c < classCount; c++) {
+            logScores[c] += logRest;
+        }
+        for (int i = 0; i < count; i++) {
+            int classId = classIds[offset + i];
+            if (classId >= 0 && classId < classCount) {
+                logScores[classId] += (float) Math.log(clamp(probabilities[offset + i])) - logRest;
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * Wygasza dotychczasowe sumy przed dodaniem nowej klatki. Zmiana liczby klas
+     * (inny model klasyfikatora) zaczyna głosowanie od nowa.
+     */
+    private void begin(int classCount) {
+        if (classCount != this.classCount) {
+            reset();
+            this.classCount = classCount;
+            if (logScores.length < classCount) {
+                logScores = new float[classCount];
+            }
+        }
+        for (int c = 0; c < classCount; c++) {
+            logScores[c] *= decay;
+        }
+    }
+
+    /**
+     * Wyznacza lidera i jego pewność (softmax z sum logarytmów) i sprawdza próg zatwierdzenia.
+     */
+    private boolean finish() {
+        votes++;
+        leader = ScoreUtils.argmax(logScores, 0, classCount);
+        float best = logScores[leader];
+        double sum = 0;
+        for (int c = 0; c < classCount; c++) {
+            sum += Math.exp(logScores[c] - best);
+        }
+        confidence = (float) (1.0 / sum);
+        committed = votes >= minVotes && confidence >= commitConfidence;
+        return committed;
+    }
+
+    private static float clamp(float probability) {
+        return Math.max(MIN_PROBABILITY, Math.min(1f - MIN_PROBABILITY, probability));
+    }
+
+    /**
+     * Czy odczyt został zatwierdzony - znaku nie trzeba już klasyfikować.
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Klasa zatwierdzona albo bieżący lider głosowania; -1 przed pierwszym głosem.
+     */
+    public int getClassId() {
+        return leader;
+    }
+
+    /**
+     * Pewność lidera po połączeniu wszystkich głosów (0..1).
+     */
+    public float getConfidence() {
+        return confidence;
+    }
+
+    public int getVotes() {
+        return votes;
+    }
+
+    public void reset() {
+        for (int c = 0; c < classCount; c++) {
+            logScores[c] = 0f;
+        }
+        classCount = 0;
+        votes = 0;
+        leader = -1;
+        confidence = 0f;
+        committed = false;
+    }
+}
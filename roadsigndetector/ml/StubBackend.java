@@ -0,0 +1,207 @@
+package com.example.roadsigndetector.ml;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deterministyczna zaślepka modelu do testów i bramek wydajności w CI (bez pliku .tflite i urządzenia).
+ * Wynik zależy wyłącznie od zawartości wejścia: skrót FNV-1a bajtów obrazu inicjuje generator xorshift,
+ * z którego powstają ramki (detektor) albo rozkład softmax (klasyfikator). Ten sam obraz daje
+ * więc zawsze ten sam wynik, a opcjonalne opóźnienie pozwala udawać czas inferencji.
+ */
+public final class StubBackend implements InferenceBackend {
+
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final boolean detector;
+    private final int classCount;
+    private final int maxDetections;
+    private TensorSpec inputSpec;
+    private final TensorSpec[] outputSpecs;
+    private volatile long latencyNanos;
+
+    private StubBackend(boolean detector, TensorSpec inputSpec, TensorSpec[] outputSpecs,
+                        int classCount, int maxDetections) {
+        this.detector = detector;
+        this.inputSpec = inputSpec;
+        this.outputSpecs = outputSpecs;
+        this.classCount = classCount;
+        this.maxDetections = maxDetections;
+    }
+
+    /**
+     * Klasyfikator: wejście float32 [N, wysokość, szerokość, 3] ze zmiennym wsadem, wyjście [N, classCount].
+     */
+    public static StubBackend classifier(int width, int height, int classCount) {
+        TensorSpec input = new TensorSpec(TensorSpec.DataType.FLOAT32, new int[]{1, height, width, 3},
+                new int[]{-1, height, width, 3}, 0f, 0);
+        TensorSpec output = new TensorSpec(TensorSpec.DataType.FLOAT32, new int[]{1, classCount});
+        return new StubBackend(false, input, new TensorSpec[]{output}, classCount, 0);
+    }
+
+    /**
+     * Detektor z operacją postprocess: wejście float32 [1, wysokość, szerokość, 3] o zmiennym rozmiarze,
+     * wyjścia: ramki [1, N, 4], klasy [1, N], pewności [1, N] i liczba wykryć [1].
+     */
+    public static StubBackend detector(int width, int height, int maxDetections, int classCount) {
+        TensorSpec input = new TensorSpec(TensorSpec.DataType.FLOAT32, new int[]{1, height, width, 3},
+                new int[]{1, -1, -1, 3}, 0f, 0);
+        TensorSpec[] outputs = {
+                new TensorSpec(TensorSpec.DataType.FLOAT32, new int[]{1, maxDetections, 4}),
+                new TensorSpec(TensorSpec.DataType.FLOAT32, new int[]{1, maxDetections}),
+                new TensorSpec(TensorSpec.DataType.FLOAT32, new int[]{1, maxDetections}),
+                new TensorSpec(TensorSpec.DataType.FLOAT32, new int[]{1})
+        };
+        return new StubBackend(true, input, outputs, classCount, maxDetections);
+    }
+
+    /**
+     * Czas, który zajmuje każde run() (0 - bez opóźnienia).
+     */
+    public void setLatencyNanos(long latencyNanos) {
+        this.latencyNanos = Math.max(0L, latencyNanos);
+    }
+
+    @Override
+    public int getInputCount() {
+        return 1;
+    }
+
+    @Override
+    public TensorSpec getInputSpec(int index) {
+        return inputSpec;
+    }
+
+    @Override
+    public int getOutputCount() {
+        return outputSpecs.length;
+    }
+
+    @Override
+    public TensorSpec getOutputSpec(int index) {
+        return outputSpecs[index];
+    }
+
+    @Override
+    public void resizeInput(int index, int[] shape) {
+        int[] signature = inputSpec.getShapeSignature();
+        for (int i = 0; i < shape.length; i++) {
+            if (signature[i] != -1 && signature[i] != shape[i]) {
+                throw new IllegalArgumentException("Wymiar " + i + " wejścia jest stały: " + signature[i]);
+            }
+        }
+        inputSpec = inputSpec.withShape(shape);
+        if (!detector) {
+            outputSpecs[0] = outputSpecs[0].withShape(new int[]{shape[0], classCount});
+        }
+    }
+
+    @Override
+    public void run(Object[] inputs, Map<Integer, Object> outputs) {
+        long start = System.nanoTime();
+        ByteBuffer input = (ByteBuffer) inputs[0];
+        int batch = inputSpec.getShape()[0];
+        int imageBytes = inputSpec.numBytes() / batch;
+        if (detector) {
+            writeDetections(hash(input, 0, imageBytes), outputs);
+        } else {
+            ByteBuffer output = (ByteBuffer) outputs.get(0);
+            for (int i = 0; i < batch; i++) {
+                writeScores(hash(input, i * imageBytes, imageBytes), output, i * classCount);
+            }
+        }
+        long remaining = latencyNanos - (System.nanoTime() - start);
+        if (remaining > 0L) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static int hash(ByteBuffer input, int offset, int length) {
+        int hash = FNV_OFFSET;
+        int base = input.position() + offset;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (input.get(base + i) & 0xFF)) * FNV_PRIME;
+        }
+        // Zerowy stan zatrzymałby xorshift
+        return hash != 0 ? hash : FNV_OFFSET;
+    }
+
+    private static int next(int state) {
+        state ^= state << 13;
+        state ^= state >>> 17;
+        state ^= state << 5;
+        return state;
+    }
+
+    /**
+     * Liczba z przedziału [0, 1) z 24 starszych bitów stanu.
+     */
+    private static float unit(int state) {
+        return (state >>> 8) / (float) (1 << 24);
+    }
+
+    private void writeDetections(int state, Map<Integer, Object> outputs) {
+        ByteBuffer boxes = (ByteBuffer) outputs.get(0);
+        ByteBuffer classes = (ByteBuffer) outputs.get(1);
+        ByteBuffer scores = (ByteBuffer) outputs.get(2);
+        ByteBuffer count = (ByteBuffer) outputs.get(3);
+        state = next(state);
+        int detections = 1 + (state >>> 1) % maxDetections;
+        float score = 1f;
+        for (int i = 0; i < maxDetections; i++) {
+            boolean present = i < detections;
+            state = next(state);
+            float top = unit(state) * 0.8f;
+            state = next(state);
+            float left = unit(state) * 0.8f;
+            state = next(state);
+            float size = 0.05f + unit(state) * 0.15f;
+            state = next(state);
+            int classId = (state >>> 1) % classCount;
+            state = next(state);
+            // Pewności malejące, jak w wyjściu operacji postprocess
+            score *= 0.7f + unit(state) * 0.3f;
+            putFloat(boxes, i * 4, present ? top : 0f);
+            putFloat(boxes, i * 4 + 1, present ? left : 0f);
+            putFloat(boxes, i * 4 + 2, present ? top + size : 0f);
+            putFloat(boxes, i * 4 + 3, present ? left + size : 0f);
+            putFloat(classes, i, present ? classId : 0f);
+            putFloat(scores, i, present ? score : 0f);
+        }
+        putFloat(count, 0, detections);
+    }
+
+    private void writeScores(int state, ByteBuffer output, int offset) {
+        // Logity z generatora, następnie softmax (suma pewności = 1)
+        float max = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < classCount; c++) {
+            state = next(state);
+            float logit = unit(state) * 8f;
+            putFloat(output, offset + c, logit);
+            max = Math.max(max, logit);
+        }
+        float sum = 0f;
+        for (int c = 0; c < classCount; c++) {
+            float e = (float) Math.exp(getFloat(output, offset + c) - max);
+            putFloat(output, offset + c, e);
+            sum += e;
+        }
+        for (int c = 0; c < classCount; c++) {
+            putFloat(output, offset + c, getFloat(output, offset + c) / sum);
+        }
+    }
+
+    private static void putFloat(ByteBuffer buffer, int index, float value) {
+        buffer.putFloat(buffer.position() + index * 4, value);
+    }
+
+    private static float getFloat(ByteBuffer buffer, int index) {
+        return buffer.getFloat(buffer.position() + index * 4);
+    }
+
+    @Override
+    public void close() {
+    }
+}
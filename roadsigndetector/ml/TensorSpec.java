@@ -0,0 +1,93 @@
+package com.example.roadsigndetector.ml;
+
+/**
+ * Opis tensora niezależny od biblioteki inferencji: kształt, typ danych i parametry kwantyzacji.
+ * Na jego podstawie PixelInputBuffer i OutputTensorBuffer alokują bufory dla dowolnego InferenceBackend.
+ */
+public final class TensorSpec {
+
+    /**
+     * Typ elementów tensora (nazwy zgodne z typami TensorFlow Lite i metadanymi ModelBundle).
+     */
+    public enum DataType {
+        FLOAT32(4),
+        INT32(4),
+        UINT8(1),
+        INT8(1),
+        INT64(8);
+
+        private final int byteSize;
+
+        DataType(int byteSize) {
+            this.byteSize = byteSize;
+        }
+
+        public int byteSize() {
+            return byteSize;
+        }
+    }
+
+    private final DataType dataType;
+    private final int[] shape;
+    private final int[] shapeSignature; // -1 dla wymiarów, które można zmieniać
+    private final float scale;
+    private final int zeroPoint;
+
+    public TensorSpec(DataType dataType, int[] shape) {
+        this(dataType, shape, shape, 0f, 0);
+    }
+
+    /**
+     * @param scale     skala kwantyzacji (0 - tensor bez kwantyzacji)
+     * @param zeroPoint punkt zerowy kwantyzacji
+     */
+    public TensorSpec(DataType dataType, int[] shape, int[] shapeSignature, float scale, int zeroPoint) {
+        this.dataType = dataType;
+        this.shape = shape.clone();
+        this.shapeSignature = shapeSignature.clone();
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+    }
+
+    /**
+     * Ten sam tensor o innym kształcie (np. po zmianie rozmiaru wsadu).
+     */
+    public TensorSpec withShape(int[] newShape) {
+        return new TensorSpec(dataType, newShape, shapeSignature, scale, zeroPoint);
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Bieżący kształt; tablica nie może być modyfikowana.
+     */
+    public int[] getShape() {
+        return shape;
+    }
+
+    public int[] getShapeSignature() {
+        return shapeSignature;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public int getZeroPoint() {
+        return zeroPoint;
+    }
+
+    public int numElements() {
+        int count = 1;
+        for (int dimension : shape) {
+            count *= dimension;
+        }
+        return count;
+    }
+
+    public int numBytes() {
+        return numElements() * dataType.byteSize();
+    }
+}
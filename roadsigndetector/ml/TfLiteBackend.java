@@ -0,0 +1,128 @@
+package com.example.roadsigndetector.ml;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Delegate;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * InferenceBackend na interpreterze TensorFlow Lite (Java API - Android i zwykła JVM z biblioteką natywną).
+ * Opisy tensorów są zapamiętywane i odświeżane dopiero po resizeInput().
+ */
+public final class TfLiteBackend implements InferenceBackend {
+
+    private final Interpreter interpreter;
+    private final InferenceConfig.Backend accelerator;
+    private final Delegate delegate;
+    private final TensorSpec[] inputSpecs;
+    private final TensorSpec[] outputSpecs;
+
+    /**
+     * Interpreter na CPU z podaną liczbą wątków (narzędzia i serwer).
+     */
+    public TfLiteBackend(ByteBuffer model, int numThreads) {
+        this(new Interpreter(model, new Interpreter.Options().setNumThreads(Math.max(1, numThreads))),
+                InferenceConfig.Backend.CPU, null);
+    }
+
+    /**
+     * @param delegate delegat zamykany razem z interpreterem (null - brak)
+     */
+    TfLiteBackend(Interpreter interpreter, InferenceConfig.Backend accelerator, Delegate delegate) {
+        this.interpreter = interpreter;
+        this.accelerator = accelerator;
+        this.delegate = delegate;
+        inputSpecs = new TensorSpec[interpreter.getInputTensorCount()];
+        outputSpecs = new TensorSpec[interpreter.getOutputTensorCount()];
+    }
+
+    /**
+     * Opis tensora TensorFlow Lite.
+     */
+    static TensorSpec toSpec(Tensor tensor) {
+        Tensor.QuantizationParams params = tensor.quantizationParams();
+        return new TensorSpec(toDataType(tensor), tensor.shape(),
+                tensor.shapeSignature(), params != null ? params.getScale() : 0f,
+                params != null ? params.getZeroPoint() : 0);
+    }
+
+    /**
+     * Typ tensora; BOOL, STRING, INT16 itp. nie są obsługiwane przez bufory wejścia i wyjścia.
+     */
+    private static TensorSpec.DataType toDataType(Tensor tensor) {
+        DataType type = tensor.dataType();
+        switch (type) {
+            case FLOAT32:
+                return TensorSpec.DataType.FLOAT32;
+            case INT32:
+                return TensorSpec.DataType.INT32;
+            case UINT8:
+                return TensorSpec.DataType.UINT8;
+            case INT8:
+                return TensorSpec.DataType.INT8;
+            case INT64:
+                return TensorSpec.DataType.INT64;
+            default:
+                throw new IllegalArgumentException("Nieobsługiwany typ tensora " + tensor.name() + ": " + type);
+        }
+    }
+
+    @Override
+    public int getInputCount() {
+        return inputSpecs.length;
+    }
+
+    @Override
+    public TensorSpec getInputSpec(int index) {
+        if (inputSpecs[index] == null) {
+            inputSpecs[index] = toSpec(interpreter.getInputTensor(index));
+        }
+        return inputSpecs[index];
+    }
+
+    @Override
+    public int getOutputCount() {
+        return outputSpecs.length;
+    }
+
+    @Override
+    public TensorSpec getOutputSpec(int index) {
+        if (outputSpecs[index] == null) {
+            outputSpecs[index] = toSpec(interpreter.getOutputTensor(index));
+        }
+        return outputSpecs[index];
+    }
+
+    @Override
+    public void resizeInput(int index, int[] shape) {
+        interpreter.resizeInput(index, shape);
+        interpreter.allocateTensors();
+        for (int i = 0; i < inputSpecs.length; i++) {
+            inputSpecs[i] = null;
+        }
+        for (int i = 0; i < outputSpecs.length; i++) {
+            outputSpecs[i] = null;
+        }
+    }
+
+    @Override
+    public void run(Object[] inputs, Map<Integer, Object> outputs) {
+        interpreter.runForMultipleInputsOutputs(inputs, outputs);
+    }
+
+    /**
+     * Akcelerator, z którym faktycznie udało się utworzyć interpreter.
+     */
+    public InferenceConfig.Backend getAccelerator() {
+        return accelerator;
+    }
+
+    @Override
+    public void close() {
+        interpreter.close();
+        InferenceConfig.closeQuietly(delegate);
+    }
+}
@@ -0,0 +1,488 @@
+package com.example.roadsigndetector.ml;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.example.roadsigndetector.data.RoadSignLabel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Detekcja na obrazach o dużej rozdzielczości: obraz jest dzielony na zachodzące na siebie kafelki,
+ * każdy kafelek trafia do detektora w pełnej rozdzielczości wejścia, a wyniki wszystkich kafelków
+ * są łączone globalnym NMS. Odległe znaki, które po zmniejszeniu całego zdjęcia do 300x300
+ * miałyby kilka pikseli, na kafelku są kilkukrotnie większe.
+ * Kafelki są przetwarzane równolegle przez pulę interpreterów (po jednym wątku każdy),
+ * więc czas rośnie z liczbą kafelków podzieloną przez wielkość puli, a nie z samą liczbą kafelków.
+ * Tryb REGION_OF_INTEREST uruchamia zgrubną detekcję na całej klatce i kafelki tylko
+ * w obszarze zainteresowania (np. pas horyzontu i pobocza).
+ * Z pamięcią wyników (setResultCache) ponownie wybrane zdjęcie nie jest przetwarzane drugi raz.
+ * Interpretery puli są własne (plik modelu bez interpretera z ModelCache) i rozgrzewane przy tworzeniu.
+ * Instancja nie jest bezpieczna wątkowo - detect() wywołuje jeden wątek naraz.
+ */
+public class TiledDetector {
+
+    private static final String TAG = "TiledDetector";
+    private static final float SCORE_THRESHOLD = 0.5f;
+    private static final float IOU_THRESHOLD = 0.5f;
+    private static final int MAX_RESULTS = 50;
+    private static final int MAX_CANDIDATES = 1000; // Limit wykryć ze wszystkich kafelków przed NMS
+    private static final float DEFAULT_OVERLAP = 0.2f; // Znak na granicy kafelków mieści się w jednym z nich
+
+    /**
+     * Sposób pokrycia obrazu kafelkami.
+     */
+    public enum Mode {
+        TILES,              // Zgrubny przebieg na całym obrazie i kafelki na całym obrazie
+        REGION_OF_INTEREST  // Zgrubny przebieg na całym obrazie i kafelki tylko w obszarze zainteresowania
+    }
+
+    private final String[] labels;
+    private final Slot[] slots;
+    private final ExecutorService executor;
+    private final List<Future<?>> futures = new ArrayList<>();
+    private final InferenceMetrics metrics = new InferenceMetrics();
+    private volatile ResultCache<DetectionResult> resultCache;
+
+    private Mode mode = Mode.TILES;
+    private int tileSize; // Bok kafelka w pikselach źródła; 0 - połowa krótszego boku obrazu
+    private float overlap = DEFAULT_OVERLAP;
+    private float roiLeft;
+    private float roiTop;
+    private float roiRight = 1f;
+    private float roiBottom = 1f;
+
+    // Plan bieżącego obrazu: kafelki [left, top, width, height] w pikselach; pierwszy to cały obraz
+    private int[] tiles = new int[0];
+    private int tileCount;
+    private final AtomicInteger nextTile = new AtomicInteger();
+    private Bitmap bitmap;
+    private Nv21Frame frame;
+
+    // Scalanie wyników wszystkich kafelków
+    private float[] mergedBoxes = new float[0];
+    private float[] mergedClasses = new float[0];
+    private float[] mergedScores = new float[0];
+    private final DetectionPostProcessor postProcessor;
+
+    /**
+     * @param poolSize liczba interpreterów (i wątków) przetwarzających kafelki równolegle
+     */
+    public TiledDetector(Context context, int poolSize) throws IOException {
+        this(context, InferenceConfig.defaults(), poolSize);
+    }
+
+    public TiledDetector(Context context, InferenceConfig config, int poolSize) throws IOException {
+        ModelBundle bundle = new ModelRegistry(context).findLatest(ModelRegistry.DETECTOR,
+                RoadSignDetector.builtInBundle());
+        // Wystarczy plik i etykiety - interpreter ModelCache.acquire() nie byłby używany
+        ModelSource source = ModelCache.sourceOf(context, bundle);
+        ByteBuffer buffer = source.loadModel();
+        List<String> labelList = source.loadLabels();
+        labels = bundle.isBuiltIn() ? RoadSignLabel.detectLabels : labelList.toArray(new String[0]);
+        int size = Math.max(1, poolSize);
+        slots = new Slot[size];
+        try {
+            // Każdy kafelek liczony jednym wątkiem - równoległość daje pula, nie interpreter
+            InferenceConfig slotConfig = config.withNumThreads(1);
+            for (int i = 0; i < size; i++) {
+                slots[i] = new Slot(slotConfig.createBackend(buffer.duplicate()), labelList.size(),
+                        Math.min(labelList.size(), labels.length));
+            }
+            bundle.validate(slots[0].backend.getInputSpec(0), labelList.size());
+            // Pierwsze wywołanie interpretera przygotowuje delegata i bufory - nie przy pierwszym zdjęciu
+            for (Slot slot : slots) {
+                slot.warmUp();
+            }
+        } catch (IOException | RuntimeException e) {
+            closeSlots();
+            throw e;
+        }
+        postProcessor = new DetectionPostProcessor(labels.length, MAX_RESULTS, MAX_CANDIDATES, SCORE_THRESHOLD);
+        postProcessor.setIouThreshold(IOU_THRESHOLD);
+
+        executor = Executors.newFixedThreadPool(size, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG + "-" + count.incrementAndGet());
+            }
+        });
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+        clearResultCache();
+    }
+
+    /**
+     * Bok kafelka w pikselach obrazu źródłowego; 0 - połowa krótszego boku (np. 1500 px dla 12 MP).
+     */
+    public void setTileSize(int tileSize) {
+        this.tileSize = Math.max(0, tileSize);
+        clearResultCache();
+    }
+
+    /**
+     * Zakładka sąsiednich kafelków jako ułamek boku kafelka (0..0.5).
+     */
+    public void setOverlap(float overlap) {
+        this.overlap = Math.max(0f, Math.min(0.5f, overlap));
+        clearResultCache();
+    }
+
+    /**
+     * Obszar kafelków w trybie REGION_OF_INTEREST (ułamki 0..1 szerokości i wysokości obrazu).
+     */
+    public void setRegionOfInterest(float left, float top, float right, float bottom) {
+        roiLeft = Math.max(0f, Math.min(1f, left));
+        roiTop = Math.max(0f, Math.min(1f, top));
+        roiRight = Math.max(roiLeft, Math.min(1f, right));
+        roiBottom = Math.max(roiTop, Math.min(1f, bottom));
+        clearResultCache();
+    }
+
+    /**
+     * Włącza pamięć wyników dla niemal identycznych obrazów (null - wyłącza). Skrót liczony jest
+     * z wejścia zgrubnego przebiegu (cały obraz), więc przy trafieniu pomijane są wszystkie kafelki.
+     */
+    public void setResultCache(ResultCache<DetectionResult> cache) {
+        resultCache = cache;
+    }
+
+    public ResultCache<DetectionResult> getResultCache() {
+        return resultCache;
+    }
+
+    private void clearResultCache() {
+        ResultCache<DetectionResult> cache = resultCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Wykrywa znaki na bitmapie; ramki w ułamkach całego obrazu trafiają do out.
+     */
+    public boolean detect(Bitmap image, DetectionResult out) {
+        bitmap = image;
+        frame = null;
+        try {
+            return run(image.getWidth(), image.getHeight(), out);
+        } finally {
+            bitmap = null;
+        }
+    }
+
+    /**
+     * Jak detect(Bitmap, DetectionResult), na klatce NV21 (współrzędne po obrocie).
+     */
+    public boolean detect(Nv21Frame image, DetectionResult out) {
+        frame = image;
+        bitmap = null;
+        try {
+            return run(image.getRotatedWidth(), image.getRotatedHeight(), out);
+        } finally {
+            frame = null;
+        }
+    }
+
+    private boolean run(int width, int height, DetectionResult out) {
+        out.clear();
+        out.setLabels(labels);
+        long start = System.nanoTime();
+
+        planTiles(width, height);
+
+        // Skrót z wejścia zgrubnego przebiegu, zapisanego tu przez slot 0 przed uruchomieniem puli
+        ResultCache<DetectionResult> cache = resultCache;
+        long hash = 0L;
+        if (cache != null) {
+            slots[0].load(this, 0);
+            hash = slots[0].inputTensor.differenceHash(0);
+            if (cache.get(hash, start, out)) {
+                metrics.record(InferenceMetrics.Stage.TOTAL, System.nanoTime() - start);
+                return true;
+            }
+        }
+
+        nextTile.set(0);
+        for (Slot slot : slots) {
+            slot.result.clear();
+        }
+
+        // Każdy wątek puli ma własny interpreter i pobiera kolejne kafelki ze wspólnego licznika
+        futures.clear();
+        for (final Slot slot : slots) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    int index;
+                    while ((index = nextTile.getAndIncrement()) < tileCount) {
+                        slot.process(TiledDetector.this, index);
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            cancelAll();
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            cancelAll();
+            Log.e(TAG, "Błąd detekcji kafelka: " + e.getCause());
+            return false;
+        }
+        long mergeStart = System.nanoTime();
+        metrics.record(InferenceMetrics.Stage.INFERENCE, mergeStart - start);
+
+        merge(out);
+        if (cache != null) {
+            cache.put(hash, start, out);
+        }
+        long end = System.nanoTime();
+        metrics.record(InferenceMetrics.Stage.POSTPROCESS, end - mergeStart);
+        metrics.record(InferenceMetrics.Stage.TOTAL, end - start);
+        return true;
+    }
+
+    /**
+     * Wstrzymuje pobieranie kolejnych kafelków i czeka na zakończenie zadań puli - kafelek liczony
+     * w tej chwili czyta obraz i wyniki slotu, więc obraz można zwolnić, a następną detekcję
+     * rozpocząć dopiero po nim. Future.cancel() nie wystarcza: nie czeka na trwające zadanie.
+     */
+    private void cancelAll() {
+        nextTile.set(Integer.MAX_VALUE / 2);
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break; // Błąd pozostałych kafelków nie ma już znaczenia
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wylicza kafelki: zawsze cały obraz (zgrubny przebieg), następnie siatka kafelków o boku
+     * tileSize z zakładką, przesuniętych do środka przy krawędziach, by każdy miał pełny rozmiar.
+     */
+    private void planTiles(int width, int height) {
+        int side = tileSize > 0 ? tileSize : Math.min(width, height) / 2;
+        int areaLeft = 0;
+        int areaTop = 0;
+        int areaWidth = width;
+        int areaHeight = height;
+        if (mode == Mode.REGION_OF_INTEREST) {
+            areaLeft = Math.round(roiLeft * width);
+            areaTop = Math.round(roiTop * height);
+            areaWidth = Math.round(roiRight * width) - areaLeft;
+            areaHeight = Math.round(roiBottom * height) - areaTop;
+        }
+
+        int tileWidth = Math.min(side, areaWidth);
+        int tileHeight = Math.min(side, areaHeight);
+        int columns = gridCount(areaWidth, tileWidth);
+        int rows = gridCount(areaHeight, tileHeight);
+        // Kafelek większy niż połowa obrazu powtarza zgrubny przebieg - wystarczy sam przebieg
+        boolean coarseOnly = tileWidth <= 0 || tileHeight <= 0
+                || (columns == 1 && rows == 1 && tileWidth * 2 > width && tileHeight * 2 > height);
+        int count = 1 + (coarseOnly ? 0 : columns * rows);
+        if (tiles.length < count * 4) {
+            tiles = new int[count * 4];
+        }
+        setTile(0, 0, 0, width, height);
+        tileCount = 1;
+        if (coarseOnly) {
+            return;
+        }
+        for (int row = 0; row < rows; row++) {
+            int top = areaTop + gridOffset(row, rows, areaHeight, tileHeight);
+            for (int column = 0; column < columns; column++) {
+                int left = areaLeft + gridOffset(column, columns, areaWidth, tileWidth);
+                setTile(tileCount++, left, top, tileWidth, tileHeight);
+            }
+        }
+    }
+
+    /**
+     * Liczba kafelków o boku tile z zakładką, potrzebna do pokrycia odcinka length.
+     */
+    private int gridCount(int length, int tile) {
+        if (tile <= 0 || length <= tile) {
+            return 1;
+        }
+        float stride = tile * (1f - overlap);
+        return 1 + (int) Math.ceil((length - tile) / stride);
+    }
+
+    /**
+     * Przesunięcie kafelka index z count; kafelki są rozłożone równo od krawędzi do krawędzi.
+     */
+    private static int gridOffset(int index, int count, int length, int tile) {
+        if (count <= 1) {
+            return (length - tile) / 2;
+        }
+        return Math.round((float) (length - tile) * index / (count - 1));
+    }
+
+    private void setTile(int index, int left, int top, int width, int height) {
+        int o = index * 4;
+        tiles[o] = left;
+        tiles[o + 1] = top;
+        tiles[o + 2] = width;
+        tiles[o + 3] = height;
+    }
+
+    /**
+     * Łączy wyniki kafelków (już w ułamkach całego obrazu) i usuwa duplikaty z zakładek globalnym NMS.
+     */
+    private void merge(DetectionResult out) {
+        int total = 0;
+        for (Slot slot : slots) {
+            total += slot.result.size();
+        }
+        if (mergedScores.length < total) {
+            mergedBoxes = new float[total * 4];
+            mergedClasses = new float[total];
+            mergedScores = new float[total];
+        }
+        int n = 0;
+        for (Slot slot : slots) {
+            DetectionResult partial = slot.result;
+            System.arraycopy(partial.getBoxes(), 0, mergedBoxes, n * 4, partial.size() * 4);
+            for (int i = 0; i < partial.size(); i++) {
+                mergedClasses[n + i] = partial.getClassId(i);
+                mergedScores[n + i] = partial.getScore(i);
+            }
+            n += partial.size();
+        }
+
+        int count = postProcessor.processDecoded(mergedBoxes, mergedClasses, mergedScores, n);
+        float[] boxes = postProcessor.getBoxes();
+        float[] scores = postProcessor.getScores();
+        int[] classes = postProcessor.getClasses();
+        for (int i = 0; i < count; i++) {
+            out.add(classes[i], scores[i], boxes, i * 4);
+        }
+    }
+
+    /**
+     * Liczba kafelków (razem ze zgrubnym przebiegiem) w ostatniej detekcji.
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    public InferenceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Czeka na zakończenie bieżącej pracy puli i zamyka interpretery.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                Log.w(TAG, "Pula kafelków nie zakończyła pracy w czasie");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeSlots();
+    }
+
+    private void closeSlots() {
+        for (Slot slot : slots) {
+            if (slot != null) {
+                slot.backend.close();
+            }
+        }
+    }
+
+    /**
+     * Interpreter puli z własnymi buforami, przekształceniem i wynikami częściowymi.
+     */
+    private static final class Slot {
+        final InferenceBackend backend;
+        final InputTensorBuffer inputTensor;
+        final DetectionOutputDecoder outputDecoder;
+        final PreprocessTransform transform = new PreprocessTransform();
+        final Object[] inputs = new Object[1];
+        final DetectionResult result = new DetectionResult(32);
+
+        Slot(InferenceBackend backend, int labelCount, int classCount) {
+            this.backend = backend;
+            inputTensor = new InputTensorBuffer(backend.getInputSpec(0));
+            outputDecoder = new DetectionOutputDecoder(backend, labelCount, classCount,
+                    inputTensor.getWidth(), inputTensor.getHeight(), SCORE_THRESHOLD);
+        }
+
+        void warmUp() {
+            inputTensor.prepareBatch(1);
+            inputs[0] = inputTensor.batchBuffer();
+            backend.run(inputs, outputDecoder.getOutputMap());
+        }
+
+        /**
+         * Zapisuje kafelek index do wejścia interpretera (transform zostaje do przeliczenia ramek).
+         */
+        void load(TiledDetector owner, int index) {
+            int o = index * 4;
+            int sourceWidth = owner.bitmap != null ? owner.bitmap.getWidth() : owner.frame.getRotatedWidth();
+            int sourceHeight = owner.bitmap != null ? owner.bitmap.getHeight() : owner.frame.getRotatedHeight();
+            transform.update(sourceWidth, sourceHeight, owner.tiles[o], owner.tiles[o + 1],
+                    owner.tiles[o + 2], owner.tiles[o + 3], inputTensor.getWidth(), inputTensor.getHeight());
+
+            inputTensor.prepareBatch(1);
+            if (owner.bitmap != null) {
+                inputTensor.write(0, owner.bitmap, transform);
+            } else {
+                inputTensor.write(0, owner.frame, transform);
+            }
+        }
+
+        /**
+         * Detekcja na kafelku index; ramki są od razu przeliczane na ułamki całego obrazu.
+         */
+        void process(TiledDetector owner, int index) {
+            load(owner, index);
+            inputs[0] = inputTensor.batchBuffer();
+            backend.run(inputs, outputDecoder.getOutputMap());
+
+            int count = outputDecoder.decode();
+            float[] boxes = outputDecoder.getBoxes();
+            float[] scores = outputDecoder.getScores();
+            int[] classes = outputDecoder.getClasses();
+            transform.mapToSource(boxes, 0, count, boxes, 0, true);
+            for (int i = 0; i < count; i++) {
+                result.add(classes[i], scores[i], boxes, i * 4);
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.roadsigndetector.tools;
+
+import com.example.roadsigndetector.data.RoadSignLabel;
+import com.example.roadsigndetector.ml.InferenceBackend;
+import com.example.roadsigndetector.ml.PreprocessTransform;
+import com.example.roadsigndetector.ml.StubBackend;
+import com.example.roadsigndetector.ml.TfLiteBackend;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ocena modeli poza aplikacją: przetwarza katalog obrazów albo manifest na zwykłej JVM,
+ * z pulą pracowników (jeden interpreter na rdzeń), zapisuje wyniki dla każdego obrazu
+ * do CSV/JSONL i wypisuje podsumowanie (trafność klasyfikacji, mAP detekcji).
+ *
+ * Przykład:
+ * java -cp ... com.example.roadsigndetector.tools.BatchEvaluator --task detect
+ * --model detect.tflite --labels detect_labelmap.txt --input regression/manifest.csv
+ * --output results.jsonl
+ *
+ * Z --backend stub zamiast modelu działa StubBackend (bez pliku .tflite i biblioteki natywnej),
+ * np. do pomiaru przetwarzania wejścia i wyników w CI.
+ */
+public final class BatchEvaluator {
+
+    private BatchEvaluator() {
+    }
+
+    /**
+     * Ustawienia z linii poleceń wspólne dla wszystkich pracowników.
+     */
+    static final class Settings {
+        private static final int STUB_DETECTOR_SIZE = 320;
+        private static final int STUB_CLASSIFIER_SIZE = 224;
+        private static final int STUB_MAX_DETECTIONS = 10;
+
+        boolean detection = true;
+        boolean stubBackend;
+        File modelFile;
+        File labelFile;
+        File modelLabelFile; // Etykiety zapisane z modelem (np. detect_labelmap.txt), gdy różnią się od --labels
+        File input;
+        File output;
+        int threads = Runtime.getRuntime().availableProcessors();
+        PreprocessTransform.Mode fitMode = PreprocessTransform.Mode.STRETCH;
+        float scoreThreshold = 0.5f;
+        float iouThreshold = 0.5f;
+        int topK = 5;
+
+        // Wyliczane po wczytaniu argumentów
+        ByteBuffer model;
+        String[] classNames;
+        int labelCount; // Liczba etykiet modelu - do rozpoznania układu wyjścia (jak w DetectionEngine)
+        private final Map<String, Integer> classIndices = new HashMap<>();
+
+        /**
+         * Indeks klasy o podanej nazwie albo -1.
+         */
+        int classIndex(String name) {
+            Integer index = classIndices.get(name);
+            return index != null ? index : -1;
+        }
+
+        /**
+         * Model dla jednego pracownika: interpreter na współdzielonym pliku albo zaślepka.
+         */
+        InferenceBackend createBackend(int numThreads) {
+            if (!stubBackend) {
+                return new TfLiteBackend(model, numThreads);
+            }
+            return detection
+                    ? StubBackend.detector(STUB_DETECTOR_SIZE, STUB_DETECTOR_SIZE, STUB_MAX_DETECTIONS,
+                    classNames.length)
+                    : StubBackend.classifier(STUB_CLASSIFIER_SIZE, STUB_CLASSIFIER_SIZE, classNames.length);
+        }
+    }
+
+    public static void main(String[] args) {
+        Settings settings;
+        try {
+            settings = parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        try {
+            System.exit(run(settings));
+        } catch (IOException e) {
+            System.err.println("Błąd: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static int run(Settings settings) throws IOException {
+        if (!settings.stubBackend) {
+            settings.model = mapModel(settings.modelFile);
+        }
+        settings.classNames = loadClassNames(settings);
+        settings.labelCount = loadLabelCount(settings);
+        for (int i = 0; i < settings.classNames.length; i++) {
+            settings.classIndices.put(settings.classNames[i], i);
+        }
+
+        List<ImageManifest.Entry> entries = ImageManifest.load(settings.input);
+        System.err.println("Obrazy do oceny: " + entries.size() + ", pracownicy: " + settings.threads);
+
+        long start = System.nanoTime();
+        AtomicInteger nextIndex = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        List<EvaluationWorker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        try (ResultWriter writer = new ResultWriter(settings.output, ResultWriter.formatFor(settings.output),
+                settings.classNames, settings.detection)) {
+            for (int i = 0; i < settings.threads; i++) {
+                EvaluationWorker worker = new EvaluationWorker(settings, entries, nextIndex, completed, writer);
+                Thread thread = new Thread(worker, "EvaluationWorker-" + i);
+                workers.add(worker);
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Przerwano ocenę", e);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        EvaluationStats total = new EvaluationStats(settings.classNames, settings.iouThreshold);
+        for (EvaluationWorker worker : workers) {
+            total.merge(worker.getStats());
+        }
+        total.print(System.err, elapsed);
+        return completed.get() == entries.size() ? 0 : 1;
+    }
+
+    static Settings parseArguments(String[] args) {
+        Settings settings = new Settings();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Brak wartości dla " + name);
+            }
+            String value = args[++i];
+            try {
+                switch (name) {
+                    case "--task":
+                        if (!value.equals("detect") && !value.equals("classify")) {
+                            throw new IllegalArgumentException("Nieznane zadanie: " + value);
+                        }
+                        settings.detection = value.equals("detect");
+                        break;
+                    case "--model":
+                        settings.modelFile = new File(value);
+                        break;
+                    case "--backend":
+                        settings.stubBackend = parseBackend(value);
+                        break;
+                    case "--labels":
+                        settings.labelFile = new File(value);
+                        break;
+                    case "--model-labels":
+                        settings.modelLabelFile = new File(value);
+                        break;
+                    case "--input":
+                        settings.input = new File(value);
+                        break;
+                    case "--output":
+                        settings.output = new File(value);
+                        break;
+                    case "--threads":
+                        settings.threads = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "--fit":
+                        settings.fitMode = PreprocessTransform.Mode.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "--threshold":
+                        settings.scoreThreshold = Float.parseFloat(value);
+                        break;
+                    case "--iou":
+                        settings.iouThreshold = Float.parseFloat(value);
+                        break;
+                    case "--top-k":
+                        settings.topK = Math.max(1, Integer.parseInt(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Nieznana opcja: " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Błędna wartość dla " + name + ": " + value);
+            }
+        }
+        if ((settings.modelFile == null && !settings.stubBackend) || settings.input == null) {
+            throw new IllegalArgumentException("Wymagane opcje: --model i --input");
+        }
+        return settings;
+    }
+
+    /**
+     * Wartość opcji --backend: true dla zaślepki.
+     */
+    static boolean parseBackend(String value) {
+        if (!value.equals("tflite") && !value.equals("stub")) {
+            throw new IllegalArgumentException("Nieznany backend: " + value);
+        }
+        return value.equals("stub");
+    }
+
+    private static void printUsage() {
+        System.err.println("Użycie: BatchEvaluator --model <plik.tflite> --input <katalog|manifest.csv>\n"
+                + "  [--task detect|classify] [--labels <plik>] [--model-labels <plik>]\n"
+                + "  [--output <wyniki.csv|wyniki.jsonl>]\n"
+                + "  [--threads N] [--fit stretch|center_crop|letterbox] [--threshold 0.5] [--iou 0.5]\n"
+                + "  [--top-k 5] [--backend tflite|stub]");
+    }
+
+    /**
+     * Model mapowany raz i współdzielony przez interpretery wszystkich pracowników (tylko odczyt).
+     */
+    static ByteBuffer mapModel(File file) throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(file);
+             FileChannel channel = inputStream.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Nazwy klas z pliku etykiet albo, gdy go nie podano, te same co w aplikacji.
+     */
+    static String[] loadClassNames(Settings settings) throws IOException {
+        if (settings.labelFile == null) {
+            return settings.detection ? RoadSignLabel.detectLabels : RoadSignLabel.classifierLabels;
+        }
+        return readLabels(settings.labelFile);
+    }
+
+    /**
+     * Liczba etykiet w pliku modelu: z --model-labels, a bez tej opcji równa liczbie nazw klas.
+     * Wbudowany model aplikacji ma własny plik etykiet, różny od nazw w RoadSignLabel.
+     */
+    static int loadLabelCount(Settings settings) throws IOException {
+        if (settings.modelLabelFile == null) {
+            return settings.classNames.length;
+        }
+        return readLabels(settings.modelLabelFile).length;
+    }
+
+    private static String[] readLabels(File file) throws IOException {
+        List<String> labels = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                labels.add(line.trim());
+            }
+        }
+        return labels.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.roadsigndetector.tools;
+
+import com.example.roadsigndetector.ml.PixelSource;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Obraz Java2D jako PixelSource. Dla typowych wyników ImageIO (JPEG - 3BYTE_BGR, INT_RGB/ARGB)
+ * piksele są czytane wprost z rastra; getRGB() przelicza każdy piksel przez ColorModel
+ * i jest używane tylko dla pozostałych typów.
+ */
+final class BufferedImageSource implements PixelSource {
+
+    private final BufferedImage image;
+    private final byte[] bgr;  // TYPE_3BYTE_BGR
+    private final int[] argb;  // TYPE_INT_RGB / TYPE_INT_ARGB
+    private final int opaque;  // Kanał alfa dopisywany dla TYPE_INT_RGB
+
+    BufferedImageSource(BufferedImage image) {
+        this.image = image;
+        // Bezpośredni odczyt tylko dla całego rastra (nie podobrazu) z jednym bankiem danych
+        boolean direct = image.getRaster().getParent() == null
+                && image.getRaster().getDataBuffer().getNumBanks() == 1
+                && image.getRaster().getDataBuffer().getOffset() == 0;
+        int type = image.getType();
+        bgr = direct && type == BufferedImage.TYPE_3BYTE_BGR
+                ? ((DataBufferByte) image.getRaster().getDataBuffer()).getData() : null;
+        argb = direct && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                ? ((DataBufferInt) image.getRaster().getDataBuffer()).getData() : null;
+        opaque = type == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0;
+    }
+
+    @Override
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    @Override
+    public void getPixels(int[] out, int offset, int stride, int x, int y, int width, int height) {
+        int imageWidth = image.getWidth();
+        if (bgr != null) {
+            for (int row = 0; row < height; row++) {
+                int src = ((y + row) * imageWidth + x) * 3;
+                int dst = offset + row * stride;
+                for (int col = 0; col < width; col++, src += 3) {
+                    out[dst + col] = 0xFF000000 | (bgr[src + 2] & 0xFF) << 16
+                            | (bgr[src + 1] & 0xFF) << 8 | (bgr[src] & 0xFF);
+                }
+            }
+        } else if (argb != null) {
+            for (int row = 0; row < height; row++) {
+                int src = (y + row) * imageWidth + x;
+                int dst = offset + row * stride;
+                for (int col = 0; col < width; col++) {
+                    out[dst + col] = argb[src + col] | opaque;
+                }
+            }
+        } else {
+            image.getRGB(x, y, width, height, out, offset, stride);
+        }
+    }
+}
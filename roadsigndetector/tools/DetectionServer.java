@@ -0,0 +1,515 @@
+package com.example.roadsigndetector.tools;
+
+import com.example.roadsigndetector.ml.DetectionResult;
+import com.example.roadsigndetector.ml.LatencyHistogram;
+import com.example.roadsigndetector.ml.PreprocessTransform;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serwer detekcji bez interfejsu (zwykła JVM) do ponownej analizy klatek przesyłanych przez pojazdy.
+ * POST /detect przyjmuje obraz JPEG/PNG, surową klatkę (application/octet-stream z format=rgb|nv21,
+ * width, height i rotation w zapytaniu) albo wiele obrazów naraz jako multipart/form-data
+ * i odpowiada wynikami w JSON. Wątki HTTP dekodują obrazy równolegle, a MicroBatcher łączy
+ * żądania z wielu połączeń we wsady dla pracowników (ServerWorker), każdy z własnym modelem.
+ * GET /health i GET /stats zwracają stan serwera i statystyki wsadów.
+ *
+ * Przykład:
+ * java -cp ... com.example.roadsigndetector.tools.DetectionServer --model detect.tflite
+ * --classifier classifier_224.tflite --port 8080 --workers 16 --max-batch 8 --max-wait-ms 5
+ */
+public final class DetectionServer {
+
+    private static final int LATENCY_WINDOW = 1 << 16;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final String JSON_TYPE = "application/json; charset=utf-8";
+
+    /**
+     * Ustawienia serwera; modele opisują ustawienia BatchEvaluator (plik, etykiety, backend, progi).
+     */
+    static final class Options {
+        String host = "127.0.0.1";
+        int port = 8080;
+        int threads = 1; // Wątki interpretera na pracownika - równoległość dają pracownicy
+        int workers = Runtime.getRuntime().availableProcessors();
+        int httpThreads; // 0 - tyle, żeby każdy pracownik mógł zebrać pełne wsady
+        int maxBatch = 8;
+        long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(5);
+        int queueCapacity = 1024;
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(30);
+        int maxBodyBytes = 64 * 1024 * 1024;
+        BatchEvaluator.Settings detector;   // null w trybie klasyfikacji
+        BatchEvaluator.Settings classifier; // null bez doprecyzowania wycinków
+    }
+
+    /**
+     * Liczniki serwera (aktualizowane z wątków HTTP i pracowników).
+     */
+    static final class Stats {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong images = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong timedOut = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong batchedImages = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram(LATENCY_WINDOW);
+
+        void addBatch(int size) {
+            batches.incrementAndGet();
+            batchedImages.addAndGet(size);
+        }
+
+        String toJson(int queued) {
+            long[] percentiles = new long[QUANTILES.length];
+            latency.percentiles(QUANTILES, percentiles);
+            long batchCount = batches.get();
+            return "{\"requests\":" + requests.get()
+                    + ",\"images\":" + images.get()
+                    + ",\"rejected\":" + rejected.get()
+                    + ",\"timed_out\":" + timedOut.get()
+                    + ",\"batches\":" + batchCount
+                    + ",\"mean_batch_size\":"
+                    + ResultWriter.format(batchCount > 0 ? (double) batchedImages.get() / batchCount : 0.0)
+                    + ",\"queued\":" + queued
+                    + ",\"latency_ms\":{\"p50\":" + ResultWriter.format(percentiles[0] / 1e6)
+                    + ",\"p90\":" + ResultWriter.format(percentiles[1] / 1e6)
+                    + ",\"p99\":" + ResultWriter.format(percentiles[2] / 1e6) + "}}";
+        }
+    }
+
+    private final Options options;
+    private final Stats stats = new Stats();
+    private final MicroBatcher<ImageRequest> batcher;
+    private final List<Thread> workerThreads = new ArrayList<>();
+    private final ExecutorService httpExecutor;
+    private final HttpServer server;
+
+    private DetectionServer(Options options) throws IOException {
+        this.options = options;
+        batcher = new MicroBatcher<>(options.queueCapacity, options.maxBatch, options.maxWaitNanos);
+        try {
+            for (int i = 0; i < options.workers; i++) {
+                Thread thread = new Thread(new ServerWorker(options, batcher, stats), "ServerWorker-" + i);
+                workerThreads.add(thread);
+                thread.start();
+            }
+        } catch (RuntimeException e) {
+            // Modele już uruchomionych pracowników zamykają się po przerwaniu ich wątków
+            stopWorkers();
+            throw e;
+        }
+
+        // Wątek HTTP czeka na wynik swoich obrazów, więc liczba wątków ogranicza liczbę obrazów
+        // w kolejce; przy liczbie rdzeni wsady nie miałyby się z czego zebrać
+        int httpThreads = options.httpThreads > 0 ? options.httpThreads
+                : Math.max(Runtime.getRuntime().availableProcessors(), 2 * options.workers * options.maxBatch);
+        httpExecutor = Executors.newFixedThreadPool(httpThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "ServerHttp-" + count.getAndIncrement());
+            }
+        });
+        try {
+            server = HttpServer.create(new InetSocketAddress(options.host, options.port), 0);
+        } catch (IOException e) {
+            httpExecutor.shutdown();
+            stopWorkers();
+            throw e;
+        }
+        server.createContext("/detect", new DetectHandler());
+        server.createContext("/health", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange, 200, "{\"status\":\"ok\"}");
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange, 200, stats.toJson(batcher.queued()));
+            }
+        });
+        server.setExecutor(httpExecutor);
+        server.start();
+    }
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        final DetectionServer server;
+        try {
+            loadModel(options.detector);
+            loadModel(options.classifier);
+            server = new DetectionServer(options);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Błąd: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread("DetectionServer-shutdown") {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+        System.err.println(String.format(Locale.ROOT,
+                "Serwer detekcji: http://%s:%d/detect, pracownicy: %d, wsad: %d, czekanie: %.1f ms",
+                options.host, server.getPort(), options.workers, options.maxBatch, options.maxWaitNanos / 1e6));
+    }
+
+    private static void loadModel(BatchEvaluator.Settings settings) throws IOException {
+        if (settings == null) {
+            return;
+        }
+        if (!settings.stubBackend) {
+            settings.model = BatchEvaluator.mapModel(settings.modelFile);
+        }
+        settings.classNames = BatchEvaluator.loadClassNames(settings);
+        settings.labelCount = BatchEvaluator.loadLabelCount(settings);
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Zatrzymuje przyjmowanie żądań, kończy pracowników i odrzuca żądania z kolejki.
+     */
+    void stop() {
+        server.stop(0);
+        httpExecutor.shutdown();
+        stopWorkers();
+        for (ImageRequest request : batcher.drain()) {
+            request.fail("Serwer jest zamykany");
+        }
+    }
+
+    private void stopWorkers() {
+        for (Thread thread : workerThreads) {
+            thread.interrupt();
+        }
+        for (Thread thread : workerThreads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * POST /detect: dekodowanie, przekazanie obrazów do MicroBatcher i odpowiedź po ich przetworzeniu.
+     */
+    private final class DetectHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    send(exchange, 405, error("Dozwolona jest tylko metoda POST"));
+                    return;
+                }
+                stats.requests.incrementAndGet();
+                byte[] body = readBody(exchange.getRequestBody(), options.maxBodyBytes);
+                if (body == null) {
+                    send(exchange, 413, error("Treść żądania przekracza " + options.maxBodyBytes + " B"));
+                    return;
+                }
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                Map<String, String> query = UploadDecoder.parseQuery(exchange.getRequestURI().getRawQuery());
+                List<ImageRequest> images;
+                try {
+                    images = UploadDecoder.decode(body, contentType, query, options.maxBodyBytes);
+                } catch (IOException e) {
+                    send(exchange, 400, error(e.getMessage()));
+                    return;
+                }
+                stats.images.addAndGet(images.size());
+                process(exchange, images, contentType != null
+                        && contentType.toLowerCase(Locale.ROOT).startsWith(UploadDecoder.MULTIPART_TYPE));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(exchange, 503, error("Serwer jest zamykany"));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void process(HttpExchange exchange, List<ImageRequest> images, boolean multipart)
+                throws IOException, InterruptedException {
+            int accepted = 0;
+            for (ImageRequest request : images) {
+                if (batcher.offer(request)) {
+                    accepted++;
+                } else {
+                    stats.rejected.incrementAndGet();
+                    request.fail("Kolejka serwera jest pełna");
+                }
+            }
+            if (accepted == 0) {
+                send(exchange, 503, error("Kolejka serwera jest pełna"));
+                return;
+            }
+
+            long deadline = System.nanoTime() + options.timeoutNanos;
+            boolean[] completed = new boolean[images.size()];
+            int timedOut = 0;
+            for (int i = 0; i < images.size(); i++) {
+                completed[i] = images.get(i).await(deadline - System.nanoTime());
+                if (!completed[i]) {
+                    // Żądanie zostaje w kolejce - pracownik pominie je zamiast liczyć wynik dla nikogo
+                    images.get(i).abandon();
+                    timedOut++;
+                    stats.timedOut.incrementAndGet();
+                }
+            }
+            if (!multipart) {
+                ImageRequest request = images.get(0);
+                if (!completed[0]) {
+                    send(exchange, 504, error("Przekroczono czas oczekiwania na wynik"));
+                    return;
+                }
+                stats.latency.record(request.latencyNanos);
+                send(exchange, 200, toJson(request, new StringBuilder(256)).toString());
+                return;
+            }
+            StringBuilder json = new StringBuilder(256 * images.size()).append("{\"images\":[");
+            for (int i = 0; i < images.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                ImageRequest request = images.get(i);
+                if (completed[i]) {
+                    stats.latency.record(request.latencyNanos);
+                    toJson(request, json);
+                } else {
+                    json.append("{\"image\":").append(ResultWriter.json(request.name))
+                            .append(",\"error\":").append(ResultWriter.json("Przekroczono czas oczekiwania"))
+                            .append('}');
+                }
+            }
+            json.append("]}");
+            send(exchange, timedOut == images.size() ? 504 : 200, json.toString());
+        }
+    }
+
+    /**
+     * Wynik jednego obrazu; ramki w ułamkach obrazu [ymin, xmin, ymax, xmax] (jak w ResultWriter).
+     */
+    private static StringBuilder toJson(ImageRequest request, StringBuilder json) {
+        json.append("{\"image\":").append(ResultWriter.json(request.name));
+        if (request.error != null) {
+            return json.append(",\"error\":").append(ResultWriter.json(request.error)).append('}');
+        }
+        json.append(",\"width\":").append(request.width)
+                .append(",\"height\":").append(request.height)
+                .append(",\"latency_ms\":").append(ResultWriter.format(request.latencyNanos / 1e6))
+                .append(",\"queue_ms\":").append(ResultWriter.format(request.queueNanos / 1e6))
+                .append(",\"batch_size\":").append(request.batchSize);
+        if (request.classLabels != null) {
+            json.append(",\"predictions\":[");
+            for (int i = 0; i < request.topK; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"label\":").append(ResultWriter.json(request.classLabels[request.topClasses[i]]))
+                        .append(",\"score\":").append(ResultWriter.format(request.topScores[i])).append('}');
+            }
+            return json.append("]}");
+        }
+        DetectionResult detections = request.detections;
+        json.append(",\"detections\":[");
+        for (int i = 0; i < detections.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"label\":").append(ResultWriter.json(detections.getLabel(i)))
+                    .append(",\"score\":").append(ResultWriter.format(detections.getScore(i)))
+                    .append(",\"box\":[");
+            for (int k = 0; k < 4; k++) {
+                if (k > 0) {
+                    json.append(',');
+                }
+                json.append(ResultWriter.format(detections.getBox(i, k)));
+            }
+            json.append(']');
+            if (detections.isRefined(i)) {
+                json.append(",\"refined_label\":").append(ResultWriter.json(detections.getRefinedLabel(i)))
+                        .append(",\"refined_score\":").append(ResultWriter.format(detections.getRefinedScore(i)));
+            }
+            json.append('}');
+        }
+        return json.append("]}");
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + ResultWriter.json(String.valueOf(message)) + "}";
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON_TYPE);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Cała treść żądania; null, gdy przekracza limit.
+     */
+    private static byte[] readBody(InputStream in, int limit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        byte[] chunk = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            if (out.size() + read > limit) {
+                return null;
+            }
+            out.write(chunk, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    static Options parseArguments(String[] args) {
+        Options options = new Options();
+        BatchEvaluator.Settings primary = new BatchEvaluator.Settings();
+        File classifierFile = null;
+        File classifierLabels = null;
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Brak wartości dla " + name);
+            }
+            String value = args[++i];
+            try {
+                switch (name) {
+                    case "--task":
+                        if (!value.equals("detect") && !value.equals("classify")) {
+                            throw new IllegalArgumentException("Nieznane zadanie: " + value);
+                        }
+                        primary.detection = value.equals("detect");
+                        break;
+                    case "--model":
+                        primary.modelFile = new File(value);
+                        break;
+                    case "--labels":
+                        primary.labelFile = new File(value);
+                        break;
+                    case "--model-labels":
+                        primary.modelLabelFile = new File(value);
+                        break;
+                    case "--classifier":
+                        classifierFile = new File(value);
+                        break;
+                    case "--classifier-labels":
+                        classifierLabels = new File(value);
+                        break;
+                    case "--backend":
+                        primary.stubBackend = BatchEvaluator.parseBackend(value);
+                        break;
+                    case "--host":
+                        options.host = value;
+                        break;
+                    case "--port":
+                        options.port = Integer.parseInt(value);
+                        break;
+                    case "--workers":
+                        options.workers = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "--threads":
+                        options.threads = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "--http-threads":
+                        options.httpThreads = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "--max-batch":
+                        options.maxBatch = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "--max-wait-ms":
+                        options.maxWaitNanos = (long) (Math.max(0.0, Double.parseDouble(value)) * 1e6);
+                        break;
+                    case "--queue":
+                        options.queueCapacity = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "--timeout-ms":
+                        options.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.parseLong(value)));
+                        break;
+                    case "--fit":
+                        primary.fitMode = PreprocessTransform.Mode.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "--threshold":
+                        primary.scoreThreshold = Float.parseFloat(value);
+                        break;
+                    case "--top-k":
+                        primary.topK = Math.max(1, Integer.parseInt(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Nieznana opcja: " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Błędna wartość dla " + name + ": " + value);
+            }
+        }
+        if (primary.modelFile == null && !primary.stubBackend) {
+            throw new IllegalArgumentException("Wymagana opcja: --model");
+        }
+        if (!primary.detection) {
+            options.classifier = primary;
+            return options;
+        }
+        options.detector = primary;
+        // Zaślepka zastępuje oba modele, więc kaskada działa w całości bez plików
+        if (classifierFile != null || primary.stubBackend) {
+            BatchEvaluator.Settings classifier = new BatchEvaluator.Settings();
+            classifier.detection = false;
+            classifier.stubBackend = primary.stubBackend;
+            classifier.modelFile = classifierFile;
+            classifier.labelFile = classifierLabels;
+            options.classifier = classifier;
+        }
+        return options;
+    }
+
+    private static void printUsage() {
+        System.err.println("Użycie: DetectionServer --model <plik.tflite> [--task detect|classify]\n"
+                + "  [--labels <plik>] [--model-labels <plik>]\n"
+                + "  [--classifier <plik.tflite>] [--classifier-labels <plik>]\n"
+                + "  [--backend tflite|stub] [--host 127.0.0.1] [--port 8080] [--workers N] [--threads 1]\n"
+                + "  [--http-threads N] [--max-batch 8] [--max-wait-ms 5] [--queue 1024] [--timeout-ms 30000]\n"
+                + "  [--fit stretch|center_crop|letterbox] [--threshold 0.5] [--top-k 5]");
+    }
+}
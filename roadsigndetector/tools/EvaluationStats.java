@@ -0,0 +1,235 @@
+package com.example.roadsigndetector.tools;
+
+import com.example.roadsigndetector.ml.ObjectTracker;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Statystyki oceny zbierane przez jednego pracownika i scalane na końcu (bez blokad w trakcie).
+ * Klasyfikacja: trafność top-1 i top-k, także dla poszczególnych klas.
+ * Detekcja: AP dla każdej klasy przy zadanym progu IoU (interpolacja po wszystkich punktach,
+ * jak w Pascal VOC 2010+) i mAP.
+ */
+final class EvaluationStats {
+
+    private final String[] classNames;
+    private final float iouThreshold;
+
+    private int images;
+    private int failures;
+    private long[] latencies = new long[1024];
+
+    // Klasyfikacja
+    private int classified;
+    private int top1Correct;
+    private int topKCorrect;
+    private final int[] classTotal;
+    private final int[] classCorrect;
+
+    // Detekcja: dla każdej klasy wyniki wykryć i czy były trafieniem
+    private final float[][] detectionScores;
+    private final boolean[][] detectionHits;
+    private final int[] detectionCount;
+    private final int[] groundTruthCount;
+    private boolean[] matched = new boolean[16];
+
+    EvaluationStats(String[] classNames, float iouThreshold) {
+        this.classNames = classNames;
+        this.iouThreshold = iouThreshold;
+        int n = classNames.length;
+        classTotal = new int[n];
+        classCorrect = new int[n];
+        detectionScores = new float[n][16];
+        detectionHits = new boolean[n][16];
+        detectionCount = new int[n];
+        groundTruthCount = new int[n];
+    }
+
+    void addImage(long latencyNanos) {
+        if (images == latencies.length) {
+            latencies = Arrays.copyOf(latencies, images * 2);
+        }
+        latencies[images++] = latencyNanos;
+    }
+
+    void addFailure() {
+        failures++;
+    }
+
+    /**
+     * Wynik klasyfikacji: truth - indeks oczekiwanej klasy, topIndices - k najlepszych klas malejąco.
+     */
+    void addClassification(int truth, int[] topIndices, int k) {
+        classified++;
+        classTotal[truth]++;
+        if (topIndices[0] == truth) {
+            top1Correct++;
+            classCorrect[truth]++;
+        }
+        for (int i = 0; i < k; i++) {
+            if (topIndices[i] == truth) {
+                topKCorrect++;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Wykrycia jednego obrazu (posortowane malejąco po wyniku) porównane z ramkami oczekiwanymi.
+     * Ramki w tych samych współrzędnych [ymin, xmin, ymax, xmax].
+     */
+    void addDetections(float[] boxes, float[] scores, int[] classes, int count,
+                       float[] truthBoxes, int[] truthClasses, int truthCount) {
+        if (matched.length < truthCount) {
+            matched = new boolean[truthCount];
+        }
+        Arrays.fill(matched, 0, truthCount, false);
+        for (int t = 0; t < truthCount; t++) {
+            groundTruthCount[truthClasses[t]]++;
+        }
+        for (int d = 0; d < count; d++) {
+            int c = classes[d];
+            int best = -1;
+            float bestIou = iouThreshold;
+            for (int t = 0; t < truthCount; t++) {
+                if (matched[t] || truthClasses[t] != c) {
+                    continue;
+                }
+                float iou = ObjectTracker.iou(boxes, d * 4, truthBoxes, t * 4);
+                if (iou >= bestIou) {
+                    bestIou = iou;
+                    best = t;
+                }
+            }
+            if (best >= 0) {
+                matched[best] = true;
+            }
+            addDetection(c, scores[d], best >= 0);
+        }
+    }
+
+    private void addDetection(int classIndex, float score, boolean hit) {
+        int n = detectionCount[classIndex];
+        if (n == detectionScores[classIndex].length) {
+            detectionScores[classIndex] = Arrays.copyOf(detectionScores[classIndex], n * 2);
+            detectionHits[classIndex] = Arrays.copyOf(detectionHits[classIndex], n * 2);
+        }
+        detectionScores[classIndex][n] = score;
+        detectionHits[classIndex][n] = hit;
+        detectionCount[classIndex] = n + 1;
+    }
+
+    /**
+     * Dołącza statystyki innego pracownika.
+     */
+    void merge(EvaluationStats other) {
+        for (int i = 0; i < other.images; i++) {
+            addImage(other.latencies[i]);
+        }
+        failures += other.failures;
+        classified += other.classified;
+        top1Correct += other.top1Correct;
+        topKCorrect += other.topKCorrect;
+        for (int c = 0; c < classNames.length; c++) {
+            classTotal[c] += other.classTotal[c];
+            classCorrect[c] += other.classCorrect[c];
+            groundTruthCount[c] += other.groundTruthCount[c];
+            for (int i = 0; i < other.detectionCount[c]; i++) {
+                addDetection(c, other.detectionScores[c][i], other.detectionHits[c][i]);
+            }
+        }
+    }
+
+    /**
+     * Średnia precyzja dla jednej klasy; NaN, jeśli klasa nie występuje w danych oczekiwanych.
+     */
+    double averagePrecision(int classIndex) {
+        int truth = groundTruthCount[classIndex];
+        if (truth == 0) {
+            return Double.NaN;
+        }
+        int n = detectionCount[classIndex];
+        float[] scores = detectionScores[classIndex];
+        boolean[] hits = detectionHits[classIndex];
+
+        // Sortowanie malejąco po wyniku przez klucze long (bity nieujemnego floata | indeks)
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = ((long) Float.floatToIntBits(Math.max(0f, scores[i])) << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        double[] precision = new double[n];
+        double[] recall = new double[n];
+        int tp = 0;
+        for (int k = 0; k < n; k++) {
+            int i = (int) keys[n - 1 - k];
+            if (hits[i]) {
+                tp++;
+            }
+            precision[k] = (double) tp / (k + 1);
+            recall[k] = (double) tp / truth;
+        }
+
+        // Obwiednia precyzji od końca i pole pod krzywą precyzja-czułość
+        double ap = 0;
+        double maxPrecision = 0;
+        for (int k = n - 1; k >= 0; k--) {
+            maxPrecision = Math.max(maxPrecision, precision[k]);
+            double previousRecall = k > 0 ? recall[k - 1] : 0;
+            ap += (recall[k] - previousRecall) * maxPrecision;
+        }
+        return ap;
+    }
+
+    /**
+     * Wypisuje podsumowanie oceny.
+     */
+    void print(PrintStream out, long wallNanos) {
+        out.printf(Locale.ROOT, "Obrazy: %d, błędy: %d, czas: %.1f s, %.1f obrazów/s%n",
+                images, failures, wallNanos / 1e9, images * 1e9 / Math.max(1, wallNanos));
+        if (images > 0) {
+            long[] sorted = Arrays.copyOf(latencies, images);
+            Arrays.sort(sorted);
+            out.printf(Locale.ROOT, "Czas na obraz: p50 %.2f ms, p95 %.2f ms, p99 %.2f ms%n",
+                    percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.95) / 1e6, percentile(sorted, 0.99) / 1e6);
+        }
+
+        if (classified > 0) {
+            out.printf(Locale.ROOT, "Klasyfikacja: top-1 %.2f%%, top-k %.2f%% (%d obrazów)%n",
+                    100.0 * top1Correct / classified, 100.0 * topKCorrect / classified, classified);
+            for (int c = 0; c < classNames.length; c++) {
+                if (classTotal[c] > 0) {
+                    out.printf(Locale.ROOT, "  %-20s %6.2f%% (%d)%n", classNames[c],
+                            100.0 * classCorrect[c] / classTotal[c], classTotal[c]);
+                }
+            }
+        }
+
+        double sum = 0;
+        int evaluated = 0;
+        for (int c = 0; c < classNames.length; c++) {
+            double ap = averagePrecision(c);
+            if (Double.isNaN(ap)) {
+                continue;
+            }
+            if (evaluated == 0) {
+                out.printf(Locale.ROOT, "Detekcja (IoU %.2f):%n", iouThreshold);
+            }
+            out.printf(Locale.ROOT, "  %-20s AP %6.2f%% (oczekiwanych %d, wykryć %d)%n",
+                    classNames[c], 100 * ap, groundTruthCount[c], detectionCount[c]);
+            sum += ap;
+            evaluated++;
+        }
+        if (evaluated > 0) {
+            out.printf(Locale.ROOT, "mAP: %.2f%% (%d klas)%n", 100 * sum / evaluated, evaluated);
+        }
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.roadsigndetector.tools;
+
+import com.example.roadsigndetector.ml.DetectionOutputDecoder;
+import com.example.roadsigndetector.ml.InferenceBackend;
+import com.example.roadsigndetector.ml.OutputTensorBuffer;
+import com.example.roadsigndetector.ml.PixelInputBuffer;
+import com.example.roadsigndetector.ml.PreprocessTransform;
+import com.example.roadsigndetector.ml.ScoreUtils;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Pracownik oceny: własny model (interpreter z jednym wątkiem TFLite albo zaślepka) i własne bufory,
+ * pobiera kolejne obrazy ze wspólnej listy aż do jej wyczerpania.
+ */
+final class EvaluationWorker implements Runnable {
+
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    private final BatchEvaluator.Settings settings;
+    private final List<ImageManifest.Entry> entries;
+    private final AtomicInteger nextIndex;
+    private final AtomicInteger completed;
+    private final ResultWriter writer;
+    private final EvaluationStats stats;
+
+    private final InferenceBackend backend;
+    private final PixelInputBuffer input;
+    private final Object[] inputs = new Object[1];
+    private final Map<Integer, Object> outputs = new HashMap<>(); // Tylko klasyfikacja
+    private final DetectionOutputDecoder decoder; // Tylko detekcja
+    private final OutputTensorBuffer output;      // Tylko klasyfikacja
+    private final PreprocessTransform transform;
+
+    // Skalowanie przez Java2D do stałego obrazu; piksele ARGB czytane bezpośrednio z rastra
+    private final BufferedImage scaled;
+    private final Graphics2D graphics;
+    private final int[] pixels;
+
+    // Wyniki klasyfikacji i ramki oczekiwane (rosną w razie potrzeby)
+    private final int[] topIndices;
+    private final float[] topScores;
+    private float[] truthBoxes = new float[16];
+    private int[] truthClasses = new int[4];
+
+    EvaluationWorker(BatchEvaluator.Settings settings, List<ImageManifest.Entry> entries,
+                     AtomicInteger nextIndex, AtomicInteger completed, ResultWriter writer) {
+        this.settings = settings;
+        this.entries = entries;
+        this.nextIndex = nextIndex;
+        this.completed = completed;
+        this.writer = writer;
+        this.stats = new EvaluationStats(settings.classNames, settings.iouThreshold);
+
+        backend = settings.createBackend(1);
+        input = new PixelInputBuffer(backend.getInputSpec(0));
+        if (settings.detection) {
+            decoder = new DetectionOutputDecoder(backend, settings.labelCount,
+                    Math.min(settings.labelCount, settings.classNames.length), input.getWidth(), input.getHeight(),
+                    settings.scoreThreshold);
+            output = null;
+        } else {
+            decoder = null;
+            output = new OutputTensorBuffer(backend.getOutputSpec(0));
+        }
+        transform = new PreprocessTransform(settings.fitMode);
+
+        scaled = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setBackground(Color.BLACK);
+        pixels = ((DataBufferInt) scaled.getRaster().getDataBuffer()).getData();
+
+        topIndices = new int[settings.topK];
+        topScores = new float[settings.topK];
+    }
+
+    EvaluationStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int index;
+            while ((index = nextIndex.getAndIncrement()) < entries.size()) {
+                ImageManifest.Entry entry = entries.get(index);
+                try {
+                    process(entry);
+                } catch (Exception e) {
+                    stats.addFailure();
+                    writer.writeFailure(entry.file.getPath(), e.getMessage());
+                }
+                int done = completed.incrementAndGet();
+                if (done % PROGRESS_INTERVAL == 0) {
+                    System.err.println("Przetworzono " + done + " / " + entries.size());
+                }
+            }
+        } catch (IOException e) {
+            // Błąd zapisu wyników - dalsza praca nie ma sensu
+            throw new IllegalStateException("Błąd zapisu wyników", e);
+        } finally {
+            graphics.dispose();
+            backend.close();
+        }
+    }
+
+    private void process(ImageManifest.Entry entry) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = ImageIO.read(entry.file);
+        if (image == null) {
+            throw new IOException("Nieobsługiwany format obrazu");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if (settings.detection) {
+            transform.update(width, height, input.getWidth(), input.getHeight());
+        } else if (entry.hasBoxes()) {
+            // Klasyfikacja wycinka z pierwszą ramką z manifestu (jak w kaskadzie)
+            int left = Math.round(entry.boxes[1] * width);
+            int top = Math.round(entry.boxes[0] * height);
+            int right = Math.round(entry.boxes[3] * width);
+            int bottom = Math.round(entry.boxes[2] * height);
+            transform.update(width, height, left, top, right - left, bottom - top,
+                    input.getWidth(), input.getHeight());
+        } else {
+            transform.update(width, height, input.getWidth(), input.getHeight());
+        }
+        draw(graphics, scaled, image, transform);
+        ByteBuffer inputBuffer = input.load(pixels);
+
+        inputs[0] = inputBuffer;
+        if (settings.detection) {
+            backend.run(inputs, decoder.getOutputMap());
+            int count = decoder.decode();
+            float[] boxes = decoder.getBoxes();
+            transform.mapToSource(boxes, 0, count, boxes, 0, true);
+            long latency = System.nanoTime() - start;
+            stats.addImage(latency);
+            writer.writeDetections(entry.file.getPath(), width, height, latency,
+                    boxes, decoder.getScores(), decoder.getClasses(), count);
+            addDetectionTruth(entry, boxes, count);
+        } else {
+            outputs.put(0, output.buffer());
+            backend.run(inputs, outputs);
+            float[] scores = output.read();
+            int classCount = Math.min(settings.classNames.length, output.size());
+            int k = Math.min(settings.topK, classCount);
+            ScoreUtils.topK(scores, 0, classCount, k, topIndices, topScores, 0);
+            long latency = System.nanoTime() - start;
+            stats.addImage(latency);
+            String truth = entry.getLabel();
+            writer.writeClassification(entry.file.getPath(), truth, latency, topIndices, topScores, k);
+            int truthIndex = truth != null ? settings.classIndex(truth) : -1;
+            if (truthIndex >= 0) {
+                stats.addClassification(truthIndex, topIndices, k);
+            }
+        }
+    }
+
+    /**
+     * Rysuje wybrany fragment obrazu na wejściu modelu (target, przez graphics) zgodnie z przekształceniem.
+     * Używane też przez ReplayDriver dla klatek RGB z nagrania.
+     */
+    static void draw(Graphics2D graphics, BufferedImage target, BufferedImage image, PreprocessTransform transform) {
+        if (transform.hasPadding()) {
+            graphics.clearRect(0, 0, target.getWidth(), target.getHeight());
+        }
+        int sx1 = Math.round(transform.getCropLeft());
+        int sy1 = Math.round(transform.getCropTop());
+        int sx2 = Math.round(transform.getCropLeft() + transform.getCropWidth());
+        int sy2 = Math.round(transform.getCropTop() + transform.getCropHeight());
+        int dx1 = Math.round(transform.getContentLeft());
+        int dy1 = Math.round(transform.getContentTop());
+        int dx2 = Math.round(transform.getContentLeft() + transform.getContentWidth());
+        int dy2 = Math.round(transform.getContentTop() + transform.getContentHeight());
+        graphics.drawImage(image, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+    }
+
+    /**
+     * Porównanie z ramkami oczekiwanymi - tylko gdy manifest je podaje
+     * (obraz bez żadnych etykiet oznacza brak znaków).
+     */
+    private void addDetectionTruth(ImageManifest.Entry entry, float[] boxes, int count) {
+        if (!entry.labels.isEmpty() && !entry.hasBoxes()) {
+            return;
+        }
+        int n = entry.labels.size();
+        if (truthClasses.length < n) {
+            truthClasses = new int[n];
+            truthBoxes = new float[n * 4];
+        }
+        int truthCount = 0;
+        for (int i = 0; i < n; i++) {
+            int classIndex = settings.classIndex(entry.labels.get(i));
+            if (classIndex < 0) {
+                continue;
+            }
+            System.arraycopy(entry.boxes, i * 4, truthBoxes, truthCount * 4, 4);
+            truthClasses[truthCount++] = classIndex;
+        }
+        stats.addDetections(boxes, decoder.getScores(), decoder.getClasses(), count,
+                truthBoxes, truthClasses, truthCount);
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.roadsigndetector.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lista obrazów do oceny razem z oczekiwanymi wynikami.
+ * Źródłem może być katalog (etykieta klasyfikacji = nazwa katalogu nadrzędnego)
+ * albo manifest CSV z wierszami: ścieżka,etykieta[,ymin,xmin,ymax,xmax]
+ * (pola z przecinkiem w cudzysłowie, "" oznacza znak cudzysłowu).
+ * Kilka wierszy z tą samą ścieżką opisuje kilka znaków na jednym obrazie;
+ * współrzędne ramek w ułamkach obrazu, ścieżki względne liczone od katalogu manifestu.
+ */
+final class ImageManifest {
+
+    private static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".bmp"};
+
+    private ImageManifest() {
+    }
+
+    /**
+     * Pojedynczy obraz i jego oczekiwane wyniki (może ich nie być).
+     */
+    static final class Entry {
+        final File file;
+        final List<String> labels = new ArrayList<>();
+        float[] boxes = new float[0]; // [ymin, xmin, ymax, xmax] dla kolejnych etykiet; puste - brak ramek
+
+        Entry(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Etykieta klasyfikacji (pierwsza z listy) albo null.
+         */
+        String getLabel() {
+            return labels.isEmpty() ? null : labels.get(0);
+        }
+
+        boolean hasBoxes() {
+            return boxes.length == labels.size() * 4 && !labels.isEmpty();
+        }
+
+        void add(String label, float[] box) {
+            if (box != null) {
+                int n = labels.size();
+                boxes = Arrays.copyOf(boxes, (n + 1) * 4);
+                System.arraycopy(box, 0, boxes, n * 4, 4);
+            }
+            labels.add(label);
+        }
+    }
+
+    /**
+     * Wczytuje listę obrazów z katalogu (rekurencyjnie) albo z pliku manifestu.
+     */
+    static List<Entry> load(File source) throws IOException {
+        if (source.isDirectory()) {
+            List<Entry> entries = new ArrayList<>();
+            walk(source, entries);
+            return entries;
+        }
+        return readManifest(source);
+    }
+
+    private static void walk(File directory, List<Entry> out) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Stała kolejność niezależna od systemu plików
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                walk(file, out);
+            } else if (isImage(file)) {
+                Entry entry = new Entry(file);
+                entry.add(file.getParentFile().getName(), null);
+                out.add(entry);
+            }
+        }
+    }
+
+    private static List<Entry> readManifest(File manifest) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        File baseDir = manifest.getAbsoluteFile().getParentFile();
+        try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = splitCsv(line, lineNumber);
+                String path = parts[0];
+                if (path.isEmpty()) {
+                    throw new IOException("Brak ścieżki w wierszu " + lineNumber + ": " + line);
+                }
+                Entry entry = entries.get(path);
+                if (entry == null) {
+                    File file = new File(path);
+                    entry = new Entry(file.isAbsolute() ? file : new File(baseDir, path));
+                    entries.put(path, entry);
+                }
+                if (parts.length == 1) {
+                    continue;
+                }
+                float[] box = null;
+                if (parts.length >= 6) {
+                    box = new float[4];
+                    try {
+                        for (int i = 0; i < 4; i++) {
+                            box[i] = Float.parseFloat(parts[2 + i]);
+                        }
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Błędna ramka w wierszu " + lineNumber + ": " + line, e);
+                    }
+                }
+                entry.add(parts[1], box);
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+    }
+
+    /**
+     * Dzieli wiersz CSV na pola. Pola bez cudzysłowu są przycinane, w cudzysłowie - zachowane dosłownie.
+     * Puste pola na końcu wiersza są pomijane (jak w String.split).
+     */
+    private static String[] splitCsv(String line, int lineNumber) throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        int n = line.length();
+        int i = 0;
+        while (true) {
+            while (i < n && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (i < n && line.charAt(i) == '"') {
+                field.setLength(0);
+                i++;
+                while (true) {
+                    if (i >= n) {
+                        throw new IOException("Niezamknięty cudzysłów w wierszu " + lineNumber + ": " + line);
+                    }
+                    char ch = line.charAt(i++);
+                    if (ch != '"') {
+                        field.append(ch);
+                    } else if (i < n && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                while (i < n && Character.isWhitespace(line.charAt(i))) {
+                    i++;
+                }
+                if (i < n && line.charAt(i) != ',') {
+                    throw new IOException("Znaki po zamykającym cudzysłowie w wierszu " + lineNumber + ": " + line);
+                }
+                fields.add(field.toString());
+            } else {
+                int end = line.indexOf(',', i);
+                if (end < 0) {
+                    end = n;
+                }
+                String value = line.substring(i, end).trim();
+                if (value.indexOf('"') >= 0) {
+                    throw new IOException("Cudzysłów wewnątrz pola w wierszu " + lineNumber + ": " + line);
+                }
+                fields.add(value);
+                i = end;
+            }
+            if (i >= n) {
+                break;
+            }
+            i++; // Przecinek
+        }
+        int count = fields.size();
+        while (count > 1 && fields.get(count - 1).isEmpty()) {
+            count--;
+        }
+        return fields.subList(0, count).toArray(new String[0]);
+    }
+
+    private static boolean isImage(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.roadsigndetector.tools;
+
+import com.example.roadsigndetector.ml.DetectionResult;
+import com.example.roadsigndetector.ml.Nv21Frame;
+import com.example.roadsigndetector.ml.PixelSource;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Jeden obraz przesłany do serwera: zdekodowane źródło (PixelSource albo klatka NV21)
+ * i wynik wypełniany przez ServerWorker. Wątek HTTP czeka na wynik w await().
+ */
+final class ImageRequest {
+
+    final String name;
+    final PixelSource image; // null dla klatki NV21
+    final Nv21Frame frame;   // null dla obrazu
+    final int width;         // Rozmiar obrazu (klatki po obrocie)
+    final int height;
+    final long receivedNanos;
+
+    // Wynik - zapisywany przez pracownika przed complete(), czytany po await()
+    final DetectionResult detections = new DetectionResult(32);
+    int[] topClasses = new int[0];
+    float[] topScores = new float[0];
+    String[] classLabels;
+    int topK;
+    int batchSize;
+    long queueNanos;
+    long latencyNanos;
+    String error;
+
+    // Ustawiane przez wątek HTTP po przekroczeniu czasu - pracownik pomija takie żądanie
+    private final AtomicBoolean abandoned = new AtomicBoolean();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    ImageRequest(String name, PixelSource image) {
+        this(name, image, null, image.getWidth(), image.getHeight());
+    }
+
+    ImageRequest(String name, Nv21Frame frame) {
+        this(name, null, frame, frame.getRotatedWidth(), frame.getRotatedHeight());
+    }
+
+    private ImageRequest(String name, PixelSource image, Nv21Frame frame, int width, int height) {
+        this.name = name;
+        this.image = image;
+        this.frame = frame;
+        this.width = width;
+        this.height = height;
+        this.receivedNanos = System.nanoTime();
+    }
+
+    void complete() {
+        latencyNanos = System.nanoTime() - receivedNanos;
+        done.countDown();
+    }
+
+    void fail(String message) {
+        error = message != null ? message : "Błąd przetwarzania";
+        complete();
+    }
+
+    /**
+     * Czeka na wynik; false po upływie czasu.
+     */
+    boolean await(long timeoutNanos) throws InterruptedException {
+        return done.await(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Oznacza żądanie jako porzucone (nikt już nie czeka na wynik).
+     */
+    void abandon() {
+        abandoned.set(true);
+    }
+
+    boolean isAbandoned() {
+        return abandoned.get();
+    }
+}
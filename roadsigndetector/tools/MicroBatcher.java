@@ -0,0 +1,75 @@
+package com.example.roadsigndetector.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dynamiczne łączenie żądań we wsady: pracownik czeka na pierwsze żądanie, a potem dobiera kolejne,
+ * aż zbierze maxBatch albo minie maxWait od pierwszego. Pod obciążeniem wsady są pełne od razu,
+ * przy małym ruchu odpowiedź opóźnia się najwyżej o maxWait.
+ * Kolejka jest ograniczona - gdy jest pełna, offer() odrzuca żądanie zamiast zwiększać opóźnienie.
+ */
+final class MicroBatcher<T> {
+
+    private final BlockingQueue<T> queue;
+    private final int maxBatch;
+    private final long maxWaitNanos;
+
+    MicroBatcher(int capacity, int maxBatch, long maxWaitNanos) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxWaitNanos = Math.max(0L, maxWaitNanos);
+    }
+
+    /**
+     * Dodaje żądanie do kolejki; false, gdy kolejka jest pełna.
+     */
+    boolean offer(T item) {
+        return queue.offer(item);
+    }
+
+    int queued() {
+        return queue.size();
+    }
+
+    int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * Blokuje do nadejścia pierwszego żądania i zbiera wsad do batch (czyszczonej na początku).
+     * Zwraca liczbę żądań we wsadzie.
+     */
+    int nextBatch(List<T> batch) throws InterruptedException {
+        batch.clear();
+        batch.add(queue.take());
+        // Żądania, które już czekają, bez blokowania
+        queue.drainTo(batch, maxBatch - batch.size());
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (batch.size() < maxBatch) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) {
+                break;
+            }
+            T item = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (item == null) {
+                break;
+            }
+            batch.add(item);
+            queue.drainTo(batch, maxBatch - batch.size());
+        }
+        return batch.size();
+    }
+
+    /**
+     * Zabiera wszystkie oczekujące żądania (przy zamykaniu serwera).
+     */
+    List<T> drain() {
+        List<T> items = new ArrayList<>();
+        queue.drainTo(items);
+        return items;
+    }
+}
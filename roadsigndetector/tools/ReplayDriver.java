@@ -0,0 +1,476 @@
+package com.example.roadsigndetector.tools;
+
+import com.example.roadsigndetector.ml.ArgbImage;
+import com.example.roadsigndetector.ml.ClassificationEngine;
+import com.example.roadsigndetector.ml.ClassificationEngine.BatchResult;
+import com.example.roadsigndetector.ml.DetectionOutputDecoder;
+import com.example.roadsigndetector.ml.DetectionResult;
+import com.example.roadsigndetector.ml.FrameRecorder;
+import com.example.roadsigndetector.ml.InferenceBackend;
+import com.example.roadsigndetector.ml.InferenceMetrics;
+import com.example.roadsigndetector.ml.LatencyHistogram;
+import com.example.roadsigndetector.ml.Nv21Frame;
+import com.example.roadsigndetector.ml.ObjectTracker;
+import com.example.roadsigndetector.ml.PixelInputBuffer;
+import com.example.roadsigndetector.ml.PreprocessTransform;
+import com.example.roadsigndetector.ml.RecordedSession;
+import com.example.roadsigndetector.ml.RefinementCrops;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Odtwarza nagranie sesji (FrameRecorder) przez kaskadę na zwykłej JVM: powtarzalny pomiar czasu
+ * na identycznym wejściu i porównanie wyników z zapisanymi na urządzeniu.
+ * Urządzenie zapisuje po pełnej detekcji surowy wynik kaskady (przed trackerem) i jej czas, więc
+ * odtworzenie też jest kaskadą: detektor, a z --classifier także wsadowa klasyfikacja wycinków
+ * ograniczeń prędkości (jak RoadSignCascade). Bez klasyfikatora porównywany jest sam detektor.
+ * Na urządzeniu wycinki znaków z zatwierdzonym odczytem są pomijane (tracker), więc czas kaskady
+ * odtworzenia jest górnym oszacowaniem czasu z urządzenia.
+ * W trybie realtime klatki są podawane w odstępach z nagrania, a klatka, której detektor nie zdążył
+ * pobrać przed nadejściem następnej, jest pomijana jak w FrameProcessor. W trybie max wszystkie
+ * klatki są przetwarzane najszybciej, jak się da.
+ *
+ * Przykład:
+ * java -cp ... com.example.roadsigndetector.tools.ReplayDriver --model detect.tflite
+ * --classifier model.tflite
+ * --input session-1700000000000.rec --speed realtime --roi 0,0,1,0.8 --output replay.jsonl
+ */
+public final class ReplayDriver {
+
+    private static final int LATENCY_WINDOW = 1 << 16;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final BatchEvaluator.Settings settings;
+    private final boolean realtime;
+
+    private final InferenceBackend backend;
+    private final PixelInputBuffer input;
+    private final DetectionOutputDecoder decoder;
+    private final PreprocessTransform transform;
+    private final Object[] inputs = new Object[1];
+
+    // Doprecyzowanie ograniczeń prędkości (null bez --classifier): wycinki bieżącej klatki [l, t, r, b]
+    private final InferenceBackend classifierBackend;
+    private final ClassificationEngine classifier;
+    private final boolean[] needsRefinement;
+    private final InferenceMetrics classifierMetrics = new InferenceMetrics();
+    private final PreprocessTransform cropTransform = new PreprocessTransform();
+    private int[] cropBounds = new int[0];
+    private int[] cropDetections = new int[0];
+    private final BatchResult batchResult = new BatchResult();
+    private final CropWriter cropWriter = new CropWriter();
+    private ArgbImage recordedImage; // Klatka RGB jako źródło wycinków
+
+    // Klatki RGB: obraz z nagrania i jego przeskalowanie do wejścia modelu przez Java2D
+    private BufferedImage recorded;
+    private int[] recordedPixels;
+    private final BufferedImage scaled;
+    private final Graphics2D graphics;
+    private final int[] scaledPixels;
+
+    private final Nv21Frame frame = new Nv21Frame();
+    private int frameWidth;  // Rozmiar bieżącej klatki po obrocie
+    private int frameHeight;
+    private final DetectionResult replayed = new DetectionResult(32);
+    private final DetectionResult expected = new DetectionResult(32);
+    private boolean[] used = new boolean[0]; // Dopasowane wykrycia odtworzenia w compare()
+
+    // Podsumowanie
+    private final LatencyHistogram replayLatency = new LatencyHistogram(LATENCY_WINDOW);
+    private final LatencyHistogram recordedLatency = new LatencyHistogram(LATENCY_WINDOW);
+    private int frames;
+    private int dropped;
+    private int compared;
+    private int expectedTotal;
+    private int matchedTotal;
+    private int replayedTotal;
+
+    private ReplayDriver(BatchEvaluator.Settings settings, BatchEvaluator.Settings classifierSettings,
+                         boolean realtime, float[] roi) {
+        this.settings = settings;
+        this.realtime = realtime;
+        backend = settings.createBackend(settings.threads);
+        input = new PixelInputBuffer(backend.getInputSpec(0));
+        decoder = new DetectionOutputDecoder(backend, settings.labelCount,
+                Math.min(settings.labelCount, settings.classNames.length), input.getWidth(), input.getHeight(),
+                settings.scoreThreshold);
+        needsRefinement = new boolean[settings.classNames.length];
+        if (classifierSettings != null) {
+            InferenceBackend created = null;
+            try {
+                created = classifierSettings.createBackend(settings.threads);
+                classifier = new ClassificationEngine(created, classifierSettings.classNames);
+            } catch (RuntimeException e) {
+                if (created != null) {
+                    created.close();
+                }
+                backend.close();
+                throw e;
+            }
+            classifierBackend = created;
+            for (int i = 0; i < needsRefinement.length; i++) {
+                needsRefinement[i] = RefinementCrops.needsRefinement(settings.classNames[i]);
+            }
+        } else {
+            classifierBackend = null;
+            classifier = null;
+        }
+        transform = new PreprocessTransform(settings.fitMode);
+        if (roi != null) {
+            transform.setRegionOfInterest(roi[0], roi[1], roi[2], roi[3]);
+        }
+        scaled = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setBackground(Color.BLACK);
+        scaledPixels = ((DataBufferInt) scaled.getRaster().getDataBuffer()).getData();
+    }
+
+    public static void main(String[] args) {
+        BatchEvaluator.Settings settings = new BatchEvaluator.Settings();
+        // Odtwarzanie jest sekwencyjne jak potok kamery - wątki dostaje interpreter, jak na urządzeniu
+        settings.threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        boolean realtime = false;
+        float[] roi = null;
+        File classifierFile = null;
+        File classifierLabels = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Brak wartości dla " + name);
+                }
+                String value = args[++i];
+                try {
+                    switch (name) {
+                        case "--speed":
+                            if (!value.equals("realtime") && !value.equals("max")) {
+                                throw new IllegalArgumentException("Nieznana prędkość: " + value);
+                            }
+                            realtime = value.equals("realtime");
+                            break;
+                        case "--model":
+                            settings.modelFile = new File(value);
+                            break;
+                        case "--backend":
+                            settings.stubBackend = BatchEvaluator.parseBackend(value);
+                            break;
+                        case "--labels":
+                            settings.labelFile = new File(value);
+                            break;
+                        case "--model-labels":
+                            settings.modelLabelFile = new File(value);
+                            break;
+                        case "--classifier":
+                            classifierFile = new File(value);
+                            break;
+                        case "--classifier-labels":
+                            classifierLabels = new File(value);
+                            break;
+                        case "--input":
+                            settings.input = new File(value);
+                            break;
+                        case "--output":
+                            settings.output = new File(value);
+                            break;
+                        case "--threads":
+                            settings.threads = Math.max(1, Integer.parseInt(value));
+                            break;
+                        case "--fit":
+                            settings.fitMode = PreprocessTransform.Mode.valueOf(value.toUpperCase(Locale.ROOT));
+                            break;
+                        case "--roi":
+                            roi = parseRoi(value);
+                            break;
+                        case "--threshold":
+                            settings.scoreThreshold = Float.parseFloat(value);
+                            break;
+                        case "--iou":
+                            settings.iouThreshold = Float.parseFloat(value);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Nieznana opcja: " + name);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Błędna wartość dla " + name + ": " + value);
+                }
+            }
+            if ((settings.modelFile == null && !settings.stubBackend) || settings.input == null) {
+                throw new IllegalArgumentException("Wymagane opcje: --model i --input");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        // Zaślepka zastępuje oba modele, więc kaskada działa w całości bez plików (jak DetectionServer)
+        BatchEvaluator.Settings classifierSettings = null;
+        if (classifierFile != null || settings.stubBackend) {
+            classifierSettings = new BatchEvaluator.Settings();
+            classifierSettings.detection = false;
+            classifierSettings.stubBackend = settings.stubBackend;
+            classifierSettings.modelFile = classifierFile;
+            classifierSettings.labelFile = classifierLabels;
+        }
+
+        try {
+            if (!settings.stubBackend) {
+                settings.model = BatchEvaluator.mapModel(settings.modelFile);
+            }
+            settings.classNames = BatchEvaluator.loadClassNames(settings);
+            settings.labelCount = BatchEvaluator.loadLabelCount(settings);
+            if (classifierSettings != null) {
+                if (!classifierSettings.stubBackend) {
+                    classifierSettings.model = BatchEvaluator.mapModel(classifierSettings.modelFile);
+                }
+                classifierSettings.classNames = BatchEvaluator.loadClassNames(classifierSettings);
+            }
+            new ReplayDriver(settings, classifierSettings, realtime, roi).run();
+            System.exit(0);
+        } catch (IOException e) {
+            System.err.println("Błąd: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.err.println("Przerwano odtwarzanie");
+            System.exit(1);
+        }
+    }
+
+    private static float[] parseRoi(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Obszar --roi w postaci lewo,góra,prawo,dół: " + value);
+        }
+        float[] roi = new float[4];
+        for (int i = 0; i < 4; i++) {
+            roi[i] = Float.parseFloat(parts[i].trim());
+        }
+        return roi;
+    }
+
+    private static void printUsage() {
+        System.err.println("Użycie: ReplayDriver --model <plik.tflite> --input <nagranie.rec>\n"
+                + "  [--speed realtime|max] [--labels <plik>] [--model-labels <plik>]\n"
+                + "  [--output <wyniki.csv|wyniki.jsonl>]\n"
+                + "  [--classifier <plik.tflite>] [--classifier-labels <plik>]\n"
+                + "  [--threads N] [--fit stretch|center_crop|letterbox] [--roi l,t,r,b] [--threshold 0.5]\n"
+                + "  [--iou 0.5] [--backend tflite|stub]");
+    }
+
+    private void run() throws IOException, InterruptedException {
+        long wallStart = 0L;
+        long recordStart = 0L;
+        long previousTimestamp = 0L;
+        long processedTimestamp = Long.MIN_VALUE; // Znacznik ostatniej przetworzonej klatki
+        long start = System.nanoTime();
+        try (RecordedSession session = new RecordedSession(settings.input);
+             ResultWriter writer = new ResultWriter(settings.output, ResultWriter.formatFor(settings.output),
+                     settings.classNames, true)) {
+            while (session.next()) {
+                long timestamp = session.getTimestampNanos();
+                if (session.isDetections()) {
+                    if (timestamp == processedTimestamp && session.isDetectorResult()) {
+                        recordedLatency.record(session.getLatencyNanos());
+                        session.readDetections(expected);
+                        compare();
+                    }
+                    continue;
+                }
+                if (!session.isFrame()) {
+                    continue;
+                }
+                frames++;
+                if (realtime) {
+                    if (frames == 1) {
+                        wallStart = System.nanoTime();
+                        recordStart = timestamp;
+                    }
+                    long due = wallStart + (timestamp - recordStart);
+                    long now = System.nanoTime();
+                    if (now < due) {
+                        Thread.sleep((due - now) / 1_000_000L, (int) ((due - now) % 1_000_000L));
+                    } else if (frames > 1 && now - due >= timestamp - previousTimestamp) {
+                        // Następna klatka już nadeszła - na urządzeniu ta zostałaby zastąpiona
+                        dropped++;
+                        previousTimestamp = timestamp;
+                        continue;
+                    }
+                    previousTimestamp = timestamp;
+                }
+
+                long frameStart = System.nanoTime();
+                int count = detect(session);
+                long latency = System.nanoTime() - frameStart;
+                replayLatency.record(latency);
+                processedTimestamp = timestamp;
+                writer.writeDetections("frame-" + timestamp, frameWidth, frameHeight, latency,
+                        decoder.getBoxes(), decoder.getScores(), decoder.getClasses(), count);
+            }
+        } finally {
+            graphics.dispose();
+            backend.close();
+            if (classifierBackend != null) {
+                classifierBackend.close();
+            }
+        }
+        print(System.err, System.nanoTime() - start);
+    }
+
+    /**
+     * Kaskada na bieżącej klatce nagrania; zwraca liczbę wykryć (ramki w buforach dekodera i w replayed,
+     * doprecyzowania ograniczeń prędkości w replayed).
+     */
+    private int detect(RecordedSession session) {
+        ByteBuffer inputBuffer;
+        if (session.getFrameFormat() == FrameRecorder.Format.NV21) {
+            session.readFrame(frame);
+            frameWidth = frame.getRotatedWidth();
+            frameHeight = frame.getRotatedHeight();
+            transform.update(frameWidth, frameHeight, input.getWidth(), input.getHeight());
+            inputBuffer = input.load(frame, transform);
+        } else {
+            frameWidth = session.getFrameWidth();
+            frameHeight = session.getFrameHeight();
+            if (recorded == null || recorded.getWidth() != frameWidth || recorded.getHeight() != frameHeight) {
+                recorded = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_INT_ARGB);
+                recordedPixels = ((DataBufferInt) recorded.getRaster().getDataBuffer()).getData();
+                recordedImage = new ArgbImage(recordedPixels, frameWidth, frameHeight);
+            }
+            session.readPixels(recordedPixels);
+            transform.update(frameWidth, frameHeight, input.getWidth(), input.getHeight());
+            EvaluationWorker.draw(graphics, scaled, recorded, transform);
+            inputBuffer = input.load(scaledPixels);
+        }
+
+        inputs[0] = inputBuffer;
+        backend.run(inputs, decoder.getOutputMap());
+        int count = decoder.decode();
+        float[] boxes = decoder.getBoxes();
+        float[] scores = decoder.getScores();
+        int[] classes = decoder.getClasses();
+        transform.mapToSource(boxes, 0, count, boxes, 0, true);
+        replayed.clear();
+        for (int i = 0; i < count; i++) {
+            replayed.add(classes[i], scores[i], boxes, i * 4);
+        }
+        if (classifier != null) {
+            refine(session.getFrameFormat() == FrameRecorder.Format.NV21);
+        }
+        return count;
+    }
+
+    /**
+     * Klasyfikuje wycinki ograniczeń prędkości z replayed jednym wsadem, jak RoadSignCascade.
+     */
+    private void refine(boolean nv21) {
+        int count = replayed.size();
+        if (cropDetections.length < count) {
+            cropDetections = new int[count];
+            cropBounds = new int[count * 4];
+        }
+        float[] boxes = replayed.getBoxes();
+        int cropCount = 0;
+        for (int i = 0; i < count; i++) {
+            int classId = replayed.getClassId(i);
+            if (classId >= 0 && classId < needsRefinement.length && needsRefinement[classId]
+                    && RefinementCrops.compute(boxes, i * 4, frameWidth, frameHeight, cropBounds, cropCount * 4)) {
+                cropDetections[cropCount++] = i;
+            }
+        }
+        if (cropCount == 0) {
+            return;
+        }
+        cropWriter.nv21 = nv21;
+        classifier.classifyBatch(cropCount, 1, cropWriter, batchResult, classifierMetrics);
+        replayed.setRefinedLabels(batchResult.labels);
+        for (int i = 0; i < cropCount; i++) {
+            float confidence = batchResult.getScore(i, 0);
+            if (confidence >= RefinementCrops.MIN_REFINED_CONFIDENCE) {
+                replayed.setRefinement(cropDetections[i], batchResult.getClassIndex(i, 0), confidence);
+            }
+        }
+    }
+
+    /**
+     * Zgodność z wynikiem z urządzenia: wykrycia zapisane, dla których odtworzenie dało
+     * wykrycie tej samej klasy z IoU co najmniej progu (dopasowanie zachłanne).
+     */
+    private void compare() {
+        compared++;
+        expectedTotal += expected.size();
+        replayedTotal += replayed.size();
+        if (used.length < replayed.size()) {
+            used = new boolean[replayed.size()];
+        }
+        Arrays.fill(used, false);
+        float[] expectedBoxes = expected.getBoxes();
+        float[] replayedBoxes = replayed.getBoxes();
+        for (int i = 0; i < expected.size(); i++) {
+            for (int j = 0; j < replayed.size(); j++) {
+                if (!used[j] && replayed.getClassId(j) == expected.getClassId(i)
+                        && ObjectTracker.iou(expectedBoxes, i * 4, replayedBoxes, j * 4) >= settings.iouThreshold) {
+                    used[j] = true;
+                    matchedTotal++;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void print(PrintStream out, long elapsedNanos) {
+        long[] replay = new long[QUANTILES.length];
+        long[] device = new long[QUANTILES.length];
+        replayLatency.percentiles(QUANTILES, replay);
+        recordedLatency.percentiles(QUANTILES, device);
+        out.println(String.format(Locale.ROOT, "Klatki: %d, przetworzone: %d, pominięte: %d, czas: %.1f s",
+                frames, replayLatency.count(), dropped, elapsedNanos / 1e9));
+        out.println(String.format(Locale.ROOT, "Kaskada (odtworzenie) p50/p90/p99: %.1f / %.1f / %.1f ms",
+                replay[0] / 1e6, replay[1] / 1e6, replay[2] / 1e6));
+        if (recordedLatency.count() > 0) {
+            out.println(String.format(Locale.ROOT, "Kaskada (urządzenie) p50/p90/p99: %.1f / %.1f / %.1f ms",
+                    device[0] / 1e6, device[1] / 1e6, device[2] / 1e6));
+            if (classifier == null) {
+                out.println("Uwaga: bez --classifier odtworzenie nie obejmuje klasyfikacji wycinków"
+                        + " ograniczeń prędkości, którą zawiera czas z urządzenia");
+            }
+        }
+        if (compared > 0) {
+            out.println(String.format(Locale.ROOT,
+                    "Zgodność z urządzeniem (%d klatek): %d / %d wykryć (%.1f%%), wykrycia odtworzenia: %d",
+                    compared, matchedTotal, expectedTotal,
+                    expectedTotal > 0 ? 100.0 * matchedTotal / expectedTotal : 100.0, replayedTotal));
+        }
+    }
+
+    /**
+     * Zapis wycinka cropBounds[item] bieżącej klatki (NV21 albo RGB z nagrania) do wsadu klasyfikatora.
+     */
+    private final class CropWriter implements ClassificationEngine.SlotWriter {
+        boolean nv21;
+
+        @Override
+        public void write(PixelInputBuffer buffer, int slot, int item) {
+            int o = item * 4;
+            cropTransform.update(frameWidth, frameHeight, cropBounds[o], cropBounds[o + 1],
+                    cropBounds[o + 2] - cropBounds[o], cropBounds[o + 3] - cropBounds[o + 1],
+                    buffer.getWidth(), buffer.getHeight());
+            if (nv21) {
+                buffer.write(slot, frame, cropTransform);
+            } else {
+                buffer.write(slot, recordedImage, cropTransform);
+            }
+        }
+    }
+}
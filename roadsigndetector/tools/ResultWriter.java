@@ -0,0 +1,182 @@
+package com.example.roadsigndetector.tools;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * Strumieniowy zapis wyników dla kolejnych obrazów w formacie CSV albo JSONL.
+ * Wywoływany przez wielu pracowników naraz, dlatego metody zapisu są synchronizowane.
+ */
+final class ResultWriter implements Closeable {
+
+    enum Format {
+        CSV,
+        JSONL
+    }
+
+    private final Writer writer;
+    private final boolean ownsStream; // System.out nie jest zamykany
+    private final Format format;
+    private final String[] classNames;
+    private final StringBuilder line = new StringBuilder(256);
+
+    ResultWriter(File file, Format format, String[] classNames, boolean detection) throws IOException {
+        this.writer = file != null
+                ? Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        this.ownsStream = file != null;
+        this.format = format;
+        this.classNames = classNames;
+        if (format == Format.CSV) {
+            writer.write(detection
+                    ? "image,width,height,latency_ms,label,score,ymin,xmin,ymax,xmax\n"
+                    : "image,truth,latency_ms,rank,label,score\n");
+        }
+    }
+
+    /**
+     * Format na podstawie rozszerzenia pliku (domyślnie JSONL).
+     */
+    static Format formatFor(File file) {
+        return file != null && file.getName().toLowerCase(Locale.ROOT).endsWith(".csv")
+                ? Format.CSV : Format.JSONL;
+    }
+
+    /**
+     * Wykrycia jednego obrazu; ramki w ułamkach obrazu [ymin, xmin, ymax, xmax].
+     */
+    synchronized void writeDetections(String image, int width, int height, long latencyNanos,
+                                      float[] boxes, float[] scores, int[] classes, int count) throws IOException {
+        line.setLength(0);
+        double latencyMs = latencyNanos / 1e6;
+        if (format == Format.CSV) {
+            if (count == 0) {
+                line.append(csv(image)).append(',').append(width).append(',').append(height).append(',')
+                        .append(format(latencyMs)).append(",,,,,,\n");
+            }
+            for (int i = 0; i < count; i++) {
+                line.append(csv(image)).append(',').append(width).append(',').append(height).append(',')
+                        .append(format(latencyMs)).append(',').append(csv(classNames[classes[i]])).append(',')
+                        .append(format(scores[i]));
+                for (int k = 0; k < 4; k++) {
+                    line.append(',').append(format(boxes[i * 4 + k]));
+                }
+                line.append('\n');
+            }
+        } else {
+            line.append("{\"image\":").append(json(image))
+                    .append(",\"width\":").append(width)
+                    .append(",\"height\":").append(height)
+                    .append(",\"latency_ms\":").append(format(latencyMs))
+                    .append(",\"detections\":[");
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append("{\"label\":").append(json(classNames[classes[i]]))
+                        .append(",\"score\":").append(format(scores[i]))
+                        .append(",\"box\":[");
+                for (int k = 0; k < 4; k++) {
+                    if (k > 0) {
+                        line.append(',');
+                    }
+                    line.append(format(boxes[i * 4 + k]));
+                }
+                line.append("]}");
+            }
+            line.append("]}\n");
+        }
+        writer.write(line.toString());
+    }
+
+    /**
+     * Wynik klasyfikacji jednego obrazu: k najlepszych klas malejąco.
+     */
+    synchronized void writeClassification(String image, String truth, long latencyNanos,
+                                          int[] indices, float[] scores, int k) throws IOException {
+        line.setLength(0);
+        double latencyMs = latencyNanos / 1e6;
+        if (format == Format.CSV) {
+            for (int i = 0; i < k; i++) {
+                line.append(csv(image)).append(',').append(csv(truth != null ? truth : "")).append(',')
+                        .append(format(latencyMs)).append(',').append(i + 1).append(',')
+                        .append(csv(classNames[indices[i]])).append(',').append(format(scores[i])).append('\n');
+            }
+        } else {
+            line.append("{\"image\":").append(json(image))
+                    .append(",\"truth\":").append(truth != null ? json(truth) : "null")
+                    .append(",\"latency_ms\":").append(format(latencyMs))
+                    .append(",\"predictions\":[");
+            for (int i = 0; i < k; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append("{\"label\":").append(json(classNames[indices[i]]))
+                        .append(",\"score\":").append(format(scores[i])).append('}');
+            }
+            line.append("]}\n");
+        }
+        writer.write(line.toString());
+    }
+
+    /**
+     * Obraz, którego nie udało się przetworzyć (w CSV pomijany - trafia tylko do podsumowania).
+     */
+    synchronized void writeFailure(String image, String message) throws IOException {
+        if (format == Format.JSONL) {
+            writer.write("{\"image\":" + json(image) + ",\"error\":" + json(String.valueOf(message)) + "}\n");
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.flush();
+        if (ownsStream) {
+            writer.close();
+        }
+    }
+
+    static String format(double value) {
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    static String json(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        return out.append('"').toString();
+    }
+}
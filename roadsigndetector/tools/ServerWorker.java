@@ -0,0 +1,268 @@
+package com.example.roadsigndetector.tools;
+
+import com.example.roadsigndetector.ml.ClassificationEngine;
+import com.example.roadsigndetector.ml.ClassificationEngine.BatchResult;
+import com.example.roadsigndetector.ml.DetectionEngine;
+import com.example.roadsigndetector.ml.DetectionResult;
+import com.example.roadsigndetector.ml.InferenceBackend;
+import com.example.roadsigndetector.ml.InferenceMetrics;
+import com.example.roadsigndetector.ml.PixelInputBuffer;
+import com.example.roadsigndetector.ml.PreprocessTransform;
+import com.example.roadsigndetector.ml.RefinementCrops;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pracownik serwera: własne modele (detektor i/lub klasyfikator na InferenceBackend) i bufory,
+ * pobiera kolejne wsady z MicroBatcher. Model detekcji z operacją postprocess przyjmuje jeden obraz,
+ * więc detekcja idzie obraz po obrazie, a wycinki ograniczeń prędkości z całego wsadu trafiają
+ * do klasyfikatora jednym wywołaniem (jak w RoadSignCascade, ale przez wiele obrazów).
+ * W trybie klasyfikacji cały wsad obrazów to jedno wywołanie klasyfikatora.
+ */
+final class ServerWorker implements Runnable {
+
+    private final MicroBatcher<ImageRequest> batcher;
+    private final DetectionServer.Stats stats;
+    private final int topK;
+
+    private final InferenceBackend detectorBackend;     // null w trybie klasyfikacji
+    private final DetectionEngine detector;
+    private final InferenceBackend classifierBackend;   // null bez klasyfikatora
+    private final ClassificationEngine classifier;
+    private final InferenceMetrics metrics = new InferenceMetrics();
+    private final PreprocessTransform transform;
+    private final PreprocessTransform cropTransform = new PreprocessTransform();
+    private final boolean[] needsRefinement;
+
+    // Wsad i wycinki wszystkich jego obrazów: żądanie, indeks wykrycia i granice [l, t, r, b]
+    private final List<ImageRequest> batch = new ArrayList<>();
+    private ImageRequest[] cropRequests = new ImageRequest[0];
+    private int[] cropDetections = new int[0];
+    private int[] cropBounds = new int[0];
+    private final BatchResult batchResult = new BatchResult();
+    private final CropWriter cropWriter = new CropWriter();
+
+    ServerWorker(DetectionServer.Options options, MicroBatcher<ImageRequest> batcher, DetectionServer.Stats stats) {
+        this.batcher = batcher;
+        this.stats = stats;
+        BatchEvaluator.Settings detection = options.detector;
+        topK = options.classifier != null ? options.classifier.topK : 1;
+        transform = new PreprocessTransform(detection != null ? detection.fitMode : PreprocessTransform.Mode.STRETCH);
+        InferenceBackend createdDetector = null;
+        InferenceBackend createdClassifier = null;
+        try {
+            if (detection != null) {
+                createdDetector = detection.createBackend(options.threads);
+                detector = new DetectionEngine(createdDetector, detection.classNames, detection.labelCount,
+                        detection.scoreThreshold);
+                detector.warmUp();
+                needsRefinement = new boolean[detection.classNames.length];
+                for (int i = 0; i < needsRefinement.length; i++) {
+                    needsRefinement[i] = RefinementCrops.needsRefinement(detection.classNames[i]);
+                }
+            } else {
+                detector = null;
+                needsRefinement = new boolean[0];
+            }
+            if (options.classifier != null) {
+                createdClassifier = options.classifier.createBackend(options.threads);
+                classifier = new ClassificationEngine(createdClassifier, options.classifier.classNames);
+                classifier.warmUp();
+            } else {
+                classifier = null;
+            }
+        } catch (RuntimeException e) {
+            if (createdDetector != null) {
+                createdDetector.close();
+            }
+            if (createdClassifier != null) {
+                createdClassifier.close();
+            }
+            throw e;
+        }
+        detectorBackend = createdDetector;
+        classifierBackend = createdClassifier;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batcher.nextBatch(batch);
+                int size = dropAbandoned();
+                if (size == 0) {
+                    continue;
+                }
+                stats.addBatch(size);
+                long start = System.nanoTime();
+                try {
+                    if (detector != null) {
+                        detectBatch();
+                    } else {
+                        classifyBatch();
+                    }
+                } catch (RuntimeException e) {
+                    // Błąd modelu - cały wsad kończy się błędem, pracownik działa dalej
+                    for (ImageRequest request : batch) {
+                        if (request.error == null) {
+                            request.error = describe(e);
+                        }
+                    }
+                    Arrays.fill(cropRequests, null);
+                }
+                for (ImageRequest request : batch) {
+                    request.batchSize = size;
+                    request.queueNanos = start - request.receivedNanos;
+                    request.complete();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Zamykanie serwera
+        } finally {
+            for (ImageRequest request : batch) {
+                request.fail("Serwer jest zamykany");
+            }
+            if (detectorBackend != null) {
+                detectorBackend.close();
+            }
+            if (classifierBackend != null) {
+                classifierBackend.close();
+            }
+        }
+    }
+
+    /**
+     * Detekcja obraz po obrazie, a następnie jedno wsadowe wywołanie klasyfikatora dla wycinków.
+     */
+    private void detectBatch() {
+        int cropCount = 0;
+        for (ImageRequest request : batch) {
+            DetectionResult result = request.detections;
+            try {
+                if (request.frame != null) {
+                    detector.detect(request.frame, transform, result, metrics);
+                } else {
+                    detector.detect(request.image, transform, result, metrics);
+                }
+            } catch (RuntimeException e) {
+                // Np. uszkodzona klatka - błąd tylko tego obrazu
+                request.error = describe(e);
+                continue;
+            }
+            if (classifier == null) {
+                continue;
+            }
+            ensureCropCapacity(cropCount + result.size());
+            float[] boxes = result.getBoxes();
+            for (int i = 0; i < result.size(); i++) {
+                int classId = result.getClassId(i);
+                if (classId >= 0 && classId < needsRefinement.length && needsRefinement[classId]
+                        && RefinementCrops.compute(boxes, i * 4, request.width, request.height,
+                        cropBounds, cropCount * 4)) {
+                    cropRequests[cropCount] = request;
+                    cropDetections[cropCount] = i;
+                    cropCount++;
+                }
+            }
+        }
+        if (cropCount == 0) {
+            return;
+        }
+
+        classifier.classifyBatch(cropCount, 1, cropWriter, batchResult, metrics);
+        for (int i = 0; i < cropCount; i++) {
+            DetectionResult result = cropRequests[i].detections;
+            result.setRefinedLabels(batchResult.labels);
+            float confidence = batchResult.getScore(i, 0);
+            if (confidence >= RefinementCrops.MIN_REFINED_CONFIDENCE) {
+                result.setRefinement(cropDetections[i], batchResult.getClassIndex(i, 0), confidence);
+            }
+            // Referencje nie są potrzebne do następnego wsadu
+            cropRequests[i] = null;
+        }
+    }
+
+    /**
+     * Klasyfikacja całych obrazów wsadu jednym wywołaniem (topK klas dla każdego).
+     */
+    private void classifyBatch() {
+        int count = batch.size();
+        ensureCropCapacity(count);
+        for (int i = 0; i < count; i++) {
+            ImageRequest request = batch.get(i);
+            cropRequests[i] = request;
+            cropBounds[i * 4] = 0;
+            cropBounds[i * 4 + 1] = 0;
+            cropBounds[i * 4 + 2] = request.width;
+            cropBounds[i * 4 + 3] = request.height;
+        }
+        classifier.classifyBatch(count, topK, cropWriter, batchResult, metrics);
+        int k = batchResult.topK;
+        for (int i = 0; i < count; i++) {
+            ImageRequest request = cropRequests[i];
+            request.topK = k;
+            request.classLabels = batchResult.labels;
+            request.topClasses = new int[k];
+            request.topScores = new float[k];
+            System.arraycopy(batchResult.classIndices, i * k, request.topClasses, 0, k);
+            System.arraycopy(batchResult.scores, i * k, request.topScores, 0, k);
+            cropRequests[i] = null;
+        }
+    }
+
+    /**
+     * Usuwa z wsadu żądania porzucone po przekroczeniu czasu; zwraca liczbę pozostałych.
+     */
+    private int dropAbandoned() {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            ImageRequest request = batch.get(i);
+            if (request.isAbandoned()) {
+                batch.remove(i);
+                request.fail("Przekroczono czas oczekiwania");
+            }
+        }
+        return batch.size();
+    }
+
+    private static String describe(RuntimeException e) {
+        return e.getMessage() != null ? e.getMessage() : e.toString();
+    }
+
+    private void ensureCropCapacity(int size) {
+        if (cropRequests.length >= size) {
+            return;
+        }
+        int capacity = Math.max(size, cropRequests.length * 2);
+        ImageRequest[] grown = new ImageRequest[capacity];
+        System.arraycopy(cropRequests, 0, grown, 0, cropRequests.length);
+        cropRequests = grown;
+        int[] detections = new int[capacity];
+        System.arraycopy(cropDetections, 0, detections, 0, cropDetections.length);
+        cropDetections = detections;
+        int[] bounds = new int[capacity * 4];
+        System.arraycopy(cropBounds, 0, bounds, 0, cropBounds.length);
+        cropBounds = bounds;
+    }
+
+    /**
+     * Zapis wycinka cropBounds[item] obrazu albo klatki cropRequests[item] do wsadu klasyfikatora.
+     */
+    private final class CropWriter implements ClassificationEngine.SlotWriter {
+        @Override
+        public void write(PixelInputBuffer input, int slot, int item) {
+            ImageRequest request = cropRequests[item];
+            int o = item * 4;
+            cropTransform.update(request.width, request.height, cropBounds[o], cropBounds[o + 1],
+                    cropBounds[o + 2] - cropBounds[o], cropBounds[o + 3] - cropBounds[o + 1],
+                    input.getWidth(), input.getHeight());
+            if (request.frame != null) {
+                input.write(slot, request.frame, cropTransform);
+            } else {
+                input.write(slot, request.image, cropTransform);
+            }
+        }
+    }
+}
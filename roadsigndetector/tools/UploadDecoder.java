@@ -0,0 +1,232 @@
+package com.example.roadsigndetector.tools;
+
+import com.example.roadsigndetector.ml.ArgbImage;
+import com.example.roadsigndetector.ml.Nv21Frame;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Dekodowanie obrazów przesłanych do serwera: JPEG/PNG (ImageIO) albo surowe klatki
+ * (application/octet-stream z parametrami format=rgb|nv21, width, height i rotation w zapytaniu),
+ * pojedynczo w treści żądania albo jako kolejne części multipart/form-data.
+ */
+final class UploadDecoder {
+
+    static final String MULTIPART_TYPE = "multipart/form-data";
+    private static final String RAW_TYPE = "application/octet-stream";
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private UploadDecoder() {
+    }
+
+    /**
+     * Obrazy z treści żądania; IOException, gdy któregoś nie da się odczytać (błąd klienta).
+     *
+     * @param maxBytes limit treści żądania - surowa klatka o większym rozmiarze jest odrzucana od razu
+     */
+    static List<ImageRequest> decode(byte[] body, String contentType, Map<String, String> query, int maxBytes)
+            throws IOException {
+        List<ImageRequest> images = new ArrayList<>();
+        String type = contentType != null ? contentType.toLowerCase(Locale.ROOT) : RAW_TYPE;
+        if (type.startsWith(MULTIPART_TYPE)) {
+            byte[] boundary = ("--" + parameter(contentType, "boundary")).getBytes(StandardCharsets.ISO_8859_1);
+            int partIndex = 0;
+            int position = indexOf(body, boundary, 0);
+            while (position >= 0) {
+                int headersStart = position + boundary.length;
+                if (headersStart + 2 > body.length || (body[headersStart] == '-' && body[headersStart + 1] == '-')) {
+                    break; // Ogranicznik końcowy
+                }
+                int headersEnd = indexOf(body, HEADER_END, headersStart);
+                if (headersEnd < 0) {
+                    throw new IOException("Niepełna część multipart");
+                }
+                int dataStart = headersEnd + HEADER_END.length;
+                int next = indexOf(body, boundary, dataStart);
+                if (next < 0) {
+                    throw new IOException("Brak ogranicznika końcowego multipart");
+                }
+                int dataEnd = next - 2; // CRLF przed ogranicznikiem należy do niego
+                String headers = new String(body, headersStart, headersEnd - headersStart,
+                        StandardCharsets.UTF_8);
+                String name = headerParameter(headers, "content-disposition", "filename");
+                if (name == null) {
+                    name = "part-" + partIndex;
+                }
+                images.add(decodeImage(name, body, dataStart, Math.max(0, dataEnd - dataStart),
+                        headerValue(headers, "content-type"), query, maxBytes));
+                partIndex++;
+                position = next;
+            }
+            if (images.isEmpty()) {
+                throw new IOException("Brak obrazów w żądaniu multipart");
+            }
+        } else {
+            String name = query.get("name");
+            images.add(decodeImage(name != null ? name : "image", body, 0, body.length, contentType, query,
+                    maxBytes));
+        }
+        return images;
+    }
+
+    private static ImageRequest decodeImage(String name, byte[] data, int offset, int length, String contentType,
+                                            Map<String, String> query, int maxBytes) throws IOException {
+        boolean raw = contentType == null || contentType.toLowerCase(Locale.ROOT).startsWith(RAW_TYPE);
+        String format = query.get("format");
+        if (!raw || format == null) {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(data, offset, length));
+            if (image == null) {
+                throw new IOException("Nieobsługiwany format obrazu: " + name);
+            }
+            return new ImageRequest(name, new BufferedImageSource(image));
+        }
+        int width = intParameter(query, "width");
+        int height = intParameter(query, "height");
+        // Rozmiary w long - np. 65536x65536 w int dałoby 0 i przepuściło pustą treść
+        long pixelCount = (long) width * height;
+        if (format.equals("rgb")) {
+            checkRawSize(pixelCount * 3, maxBytes, width, height, name);
+            if (length != pixelCount * 3) {
+                throw new IOException("Rozmiar danych RGB nie zgadza się z " + width + "x" + height + ": " + name);
+            }
+            int[] pixels = new int[(int) pixelCount];
+            for (int i = 0, src = offset; i < pixels.length; i++, src += 3) {
+                pixels[i] = 0xFF000000 | (data[src] & 0xFF) << 16 | (data[src + 1] & 0xFF) << 8
+                        | (data[src + 2] & 0xFF);
+            }
+            return new ImageRequest(name, new ArgbImage(pixels, width, height));
+        }
+        if (format.equals("nv21")) {
+            checkRawSize(pixelCount * 3 / 2, maxBytes, width, height, name);
+            if (length < pixelCount * 3 / 2) {
+                throw new IOException("Za mało danych NV21 dla " + width + "x" + height + ": " + name);
+            }
+            String rotationValue = query.get("rotation");
+            int rotation = rotationValue != null ? parseInt("rotation", rotationValue) : 0;
+            if (rotation % 90 != 0) {
+                throw new IOException("Obrót klatki musi być wielokrotnością 90: " + rotation);
+            }
+            byte[] nv21 = Arrays.copyOfRange(data, offset, offset + length);
+            return new ImageRequest(name, new Nv21Frame(nv21, width, height, ((rotation % 360) + 360) % 360));
+        }
+        throw new IOException("Nieznany format surowych danych: " + format);
+    }
+
+    private static void checkRawSize(long bytes, int maxBytes, int width, int height, String name)
+            throws IOException {
+        if (bytes > maxBytes) {
+            throw new IOException("Klatka " + width + "x" + height + " przekracza limit " + maxBytes + " B: " + name);
+        }
+    }
+
+    /**
+     * Parametry zapytania URL (bez powtórzeń - wygrywa ostatnia wartość).
+     */
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            String key = separator >= 0 ? pair.substring(0, separator) : pair;
+            String value = separator >= 0 ? pair.substring(separator + 1) : "";
+            try {
+                query.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                // Błędnie zakodowany parametr jest pomijany
+            }
+        }
+        return query;
+    }
+
+    private static int intParameter(Map<String, String> query, String name) throws IOException {
+        String value = query.get(name);
+        if (value == null) {
+            throw new IOException("Surowe dane wymagają parametru " + name);
+        }
+        int parsed = parseInt(name, value);
+        if (parsed <= 0) {
+            throw new IOException("Błędna wartość " + name + ": " + value);
+        }
+        return parsed;
+    }
+
+    private static int parseInt(String name, String value) throws IOException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Błędna wartość " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Parametr nagłówka w postaci "typ; klucz=wartość" (wartość może być w cudzysłowie).
+     */
+    private static String parameter(String header, String key) throws IOException {
+        for (String part : header.split(";")) {
+            String trimmed = part.trim();
+            if (trimmed.toLowerCase(Locale.ROOT).startsWith(key + "=")) {
+                String value = trimmed.substring(key.length() + 1);
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        throw new IOException("Brak parametru " + key + " w nagłówku: " + header);
+    }
+
+    private static String headerValue(String headers, String name) {
+        for (String line : headers.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static String headerParameter(String headers, String name, String key) {
+        String value = headerValue(headers, name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return parameter(value, key);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        byte first = pattern[0];
+        int last = data.length - pattern.length;
+        outer:
+        for (int i = Math.max(0, from); i <= last; i++) {
+            if (data[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -6,33 +6,82 @@ import androidx.core.content.ContextCompat;
 
 import android.Manifest;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
+import android.graphics.Color;
 import android.hardware.Camera;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Gravity;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.FrameLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.roadsigndetector.R;
+import com.example.roadsigndetector.camera.DeviceStateMonitor;
+import com.example.roadsigndetector.camera.FrameProcessor;
+import com.example.roadsigndetector.ml.AdaptiveGovernor;
+import com.example.roadsigndetector.ml.DetectionResult;
+import com.example.roadsigndetector.ml.FrameRecorder;
+import com.example.roadsigndetector.ml.InferenceMetrics;
+import com.example.roadsigndetector.ml.InferenceService;
+import com.example.roadsigndetector.ml.ModelRegistry;
+import com.example.roadsigndetector.ml.ObjectTracker;
+import com.example.roadsigndetector.ml.ResultCache;
+import com.example.roadsigndetector.ml.RoadSignClassifier;
 import com.example.roadsigndetector.ml.RoadSignDetector;
-import com.example.roadsigndetector.ml.RoadSignDetector.Detection;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.List;
+import java.util.Locale;
 
 @SuppressWarnings("deprecation")
-public class CameraActivity extends AppCompatActivity implements SurfaceHolder.Callback {
+public class CameraActivity extends AppCompatActivity implements SurfaceHolder.Callback,
+        Camera.PreviewCallback, FrameProcessor.BufferRecycler, FrameProcessor.Listener {
 
     private SurfaceView surfaceView;
     private Button buttonCapture;
     private Camera camera;
     private SurfaceHolder surfaceHolder;
 
-    private RoadSignDetector detector;
+    private TextView textViewDetections;
+    private DetectionOverlayView overlayView;
+    private TextView textViewMetrics;
+    private boolean showMetrics;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
 
+    // Detektory i klasyfikatory wspólne z galerią (MainActivity)
+    private InferenceService inferenceService;
+    private final ObjectTracker tracker = new ObjectTracker(DETECTION_INTERVAL);
+    private FrameProcessor frameProcessor;
+    private AdaptiveGovernor governor;
+    private boolean streaming;
+    private FrameRecorder recorder;
+    private final Object cameraLock = new Object();
+
+    private static final String TAG = "CameraActivity";
     private static final int CAMERA_PERMISSION_REQUEST_CODE = 1001;
+    private static final int CAMERA_ROTATION = 90; // Zgodne z setDisplayOrientation
+    private static final int PREVIEW_BUFFER_COUNT = 3;
+    private static final int DETECTION_INTERVAL = 3; // Pełna detekcja co 3. klatkę, pomiędzy - tracker
+    private static final int MAX_DETECTION_INTERVAL = 8; // Najrzadsza detekcja przy przegrzaniu
+    private static final long DETECTION_BUDGET_MS = 60; // Docelowy czas detekcji z klasyfikacją wycinków
+    private static final long METRICS_REFRESH_MS = 500;
+    // Obszar detekcji: bez dolnej części kadru (maska i deska rozdzielcza)
+    private static final float ROI_BOTTOM = 0.8f;
+    // Pamięć wyników detekcji dla nieruchomej sceny (postój); wynik odświeżany co najmniej co sekundę
+    private static final int RESULT_CACHE_SIZE = 4;
+    private static final int RESULT_CACHE_DISTANCE = 3;
+    private static final long RESULT_CACHE_TTL_MS = 1000;
+    // Nagrywanie sesji do odtworzenia poza urządzeniem: adb shell am start ... --es record nv21|rgb
+    public static final String EXTRA_RECORD = "record";
+    private static final int RECORDING_DOWNSCALE = 2; // Zmniejszenie klatek w trybie rgb
+    private static final long RECORDING_MAX_BYTES = 1024L * 1024 * 1024;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -41,9 +90,38 @@ public class CameraActivity extends AppCompatActivity implements SurfaceHolder.C
 
         surfaceView = findViewById(R.id.surfaceViewCamera);
         buttonCapture = findViewById(R.id.buttonCapture);
+        buttonCapture.setText("Uruchom detekcję");
+
+        // Ramki wykryć nad podglądem
+        overlayView = new DetectionOverlayView(this);
+        addContentView(overlayView, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
+        // Nakładka z wynikami detekcji
+        textViewDetections = new TextView(this);
+        textViewDetections.setTextColor(Color.WHITE);
+        textViewDetections.setBackgroundColor(0x80000000);
+        addContentView(textViewDetections, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.TOP));
 
-        // Inicjalizacja detektora
-        detector = new RoadSignDetector(this);
+        // Opcjonalna nakładka z pomiarami wydajności (przytrzymanie przycisku)
+        textViewMetrics = new TextView(this);
+        textViewMetrics.setTextColor(Color.GREEN);
+        textViewMetrics.setBackgroundColor(0x80000000);
+        textViewMetrics.setVisibility(View.GONE);
+        addContentView(textViewMetrics, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.BOTTOM));
+
+        // Detektor i klasyfikator ograniczeń prędkości z usługi wspólnej z galerią
+        inferenceService = InferenceService.acquire(this);
+        ResultCache<DetectionResult> resultCache = ResultCache.forDetections(RESULT_CACHE_SIZE,
+                RESULT_CACHE_DISTANCE, RESULT_CACHE_TTL_MS);
+        for (RoadSignDetector detector : inferenceService.getDetectors()) {
+            detector.setRegionOfInterest(0f, 0f, 1f, ROI_BOTTOM);
+            detector.setResultCache(resultCache);
+        }
+        governor = new AdaptiveGovernor(DETECTION_BUDGET_MS, DETECTION_INTERVAL, MAX_DETECTION_INTERVAL,
+                inferenceService.getDetectors().get(0).getNumThreads());
 
         surfaceHolder = surfaceView.getHolder();
         surfaceHolder.addCallback(this);
@@ -51,45 +129,184 @@ public class CameraActivity extends AppCompatActivity implements SurfaceHolder.C
         buttonCapture.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                captureAndDetect();
+                toggleStreaming();
+            }
+        });
+        buttonCapture.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                toggleMetricsOverlay();
+                return true;
             }
         });
     }
 
     /**
-     * Metoda do przechwytywania obrazu z kamery i detekcji znaków.
+     * Włącza lub wyłącza ciągłą detekcję znaków na klatkach podglądu.
      */
-    private void captureAndDetect() {
-        if (camera != null) {
-            camera.takePicture(null, null, new Camera.PictureCallback() {
-                @Override
-                public void onPictureTaken(byte[] data, Camera camera) {
-                    // Konwersja bajtów na Bitmap
-                    Bitmap bitmap = android.graphics.BitmapFactory.decodeByteArray(data, 0, data.length);
-
-                    // Detekcja obiektów
-                    List<Detection> detections = detector.detectObjects(bitmap);
-
-                    if (detections.isEmpty()) {
-                        Toast.makeText(CameraActivity.this, "Nie wykryto żadnych znaków.", Toast.LENGTH_SHORT).show();
-                    } else {
-                        StringBuilder result = new StringBuilder();
-                        for (Detection detection : detections) {
-                            result.append(detection.label)
-                                    .append(" (")
-                                    .append(String.format("%.2f", detection.confidence * 100))
-                                    .append("%)\n");
-                        }
-                        Toast.makeText(CameraActivity.this, "Wynik:\n" + result.toString(), Toast.LENGTH_LONG).show();
-                    }
+    private void toggleStreaming() {
+        streaming = !streaming;
+        buttonCapture.setText(streaming ? "Zatrzymaj detekcję" : "Uruchom detekcję");
+        if (streaming) {
+            startFrameProcessing();
+        } else {
+            stopFrameProcessing();
+            textViewDetections.setText("");
+            overlayView.clear();
+        }
+    }
+
+    /**
+     * Pokazuje lub ukrywa nakładkę z pomiarami wydajności.
+     */
+    private void toggleMetricsOverlay() {
+        showMetrics = !showMetrics;
+        textViewMetrics.setVisibility(showMetrics ? View.VISIBLE : View.GONE);
+        uiHandler.removeCallbacks(metricsUpdater);
+        if (showMetrics) {
+            uiHandler.post(metricsUpdater);
+        }
+    }
 
-                    // Wznawiamy podgląd z kamery
-                    camera.startPreview();
+    private final Runnable metricsUpdater = new Runnable() {
+        @Override
+        public void run() {
+            StringBuilder text = new StringBuilder();
+            if (frameProcessor != null) {
+                text.append("Potok:\n").append(frameProcessor.getMetrics().snapshot().format());
+                text.append("Regulator: ").append(governor.format());
+            }
+            if (inferenceService != null) {
+                for (RoadSignDetector detector : inferenceService.getDetectors()) {
+                    text.append("Detektor (").append(detector.getBackend()).append("):\n")
+                            .append(detector.getMetrics().snapshot().format());
                 }
-            });
+                text.append("Pamięć wyników: ")
+                        .append(inferenceService.getDetectors().get(0).getResultCache().format());
+                for (RoadSignClassifier classifier : inferenceService.getClassifiers()) {
+                    InferenceMetrics.Snapshot snapshot = classifier.getMetrics().snapshot();
+                    if (snapshot.count(InferenceMetrics.Stage.TOTAL) > 0) {
+                        text.append("Klasyfikator (").append(classifier.getBackend()).append("):\n")
+                                .append(snapshot.format());
+                    }
+                }
+            }
+            textViewMetrics.setText(text.toString());
+            uiHandler.postDelayed(this, METRICS_REFRESH_MS);
+        }
+    };
+
+    /**
+     * Podłącza bufory podglądu kamery do wątku inferencji.
+     */
+    private void startFrameProcessing() {
+        if (camera == null || frameProcessor != null) {
+            return;
+        }
+        Camera.Size previewSize = camera.getParameters().getPreviewSize();
+        tracker.reset();
+        frameProcessor = new FrameProcessor(inferenceService, tracker, previewSize.width, previewSize.height,
+                CAMERA_ROTATION, this, this);
+        frameProcessor.setGovernor(governor, new DeviceStateMonitor(this));
+        recorder = createRecorder();
+        frameProcessor.setRecorder(recorder);
+        frameProcessor.start();
+
+        // Jeden bufor wypełnia kamera, jeden czeka w kolejce, jeden jest przetwarzany
+        int bufferSize = FrameProcessor.frameBufferSize(previewSize.width, previewSize.height);
+        for (int i = 0; i < PREVIEW_BUFFER_COUNT; i++) {
+            camera.addCallbackBuffer(new byte[bufferSize]);
+        }
+        camera.setPreviewCallbackWithBuffer(this);
+    }
+
+    /**
+     * Odłącza podgląd od wątku inferencji i czeka na zakończenie bieżącej klatki.
+     */
+    private void stopFrameProcessing() {
+        synchronized (cameraLock) {
+            if (camera != null) {
+                camera.setPreviewCallbackWithBuffer(null);
+            }
+        }
+        if (frameProcessor != null) {
+            frameProcessor.stop();
+            frameProcessor = null;
+        }
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Błąd zamykania nagrania: " + e.getMessage());
+            }
+            recorder = null;
+        }
+    }
+
+    /**
+     * Nagranie sesji, jeśli aktywność uruchomiono z EXTRA_RECORD; plik trafia do katalogu recordings
+     * w pamięci zewnętrznej aplikacji (odczyt przez adb pull).
+     */
+    private FrameRecorder createRecorder() {
+        String mode = getIntent().getStringExtra(EXTRA_RECORD);
+        if (mode == null) {
+            return null;
+        }
+        FrameRecorder.Format format = "rgb".equalsIgnoreCase(mode)
+                ? FrameRecorder.Format.RGB : FrameRecorder.Format.NV21;
+        File directory = getExternalFilesDir("recordings");
+        if (directory == null) {
+            return null;
+        }
+        File file = new File(directory, String.format(Locale.ROOT, "session-%d.rec", System.currentTimeMillis()));
+        try {
+            Log.i(TAG, "Nagrywanie sesji do " + file);
+            return new FrameRecorder(file, format, RECORDING_DOWNSCALE, RECORDING_MAX_BYTES);
+        } catch (IOException e) {
+            Log.e(TAG, "Nie można rozpocząć nagrania: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        if (frameProcessor != null) {
+            frameProcessor.submit(data);
+        } else {
+            recycle(data);
+        }
+    }
+
+    @Override
+    public void recycle(byte[] buffer) {
+        // Wywoływane również z wątku inferencji
+        synchronized (cameraLock) {
+            if (camera != null) {
+                camera.addCallbackBuffer(buffer);
+            }
         }
     }
 
+    @Override
+    public void onDetections(DetectionResult detections, long latencyMs) {
+        overlayView.setDetections(detections);
+        if (detections.isEmpty()) {
+            textViewDetections.setText("Nie wykryto żadnych znaków.");
+            detections.recycle();
+            return;
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < detections.size(); i++) {
+            result.append(detections.getDisplayLabel(i))
+                    .append(" (")
+                    .append(String.format("%.2f", detections.getDisplayScore(i) * 100))
+                    .append("%)\n");
+        }
+        detections.recycle();
+        result.append(latencyMs).append(" ms");
+        textViewDetections.setText(result.toString());
+    }
+
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
         // Sprawdzamy, czy mamy uprawnienia do kamery
@@ -108,10 +325,15 @@ public class CameraActivity extends AppCompatActivity implements SurfaceHolder.C
      */
     private void openCamera(SurfaceHolder holder) {
         try {
-            camera = Camera.open();
-            camera.setDisplayOrientation(90); // Dopasowanie do pionowego ekranu
+            synchronized (cameraLock) {
+                camera = Camera.open();
+            }
+            camera.setDisplayOrientation(CAMERA_ROTATION); // Dopasowanie do pionowego ekranu
             camera.setPreviewDisplay(holder);
             camera.startPreview();
+            if (streaming) {
+                startFrameProcessing();
+            }
         } catch (IOException e) {
             e.printStackTrace();
             Toast.makeText(this, "Błąd podczas uruchamiania kamery.", Toast.LENGTH_SHORT).show();
@@ -134,19 +356,51 @@ public class CameraActivity extends AppCompatActivity implements SurfaceHolder.C
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
-        if (camera != null) {
-            camera.stopPreview();
-            camera.release();
-            camera = null;
+        stopFrameProcessing();
+        synchronized (cameraLock) {
+            if (camera != null) {
+                camera.stopPreview();
+                camera.release();
+                camera = null;
+            }
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        checkForModelUpdates();
+    }
+
+    /**
+     * Sprawdza w tle, czy w pamięci aplikacji pojawiły się nowsze pakiety modeli, i podmienia je
+     * bez zatrzymywania podglądu - bieżąca klatka kończy się na starym modelu.
+     */
+    private void checkForModelUpdates() {
+        final InferenceService service = inferenceService;
+        final ModelRegistry registry = new ModelRegistry(this);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                service.updateModels(registry);
+            }
+        }, "ModelUpdate").start();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (detector != null) {
-            detector.close();
-            detector = null;
+        uiHandler.removeCallbacks(metricsUpdater);
+        stopFrameProcessing();
+        if (inferenceService != null) {
+            // Usługa może dalej obsługiwać galerię - bez ustawień kamery
+            for (RoadSignDetector detector : inferenceService.getDetectors()) {
+                detector.setRegionOfInterest(0f, 0f, 1f, 1f);
+                detector.setResultCache(null);
+                detector.setInputScale(1f);
+            }
+            inferenceService.release();
+            inferenceService = null;
         }
     }
 
@@ -0,0 +1,72 @@
+package com.example.roadsigndetector.ui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.view.View;
+
+import com.example.roadsigndetector.ml.DetectionResult;
+import com.example.roadsigndetector.ml.PreprocessTransform;
+
+/**
+ * Nakładka rysująca ramki wykrytych znaków na podglądzie kamery.
+ * Ramki (w ułamkach obrazu po obrocie) są przeliczane na piksele widoku jednym przebiegiem.
+ */
+public class DetectionOverlayView extends View {
+
+    private final Paint boxPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF rect = new RectF();
+
+    // Ramki i etykiety ostatniej klatki (tablice rosną tylko przy większej liczbie wykryć)
+    private float[] sourceBoxes = new float[0];
+    private float[] viewBoxes = new float[0];
+    private String[] labels = new String[0];
+    private int count;
+
+    public DetectionOverlayView(Context context) {
+        super(context);
+        boxPaint.setStyle(Paint.Style.STROKE);
+        boxPaint.setStrokeWidth(4f);
+        boxPaint.setColor(Color.GREEN);
+        textPaint.setColor(Color.GREEN);
+        textPaint.setTextSize(36f);
+    }
+
+    /**
+     * Ustawia wykrycia do narysowania (wywoływane w wątku UI). Ramki są kopiowane,
+     * więc wynik można po wywołaniu oddać do puli.
+     */
+    public void setDetections(DetectionResult detections) {
+        count = detections.size();
+        if (sourceBoxes.length < count * 4) {
+            sourceBoxes = new float[count * 4];
+            viewBoxes = new float[count * 4];
+            labels = new String[count];
+        }
+        System.arraycopy(detections.getBoxes(), 0, sourceBoxes, 0, count * 4);
+        for (int i = 0; i < count; i++) {
+            labels[i] = detections.getDisplayLabel(i);
+        }
+        invalidate();
+    }
+
+    public void clear() {
+        count = 0;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        PreprocessTransform.sourceToView(sourceBoxes, 0, count, getWidth(), getHeight(), viewBoxes, 0);
+        for (int i = 0; i < count; i++) {
+            int o = i * 4;
+            rect.set(viewBoxes[o + 1], viewBoxes[o], viewBoxes[o + 3], viewBoxes[o + 2]);
+            canvas.drawRect(rect, boxPaint);
+            canvas.drawText(labels[i], rect.left, rect.top, textPaint);
+        }
+    }
+}
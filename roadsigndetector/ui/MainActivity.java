@@ -13,26 +13,50 @@ import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.roadsigndetector.R;
+import com.example.roadsigndetector.ml.ClassificationResult;
+import com.example.roadsigndetector.ml.DetectionResult;
+import com.example.roadsigndetector.ml.InferenceService;
+import com.example.roadsigndetector.ml.ResultCache;
 import com.example.roadsigndetector.ml.RoadSignClassifier;
+import com.example.roadsigndetector.utils.ImageUtils;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity";
     private static final int REQUEST_CODE_SELECT_IMAGE = 101;
     private static final int REQUEST_CODE_READ_EXTERNAL_STORAGE = 1002;
+    // Ponownie wybrane zdjęcie nie jest ani dzielone na kafelki, ani klasyfikowane drugi raz
+    private static final int RESULT_CACHE_SIZE = 16;
+    private static final int RESULT_CACHE_DISTANCE = 2;
+    private static final long RESULT_CACHE_TTL_MS = 10 * 60 * 1000;
+    // Zdjęcie z aparatu (12 MP) jest dekodowane do około 2000x1500 i dzielone na kafelki,
+    // żeby odległe znaki nie zniknęły po zmniejszeniu do wejścia detektora
+    private static final int TILED_DECODE_SIZE = 1024;
 
     private Button buttonSelectImage;
     private Button buttonOpenCamera;
     private TextView textViewResult;
 
-    private RoadSignClassifier classifier;
+    // Detektory i klasyfikatory wspólne z kamerą (CameraActivity)
+    private InferenceService inferenceService;
+
+    // Wczytywanie poza wątkiem UI, po jednym zdjęciu naraz; detekcja i klasyfikacja w InferenceService
+    private final ExecutorService imageExecutor = Executors.newSingleThreadExecutor();
+    private Future<?> pendingImage;
+    private int imageGeneration; // Zmieniana tylko na wątku UI; wynik starszego zdjęcia jest pomijany
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -44,8 +68,15 @@ public class MainActivity extends AppCompatActivity {
         buttonOpenCamera = findViewById(R.id.buttonOpenCamera);
         textViewResult = findViewById(R.id.textViewResult);
 
-        // Inicjalizacja klasyfikatora
-        classifier = new RoadSignClassifier(this);
+        // Inicjalizacja klasyfikatora (usługa wspólna z kamerą)
+        inferenceService = InferenceService.acquire(this);
+        ResultCache<ClassificationResult> resultCache = ResultCache.forClassifications(RESULT_CACHE_SIZE,
+                RESULT_CACHE_DISTANCE, RESULT_CACHE_TTL_MS);
+        for (RoadSignClassifier classifier : inferenceService.getClassifiers()) {
+            classifier.setResultCache(resultCache);
+        }
+        inferenceService.setTiledResultCache(ResultCache.forDetections(RESULT_CACHE_SIZE, RESULT_CACHE_DISTANCE,
+                RESULT_CACHE_TTL_MS));
 
         // Sprawdzenie uprawnienia do odczytu pamięci
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE)
@@ -78,10 +109,14 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // Zwolnij zasoby klasyfikatora
-        if (classifier != null) {
-            classifier.close();
-            classifier = null;
+        if (pendingImage != null) {
+            pendingImage.cancel(true);
+        }
+        imageExecutor.shutdown();
+        // Zwolnij usługę (ostatni użytkownik czeka na trwające zadania i zamyka interpretery)
+        if (inferenceService != null) {
+            inferenceService.release();
+            inferenceService = null;
         }
     }
 
@@ -92,19 +127,131 @@ public class MainActivity extends AppCompatActivity {
 
         if (requestCode == REQUEST_CODE_SELECT_IMAGE && resultCode == Activity.RESULT_OK) {
             if (data != null && data.getData() != null) {
-                Uri imageUri = data.getData();
+                classifyImage(data.getData());
+            }
+        }
+    }
+
+    /**
+     * Wczytuje zdjęcie zmniejszone do okolic TILED_DECODE_SIZE i zleca wykrywanie znaków kafelkami
+     * z doprecyzowaniem ograniczeń prędkości (jak kaskada kamery).
+     * Gdy nie wykryto żadnego znaku (np. zdjęcie samego znaku), zleca klasyfikację całego obrazu.
+     * Wybranie kolejnego zdjęcia anuluje wczytywanie poprzedniego, a jego wynik nie jest wyświetlany.
+     */
+    private void classifyImage(final Uri imageUri) {
+        if (pendingImage != null) {
+            pendingImage.cancel(true);
+        }
+        final int generation = ++imageGeneration;
+        final InferenceService service = inferenceService;
+        textViewResult.setText("Wczytywanie obrazu...");
+
+        pendingImage = imageExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap;
+                try {
+                    bitmap = ImageUtils.decodeSampledBitmap(getContentResolver(), imageUri,
+                            TILED_DECODE_SIZE, TILED_DECODE_SIZE);
+                } catch (IOException | OutOfMemoryError e) {
+                    Log.e(TAG, "Błąd podczas wczytywania obrazu " + imageUri, e);
+                    showResult(generation, null);
+                    return;
+                }
+
+                if (Thread.currentThread().isInterrupted()) {
+                    bitmap.recycle();
+                    return; // Wybrano już inne zdjęcie
+                }
+                // Bitmapa jest zwalniana po zakończeniu zadań usługi, na jej wątku
                 try {
-                    Bitmap bitmap = MediaStore.Images.Media.getBitmap(
-                            this.getContentResolver(), imageUri);
-                    // Klasyfikacja obrazu
-                    String result = classifier.classifyImage(bitmap);
-                    textViewResult.setText(result);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    Toast.makeText(this, "Błąd podczas wczytywania obrazu.", Toast.LENGTH_SHORT).show();
+                    service.processTiled(bitmap, new InferenceService.Callback<DetectionResult>() {
+                        @Override
+                        public void onResult(DetectionResult detections) {
+                            String text = describe(detections);
+                            detections.recycle();
+                            if (text != null) {
+                                bitmap.recycle();
+                                showResult(generation, text);
+                            } else {
+                                classifyWholeImage(service, bitmap, generation, imageUri);
+                            }
+                        }
+
+                        @Override
+                        public void onError(Exception error) {
+                            Log.e(TAG, "Błąd detekcji kafelkami " + imageUri, error);
+                            classifyWholeImage(service, bitmap, generation, imageUri);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    bitmap.recycle();
+                    showResult(generation, "Detektor jest zajęty, spróbuj ponownie.");
                 }
             }
+        });
+    }
+
+    /**
+     * Klasyfikacja całego zdjęcia, gdy detekcja nie znalazła znaku; zwalnia bitmapę po zakończeniu.
+     */
+    private void classifyWholeImage(InferenceService service, final Bitmap bitmap, final int generation,
+                                    final Uri imageUri) {
+        try {
+            service.classify(bitmap, null, new InferenceService.Callback<ClassificationResult>() {
+                @Override
+                public void onResult(ClassificationResult classification) {
+                    bitmap.recycle();
+                    showResult(generation, "Znak: " + classification.getLabel() + " (pewność: "
+                            + String.format("%.2f", classification.getScore() * 100) + "%)");
+                }
+
+                @Override
+                public void onError(Exception error) {
+                    bitmap.recycle();
+                    Log.e(TAG, "Błąd klasyfikacji obrazu " + imageUri, error);
+                    showResult(generation, "Model nie jest załadowany.");
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            bitmap.recycle();
+            showResult(generation, "Klasyfikator jest zajęty, spróbuj ponownie.");
+        }
+    }
+
+    /**
+     * Tekst wyniku detekcji (etykiety po doprecyzowaniu klasyfikatorem) albo null, gdy nie wykryto znaku.
+     */
+    private static String describe(DetectionResult detections) {
+        if (detections.isEmpty()) {
+            return null;
         }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < detections.size(); i++) {
+            text.append("Znak: ").append(detections.getDisplayLabel(i)).append(" (pewność: ")
+                    .append(String.format("%.2f", detections.getDisplayScore(i) * 100)).append("%)\n");
+        }
+        return text.toString().trim();
+    }
+
+    /**
+     * Wyświetla wynik zadania generation (null - błąd wczytywania), jeśli nie zostało ono zastąpione.
+     */
+    private void showResult(final int generation, final String text) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != imageGeneration || isFinishing() || isDestroyed()) {
+                    return;
+                }
+                if (text != null) {
+                    textViewResult.setText(text);
+                } else {
+                    textViewResult.setText("");
+                    Toast.makeText(MainActivity.this, "Błąd podczas wczytywania obrazu.", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
     }
 
     @Override
@@ -1,9 +1,13 @@
 package com.example.roadsigndetector.utils;
 
+import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
 public class ImageUtils {
 
@@ -22,4 +26,53 @@ public class ImageUtils {
     public static Bitmap byteArrayToBitmap(byte[] bytes) {
         return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
     }
+
+    /**
+     * Dekoduje obraz zmniejszony już przy dekodowaniu (inSampleSize), tak by miał co najmniej
+     * minWidth x minHeight pikseli - np. zdjęcie 12 MP dla wejścia 224x224 zajmuje ok. 750 KB zamiast 48 MB.
+     * Najpierw odczytywane są same wymiary obrazu, bez alokacji pikseli.
+     */
+    public static Bitmap decodeSampledBitmap(ContentResolver resolver, Uri uri, int minWidth, int minHeight)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(resolver, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Nieobsługiwany format obrazu: " + uri);
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, minWidth, minHeight);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = decode(resolver, uri, options);
+        if (bitmap == null) {
+            throw new IOException("Nie udało się zdekodować obrazu: " + uri);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Największa potęga dwójki, po której podzieleniu wymiarów obraz ma nadal co najmniej
+     * minWidth x minHeight pikseli (dekoder obsługuje najszybciej potęgi dwójki).
+     */
+    public static int calculateInSampleSize(int width, int height, int minWidth, int minHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= minWidth && height / (sampleSize * 2) >= minHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap decode(ContentResolver resolver, Uri uri, BitmapFactory.Options options)
+            throws IOException {
+        InputStream inputStream = resolver.openInputStream(uri);
+        if (inputStream == null) {
+            throw new IOException("Nie można otworzyć obrazu: " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            inputStream.close();
+        }
+    }
 }